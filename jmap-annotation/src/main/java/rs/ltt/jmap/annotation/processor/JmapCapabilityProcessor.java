@@ -19,7 +19,6 @@ package rs.ltt.jmap.annotation.processor;
 
 import com.google.auto.service.AutoService;
 import rs.ltt.jmap.annotation.JmapCapability;
-import rs.ltt.jmap.common.Utils;
 import rs.ltt.jmap.common.entity.Capability;
 
 import javax.annotation.processing.*;
@@ -28,12 +27,7 @@ import javax.lang.model.element.Element;
 import javax.lang.model.element.TypeElement;
 import javax.lang.model.type.TypeMirror;
 import javax.lang.model.util.Types;
-import javax.tools.FileObject;
-import javax.tools.StandardLocation;
-import java.io.PrintWriter;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Set;
+import java.util.*;
 
 @SupportedAnnotationTypes("rs.ltt.jmap.annotation.JmapCapability")
 @SupportedSourceVersion(SourceVersion.RELEASE_7)
@@ -76,15 +70,16 @@ public class JmapCapabilityProcessor extends AbstractProcessor {
             return true;
         }
 
+        Collections.sort(classes, RegistryWriter.BY_NAME);
+        final Map<String, String> entries = new LinkedHashMap<>();
+        for (TypeElement typeElement : classes) {
+            JmapCapability annotation = typeElement.getAnnotation(JmapCapability.class);
+            entries.put(RegistryWriter.stringLiteral(annotation.namespace()), typeElement.getQualifiedName() + ".class");
+        }
         try {
-            FileObject resourceFile = filer.createResource(StandardLocation.CLASS_OUTPUT, "", Utils.getFilenameFor(INTERFACE));
-            PrintWriter printWriter = new PrintWriter(resourceFile.openOutputStream());
-            for(TypeElement typeElement : classes) {
-                JmapCapability annotation = typeElement.getAnnotation(JmapCapability.class);
-                printWriter.println(String.format("%s %s",typeElement.getQualifiedName(),annotation.namespace()));
-            }
-            printWriter.flush();
-            printWriter.close();
+            new RegistryWriter("CapabilityRegistry", JmapCapabilityProcessor.class)
+                    .biMap("CAPABILITIES", "java.lang.String", JmapMethodProcessor.classType(INTERFACE), entries)
+                    .write(filer, classes.toArray(new Element[0]));
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -20,7 +20,6 @@ package rs.ltt.jmap.annotation.processor;
 import com.google.auto.service.AutoService;
 import rs.ltt.jmap.annotation.JmapCapability;
 import rs.ltt.jmap.annotation.JmapError;
-import rs.ltt.jmap.common.Utils;
 import rs.ltt.jmap.common.entity.Capability;
 import rs.ltt.jmap.common.method.MethodErrorResponse;
 
@@ -30,12 +29,7 @@ import javax.lang.model.element.Element;
 import javax.lang.model.element.TypeElement;
 import javax.lang.model.type.TypeMirror;
 import javax.lang.model.util.Types;
-import javax.tools.FileObject;
-import javax.tools.StandardLocation;
-import java.io.PrintWriter;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Set;
+import java.util.*;
 
 @SupportedAnnotationTypes("rs.ltt.jmap.annotation.JmapError")
 @SupportedSourceVersion(SourceVersion.RELEASE_7)
@@ -78,15 +72,16 @@ public class JmapErrorProcessor extends AbstractProcessor {
             return true;
         }
 
+        Collections.sort(classes, RegistryWriter.BY_NAME);
+        final Map<String, String> entries = new LinkedHashMap<>();
+        for (TypeElement typeElement : classes) {
+            JmapError annotation = typeElement.getAnnotation(JmapError.class);
+            entries.put(RegistryWriter.stringLiteral(annotation.value()), typeElement.getQualifiedName() + ".class");
+        }
         try {
-            FileObject resourceFile = filer.createResource(StandardLocation.CLASS_OUTPUT, "", Utils.getFilenameFor(INTERFACE));
-            PrintWriter printWriter = new PrintWriter(resourceFile.openOutputStream());
-            for(TypeElement typeElement : classes) {
-                JmapError annotation = typeElement.getAnnotation(JmapError.class);
-                printWriter.println(String.format("%s %s",typeElement.getQualifiedName(),annotation.value()));
-            }
-            printWriter.flush();
-            printWriter.close();
+            new RegistryWriter("MethodErrorRegistry", JmapErrorProcessor.class)
+                    .biMap("METHOD_ERROR_RESPONSES", "java.lang.String", JmapMethodProcessor.classType(INTERFACE), entries)
+                    .write(filer, classes.toArray(new Element[0]));
         } catch (Exception e) {
             e.printStackTrace();
         }
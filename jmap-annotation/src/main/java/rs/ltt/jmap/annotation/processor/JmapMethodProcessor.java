@@ -19,7 +19,7 @@ package rs.ltt.jmap.annotation.processor;
 
 import com.google.auto.service.AutoService;
 import rs.ltt.jmap.annotation.JmapMethod;
-import rs.ltt.jmap.common.Utils;
+import rs.ltt.jmap.annotation.JmapNamespace;
 import rs.ltt.jmap.common.method.MethodCall;
 import rs.ltt.jmap.common.method.MethodResponse;
 
@@ -30,9 +30,8 @@ import javax.lang.model.element.TypeElement;
 import javax.lang.model.type.TypeMirror;
 import javax.lang.model.util.Elements;
 import javax.lang.model.util.Types;
-import javax.tools.FileObject;
-import javax.tools.StandardLocation;
-import java.io.PrintWriter;
+import javax.tools.Diagnostic;
+import java.io.IOException;
 import java.util.*;
 
 @SupportedAnnotationTypes("rs.ltt.jmap.annotation.JmapMethod")
@@ -42,6 +41,8 @@ public class JmapMethodProcessor extends AbstractProcessor {
 
     private static Class[] INTERFACES = {MethodCall.class, MethodResponse.class};
 
+    private static final String REGISTRY = "MethodRegistry";
+
     private Filer filer;
     private TypeMirror[] typeMirrors;
     private Types types;
@@ -81,25 +82,61 @@ public class JmapMethodProcessor extends AbstractProcessor {
         if (emptyPass) {
             return true;
         }
-        for (Map.Entry<Class, List<TypeElement>> entry : typeElementMap.entrySet()) {
-            createSourceFile(entry.getKey(), entry.getValue());
+        final Set<TypeElement> methods = new LinkedHashSet<>();
+        for (List<TypeElement> typeElements : typeElementMap.values()) {
+            methods.addAll(typeElements);
+        }
+        try {
+            createRegistry(methods);
+            new TypeAdapterGenerator(processingEnv).generate(methods);
+        } catch (Exception e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Unable to generate method registry or type adapters: " + e);
         }
         return true;
     }
 
-    private void createSourceFile(Class clazz, Collection<TypeElement> classes) {
+    private void createRegistry(Collection<TypeElement> methods) throws IOException {
+        final List<TypeElement> methodCalls = get(MethodCall.class);
+        new RegistryWriter(REGISTRY, JmapMethodProcessor.class)
+                .biMap("METHOD_CALLS", "java.lang.String", classType(MethodCall.class), names(methodCalls))
+                .biMap("METHOD_RESPONSES", "java.lang.String", classType(MethodResponse.class), names(get(MethodResponse.class)))
+                .map("NAMESPACES", classType(MethodCall.class), "java.lang.String", namespaces(methodCalls))
+                .write(filer, methods.toArray(new Element[0]));
+    }
 
-        try {
-            FileObject resourceFile = filer.createResource(StandardLocation.CLASS_OUTPUT, "", Utils.getFilenameFor(clazz));
-            PrintWriter printWriter = new PrintWriter(resourceFile.openOutputStream());
-            for (TypeElement typeElement : classes) {
-                JmapMethod annotation = typeElement.getAnnotation(JmapMethod.class);
-                printWriter.println(String.format("%s %s", typeElement.getQualifiedName(), annotation.value()));
+    private List<TypeElement> get(Class clazz) {
+        final List<TypeElement> typeElements = typeElementMap.get(clazz);
+        if (typeElements == null) {
+            return Collections.emptyList();
+        }
+        final List<TypeElement> sorted = new ArrayList<>(typeElements);
+        Collections.sort(sorted, RegistryWriter.BY_NAME);
+        return sorted;
+    }
+
+    static String classType(Class clazz) {
+        return String.format("java.lang.Class<? extends %s>", clazz.getName());
+    }
+
+    private Map<String, String> names(Collection<TypeElement> classes) {
+        final Map<String, String> names = new LinkedHashMap<>();
+        for (TypeElement typeElement : classes) {
+            final String name = RegistryWriter.stringLiteral(typeElement.getAnnotation(JmapMethod.class).value());
+            if (names.put(name, typeElement.getQualifiedName() + ".class") != null) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Duplicate method name " + name, typeElement);
+            }
+        }
+        return names;
+    }
+
+    private Map<String, String> namespaces(Collection<TypeElement> classes) {
+        final Map<String, String> namespaces = new LinkedHashMap<>();
+        for (TypeElement typeElement : classes) {
+            final JmapNamespace namespace = elements.getPackageOf(typeElement).getAnnotation(JmapNamespace.class);
+            if (namespace != null) {
+                namespaces.put(typeElement.getQualifiedName() + ".class", RegistryWriter.stringLiteral(namespace.value()));
             }
-            printWriter.flush();
-            printWriter.close();
-        } catch (Exception e) {
-            e.printStackTrace();
         }
+        return namespaces;
     }
 }
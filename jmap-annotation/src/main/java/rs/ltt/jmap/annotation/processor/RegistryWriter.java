@@ -0,0 +1,117 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package rs.ltt.jmap.annotation.processor;
+
+import javax.annotation.processing.Filer;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.TypeElement;
+import javax.tools.JavaFileObject;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes a class with constant lookup tables into the package of {@code rs.ltt.jmap.common.util.Mapper}. Keys and
+ * values are passed as Java expressions (string or class literals).
+ */
+final class RegistryWriter {
+
+    private static final String PACKAGE = "rs.ltt.jmap.common.util";
+
+    /**
+     * Orders classes by name so the generated tables do not depend on the order the compiler reports them in.
+     */
+    static final Comparator<TypeElement> BY_NAME = new Comparator<TypeElement>() {
+        @Override
+        public int compare(TypeElement a, TypeElement b) {
+            return a.getQualifiedName().toString().compareTo(b.getQualifiedName().toString());
+        }
+    };
+
+    private final String name;
+    private final Class<?> processor;
+    private final List<Table> tables = new ArrayList<>();
+
+    RegistryWriter(final String name, final Class<?> processor) {
+        this.name = name;
+        this.processor = processor;
+    }
+
+    /**
+     * Adds an ImmutableBiMap. Entries are put in the order they are added.
+     */
+    RegistryWriter biMap(final String field, final String keyType, final String valueType, final Map<String, String> entries) {
+        tables.add(new Table(field, "com.google.common.collect.ImmutableBiMap", keyType, valueType, entries));
+        return this;
+    }
+
+    RegistryWriter map(final String field, final String keyType, final String valueType, final Map<String, String> entries) {
+        tables.add(new Table(field, "com.google.common.collect.ImmutableMap", keyType, valueType, entries));
+        return this;
+    }
+
+    void write(final Filer filer, final Element... originatingElements) throws IOException {
+        final JavaFileObject sourceFile = filer.createSourceFile(PACKAGE + "." + name, originatingElements);
+        try (final PrintWriter out = new PrintWriter(sourceFile.openWriter())) {
+            out.println("package " + PACKAGE + ";");
+            out.println();
+            out.println("/**");
+            out.println(" * Generated by " + processor.getName() + ". Do not edit.");
+            out.println(" */");
+            out.println("final class " + name + " {");
+            out.println();
+            out.println("    private " + name + "() {");
+            out.println();
+            out.println("    }");
+            for (Table table : tables) {
+                final String type = table.type + "<" + table.keyType + ", " + table.valueType + ">";
+                out.println();
+                out.println("    static final " + type + " " + table.field + " = " + table.type + ".<" + table.keyType + ", " + table.valueType + ">builder()");
+                for (Map.Entry<String, String> entry : table.entries.entrySet()) {
+                    out.println("            .put(" + entry.getKey() + ", " + entry.getValue() + ")");
+                }
+                out.println("            .build();");
+            }
+            out.println("}");
+        }
+    }
+
+    static String stringLiteral(final String value) {
+        return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    private static class Table {
+        private final String field;
+        private final String type;
+        private final String keyType;
+        private final String valueType;
+        private final Map<String, String> entries;
+
+        private Table(String field, String type, String keyType, String valueType, Map<String, String> entries) {
+            this.field = field;
+            this.type = type;
+            this.keyType = keyType;
+            this.valueType = valueType;
+            this.entries = new LinkedHashMap<>(entries);
+        }
+    }
+}
@@ -0,0 +1,610 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package rs.ltt.jmap.annotation.processor;
+
+import javax.annotation.processing.Filer;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.element.*;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.type.WildcardType;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.JavaFileObject;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.*;
+
+/**
+ * Writes a streaming Gson TypeAdapter for every {@link rs.ltt.jmap.annotation.JmapMethod} class and for every entity
+ * that is reachable through their fields, plus a TypeAdapterFactory that hands them out. The adapters produce the
+ * same JSON as Gson's reflective adapter: the same fields in the same order (those of the class itself first, then
+ * those of its super classes), the same names (including {@code @SerializedName}) and the same null handling.
+ * <p>
+ * The generator runs before Lombok has added its members. Getters are therefore only called if a Lombok
+ * {@code @Getter} promises them, and classes annotated with Lombok's {@code @Builder} are created with the all-args
+ * constructor Lombok generates for them. Every other field that is not accessible from the package of the class is
+ * read and written via reflection.
+ */
+final class TypeAdapterGenerator {
+
+    static final String FACTORY_PACKAGE = "rs.ltt.jmap.common.util";
+    static final String FACTORY_NAME = "GeneratedTypeAdapterFactory";
+
+    private static final String BASE_CLASS = "rs.ltt.jmap.common.util.GeneratedTypeAdapter";
+    private static final String ENTITY_PACKAGE = "rs.ltt.jmap.common.entity.";
+    private static final String SERIALIZED_NAME = "com.google.gson.annotations.SerializedName";
+    private static final String LOMBOK_GETTER = "lombok.Getter";
+    private static final String LOMBOK_BUILDER = "lombok.Builder";
+    private static final String LOMBOK_BUILDER_DEFAULT = "lombok.Builder.Default";
+    private static final String LOMBOK_NON_NULL = "lombok.NonNull";
+    private static final String ADAPTER_SUFFIX = "_TypeAdapter";
+
+    private final Filer filer;
+    private final Types types;
+    private final Elements elements;
+
+    TypeAdapterGenerator(final ProcessingEnvironment processingEnvironment) {
+        this.filer = processingEnvironment.getFiler();
+        this.types = processingEnvironment.getTypeUtils();
+        this.elements = processingEnvironment.getElementUtils();
+    }
+
+    void generate(final Collection<TypeElement> methods) throws IOException {
+        final Map<String, TypeElement> targets = new TreeMap<>();
+        final Map<TypeElement, List<Property>> properties = new HashMap<>();
+        final Deque<TypeElement> queue = new ArrayDeque<>(methods);
+        while (!queue.isEmpty()) {
+            final TypeElement typeElement = queue.poll();
+            final String name = typeElement.getQualifiedName().toString();
+            if (targets.containsKey(name) || !isSupported(typeElement)) {
+                continue;
+            }
+            targets.put(name, typeElement);
+            final List<Property> list = properties(typeElement);
+            properties.put(typeElement, list);
+            for (Property property : list) {
+                collectEntities(property.type, queue);
+            }
+        }
+        for (TypeElement typeElement : targets.values()) {
+            writeAdapter(typeElement, properties.get(typeElement));
+        }
+        writeFactory(targets.values());
+    }
+
+    private static boolean isSupported(final TypeElement typeElement) {
+        final Set<Modifier> modifiers = typeElement.getModifiers();
+        if (typeElement.getKind() != ElementKind.CLASS
+                || modifiers.contains(Modifier.ABSTRACT)
+                || !modifiers.contains(Modifier.PUBLIC)
+                || !typeElement.getTypeParameters().isEmpty()) {
+            return false;
+        }
+        final Element enclosing = typeElement.getEnclosingElement();
+        if (enclosing instanceof TypeElement) {
+            return modifiers.contains(Modifier.STATIC) && enclosing.getModifiers().contains(Modifier.PUBLIC);
+        }
+        return true;
+    }
+
+    private void collectEntities(final TypeMirror type, final Deque<TypeElement> queue) {
+        if (type.getKind() == TypeKind.ARRAY) {
+            collectEntities(((ArrayType) type).getComponentType(), queue);
+        } else if (type.getKind() == TypeKind.WILDCARD) {
+            final TypeMirror bound = ((WildcardType) type).getExtendsBound();
+            if (bound != null) {
+                collectEntities(bound, queue);
+            }
+        } else if (type.getKind() == TypeKind.DECLARED) {
+            final DeclaredType declaredType = (DeclaredType) type;
+            final TypeElement typeElement = (TypeElement) declaredType.asElement();
+            if (typeElement.getQualifiedName().toString().startsWith(ENTITY_PACKAGE)) {
+                queue.add(typeElement);
+            }
+            for (TypeMirror argument : declaredType.getTypeArguments()) {
+                collectEntities(argument, queue);
+            }
+        }
+    }
+
+    private List<Property> properties(final TypeElement target) {
+        final DeclaredType targetType = (DeclaredType) target.asType();
+        final String targetPackage = packageOf(target);
+        final List<Property> properties = new ArrayList<>();
+        final Set<String> variables = new HashSet<>(Arrays.asList("value", "reader", "writer", "gson"));
+        TypeElement current = target;
+        int depth = 0;
+        while (current != null && !current.getQualifiedName().contentEquals("java.lang.Object")) {
+            for (VariableElement field : ElementFilter.fieldsIn(current.getEnclosedElements())) {
+                final Set<Modifier> modifiers = field.getModifiers();
+                if (modifiers.contains(Modifier.STATIC) || modifiers.contains(Modifier.TRANSIENT)) {
+                    continue;
+                }
+                final Property property = new Property();
+                property.field = field;
+                property.declaringClass = current;
+                property.depth = depth;
+                property.type = types.asMemberOf(targetType, field);
+                property.kind = Kind.of(property.type);
+                property.variable = uniqueName(field.getSimpleName().toString(), variables);
+                final boolean accessible = !modifiers.contains(Modifier.PRIVATE)
+                        && (modifiers.contains(Modifier.PUBLIC) || packageOf(current).equals(targetPackage));
+                property.directRead = accessible;
+                property.directWrite = accessible && !modifiers.contains(Modifier.FINAL);
+                property.getter = accessible ? null : lombokGetter(field, current);
+                readSerializedName(field, property);
+                properties.add(property);
+            }
+            final TypeMirror superclass = current.getSuperclass();
+            current = superclass.getKind() == TypeKind.DECLARED ? (TypeElement) types.asElement(superclass) : null;
+            ++depth;
+        }
+        return properties;
+    }
+
+    private static String uniqueName(final String name, final Set<String> taken) {
+        String candidate = name;
+        for (int i = 2; !taken.add(candidate); ++i) {
+            candidate = name + i;
+        }
+        return candidate;
+    }
+
+    private void readSerializedName(final VariableElement field, final Property property) {
+        property.name = field.getSimpleName().toString();
+        for (AnnotationMirror annotationMirror : field.getAnnotationMirrors()) {
+            if (!isAnnotation(annotationMirror, SERIALIZED_NAME)) {
+                continue;
+            }
+            for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : annotationMirror.getElementValues().entrySet()) {
+                final String key = entry.getKey().getSimpleName().toString();
+                if ("value".equals(key)) {
+                    property.name = (String) entry.getValue().getValue();
+                } else if ("alternate".equals(key)) {
+                    for (Object alternate : (List<?>) entry.getValue().getValue()) {
+                        property.alternates.add((String) ((AnnotationValue) alternate).getValue());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the name of the getter Lombok is going to generate for the field or null if there won't be a public
+     * one or the class already declares a method of that name
+     */
+    private static String lombokGetter(final VariableElement field, final TypeElement declaringClass) {
+        AnnotationMirror getter = findAnnotation(field, LOMBOK_GETTER);
+        if (getter == null) {
+            getter = findAnnotation(declaringClass, LOMBOK_GETTER);
+        }
+        if (getter == null) {
+            return null;
+        }
+        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : getter.getElementValues().entrySet()) {
+            if ("value".contentEquals(entry.getKey().getSimpleName()) && !"PUBLIC".equals(entry.getValue().getValue().toString())) {
+                return null;
+            }
+        }
+        final String name = field.getSimpleName().toString();
+        final String capitalized = Character.toUpperCase(name.charAt(0)) + name.substring(1);
+        final String getterName;
+        if (field.asType().getKind() == TypeKind.BOOLEAN) {
+            if (name.length() > 2 && name.startsWith("is") && Character.isUpperCase(name.charAt(2))) {
+                getterName = name;
+            } else {
+                getterName = "is" + capitalized;
+            }
+        } else {
+            getterName = "get" + capitalized;
+        }
+        for (ExecutableElement method : ElementFilter.methodsIn(declaringClass.getEnclosedElements())) {
+            if (method.getSimpleName().contentEquals(getterName) && method.getParameters().isEmpty()) {
+                return null;
+            }
+        }
+        return getterName;
+    }
+
+    private static AnnotationMirror findAnnotation(final Element element, final String annotation) {
+        for (AnnotationMirror annotationMirror : element.getAnnotationMirrors()) {
+            if (isAnnotation(annotationMirror, annotation)) {
+                return annotationMirror;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isAnnotation(final AnnotationMirror annotationMirror, final String name) {
+        final Element element = annotationMirror.getAnnotationType().asElement();
+        return element instanceof TypeElement && ((TypeElement) element).getQualifiedName().contentEquals(name);
+    }
+
+    private String packageOf(final Element element) {
+        return elements.getPackageOf(element).getQualifiedName().toString();
+    }
+
+    private static String adapterName(final TypeElement typeElement) {
+        final StringBuilder name = new StringBuilder(typeElement.getSimpleName());
+        for (Element enclosing = typeElement.getEnclosingElement(); enclosing instanceof TypeElement; enclosing = enclosing.getEnclosingElement()) {
+            name.insert(0, '_').insert(0, enclosing.getSimpleName());
+        }
+        return name.append(ADAPTER_SUFFIX).toString();
+    }
+
+    /**
+     * @return a class literal for the given class that can be used in the generated code
+     */
+    private String classLiteral(final TypeElement typeElement, final TypeElement target, final int depth) {
+        if (typeElement.getModifiers().contains(Modifier.PUBLIC) || packageOf(typeElement).equals(packageOf(target))) {
+            return types.erasure(typeElement.asType()) + ".class";
+        }
+        final StringBuilder literal = new StringBuilder(target.getQualifiedName()).append(".class");
+        for (int i = 0; i < depth; ++i) {
+            literal.append(".getSuperclass()");
+        }
+        return literal.toString();
+    }
+
+    private String boxed(final TypeMirror type) {
+        if (type.getKind().isPrimitive()) {
+            return types.boxedClass((javax.lang.model.type.PrimitiveType) type).getQualifiedName().toString();
+        }
+        return type.toString();
+    }
+
+    private static boolean isPlainClass(final TypeMirror type) {
+        if (type.getKind().isPrimitive()) {
+            return true;
+        }
+        if (type.getKind() == TypeKind.ARRAY) {
+            return isPlainClass(((ArrayType) type).getComponentType());
+        }
+        return type.getKind() == TypeKind.DECLARED && ((DeclaredType) type).getTypeArguments().isEmpty();
+    }
+
+    /**
+     * Gson looks up the adapter of the runtime type for fields declared as a class that could have subclasses.
+     */
+    private static boolean needsRuntimeType(final TypeMirror type) {
+        if (type.getKind() != TypeKind.DECLARED || !((DeclaredType) type).getTypeArguments().isEmpty()) {
+            return false;
+        }
+        final Element element = ((DeclaredType) type).asElement();
+        return element.getKind() != ElementKind.ENUM && !element.getModifiers().contains(Modifier.FINAL);
+    }
+
+    private void writeAdapter(final TypeElement target, final List<Property> properties) throws IOException {
+        final String packageName = packageOf(target);
+        final String adapterName = adapterName(target);
+        final String targetName = target.getQualifiedName().toString();
+        final boolean constructor = hasLombokConstructor(target);
+        final JavaFileObject sourceFile = filer.createSourceFile(packageName + "." + adapterName, target);
+        try (final PrintWriter out = new PrintWriter(sourceFile.openWriter())) {
+            out.println("package " + packageName + ";");
+            out.println();
+            out.println("/**");
+            out.println(" * Generated by " + JmapMethodProcessor.class.getName() + ". Do not edit.");
+            out.println(" */");
+            out.println("public final class " + adapterName + " extends " + BASE_CLASS + "<" + targetName + "> {");
+            out.println();
+            boolean reflection = false;
+            for (Property property : properties) {
+                final boolean reflectiveWrite = !property.directWrite && !(constructor && property.depth == 0);
+                if (!property.directRead && property.getter == null || reflectiveWrite) {
+                    out.println("    private static final java.lang.reflect.Field " + property.fieldConstant() + " = field("
+                            + classLiteral(property.declaringClass, target, property.depth) + ", \""
+                            + property.field.getSimpleName() + "\");");
+                    reflection = true;
+                }
+            }
+            if (reflection) {
+                out.println();
+            }
+            boolean delegates = false;
+            for (Property property : properties) {
+                if (property.kind == Kind.OTHER) {
+                    out.println("    private final com.google.gson.TypeAdapter<" + boxed(property.type) + "> " + property.adapter() + ";");
+                    delegates = true;
+                }
+            }
+            if (delegates) {
+                out.println();
+            }
+            out.println("    public " + adapterName + "(final com.google.gson.Gson gson) {");
+            out.println("        super(gson, " + targetName + ".class);");
+            for (Property property : properties) {
+                if (property.kind == Kind.OTHER) {
+                    final String type;
+                    if (isPlainClass(property.type)) {
+                        type = property.type + ".class";
+                    } else {
+                        type = "new com.google.gson.reflect.TypeToken<" + property.type + ">() {\n        }";
+                    }
+                    out.println("        this." + property.adapter() + " = gson.getAdapter(" + type + ");");
+                }
+            }
+            out.println("    }");
+            out.println();
+            writeWriteMethod(out, targetName, properties);
+            out.println();
+            writeReadMethod(out, targetName, properties, constructor);
+            out.println("}");
+        }
+    }
+
+    private void writeWriteMethod(final PrintWriter out, final String targetName, final List<Property> properties) {
+        out.println("    @Override");
+        out.println("    public void write(final com.google.gson.stream.JsonWriter writer, final " + targetName + " value) throws java.io.IOException {");
+        out.println("        if (value == null) {");
+        out.println("            writer.nullValue();");
+        out.println("            return;");
+        out.println("        }");
+        out.println("        writer.beginObject();");
+        for (Property property : properties) {
+            final String expression;
+            if (property.directRead) {
+                expression = "value." + property.field.getSimpleName();
+            } else if (property.getter != null) {
+                expression = "value." + property.getter + "()";
+            } else {
+                expression = "(" + boxed(property.type) + ") get(" + property.fieldConstant() + ", value)";
+            }
+            out.println("        writer.name(\"" + escape(property.name) + "\");");
+            switch (property.kind) {
+                case STRING:
+                case BOOLEAN:
+                    out.println("        writer.value(" + expression + ");");
+                    break;
+                case INTEGER:
+                case LONG:
+                    if (property.type.getKind().isPrimitive() && (property.directRead || property.getter != null)) {
+                        out.println("        writer.value(" + expression + ");");
+                    } else {
+                        out.println("        writer.value((java.lang.Number) " + expression + ");");
+                    }
+                    break;
+                default:
+                    if (needsRuntimeType(property.type)) {
+                        out.println("        write(writer, " + property.adapter() + ", " + types.erasure(property.type) + ".class, " + expression + ");");
+                    } else {
+                        out.println("        " + property.adapter() + ".write(writer, " + expression + ");");
+                    }
+            }
+        }
+        out.println("        writer.endObject();");
+        out.println("    }");
+    }
+
+    private void writeReadMethod(final PrintWriter out, final String targetName, final List<Property> properties, final boolean constructor) {
+        out.println("    @Override");
+        out.println("    public " + targetName + " read(final com.google.gson.stream.JsonReader reader) throws java.io.IOException {");
+        out.println("        if (reader.peek() == com.google.gson.stream.JsonToken.NULL) {");
+        out.println("            reader.nextNull();");
+        out.println("            return null;");
+        out.println("        }");
+        if (constructor) {
+            for (Property property : properties) {
+                out.println("        " + boxed(property.type) + " " + property.variable + " = null;");
+            }
+        } else {
+            out.println("        final " + targetName + " value = newInstance();");
+        }
+        out.println("        reader.beginObject();");
+        out.println("        while (reader.hasNext()) {");
+        out.println("            switch (reader.nextName()) {");
+        for (Property property : properties) {
+            out.println("                case \"" + escape(property.name) + "\":");
+            for (String alternate : property.alternates) {
+                out.println("                case \"" + escape(alternate) + "\":");
+            }
+            final String expression;
+            switch (property.kind) {
+                case STRING:
+                    expression = "readString(reader)";
+                    break;
+                case BOOLEAN:
+                    expression = "readBoolean(reader)";
+                    break;
+                case INTEGER:
+                    expression = "readInteger(reader)";
+                    break;
+                case LONG:
+                    expression = "readLong(reader)";
+                    break;
+                default:
+                    expression = property.adapter() + ".read(reader)";
+            }
+            if (constructor) {
+                out.println("                    " + property.variable + " = " + expression + ";");
+            } else if (!property.directWrite) {
+                out.println("                    set(" + property.fieldConstant() + ", value, " + expression + ");");
+            } else if (property.type.getKind().isPrimitive()) {
+                out.println("                    final " + boxed(property.type) + " " + property.variable + " = " + expression + ";");
+                out.println("                    if (" + property.variable + " != null) {");
+                out.println("                        value." + property.field.getSimpleName() + " = " + property.variable + ";");
+                out.println("                    }");
+            } else {
+                out.println("                    value." + property.field.getSimpleName() + " = " + expression + ";");
+            }
+            out.println("                    break;");
+        }
+        out.println("                default:");
+        out.println("                    reader.skipValue();");
+        out.println("            }");
+        out.println("        }");
+        out.println("        reader.endObject();");
+        if (constructor) {
+            final List<String> arguments = new ArrayList<>();
+            for (Property property : properties) {
+                if (property.depth == 0) {
+                    if (property.type.getKind().isPrimitive()) {
+                        final String zero = property.type.getKind() == TypeKind.BOOLEAN ? "false" : "0";
+                        arguments.add(property.variable + " == null ? " + zero + " : " + property.variable);
+                    } else {
+                        arguments.add(property.variable);
+                    }
+                }
+            }
+            out.println("        final " + targetName + " value = new " + targetName + "(" + join(arguments) + ");");
+            for (Property property : properties) {
+                if (property.depth == 0) {
+                    continue;
+                }
+                out.println("        if (" + property.variable + " != null) {");
+                if (property.directWrite) {
+                    out.println("            value." + property.field.getSimpleName() + " = " + property.variable + ";");
+                } else {
+                    out.println("            set(" + property.fieldConstant() + ", value, " + property.variable + ");");
+                }
+                out.println("        }");
+            }
+        }
+        out.println("        return value;");
+        out.println("    }");
+    }
+
+    private static String join(final List<String> values) {
+        final StringBuilder builder = new StringBuilder();
+        for (String value : values) {
+            if (builder.length() > 0) {
+                builder.append(", ");
+            }
+            builder.append(value);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Lombok's {@code @Builder} adds a package private constructor that takes all fields of the class in the order
+     * they have been declared in, unless the class declares constructors of its own. Gson would have created these
+     * classes without calling any constructor; this is equivalent as long as the constructor does nothing but assign
+     * the fields.
+     */
+    private static boolean hasLombokConstructor(final TypeElement target) {
+        if (findAnnotation(target, LOMBOK_BUILDER) == null) {
+            return false;
+        }
+        for (ExecutableElement constructor : ElementFilter.constructorsIn(target.getEnclosedElements())) {
+            if (!constructor.getParameters().isEmpty()) {
+                return false;
+            }
+        }
+        for (VariableElement field : ElementFilter.fieldsIn(target.getEnclosedElements())) {
+            final Set<Modifier> modifiers = field.getModifiers();
+            if (modifiers.contains(Modifier.STATIC)) {
+                continue;
+            }
+            if (modifiers.contains(Modifier.FINAL)
+                    || modifiers.contains(Modifier.TRANSIENT)
+                    || findAnnotation(field, LOMBOK_NON_NULL) != null
+                    || findAnnotation(field, LOMBOK_BUILDER_DEFAULT) != null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void writeFactory(final Collection<TypeElement> targets) throws IOException {
+        final JavaFileObject sourceFile = filer.createSourceFile(FACTORY_PACKAGE + "." + FACTORY_NAME, targets.toArray(new Element[0]));
+        try (final PrintWriter out = new PrintWriter(sourceFile.openWriter())) {
+            out.println("package " + FACTORY_PACKAGE + ";");
+            out.println();
+            out.println("/**");
+            out.println(" * Generated by " + JmapMethodProcessor.class.getName() + ". Do not edit.");
+            out.println(" */");
+            out.println("public final class " + FACTORY_NAME + " implements com.google.gson.TypeAdapterFactory {");
+            out.println();
+            out.println("    @Override");
+            out.println("    @SuppressWarnings(\"unchecked\")");
+            out.println("    public <T> com.google.gson.TypeAdapter<T> create(final com.google.gson.Gson gson, final com.google.gson.reflect.TypeToken<T> typeToken) {");
+            out.println("        final java.lang.Class<? super T> clazz = typeToken.getRawType();");
+            out.println("        if (typeToken.getType() != clazz) {");
+            out.println("            return null;");
+            out.println("        }");
+            for (TypeElement target : targets) {
+                out.println("        if (clazz == " + target.getQualifiedName() + ".class) {");
+                out.println("            return (com.google.gson.TypeAdapter<T>) new " + packageOf(target) + "." + adapterName(target) + "(gson);");
+                out.println("        }");
+            }
+            out.println("        return null;");
+            out.println("    }");
+            out.println("}");
+        }
+    }
+
+    private static String escape(final String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    private enum Kind {
+        STRING, BOOLEAN, INTEGER, LONG, OTHER;
+
+        static Kind of(final TypeMirror type) {
+            switch (type.getKind()) {
+                case BOOLEAN:
+                    return BOOLEAN;
+                case INT:
+                    return INTEGER;
+                case LONG:
+                    return LONG;
+                case DECLARED:
+                    switch (((TypeElement) ((DeclaredType) type).asElement()).getQualifiedName().toString()) {
+                        case "java.lang.String":
+                            return STRING;
+                        case "java.lang.Boolean":
+                            return BOOLEAN;
+                        case "java.lang.Integer":
+                            return INTEGER;
+                        case "java.lang.Long":
+                            return LONG;
+                        default:
+                            return OTHER;
+                    }
+                default:
+                    return OTHER;
+            }
+        }
+    }
+
+    private static class Property {
+        private VariableElement field;
+        private TypeElement declaringClass;
+        private int depth;
+        private TypeMirror type;
+        private Kind kind;
+        private String name;
+        private final List<String> alternates = new ArrayList<>();
+        private String variable;
+        private boolean directRead;
+        private boolean directWrite;
+        private String getter;
+
+        private String fieldConstant() {
+            return "FIELD_" + variable;
+        }
+
+        private String adapter() {
+            return variable + "Adapter";
+        }
+    }
+}
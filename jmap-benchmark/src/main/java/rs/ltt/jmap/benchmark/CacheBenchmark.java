@@ -0,0 +1,129 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package rs.ltt.jmap.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import rs.ltt.jmap.mua.cache.Cache;
+import rs.ltt.jmap.mua.cache.Missing;
+import rs.ltt.jmap.mua.cache.QueryStateWrapper;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The {@link Cache} operations of a Mua sync against a cache holding 100k emails in 10k threads (with every 100th
+ * thread missing) and a query over all of them. Updates are applied in pairs that undo each other, see
+ * {@link CacheDataset}.
+ * <p>
+ * The 'contended' group runs three threads reading query states and missing threads while a fourth thread keeps
+ * applying query updates.
+ * <p>
+ * Any implementation with a public no-arg constructor can be compared against the InMemoryCache:
+ * <p>
+ * java -jar jmap-benchmark/target/benchmarks.jar CacheBenchmark -p cache=rs.ltt.jmap.mua.cache.InMemoryCache,com.example.OtherCache
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class CacheBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class CacheState {
+
+        @Param({"rs.ltt.jmap.mua.cache.InMemoryCache"})
+        public String cache;
+
+        @Param({"100000"})
+        public int emails;
+
+        @Param({"10"})
+        public int emailsPerThread;
+
+        @Param({"50"})
+        public int changes;
+
+        Cache instance;
+        CacheDataset dataset;
+        private boolean emailsForward = true;
+        private boolean queryForward = true;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            dataset = new CacheDataset(emails, emailsPerThread, changes);
+            instance = (Cache) Class.forName(cache).getConstructor().newInstance();
+            dataset.populate(instance);
+        }
+
+        void updateEmails() throws Exception {
+            instance.updateEmails(emailsForward ? dataset.forwardEmailUpdate : dataset.backwardEmailUpdate, dataset.updatedProperties);
+            emailsForward = !emailsForward;
+        }
+
+        void updateQueryResults() throws Exception {
+            instance.updateQueryResults(CacheDataset.QUERY, queryForward ? dataset.forwardQueryUpdate : dataset.backwardQueryUpdate, dataset.getEmailState());
+            queryForward = !queryForward;
+        }
+    }
+
+    @State(Scope.Group)
+    public static class ContendedCacheState extends CacheState {
+
+    }
+
+    @Benchmark
+    public void updateEmails(CacheState state) throws Exception {
+        state.updateEmails();
+    }
+
+    @Benchmark
+    public void updateQueryResults(CacheState state) throws Exception {
+        state.updateQueryResults();
+    }
+
+    @Benchmark
+    public Missing getMissing(CacheState state) throws Exception {
+        return state.instance.getMissing(CacheDataset.QUERY);
+    }
+
+    @Benchmark
+    public QueryStateWrapper getQueryState(CacheState state) {
+        return state.instance.getQueryState(CacheDataset.QUERY);
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(1)
+    public void contendedUpdateQueryResults(ContendedCacheState state) throws Exception {
+        state.updateQueryResults();
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(2)
+    public QueryStateWrapper contendedGetQueryState(ContendedCacheState state) {
+        return state.instance.getQueryState(CacheDataset.QUERY);
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(1)
+    public Missing contendedGetMissing(ContendedCacheState state) throws Exception {
+        return state.instance.getMissing(CacheDataset.QUERY);
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package rs.ltt.jmap.benchmark;
+
+import com.google.gson.*;
+import rs.ltt.jmap.common.entity.Email;
+import rs.ltt.jmap.common.entity.TypedState;
+import rs.ltt.jmap.common.method.response.email.ChangesEmailMethodResponse;
+import rs.ltt.jmap.common.method.response.email.GetEmailMethodResponse;
+import rs.ltt.jmap.common.method.response.email.QueryChangesEmailMethodResponse;
+import rs.ltt.jmap.common.method.response.email.QueryEmailMethodResponse;
+import rs.ltt.jmap.common.method.response.mailbox.GetMailboxMethodResponse;
+import rs.ltt.jmap.common.method.response.thread.GetThreadMethodResponse;
+import rs.ltt.jmap.gson.JmapAdapters;
+import rs.ltt.jmap.mua.cache.Cache;
+import rs.ltt.jmap.mua.cache.QueryUpdate;
+import rs.ltt.jmap.mua.cache.Update;
+import rs.ltt.jmap.mua.util.QueryResult;
+import rs.ltt.jmap.mua.util.QueryResultItem;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A synthetic mailbox of threads with a fixed number of emails each and the updates a client would apply to it. The
+ * objects are created from JSON through the same method responses (and factories) the Mua uses.
+ * <p>
+ * The updates come in pairs that undo each other, so a benchmark can apply them alternately without the dataset
+ * drifting: the 'forward' email update creates emails and marks emails as unread, the 'backward' update destroys the
+ * created emails and marks them as read again. The forward query update adds the new emails at the top of the query
+ * and removes emails from its middle, the backward query update reverts that.
+ */
+final class CacheDataset {
+
+    static final String QUERY = "inbox";
+
+    private static final String STATE_A = "a";
+    private static final String STATE_B = "b";
+    private static final String MAILBOX_ID = "M0";
+
+    private final Gson gson;
+    private final int emails;
+    private final int emailsPerThread;
+    private final int changes;
+
+    final Update<Email> forwardEmailUpdate;
+    final Update<Email> backwardEmailUpdate;
+    final QueryUpdate<Email, QueryResultItem> forwardQueryUpdate;
+    final QueryUpdate<Email, QueryResultItem> backwardQueryUpdate;
+    final String[] updatedProperties = {"keywords"};
+
+    /**
+     * @param changes the number of emails that are created, updated and removed from the query by every update
+     */
+    CacheDataset(int emails, int emailsPerThread, int changes) {
+        final GsonBuilder builder = new GsonBuilder();
+        JmapAdapters.register(builder);
+        this.gson = builder.create();
+        this.emails = emails;
+        this.emailsPerThread = emailsPerThread;
+        this.changes = changes;
+
+        final List<String> created = ids("N", 0, changes);
+        final List<String> updated = ids("E", 0, changes);
+        this.forwardEmailUpdate = Update.of(
+                emailChanges(STATE_A, STATE_B, created, updated, new ArrayList<String>()),
+                getEmails(STATE_B, created, false),
+                getEmails(STATE_B, updated, false));
+        this.backwardEmailUpdate = Update.of(
+                emailChanges(STATE_B, STATE_A, new ArrayList<String>(), updated, created),
+                getEmails(STATE_A, new ArrayList<String>(), true),
+                getEmails(STATE_A, updated, true));
+
+        //emails from the middle of the query get archived while new emails arrive at the top
+        final int middle = emails / 2;
+        final List<String> archived = ids("E", middle, changes);
+        final QueryChangesEmailMethodResponse forward = queryChanges(STATE_A, STATE_B, archived, created, 0);
+        this.forwardQueryUpdate = QueryUpdate.of(forward, QueryResult.of(forward, getEmails(STATE_A, created, true)));
+        final QueryChangesEmailMethodResponse backward = queryChanges(STATE_B, STATE_A, created, archived, middle);
+        this.backwardQueryUpdate = QueryUpdate.of(backward, QueryResult.of(backward, getEmails(STATE_A, archived, true)));
+    }
+
+    /**
+     * Fills the cache with the mailbox, all threads except every 100th, all emails and a query over all emails.
+     */
+    void populate(Cache cache) throws Exception {
+        final JsonObject mailbox = new JsonObject();
+        mailbox.addProperty("id", MAILBOX_ID);
+        mailbox.addProperty("name", "Inbox");
+        mailbox.addProperty("role", "inbox");
+        final JsonArray mailboxes = new JsonArray();
+        mailboxes.add(mailbox);
+        final GetMailboxMethodResponse getMailboxes = gson.fromJson(getResponse(STATE_A, mailboxes), GetMailboxMethodResponse.class);
+        cache.setMailboxes(getMailboxes.getTypedState(), getMailboxes.getList());
+
+        final JsonArray threads = new JsonArray();
+        for (int t = 0; t < emails / emailsPerThread; ++t) {
+            if (t % 100 == 99) {
+                continue;
+            }
+            final JsonObject thread = new JsonObject();
+            thread.addProperty("id", "T" + t);
+            final JsonArray emailIds = new JsonArray();
+            for (int e = 0; e < emailsPerThread; ++e) {
+                emailIds.add("E" + (t * emailsPerThread + e));
+            }
+            thread.add("emailIds", emailIds);
+            threads.add(thread);
+        }
+        final GetThreadMethodResponse getThreads = gson.fromJson(getResponse(STATE_A, threads), GetThreadMethodResponse.class);
+        final List<String> all = ids("E", 0, emails);
+        final GetEmailMethodResponse getEmails = getEmails(STATE_A, all, true);
+        cache.setThreadsAndEmails(getThreads.getTypedState(), getThreads.getList(), getEmails.getTypedState(), getEmails.getList());
+
+        final JsonObject query = new JsonObject();
+        query.addProperty("accountId", "account");
+        query.addProperty("queryState", STATE_A);
+        query.addProperty("canCalculateChanges", true);
+        query.addProperty("position", 0);
+        query.add("ids", gson.toJsonTree(all));
+        cache.setQueryResult(QUERY, QueryResult.of(gson.fromJson(query, QueryEmailMethodResponse.class), getEmails));
+    }
+
+    /**
+     * @return the email state of the populated cache; query updates are applied against it
+     */
+    TypedState<Email> getEmailState() {
+        return TypedState.of(STATE_A);
+    }
+
+    private static List<String> ids(String prefix, int from, int count) {
+        final List<String> ids = new ArrayList<>(count);
+        for (int i = from; i < from + count; ++i) {
+            ids.add(prefix + i);
+        }
+        return ids;
+    }
+
+    private String threadId(String emailId) {
+        if (emailId.startsWith("N")) {
+            return "T-" + emailId;
+        }
+        return "T" + (Integer.parseInt(emailId.substring(1)) / emailsPerThread);
+    }
+
+    private GetEmailMethodResponse getEmails(String state, List<String> ids, boolean seen) {
+        final JsonArray list = new JsonArray();
+        for (String id : ids) {
+            final JsonObject email = new JsonObject();
+            email.addProperty("id", id);
+            email.addProperty("threadId", threadId(id));
+            final JsonObject mailboxIds = new JsonObject();
+            mailboxIds.addProperty(MAILBOX_ID, true);
+            email.add("mailboxIds", mailboxIds);
+            final JsonObject keywords = new JsonObject();
+            if (seen) {
+                keywords.addProperty("$seen", true);
+            }
+            email.add("keywords", keywords);
+            email.addProperty("subject", "Subject of " + id);
+            email.addProperty("preview", "Preview of " + id);
+            list.add(email);
+        }
+        return gson.fromJson(getResponse(state, list), GetEmailMethodResponse.class);
+    }
+
+    private static JsonObject getResponse(String state, JsonArray list) {
+        final JsonObject response = new JsonObject();
+        response.addProperty("accountId", "account");
+        response.addProperty("state", state);
+        response.add("list", list);
+        response.add("notFound", new JsonArray());
+        return response;
+    }
+
+    private ChangesEmailMethodResponse emailChanges(String oldState, String newState, List<String> created, List<String> updated, List<String> destroyed) {
+        final JsonObject response = new JsonObject();
+        response.addProperty("accountId", "account");
+        response.addProperty("oldState", oldState);
+        response.addProperty("newState", newState);
+        response.addProperty("hasMoreChanges", false);
+        response.add("created", gson.toJsonTree(created));
+        response.add("updated", gson.toJsonTree(updated));
+        response.add("destroyed", gson.toJsonTree(destroyed));
+        return gson.fromJson(response, ChangesEmailMethodResponse.class);
+    }
+
+    private QueryChangesEmailMethodResponse queryChanges(String oldState, String newState, List<String> removed, List<String> added, int index) {
+        final JsonObject response = new JsonObject();
+        response.addProperty("accountId", "account");
+        response.addProperty("oldQueryState", oldState);
+        response.addProperty("newQueryState", newState);
+        response.add("removed", gson.toJsonTree(removed));
+        final JsonArray addedItems = new JsonArray();
+        for (int i = 0; i < added.size(); ++i) {
+            final JsonObject item = new JsonObject();
+            item.addProperty("id", added.get(i));
+            item.addProperty("index", index + i);
+            addedItems.add(item);
+        }
+        response.add("added", addedItems);
+        return gson.fromJson(response, QueryChangesEmailMethodResponse.class);
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package rs.ltt.jmap.benchmark;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import rs.ltt.jmap.common.ErrorResponse;
+import rs.ltt.jmap.common.GenericResponse;
+import rs.ltt.jmap.common.method.MethodResponse;
+import rs.ltt.jmap.gson.JmapAdapters;
+import rs.ltt.jmap.gson.ResponseStreamReader;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads responses from their UTF-8 encoded bytes. The 'stream' benchmarks use the {@link ResponseStreamReader} like
+ * the client does; the 'tree' benchmarks deserialize the whole {@link GenericResponse} for comparison.
+ * <p>
+ * Run with: java -jar jmap-benchmark/target/benchmarks.jar DeserializationBenchmark -prof gc
+ * <p>
+ * The gc profiler adds the allocation rate (gc.alloc.rate.norm is bytes per operation).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DeserializationBenchmark {
+
+    @Param({"1000", "10000"})
+    public int objects;
+
+    private Gson gson;
+    private ResponseStreamReader responseStreamReader;
+    private byte[] emailGetResponse;
+    private byte[] mailboxGetResponse;
+    private byte[] errorResponse;
+    private byte[] requestErrorResponse;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        final GsonBuilder builder = new GsonBuilder();
+        JmapAdapters.register(builder);
+        gson = builder.create();
+        responseStreamReader = new ResponseStreamReader(gson);
+        emailGetResponse = Payloads.emailGetResponse(objects);
+        mailboxGetResponse = Payloads.mailboxGetResponse(objects);
+        //one error per method call; requests rarely have more than a few dozen calls
+        errorResponse = Payloads.errorResponse(objects / 100);
+        requestErrorResponse = Payloads.read("/response-error/unknown-capability.json").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static Reader reader(byte[] bytes) {
+        return new InputStreamReader(new ByteArrayInputStream(bytes), StandardCharsets.UTF_8);
+    }
+
+    private void stream(byte[] bytes, final Blackhole blackhole) throws IOException {
+        responseStreamReader.read(reader(bytes), new ResponseStreamReader.Callback() {
+            @Override
+            public boolean mayHaveImplicitResponses(String id) {
+                return true;
+            }
+
+            @Override
+            public void onMethodResponses(String id, MethodResponse[] methodResponses) {
+                blackhole.consume(methodResponses);
+            }
+
+            @Override
+            public void onErrorResponse(ErrorResponse errorResponse) {
+                blackhole.consume(errorResponse);
+            }
+
+            @Override
+            public void onSessionState(String sessionState) {
+                blackhole.consume(sessionState);
+            }
+        });
+    }
+
+    @Benchmark
+    public void emailGetStream(Blackhole blackhole) throws IOException {
+        stream(emailGetResponse, blackhole);
+    }
+
+    @Benchmark
+    public GenericResponse emailGetTree() {
+        return gson.fromJson(reader(emailGetResponse), GenericResponse.class);
+    }
+
+    @Benchmark
+    public void mailboxGetStream(Blackhole blackhole) throws IOException {
+        stream(mailboxGetResponse, blackhole);
+    }
+
+    @Benchmark
+    public GenericResponse mailboxGetTree() {
+        return gson.fromJson(reader(mailboxGetResponse), GenericResponse.class);
+    }
+
+    @Benchmark
+    public void methodErrorsStream(Blackhole blackhole) throws IOException {
+        stream(errorResponse, blackhole);
+    }
+
+    @Benchmark
+    public void requestErrorStream(Blackhole blackhole) throws IOException {
+        stream(requestErrorResponse, blackhole);
+    }
+}
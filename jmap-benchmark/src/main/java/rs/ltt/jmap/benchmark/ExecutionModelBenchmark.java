@@ -0,0 +1,135 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package rs.ltt.jmap.benchmark;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.openjdk.jmh.annotations.*;
+import rs.ltt.jmap.client.JmapClient;
+import rs.ltt.jmap.client.MethodResponses;
+import rs.ltt.jmap.client.http.BasicAuthHttpAuthentication;
+import rs.ltt.jmap.client.util.ExecutorServices;
+import rs.ltt.jmap.common.method.call.core.EchoMethodCall;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Many accounts, each with its own {@link JmapClient}, making calls against a server with a fixed latency. Compares
+ * a pool per client (the default), one {@link ExecutorServices#shared()} pool and a virtual thread per task. Besides
+ * the throughput the peak number of platform threads is reported as 'peakThreads'.
+ * <p>
+ * Run with: java -jar jmap-benchmark/target/benchmarks.jar ExecutionModelBenchmark
+ * <p>
+ * The 'virtual' model fails to set up on JVMs older than 21.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ExecutionModelBenchmark {
+
+    @Param({"fixed", "shared", "virtual"})
+    public String executionModel;
+
+    @Param({"64"})
+    public int accounts;
+
+    @Param({"4"})
+    public int callsPerAccount;
+
+    @Param({"20"})
+    public long latencyMillis;
+
+    private ExecutorService executorService;
+    private final List<JmapClient> clients = new ArrayList<>();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        switch (executionModel) {
+            case "fixed":
+                executorService = null;
+                break;
+            case "shared":
+                executorService = ExecutorServices.shared();
+                break;
+            case "virtual":
+                executorService = ExecutorServices.newVirtualThreadPerTaskExecutor();
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown execution model " + executionModel);
+        }
+        final StaticSessionCache sessionCache = new StaticSessionCache();
+        final SimulatedLatencyHttpTransport httpTransport = new SimulatedLatencyHttpTransport(latencyMillis);
+        for (int i = 0; i < accounts; ++i) {
+            final JmapClient client = new JmapClient(new BasicAuthHttpAuthentication("user" + i + "@example.com", "secret"), null, executorService);
+            client.setSessionCache(sessionCache);
+            client.setHttpTransport(httpTransport);
+            clients.add(client);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        for (JmapClient client : clients) {
+            client.shutdown();
+        }
+        clients.clear();
+        if ("virtual".equals(executionModel)) {
+            executorService.shutdown();
+        }
+    }
+
+    @Benchmark
+    public List<MethodResponses> call(ThreadCounters threadCounters) throws Exception {
+        final List<ListenableFuture<MethodResponses>> futures = new ArrayList<>(accounts * callsPerAccount);
+        for (JmapClient client : clients) {
+            for (int i = 0; i < callsPerAccount; ++i) {
+                futures.add(client.call(new EchoMethodCall()));
+            }
+        }
+        final List<MethodResponses> methodResponses = Futures.allAsList(futures).get();
+        threadCounters.update();
+        return methodResponses;
+    }
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class ThreadCounters {
+
+        private static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean();
+
+        public long peakThreads;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            THREAD_MX_BEAN.resetPeakThreadCount();
+            peakThreads = 0;
+        }
+
+        void update() {
+            peakThreads = THREAD_MX_BEAN.getPeakThreadCount();
+        }
+    }
+}
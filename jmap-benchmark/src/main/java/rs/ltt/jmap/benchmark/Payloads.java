@@ -0,0 +1,127 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package rs.ltt.jmap.benchmark;
+
+import com.google.common.io.Resources;
+import com.google.gson.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Builds synthetic response payloads from the fixtures of the jmap-gson tests (published in its test-jar).
+ */
+final class Payloads {
+
+    private static final String EMAIL_GET_RESPONSE = "/rfc-example/email-get-response.json";
+    private static final String MAILBOX_GET_RESPONSE = "/response/mailbox-get-email-get.json";
+
+    private Payloads() {
+
+    }
+
+    static String read(final String resource) throws IOException {
+        return Resources.toString(Resources.getResource(Payloads.class, resource), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return an Email/get response with the given number of copies of the email from the RFC example (including
+     * its body values)
+     */
+    static byte[] emailGetResponse(final int count) throws IOException {
+        return response(emailGetInvocation(count));
+    }
+
+    /**
+     * @return the arguments of {@link #emailGetResponse(int)} on their own (a GetEmailMethodResponse)
+     */
+    static byte[] emailGetArguments(final int count) throws IOException {
+        return emailGetInvocation(count).get(1).toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static JsonArray emailGetInvocation(final int count) throws IOException {
+        final JsonArray invocation = new JsonParser().parse(read(EMAIL_GET_RESPONSE)).getAsJsonArray().get(0).getAsJsonArray();
+        final JsonObject arguments = invocation.get(1).getAsJsonObject();
+        final JsonObject template = arguments.getAsJsonArray("list").get(0).getAsJsonObject();
+        arguments.add("list", copies(template, count, "E"));
+        return invocation;
+    }
+
+    /**
+     * @return a Mailbox/get response with the given number of mailboxes
+     */
+    static byte[] mailboxGetResponse(final int count) throws IOException {
+        return response(mailboxGetInvocation(count));
+    }
+
+    /**
+     * @return the arguments of {@link #mailboxGetResponse(int)} on their own (a GetMailboxMethodResponse)
+     */
+    static byte[] mailboxGetArguments(final int count) throws IOException {
+        return mailboxGetInvocation(count).get(1).toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static JsonArray mailboxGetInvocation(final int count) throws IOException {
+        final JsonArray invocation = methodResponses(MAILBOX_GET_RESPONSE).get(0).getAsJsonArray();
+        final JsonObject arguments = invocation.get(1).getAsJsonObject();
+        final JsonObject template = arguments.getAsJsonArray("list").get(0).getAsJsonObject();
+        arguments.add("list", copies(template, count, "M"));
+        return invocation;
+    }
+
+    /**
+     * @return a response consisting of the given number of method level errors
+     */
+    static byte[] errorResponse(final int count) throws IOException {
+        final JsonArray error = methodResponses(MAILBOX_GET_RESPONSE).get(1).getAsJsonArray();
+        final JsonArray invocations = new JsonArray();
+        for (int i = 0; i < count; ++i) {
+            final JsonArray invocation = error.deepCopy();
+            invocation.set(2, new JsonPrimitive(String.valueOf(i)));
+            invocations.add(invocation);
+        }
+        return response(invocations);
+    }
+
+    private static JsonArray methodResponses(final String resource) throws IOException {
+        return new JsonParser().parse(read(resource)).getAsJsonObject().getAsJsonArray("methodResponses");
+    }
+
+    private static JsonArray copies(final JsonObject template, final int count, final String prefix) {
+        final JsonArray list = new JsonArray();
+        for (int i = 0; i < count; ++i) {
+            final JsonObject copy = template.deepCopy();
+            copy.addProperty("id", prefix + i);
+            list.add(copy);
+        }
+        return list;
+    }
+
+    private static byte[] response(final JsonArray invocation) {
+        final JsonArray methodResponses = new JsonArray();
+        if (invocation.size() > 0 && invocation.get(0).isJsonArray()) {
+            methodResponses.addAll(invocation);
+        } else {
+            methodResponses.add(invocation);
+        }
+        final JsonObject response = new JsonObject();
+        response.add("methodResponses", methodResponses);
+        response.addProperty("sessionState", "0");
+        return response.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package rs.ltt.jmap.benchmark;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonWriter;
+import org.openjdk.jmh.annotations.*;
+import rs.ltt.jmap.common.Request;
+import rs.ltt.jmap.common.method.call.email.SetEmailMethodCall;
+import rs.ltt.jmap.common.util.Patches;
+import rs.ltt.jmap.gson.JmapAdapters;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serializes a {@link Request} with an Email/set call that updates keywords and mailboxes of many emails, the way
+ * the client writes requests (streaming into the UTF-8 encoded request body).
+ * <p>
+ * Run with: java -jar jmap-benchmark/target/benchmarks.jar SerializationBenchmark -prof gc
+ * <p>
+ * The gc profiler adds the allocation rate (gc.alloc.rate.norm is bytes per operation).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SerializationBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    public int patches;
+
+    private Gson gson;
+    private Request request;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        final GsonBuilder builder = new GsonBuilder();
+        JmapAdapters.register(builder);
+        gson = builder.create();
+        final ImmutableMap.Builder<String, Map<String, Object>> update = ImmutableMap.builder();
+        for (int i = 0; i < patches; ++i) {
+            update.put("E" + i, Patches.builder()
+                    .set("keywords/$seen", true)
+                    .remove("mailboxIds/M1")
+                    .set("mailboxIds/M2", true)
+                    .build());
+        }
+        request = new Request.Builder()
+                .call(new SetEmailMethodCall("0", update.build()))
+                .build();
+    }
+
+    @Benchmark
+    public void setEmailRequest() throws IOException {
+        final JsonWriter jsonWriter = new JsonWriter(new OutputStreamWriter(ByteStreams.nullOutputStream(), StandardCharsets.UTF_8));
+        gson.toJson(request, Request.class, jsonWriter);
+        jsonWriter.flush();
+    }
+
+    @Benchmark
+    public String setEmailRequestToString() {
+        return gson.toJson(request, Request.class);
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package rs.ltt.jmap.benchmark;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import rs.ltt.jmap.client.api.HttpTransport;
+import rs.ltt.jmap.client.api.RequestBody;
+import rs.ltt.jmap.client.http.HttpAuthentication;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Answers every method call with a Core/echo response after a fixed delay. The delay blocks the calling thread just
+ * like waiting for a real server would.
+ */
+public class SimulatedLatencyHttpTransport implements HttpTransport {
+
+    private final long latencyMillis;
+
+    public SimulatedLatencyHttpTransport(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+
+    @Override
+    public InputStream post(URL url, HttpAuthentication httpAuthentication, RequestBody body) throws IOException {
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        body.writeTo(outputStream);
+        final JsonObject request = new JsonParser().parse(new String(outputStream.toByteArray(), StandardCharsets.UTF_8)).getAsJsonObject();
+        final JsonArray methodResponses = new JsonArray();
+        for (JsonElement element : request.getAsJsonArray("methodCalls")) {
+            final JsonArray methodCall = element.getAsJsonArray();
+            final JsonArray methodResponse = new JsonArray();
+            methodResponse.add("Core/echo");
+            methodResponse.add(methodCall.get(1));
+            methodResponse.add(methodCall.get(2));
+            methodResponses.add(methodResponse);
+        }
+        final JsonObject response = new JsonObject();
+        response.add("methodResponses", methodResponses);
+        response.addProperty("sessionState", "0");
+        try {
+            Thread.sleep(latencyMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+        return new ByteArrayInputStream(response.toString().getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package rs.ltt.jmap.benchmark;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import rs.ltt.jmap.client.session.Session;
+import rs.ltt.jmap.client.session.SessionCache;
+import rs.ltt.jmap.gson.JmapAdapters;
+
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Serves the session from the class path so benchmarks never have to fetch it.
+ */
+public class StaticSessionCache implements SessionCache {
+
+    private final Session session;
+
+    public StaticSessionCache() {
+        final GsonBuilder gsonBuilder = new GsonBuilder();
+        JmapAdapters.register(gsonBuilder);
+        final Gson gson = gsonBuilder.create();
+        this.session = gson.fromJson(new InputStreamReader(StaticSessionCache.class.getResourceAsStream("/session.json"), StandardCharsets.UTF_8), Session.class);
+    }
+
+    @Override
+    public void store(String username, URL sessionResource, Session session) {
+
+    }
+
+    @Override
+    public Session load(String username, URL sessionResource) {
+        return session;
+    }
+}
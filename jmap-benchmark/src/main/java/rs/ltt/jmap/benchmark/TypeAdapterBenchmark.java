@@ -0,0 +1,103 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package rs.ltt.jmap.benchmark;
+
+import com.google.common.io.ByteStreams;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonWriter;
+import org.openjdk.jmh.annotations.*;
+import rs.ltt.jmap.common.method.response.email.GetEmailMethodResponse;
+import rs.ltt.jmap.common.method.response.mailbox.GetMailboxMethodResponse;
+import rs.ltt.jmap.gson.JmapAdapters;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the type adapters generated by the annotation processor with Gson's reflective ones by reading and writing
+ * the arguments of Email/get and Mailbox/get responses.
+ * <p>
+ * Run with: java -jar jmap-benchmark/target/benchmarks.jar TypeAdapterBenchmark -prof gc
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TypeAdapterBenchmark {
+
+    @Param({"generated", "reflective"})
+    public String adapters;
+
+    @Param({"1000"})
+    public int objects;
+
+    private Gson gson;
+    private byte[] emailGetArguments;
+    private byte[] mailboxGetArguments;
+    private GetEmailMethodResponse emailGetResponse;
+    private GetMailboxMethodResponse mailboxGetResponse;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        final GsonBuilder builder = new GsonBuilder();
+        JmapAdapters.register(builder, "generated".equals(adapters));
+        gson = builder.create();
+        emailGetArguments = Payloads.emailGetArguments(objects);
+        mailboxGetArguments = Payloads.mailboxGetArguments(objects);
+        emailGetResponse = readEmails();
+        mailboxGetResponse = readMailboxes();
+    }
+
+    private static Reader reader(byte[] bytes) {
+        return new InputStreamReader(new ByteArrayInputStream(bytes), StandardCharsets.UTF_8);
+    }
+
+    private void write(Object object) throws IOException {
+        final JsonWriter jsonWriter = new JsonWriter(new OutputStreamWriter(ByteStreams.nullOutputStream(), StandardCharsets.UTF_8));
+        gson.toJson(object, object.getClass(), jsonWriter);
+        jsonWriter.flush();
+    }
+
+    @Benchmark
+    public GetEmailMethodResponse readEmails() {
+        return gson.fromJson(reader(emailGetArguments), GetEmailMethodResponse.class);
+    }
+
+    @Benchmark
+    public void writeEmails() throws IOException {
+        write(emailGetResponse);
+    }
+
+    @Benchmark
+    public GetMailboxMethodResponse readMailboxes() {
+        return gson.fromJson(reader(mailboxGetArguments), GetMailboxMethodResponse.class);
+    }
+
+    @Benchmark
+    public void writeMailboxes() throws IOException {
+        write(mailboxGetResponse);
+    }
+}
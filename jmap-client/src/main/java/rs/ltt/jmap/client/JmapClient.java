@@ -18,44 +18,103 @@ package rs.ltt.jmap.client;
 
 
 import com.google.common.base.Function;
+import com.google.common.base.Objects;
 import com.google.common.base.Preconditions;
 import com.google.common.util.concurrent.*;
 import org.checkerframework.checker.nullness.compatqual.NonNullDecl;
 import org.checkerframework.checker.nullness.compatqual.NullableDecl;
+import rs.ltt.jmap.client.api.AbstractJmapApiClient;
+import rs.ltt.jmap.client.api.AsyncHttpJmapApiClient;
+import rs.ltt.jmap.client.api.AsyncHttpTransport;
+import rs.ltt.jmap.client.api.EndpointNotFoundException;
 import rs.ltt.jmap.client.api.HttpJmapApiClient;
+import rs.ltt.jmap.client.api.HttpTransport;
 import rs.ltt.jmap.client.api.JmapApiClient;
+import rs.ltt.jmap.client.api.PooledHttpTransport;
+import rs.ltt.jmap.client.api.SessionStateListener;
+import rs.ltt.jmap.client.api.WebSocketJmapApiClient;
+import rs.ltt.jmap.client.blob.BlobClient;
+import rs.ltt.jmap.client.event.EventSource;
+import rs.ltt.jmap.client.event.EventSourceListener;
 import rs.ltt.jmap.client.http.BasicAuthHttpAuthentication;
 import rs.ltt.jmap.client.http.HttpAuthentication;
+import rs.ltt.jmap.client.json.GsonCodec;
+import rs.ltt.jmap.client.json.JmapCodec;
+import rs.ltt.jmap.client.metrics.MetricsListener;
 import rs.ltt.jmap.client.session.Session;
 import rs.ltt.jmap.client.session.SessionCache;
 import rs.ltt.jmap.client.session.SessionClient;
 import rs.ltt.jmap.client.session.SessionFileCache;
+import rs.ltt.jmap.client.util.ExecutorServices;
+import rs.ltt.jmap.common.Request;
+import rs.ltt.jmap.common.entity.capability.CoreCapability;
+import rs.ltt.jmap.common.entity.capability.WebSocketCapability;
 import rs.ltt.jmap.common.method.MethodCall;
+import rs.ltt.jmap.common.util.Projections;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URI;
 import java.net.URL;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
 
 public class JmapClient {
 
+    private static final int EVENT_SOURCE_PING_INTERVAL = 60;
+
     private final SessionClient sessionClient;
     private final HttpAuthentication authentication;
 
-    private ListeningExecutorService executorService = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(2));
+    private final ListeningExecutorService executorService;
+    private final boolean ownsExecutorService;
+
+    private HttpTransport httpTransport = new PooledHttpTransport();
+    private AsyncHttpTransport asyncHttpTransport = null;
+    private boolean useWebSocket = false;
+    private EventSourceListener pushListener = null;
+    private MetricsListener metricsListener = MetricsListener.NONE;
+    private boolean lazyMethodResponses = false;
+    private volatile JmapCodec codec = new GsonCodec();
+    private final Projections projections = new Projections();
+    private Executor deserializationExecutor = null;
+    private int parallelThreshold = AbstractJmapApiClient.DEFAULT_PARALLEL_THRESHOLD;
+    private AbstractJmapApiClient apiClient;
+    private URL apiClientApiUrl;
+    private String apiClientWebSocketUrl;
+
+    private BlobClient blobClient;
+    private ExecutorService blobExecutorService;
+
+    private volatile RequestCoalescer requestCoalescer = null;
 
     public JmapClient(HttpAuthentication httpAuthentication) {
-        this.authentication = httpAuthentication;
-        this.sessionClient = new SessionClient(httpAuthentication);
+        this(httpAuthentication, null, null);
     }
 
     public JmapClient(HttpAuthentication httpAuthentication, URL sessionResource) {
+        this(httpAuthentication, sessionResource, null);
+    }
+
+    /**
+     * @param executorService runs session requests and API requests (with an {@link AsyncHttpTransport} only the
+     *                        reading of responses). The executor is shared with the caller and will not be shut down by this client.
+     *                        Pass null to have the client create (and own) a small pool of its own.
+     * @see rs.ltt.jmap.client.util.ExecutorServices
+     */
+    public JmapClient(HttpAuthentication httpAuthentication, URL sessionResource, ExecutorService executorService) {
         this.authentication = httpAuthentication;
         this.sessionClient = new SessionClient(httpAuthentication, sessionResource);
+        if (executorService == null) {
+            this.executorService = ExecutorServices.newDefault();
+            this.ownsExecutorService = true;
+        } else {
+            this.executorService = MoreExecutors.listeningDecorator(executorService);
+            this.ownsExecutorService = false;
+        }
     }
 
-
     public JmapClient(String username, String password) {
         this(new BasicAuthHttpAuthentication(username, password));
     }
@@ -78,6 +137,59 @@ public class JmapClient {
         return authentication.getUsername();
     }
 
+    /**
+     * Opens a connection to the event source of the server and reports pushed state changes to the listener. The
+     * returned future fails with an {@link EndpointNotFoundException} if the server does not announce an event source.
+     * Close the {@link EventSource} to stop listening.
+     */
+    public ListenableFuture<EventSource> monitorEvents(final EventSourceListener listener) {
+        return Futures.transformAsync(loadSession(), new AsyncFunction<Session, EventSource>() {
+            @Override
+            public ListenableFuture<EventSource> apply(@NullableDecl Session session) throws Exception {
+                Preconditions.checkNotNull(session, "Unable to monitor events without session");
+                final URL eventSourceUrl = session.getEventSourceUrl();
+                if (eventSourceUrl == null) {
+                    throw new EndpointNotFoundException("Session does not announce an eventSourceUrl");
+                }
+                final EventSource eventSource = new EventSource(EventSource.expand(eventSourceUrl, EVENT_SOURCE_PING_INTERVAL), authentication, EVENT_SOURCE_PING_INTERVAL, listener, codec);
+                eventSource.start();
+                return Futures.immediateFuture(eventSource);
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    /**
+     * @return a client to upload and download blobs that is bound to the current session. Concurrent uploads are limited
+     * across all blob clients returned for the same session.
+     */
+    public ListenableFuture<BlobClient> getBlobClient() {
+        return Futures.transform(loadSession(), new Function<Session, BlobClient>() {
+            @Override
+            public BlobClient apply(@NullableDecl Session session) {
+                return getBlobClient(Preconditions.checkNotNull(session, "Unable to transfer blobs without session"));
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    private synchronized BlobClient getBlobClient(final Session session) {
+        if (blobClient != null
+                && sameUrl(blobClient.getSession().getUploadUrl(), session.getUploadUrl())
+                && sameUrl(blobClient.getSession().getDownloadUrl(), session.getDownloadUrl())) {
+            //keeps the upload permits of transfers that are still running
+            blobClient.setSession(session);
+        } else {
+            if (blobExecutorService == null) {
+                //transfers block for a long time and parallel downloads wait on their parts; a bounded pool could deadlock
+                blobExecutorService = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+                        .setNameFormat("jmap-blob-%d")
+                        .setDaemon(true)
+                        .build());
+            }
+            blobClient = new BlobClient(session, authentication, blobExecutorService, codec);
+        }
+        return blobClient;
+    }
+
     private ListenableFuture<Session> loadSession() {
         return executorService.submit(new Callable<Session>() {
             @Override
@@ -88,6 +200,10 @@ public class JmapClient {
     }
 
     public ListenableFuture<MethodResponses> call(MethodCall methodCall) {
+        final RequestCoalescer requestCoalescer = this.requestCoalescer;
+        if (requestCoalescer != null) {
+            return requestCoalescer.add(methodCall);
+        }
         final JmapRequest.Builder jmapRequestBuilder = new JmapRequest.Builder();
         final ListenableFuture<MethodResponses> methodResponsesFuture = jmapRequestBuilder.call(methodCall);
         this.execute(jmapRequestBuilder.build());
@@ -101,8 +217,28 @@ public class JmapClient {
                 if (session == null) {
                     return;
                 }
-                JmapApiClient apiClient = new HttpJmapApiClient(session.getApiUrl(), authentication);
-                apiClient.execute(request);
+                final JmapApiClient apiClient = getApiClient(session);
+                final List<JmapRequest> requests;
+                try {
+                    requests = new RequestPlanner(session.getCapability(CoreCapability.class)).plan(request);
+                } catch (IllegalArgumentException e) {
+                    request.setException(e);
+                    return;
+                }
+                if (RequestPlanner.isReadOnly(requests)) {
+                    for (int i = 1; i < requests.size(); ++i) {
+                        final JmapRequest jmapRequest = requests.get(i);
+                        executorService.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                apiClient.execute(jmapRequest);
+                            }
+                        });
+                    }
+                    apiClient.execute(requests.get(0));
+                } else {
+                    executeSequentially(apiClient, requests, 0);
+                }
             }
 
             @Override
@@ -112,10 +248,125 @@ public class JmapClient {
         }, executorService);
     }
 
+    /**
+     * Executes the next request once all calls of the previous one have completed, regardless of their outcome.
+     */
+    private void executeSequentially(final JmapApiClient apiClient, final List<JmapRequest> requests, final int index) {
+        final JmapRequest jmapRequest = requests.get(index);
+        apiClient.execute(jmapRequest);
+        if (index + 1 < requests.size()) {
+            Futures.whenAllComplete(jmapRequest.getInvocationFutureImmutableMap().values()).run(new Runnable() {
+                @Override
+                public void run() {
+                    executeSequentially(apiClient, requests, index + 1);
+                }
+            }, executorService);
+        }
+    }
+
+    private void execute(final Map<Request.Invocation, SettableFuture<MethodResponses>> calls) {
+        final JmapRequest.Builder jmapRequestBuilder = new JmapRequest.Builder();
+        for (Map.Entry<Request.Invocation, SettableFuture<MethodResponses>> entry : calls.entrySet()) {
+            jmapRequestBuilder.add(entry.getKey(), entry.getValue());
+        }
+        execute(jmapRequestBuilder.build());
+    }
+
+    /**
+     * A refreshed session only replaces the API client if it moved one of the endpoints. Closing a WebSocket client
+     * fails the calls that are still waiting for their responses.
+     */
+    private synchronized AbstractJmapApiClient getApiClient(final Session session) {
+        final WebSocketCapability webSocketCapability = useWebSocket ? session.getCapability(WebSocketCapability.class) : null;
+        final String webSocketUrl = webSocketCapability == null ? null : webSocketCapability.getUrl();
+        if (apiClient == null
+                || !sameUrl(apiClientApiUrl, session.getApiUrl())
+                || !Objects.equal(apiClientWebSocketUrl, webSocketUrl)) {
+            if (apiClient instanceof Closeable) {
+                closeQuietly((Closeable) apiClient);
+            }
+            if (webSocketUrl != null) {
+                final WebSocketJmapApiClient webSocketJmapApiClient = new WebSocketJmapApiClient(URI.create(webSocketUrl), authentication, executorService);
+                if (pushListener != null) {
+                    webSocketJmapApiClient.setPushListener(pushListener);
+                }
+                apiClient = webSocketJmapApiClient;
+            } else if (asyncHttpTransport != null) {
+                apiClient = new AsyncHttpJmapApiClient(session.getApiUrl(), authentication, asyncHttpTransport, executorService);
+            } else {
+                apiClient = new HttpJmapApiClient(session.getApiUrl(), authentication, httpTransport);
+            }
+            apiClient.setCodec(codec);
+            apiClient.setProjections(projections);
+            apiClient.setMetricsListener(metricsListener);
+            apiClient.setLazyMethodResponses(lazyMethodResponses);
+            apiClient.setParallelDeserialization(deserializationExecutor, parallelThreshold);
+            apiClient.setSessionStateListener(new SessionStateListener() {
+                @Override
+                public void onSessionStateRetrieved(String sessionState) {
+                    sessionClient.onSessionStateRetrieved(sessionState, executorService);
+                }
+            });
+            apiClientApiUrl = session.getApiUrl();
+            apiClientWebSocketUrl = webSocketUrl;
+        }
+        return apiClient;
+    }
+
+    /**
+     * Compares the string representations; {@link URL#equals(Object)} resolves the host names.
+     */
+    private static boolean sameUrl(@NullableDecl URL a, @NullableDecl URL b) {
+        return a == null ? b == null : b != null && a.toString().equals(b.toString());
+    }
+
+    private void resetApiClient() {
+        if (apiClient instanceof Closeable) {
+            closeQuietly((Closeable) apiClient);
+        }
+        apiClient = null;
+        apiClientApiUrl = null;
+        apiClientWebSocketUrl = null;
+    }
+
+    private static void closeQuietly(final Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            //ignored
+        }
+    }
+
     public ExecutorService getExecutorService() {
         return executorService;
     }
 
+    /**
+     * Sends calls that are still waiting to be coalesced and shuts down the executor if it has been created by this
+     * client. Executors that have been passed in by the caller are left alone.
+     */
+    public void shutdown() {
+        final RequestCoalescer requestCoalescer;
+        synchronized (this) {
+            requestCoalescer = this.requestCoalescer;
+            this.requestCoalescer = null;
+        }
+        if (requestCoalescer != null) {
+            requestCoalescer.close();
+        }
+        synchronized (this) {
+            resetApiClient();
+            if (blobExecutorService != null) {
+                blobExecutorService.shutdown();
+                blobExecutorService = null;
+                blobClient = null;
+            }
+        }
+        if (ownsExecutorService) {
+            executorService.shutdown();
+        }
+    }
+
     public MultiCall newMultiCall() {
         return new MultiCall();
     }
@@ -124,6 +375,146 @@ public class JmapClient {
         this.sessionClient.setSessionCache(sessionCache);
     }
 
+    /**
+     * Replaces the transport used to talk to the API endpoint. The transport is shared by all requests made with this
+     * client. By default a {@link PooledHttpTransport} is used.
+     */
+    public synchronized void setHttpTransport(HttpTransport httpTransport) {
+        this.httpTransport = Preconditions.checkNotNull(httpTransport);
+        this.asyncHttpTransport = null;
+        resetApiClient();
+    }
+
+    /**
+     * Uses a non-blocking transport to talk to the API endpoint. Requests no longer occupy one of the threads of this
+     * client while waiting for the response; responses are read on the executor of this client once they arrive.
+     *
+     * @see rs.ltt.jmap.client.api.NioHttpTransport
+     */
+    public synchronized void setHttpTransport(AsyncHttpTransport asyncHttpTransport) {
+        this.asyncHttpTransport = Preconditions.checkNotNull(asyncHttpTransport);
+        resetApiClient();
+    }
+
+    /**
+     * Sends requests over a single persistent WebSocket connection (RFC 8887) if the server announces support for it.
+     * Falls back to HTTP otherwise. Requires the optional Java-WebSocket dependency.
+     */
+    public synchronized void setUseWebSocket(boolean useWebSocket) {
+        this.useWebSocket = useWebSocket;
+        resetApiClient();
+    }
+
+    /**
+     * Receives state changes over the WebSocket connection used for API requests (see {@link #setUseWebSocket(boolean)}).
+     * Push starts with the connection, which is opened by the first request, and is enabled again on every reconnect;
+     * {@link EventSourceListener#onConnected()} is called each time. Without a WebSocket connection (the option is off
+     * or the server does not support it) the listener is never called; use {@link #monitorEvents(EventSourceListener)}
+     * instead.
+     */
+    public synchronized void setPushListener(EventSourceListener pushListener) {
+        this.pushListener = pushListener;
+        if (apiClient instanceof WebSocketJmapApiClient) {
+            ((WebSocketJmapApiClient) apiClient).setPushListener(pushListener);
+        }
+    }
+
+    /**
+     * Reports timings, payload sizes and errors of every API request to the given listener. Pass null to stop taking
+     * measurements.
+     *
+     * @see rs.ltt.jmap.client.metrics.HistogramMetricsListener
+     */
+    public synchronized void setMetricsListener(MetricsListener metricsListener) {
+        this.metricsListener = metricsListener == null ? MetricsListener.NONE : metricsListener;
+        if (apiClient != null) {
+            apiClient.setMetricsListener(this.metricsListener);
+        }
+    }
+
+    /**
+     * Projections registered here are used for all calls made with this client. A /get call that only asks for
+     * properties held by a registered projection gets a response of the projection type instead of the full response
+     * type.
+     */
+    public Projections getProjections() {
+        return projections;
+    }
+
+    /**
+     * Replaces the codec used for all JSON exchanged with the server (session resource, requests, responses, state
+     * changes and upload responses). By default a {@link GsonCodec} is used.
+     */
+    public synchronized void setCodec(JmapCodec codec) {
+        this.codec = Preconditions.checkNotNull(codec);
+        this.sessionClient.setCodec(codec);
+        this.blobClient = null;
+        resetApiClient();
+    }
+
+    /**
+     * Defers binding the arguments of a method response to its class until {@link MethodResponses#getMain()} is
+     * called. This saves the work for method responses that are never looked at. Method errors are always bound right
+     * away.
+     */
+    public synchronized void setLazyMethodResponses(boolean lazyMethodResponses) {
+        this.lazyMethodResponses = lazyMethodResponses;
+        if (apiClient != null) {
+            apiClient.setLazyMethodResponses(lazyMethodResponses);
+        }
+    }
+
+    /**
+     * Binds large method responses (like the Email/get of a sync {@link MultiCall}) on the given executor, ideally a
+     * {@link java.util.concurrent.ForkJoinPool}, instead of one after another on the thread that reads the response.
+     * Futures are completed as each method response is bound. Pass null to turn this off.
+     */
+    public void setParallelDeserialization(Executor executor) {
+        setParallelDeserialization(executor, AbstractJmapApiClient.DEFAULT_PARALLEL_THRESHOLD);
+    }
+
+    /**
+     * @param threshold the minimum size (in characters of JSON) of the method responses of a call to be handed off
+     * @see #setParallelDeserialization(Executor)
+     */
+    public synchronized void setParallelDeserialization(Executor executor, int threshold) {
+        this.deserializationExecutor = executor;
+        this.parallelThreshold = threshold;
+        if (apiClient != null) {
+            apiClient.setParallelDeserialization(executor, threshold);
+        }
+    }
+
+    /**
+     * Coalesces calls made with {@link #call(MethodCall)} from any thread into a single request. Calls are sent once
+     * the given window after the first pending call has elapsed or once maxCalls calls are pending. Like any other
+     * request, batches that exceed the maxCallsInRequest announced by the server are split up. {@link MultiCall}s are
+     * not affected.
+     */
+    public synchronized void setRequestCoalescing(long window, TimeUnit unit, int maxCalls) {
+        final RequestCoalescer previous = this.requestCoalescer;
+        this.requestCoalescer = new RequestCoalescer(ExecutorServices.sharedScheduler(), window, unit, maxCalls, new RequestCoalescer.Sink() {
+            @Override
+            public void execute(Map<Request.Invocation, SettableFuture<MethodResponses>> calls) {
+                JmapClient.this.execute(calls);
+            }
+        });
+        if (previous != null) {
+            previous.close();
+        }
+    }
+
+    /**
+     * Sends every {@link #call(MethodCall)} as its own request again. Calls that are still pending are sent right away.
+     */
+    public synchronized void disableRequestCoalescing() {
+        final RequestCoalescer previous = this.requestCoalescer;
+        this.requestCoalescer = null;
+        if (previous != null) {
+            previous.close();
+        }
+    }
+
     public class MultiCall {
 
         private boolean executed = false;
@@ -144,6 +535,15 @@ public class JmapClient {
             return jmapRequestBuilder.call(methodCall);
         }
 
+        /**
+         * Projections used for the calls of this MultiCall only, in addition to those registered with
+         * {@link JmapClient#getProjections()}. Other users of the client are not affected.
+         */
+        public synchronized void setProjections(Projections projections) {
+            Preconditions.checkState(!executed,"Unable to set projections. MultiCall has already been executed");
+            jmapRequestBuilder.projections(projections);
+        }
+
         public synchronized void execute() {
             Preconditions.checkState(!executed,"You must not execute the same MultiCall twice");
             executed = true;
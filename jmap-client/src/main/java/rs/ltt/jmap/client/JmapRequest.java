@@ -21,6 +21,7 @@ import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.SettableFuture;
 import rs.ltt.jmap.common.Request;
 import rs.ltt.jmap.common.method.MethodCall;
+import rs.ltt.jmap.common.util.Projections;
 
 import java.util.LinkedHashMap;
 import java.util.Map;
@@ -29,8 +30,12 @@ public class JmapRequest {
 
     private final ImmutableMap<Request.Invocation, SettableFuture<MethodResponses>> invocationFutureImmutableMap;
     private final Request request;
+    private final long created;
+    private final Projections projections;
 
-    private JmapRequest(Map<Request.Invocation, SettableFuture<MethodResponses>> map) {
+    private JmapRequest(Map<Request.Invocation, SettableFuture<MethodResponses>> map, long created, Projections projections) {
+        this.created = created;
+        this.projections = projections;
         final Request.Builder requestBuilder = new Request.Builder();
         for (Request.Invocation invocation : map.keySet()) {
             requestBuilder.add(invocation);
@@ -54,9 +59,26 @@ public class JmapRequest {
         return request;
     }
 
+    /**
+     * @return the {@link System#nanoTime()} at which the request has been built. Requests that have been split up by
+     * the {@link RequestPlanner} keep the time of the original request.
+     */
+    public long getCreated() {
+        return created;
+    }
+
+    /**
+     * @return the projections that apply to this request only (in addition to those of the client) or null
+     */
+    public Projections getProjections() {
+        return projections;
+    }
+
     public static class Builder {
 
         private final Map<Request.Invocation, SettableFuture<MethodResponses>> map = new LinkedHashMap<>();
+        private long created = 0;
+        private Projections projections = null;
 
         public ListenableFuture<MethodResponses> call(final MethodCall methodCall) {
             return add(Request.Invocation.create(methodCall));
@@ -70,8 +92,22 @@ public class JmapRequest {
             return future;
         }
 
+        void add(final Request.Invocation invocation, final SettableFuture<MethodResponses> future) {
+            this.map.put(invocation, future);
+        }
+
+        Builder created(final long created) {
+            this.created = created;
+            return this;
+        }
+
+        public Builder projections(final Projections projections) {
+            this.projections = projections;
+            return this;
+        }
+
         public JmapRequest build() {
-            return new JmapRequest(map);
+            return new JmapRequest(map, created == 0 ? System.nanoTime() : created, projections);
         }
     }
 
@@ -92,7 +92,7 @@ public class Main {
         } catch (Exception e) {
             e.printStackTrace();
         } finally {
-            client.getExecutorService().shutdown();
+            client.shutdown();
         }
     }
 }
@@ -16,6 +16,7 @@
 
 package rs.ltt.jmap.client;
 
+import rs.ltt.jmap.common.method.DeferredMethodResponse;
 import rs.ltt.jmap.common.method.MethodResponse;
 
 
@@ -36,15 +37,15 @@ public class MethodResponses {
     }
 
     public MethodResponse getMain() {
-        return main;
+        return DeferredMethodResponse.resolve(main);
     }
 
     public <T extends MethodResponse> T getMain(Class<T> clazz) {
         //TODO check before cast and throw unexpected method error
-        return clazz.cast(main);
+        return clazz.cast(getMain());
     }
 
     public MethodResponse[] getAdditional() {
-        return additional;
+        return DeferredMethodResponse.resolve(additional);
     }
 }
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package rs.ltt.jmap.client;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import rs.ltt.jmap.common.Request;
+import rs.ltt.jmap.common.method.MethodCall;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects independent method calls from any number of threads and hands them off as one batch once the window that
+ * started with the first pending call has elapsed or once maxCalls are pending; whichever comes first. If the sink
+ * fails to take a batch (for example because the executor behind it has been shut down) every call of the batch fails
+ * with that exception.
+ */
+class RequestCoalescer {
+
+    private final ScheduledExecutorService scheduledExecutorService;
+    private final long windowNanos;
+    private final int maxCalls;
+    private final Sink sink;
+
+    private Map<Request.Invocation, SettableFuture<MethodResponses>> pending = new LinkedHashMap<>();
+    private ScheduledFuture<?> scheduledFlush = null;
+    private boolean closed = false;
+
+    RequestCoalescer(ScheduledExecutorService scheduledExecutorService, long window, TimeUnit unit, int maxCalls, Sink sink) {
+        Preconditions.checkArgument(window >= 0, "window must not be negative");
+        Preconditions.checkArgument(maxCalls > 0, "maxCalls must be positive");
+        this.scheduledExecutorService = scheduledExecutorService;
+        this.windowNanos = unit.toNanos(window);
+        this.maxCalls = maxCalls;
+        this.sink = sink;
+    }
+
+    ListenableFuture<MethodResponses> add(final MethodCall methodCall) {
+        final SettableFuture<MethodResponses> future = SettableFuture.create();
+        final Request.Invocation invocation = Request.Invocation.create(methodCall);
+        final boolean direct;
+        final boolean full;
+        synchronized (this) {
+            direct = closed;
+            if (direct) {
+                full = false;
+            } else {
+                pending.put(invocation, future);
+                full = pending.size() >= maxCalls;
+                if (!full && scheduledFlush == null) {
+                    scheduledFlush = scheduledExecutorService.schedule(new Runnable() {
+                        @Override
+                        public void run() {
+                            flush();
+                        }
+                    }, windowNanos, TimeUnit.NANOSECONDS);
+                }
+            }
+        }
+        if (direct) {
+            final Map<Request.Invocation, SettableFuture<MethodResponses>> batch = new LinkedHashMap<>();
+            batch.put(invocation, future);
+            handOff(batch);
+        } else if (full) {
+            flush();
+        }
+        return future;
+    }
+
+    void flush() {
+        final Map<Request.Invocation, SettableFuture<MethodResponses>> batch;
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = pending;
+            pending = new LinkedHashMap<>();
+            if (scheduledFlush != null) {
+                scheduledFlush.cancel(false);
+                scheduledFlush = null;
+            }
+        }
+        handOff(batch);
+    }
+
+    private void handOff(final Map<Request.Invocation, SettableFuture<MethodResponses>> batch) {
+        try {
+            sink.execute(batch);
+        } catch (RuntimeException e) {
+            for (SettableFuture<MethodResponses> future : batch.values()) {
+                future.setException(e);
+            }
+        }
+    }
+
+    /**
+     * Hands off the calls that are still pending. Calls that are added afterwards (by threads that still hold on to
+     * this instance) are handed off one by one right away.
+     */
+    void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        flush();
+    }
+
+    interface Sink {
+        void execute(Map<Request.Invocation, SettableFuture<MethodResponses>> calls);
+    }
+}
@@ -0,0 +1,428 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package rs.ltt.jmap.client;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.ObjectArrays;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import org.checkerframework.checker.nullness.compatqual.NullableDecl;
+import rs.ltt.jmap.client.api.PartialResponseException;
+import rs.ltt.jmap.client.api.StateMismatchException;
+import rs.ltt.jmap.common.Request;
+import rs.ltt.jmap.common.entity.capability.CoreCapability;
+import rs.ltt.jmap.common.method.MethodCall;
+import rs.ltt.jmap.common.method.MethodResponse;
+import rs.ltt.jmap.common.method.call.standard.*;
+import rs.ltt.jmap.common.method.response.standard.GetMethodResponse;
+import rs.ltt.jmap.common.method.response.standard.SetMethodResponse;
+import rs.ltt.jmap.common.util.CreationIdReferences;
+
+import java.lang.reflect.Field;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Fits a {@link JmapRequest} into the limits the server announces in its {@link CoreCapability}.
+ * <p>
+ * Get calls with more ids than maxObjectsInGet and set calls with more objects than maxObjectsInSet are split into
+ * multiple calls and their responses are merged back into one {@link MethodResponses}. The chunks of a set call that
+ * uses ifInState are chained with a result reference to the newState of the previous chunk. A get call that is
+ * referenced by other get calls (like the Thread/get and the Email/get of its emailIds) is split together with them:
+ * every chunk gets its own copy of the dependent calls, referring to that chunk. Other calls that are referenced are
+ * never split and creates whose creation ids are referenced stay in the first chunk. The responses of get calls that
+ * have been computed from different states fail with a {@link StateMismatchException}.
+ * <p>
+ * Requests with more than maxCallsInRequest calls are divided into multiple requests. Those can only be executed
+ * concurrently if they are read-only (see {@link #isReadOnly(List)}). Calls that are connected by result references
+ * always end up in the same request.
+ */
+class RequestPlanner {
+
+    private static final ConcurrentMap<Class<?>, List<Field>> REFERENCE_FIELDS = new ConcurrentHashMap<>();
+
+    private final int maxCallsInRequest;
+    private final int maxObjectsInGet;
+    private final int maxObjectsInSet;
+
+    RequestPlanner(@NullableDecl CoreCapability coreCapability) {
+        this.maxCallsInRequest = limit(coreCapability == null ? 0 : coreCapability.getMaxCallsInRequest());
+        this.maxObjectsInGet = limit(coreCapability == null ? 0 : coreCapability.getMaxObjectsInGet());
+        this.maxObjectsInSet = limit(coreCapability == null ? 0 : coreCapability.getMaxObjectsInSet());
+    }
+
+    private static int limit(int value) {
+        return value > 0 ? value : Integer.MAX_VALUE;
+    }
+
+    private static List<Request.Invocation.ResultReference> getReferences(final MethodCall methodCall) {
+        final List<Request.Invocation.ResultReference> references = new ArrayList<>();
+        for (Field field : getReferenceFields(methodCall.getClass())) {
+            try {
+                final Object value = field.get(methodCall);
+                if (value != null) {
+                    references.add((Request.Invocation.ResultReference) value);
+                }
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return references;
+    }
+
+    private static List<Field> getReferenceFields(final Class<?> clazz) {
+        final List<Field> cached = REFERENCE_FIELDS.get(clazz);
+        if (cached != null) {
+            return cached;
+        }
+        final List<Field> fields = new ArrayList<>();
+        for (Class<?> current = clazz; current != null && current != Object.class; current = current.getSuperclass()) {
+            for (Field field : current.getDeclaredFields()) {
+                if (field.getType() == Request.Invocation.ResultReference.class) {
+                    field.setAccessible(true);
+                    fields.add(field);
+                }
+            }
+        }
+        REFERENCE_FIELDS.putIfAbsent(clazz, fields);
+        return fields;
+    }
+
+    /**
+     * @return whether the requests only contain calls that do not modify data on the server and can therefore be
+     * executed concurrently. Requests containing other calls have to be executed one after another so that, for
+     * example, a Foo/get does not overtake a preceding Foo/set.
+     */
+    static boolean isReadOnly(final List<JmapRequest> requests) {
+        for (JmapRequest request : requests) {
+            for (Request.Invocation invocation : request.getInvocationFutureImmutableMap().keySet()) {
+                if (!isReadOnly(invocation.getMethodCall())) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static boolean isReadOnly(final MethodCall methodCall) {
+        return methodCall instanceof GetMethodCall
+                || methodCall instanceof QueryMethodCall
+                || methodCall instanceof ChangesMethodCall
+                || methodCall instanceof QueryChangesMethodCall;
+    }
+
+    /**
+     * @throws IllegalArgumentException if calls that are connected by result references (including the chunks of a
+     *                                  set call that uses ifInState) exceed maxCallsInRequest
+     */
+    List<JmapRequest> plan(final JmapRequest jmapRequest) {
+        final Map<Request.Invocation, SettableFuture<MethodResponses>> original = jmapRequest.getInvocationFutureImmutableMap();
+        final List<Request.Invocation> order = new ArrayList<>(original.keySet());
+        final Map<String, List<Request.Invocation>> dependents = new HashMap<>();
+        for (Request.Invocation invocation : order) {
+            for (Request.Invocation.ResultReference reference : getReferences(invocation.getMethodCall())) {
+                List<Request.Invocation> list = dependents.get(reference.getId());
+                if (list == null) {
+                    list = new ArrayList<>();
+                    dependents.put(reference.getId(), list);
+                }
+                list.add(invocation);
+            }
+        }
+
+        final List<Request.Invocation> invocations = new ArrayList<>();
+        final List<SettableFuture<MethodResponses>> futures = new ArrayList<>();
+        final Map<SettableFuture<MethodResponses>, List<SettableFuture<MethodResponses>>> splits = new LinkedHashMap<>();
+        final Set<Request.Invocation> splitAsDependent = new HashSet<>();
+        Set<String> referencedCreationIds = null;
+        for (Map.Entry<Request.Invocation, SettableFuture<MethodResponses>> entry : original.entrySet()) {
+            final Request.Invocation invocation = entry.getKey();
+            if (splitAsDependent.contains(invocation)) {
+                continue;
+            }
+            final MethodCall call = invocation.getMethodCall();
+            final List<? extends MethodCall> chunks;
+            if (dependents.containsKey(invocation.getId())) {
+                final List<Request.Invocation> chain = call instanceof GetMethodCall ? dependentGets(invocation, order, dependents) : null;
+                final List<? extends GetMethodCall<?>> getChunks = chain == null ? null : ((GetMethodCall<?>) call).split(maxObjectsInGet);
+                if (getChunks != null && getChunks.size() > 1) {
+                    final Map<Request.Invocation, List<SettableFuture<MethodResponses>>> chunkFutures = new LinkedHashMap<>();
+                    chunkFutures.put(invocation, new ArrayList<SettableFuture<MethodResponses>>());
+                    for (Request.Invocation dependent : chain) {
+                        chunkFutures.put(dependent, new ArrayList<SettableFuture<MethodResponses>>());
+                    }
+                    for (GetMethodCall<?> chunk : getChunks) {
+                        final Map<String, Request.Invocation> copies = new HashMap<>();
+                        final Request.Invocation chunkInvocation = Request.Invocation.create(chunk);
+                        copies.put(invocation.getId(), chunkInvocation);
+                        add(chunkInvocation, chunkFutures.get(invocation), invocations, futures);
+                        for (Request.Invocation dependent : chain) {
+                            final Request.Invocation.ResultReference reference = ((GetMethodCall<?>) dependent.getMethodCall()).getIdsReference();
+                            final Request.Invocation target = copies.get(reference.getId());
+                            final Request.Invocation copy = Request.Invocation.create(((GetMethodCall<?>) dependent.getMethodCall()).withIdsReference(target.createReference(reference.getPath())));
+                            copies.put(dependent.getId(), copy);
+                            add(copy, chunkFutures.get(dependent), invocations, futures);
+                        }
+                    }
+                    for (Map.Entry<Request.Invocation, List<SettableFuture<MethodResponses>>> split : chunkFutures.entrySet()) {
+                        splits.put(original.get(split.getKey()), split.getValue());
+                    }
+                    splitAsDependent.addAll(chain);
+                    continue;
+                }
+                chunks = Collections.emptyList();
+            } else if (call instanceof GetMethodCall) {
+                chunks = ((GetMethodCall<?>) call).split(maxObjectsInGet);
+            } else if (call instanceof SetMethodCall) {
+                if (referencedCreationIds == null) {
+                    referencedCreationIds = new HashSet<>();
+                    for (Request.Invocation other : original.keySet()) {
+                        referencedCreationIds.addAll(CreationIdReferences.collect(other.getMethodCall()));
+                    }
+                }
+                chunks = ((SetMethodCall<?>) call).split(maxObjectsInSet, referencedCreationIds);
+            } else {
+                chunks = Collections.emptyList();
+            }
+            if (chunks.size() <= 1) {
+                invocations.add(invocation);
+                futures.add(entry.getValue());
+                continue;
+            }
+            final String ifInState = call instanceof SetMethodCall ? ((SetMethodCall<?>) call).getIfInState() : null;
+            final List<SettableFuture<MethodResponses>> chunkFutures = new ArrayList<>();
+            Request.Invocation previous = null;
+            for (MethodCall chunk : chunks) {
+                final MethodCall methodCall;
+                if (previous != null && ifInState != null) {
+                    methodCall = ((SetMethodCall<?>) chunk).withIfInState(previous.createReference(Request.Invocation.ResultReference.Path.NEW_STATE));
+                } else {
+                    methodCall = chunk;
+                }
+                final Request.Invocation chunkInvocation = Request.Invocation.create(methodCall);
+                final SettableFuture<MethodResponses> chunkFuture = SettableFuture.create();
+                invocations.add(chunkInvocation);
+                futures.add(chunkFuture);
+                chunkFutures.add(chunkFuture);
+                previous = chunkInvocation;
+            }
+            splits.put(entry.getValue(), chunkFutures);
+        }
+
+        final List<JmapRequest> requests = new ArrayList<>();
+        if (invocations.size() <= maxCallsInRequest) {
+            requests.add(build(jmapRequest, invocations, futures, allIndices(invocations.size())));
+        } else {
+            List<Integer> current = new ArrayList<>();
+            for (List<Integer> group : group(invocations)) {
+                if (group.size() > maxCallsInRequest) {
+                    throw new IllegalArgumentException(String.format("%d calls connected by result references exceed maxCallsInRequest (%d)", group.size(), maxCallsInRequest));
+                }
+                if (!current.isEmpty() && current.size() + group.size() > maxCallsInRequest) {
+                    requests.add(build(jmapRequest, invocations, futures, current));
+                    current = new ArrayList<>();
+                }
+                current.addAll(group);
+            }
+            if (!current.isEmpty()) {
+                requests.add(build(jmapRequest, invocations, futures, current));
+            }
+        }
+
+        for (Map.Entry<SettableFuture<MethodResponses>, List<SettableFuture<MethodResponses>>> split : splits.entrySet()) {
+            final List<SettableFuture<MethodResponses>> chunkFutures = split.getValue();
+            split.getKey().setFuture(Futures.whenAllComplete(chunkFutures).call(new Callable<MethodResponses>() {
+                @Override
+                public MethodResponses call() throws Exception {
+                    return merge(chunkFutures);
+                }
+            }, MoreExecutors.directExecutor()));
+        }
+        return requests;
+    }
+
+    private static void add(final Request.Invocation invocation, final List<SettableFuture<MethodResponses>> chunkFutures, final List<Request.Invocation> invocations, final List<SettableFuture<MethodResponses>> futures) {
+        final SettableFuture<MethodResponses> future = SettableFuture.create();
+        invocations.add(invocation);
+        futures.add(future);
+        chunkFutures.add(future);
+    }
+
+    /**
+     * Collects the calls that depend on a get call if all of them can be copied for each of its chunks: get calls whose
+     * only reference is their ids reference, and that no call outside of them refers to. Calls in between that are not
+     * read-only would be overtaken by the copies, so they prevent the split as well.
+     *
+     * @return the dependent calls in request order or null if the get call can not be split together with them
+     */
+    @NullableDecl
+    private static List<Request.Invocation> dependentGets(final Request.Invocation root, final List<Request.Invocation> order, final Map<String, List<Request.Invocation>> dependents) {
+        final Set<Request.Invocation> chain = new HashSet<>();
+        final Deque<Request.Invocation> queue = new ArrayDeque<>();
+        queue.add(root);
+        while (!queue.isEmpty()) {
+            final List<Request.Invocation> direct = dependents.get(queue.remove().getId());
+            if (direct == null) {
+                continue;
+            }
+            for (Request.Invocation dependent : direct) {
+                final MethodCall methodCall = dependent.getMethodCall();
+                if (!(methodCall instanceof GetMethodCall)
+                        || ((GetMethodCall<?>) methodCall).getIdsReference() == null
+                        || getReferences(methodCall).size() != 1) {
+                    return null;
+                }
+                if (chain.add(dependent)) {
+                    queue.add(dependent);
+                }
+            }
+        }
+        final List<Request.Invocation> ordered = new ArrayList<>();
+        for (int i = order.indexOf(root) + 1; i < order.size() && ordered.size() < chain.size(); ++i) {
+            final Request.Invocation invocation = order.get(i);
+            if (chain.contains(invocation)) {
+                ordered.add(invocation);
+            } else if (!isReadOnly(invocation.getMethodCall())) {
+                return null;
+            }
+        }
+        return ordered;
+    }
+
+    /**
+     * Groups the invocations that are connected through result references (union-find). Groups are returned in order
+     * of their first invocation.
+     */
+    private static Collection<List<Integer>> group(final List<Request.Invocation> invocations) {
+        final int[] parent = new int[invocations.size()];
+        final Map<String, Integer> indices = new HashMap<>();
+        for (int i = 0; i < parent.length; ++i) {
+            parent[i] = i;
+            indices.put(invocations.get(i).getId(), i);
+        }
+        for (int i = 0; i < parent.length; ++i) {
+            for (Request.Invocation.ResultReference reference : getReferences(invocations.get(i).getMethodCall())) {
+                final Integer target = indices.get(reference.getId());
+                if (target != null) {
+                    parent[find(parent, i)] = find(parent, target);
+                }
+            }
+        }
+        final Map<Integer, List<Integer>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < parent.length; ++i) {
+            final int root = find(parent, i);
+            List<Integer> group = groups.get(root);
+            if (group == null) {
+                group = new ArrayList<>();
+                groups.put(root, group);
+            }
+            group.add(i);
+        }
+        return groups.values();
+    }
+
+    private static int find(final int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    private static List<Integer> allIndices(final int size) {
+        final List<Integer> indices = new ArrayList<>(size);
+        for (int i = 0; i < size; ++i) {
+            indices.add(i);
+        }
+        return indices;
+    }
+
+    private static JmapRequest build(final JmapRequest original, final List<Request.Invocation> invocations, final List<SettableFuture<MethodResponses>> futures, final List<Integer> indices) {
+        Collections.sort(indices);
+        final JmapRequest.Builder builder = new JmapRequest.Builder()
+                .created(original.getCreated())
+                .projections(original.getProjections());
+        for (Integer index : indices) {
+            builder.add(invocations.get(index), futures.get(index));
+        }
+        return builder.build();
+    }
+
+    /**
+     * Merges the responses to the chunks of a split call. If some chunks of a set call failed, the changes made by the
+     * others are reported with a {@link PartialResponseException}.
+     */
+    private static MethodResponses merge(final List<SettableFuture<MethodResponses>> chunkFutures) throws Exception {
+        final List<MethodResponses> chunks = new ArrayList<>();
+        Throwable failure = null;
+        for (SettableFuture<MethodResponses> chunkFuture : chunkFutures) {
+            try {
+                chunks.add(Futures.getDone(chunkFuture));
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause();
+                }
+            } catch (CancellationException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure == null) {
+            return mergeResponses(chunks);
+        }
+        if (!chunks.isEmpty() && chunks.get(0).getMain() instanceof SetMethodResponse) {
+            throw new PartialResponseException(mergeResponses(chunks), failure);
+        }
+        Throwables.throwIfInstanceOf(failure, Exception.class);
+        Throwables.throwIfUnchecked(failure);
+        throw new ExecutionException(failure);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static MethodResponses mergeResponses(final List<MethodResponses> chunks) throws StateMismatchException {
+        final List<MethodResponse> mains = new ArrayList<>();
+        MethodResponse[] additional = new MethodResponse[0];
+        for (MethodResponses methodResponses : chunks) {
+            mains.add(methodResponses.getMain());
+            additional = ObjectArrays.concat(additional, methodResponses.getAdditional(), MethodResponse.class);
+        }
+        final MethodResponse main;
+        if (mains.get(0) instanceof GetMethodResponse) {
+            final String state = ((GetMethodResponse<?>) mains.get(0)).getState();
+            for (MethodResponse response : mains) {
+                final String other = ((GetMethodResponse<?>) response).getState();
+                if (state != null && !state.equals(other)) {
+                    throw new StateMismatchException(state, other);
+                }
+            }
+            main = GetMethodResponse.merge((List) mains);
+        } else if (mains.get(0) instanceof SetMethodResponse) {
+            main = SetMethodResponse.merge((List) mains);
+        } else {
+            throw new IllegalStateException(String.format("Unable to merge responses of type %s", mains.get(0).getClass().getSimpleName()));
+        }
+        return new MethodResponses(main, additional);
+    }
+}
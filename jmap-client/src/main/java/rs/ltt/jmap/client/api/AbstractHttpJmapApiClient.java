@@ -0,0 +1,58 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package rs.ltt.jmap.client.api;
+
+import rs.ltt.jmap.client.JmapRequest;
+import rs.ltt.jmap.client.http.HttpAuthentication;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+
+/**
+ * Base class of the api clients that POST every request to the API URL and read the response from the body.
+ */
+public abstract class AbstractHttpJmapApiClient extends AbstractJmapApiClient {
+
+    final URL apiUrl;
+    final HttpAuthentication httpAuthentication;
+
+    AbstractHttpJmapApiClient(final URL apiUrl, final HttpAuthentication httpAuthentication) {
+        this.apiUrl = apiUrl;
+        this.httpAuthentication = httpAuthentication;
+    }
+
+    /**
+     * Sends the request body and blocks until the response body is available.
+     */
+    abstract InputStream send(RequestBody requestBody) throws IOException, JmapApiException;
+
+    @Override
+    public void execute(final JmapRequest jmapRequest) {
+        final RequestTimer timer = startTimer(jmapRequest);
+        try {
+            try (final InputStream inputStream = send(timer.wrap(serialize(jmapRequest.getRequest())))) {
+                timer.responseStarted();
+                process(jmapRequest, timer.wrap(inputStream), timer);
+            }
+        } catch (Exception e) {
+            timer.finish(e);
+            jmapRequest.setException(e);
+        }
+    }
+}
@@ -16,69 +16,251 @@
 
 package rs.ltt.jmap.client.api;
 
+import com.google.common.base.Preconditions;
 import com.google.common.util.concurrent.SettableFuture;
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import rs.ltt.jmap.gson.JmapAdapters;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import rs.ltt.jmap.client.JmapRequest;
 import rs.ltt.jmap.client.MethodResponses;
-import rs.ltt.jmap.client.util.ResponseAnalyzer;
+import rs.ltt.jmap.client.json.GsonCodec;
+import rs.ltt.jmap.client.json.JmapCodec;
+import rs.ltt.jmap.client.metrics.MetricsListener;
 import rs.ltt.jmap.common.ErrorResponse;
-import rs.ltt.jmap.common.GenericResponse;
 import rs.ltt.jmap.common.Request;
-import rs.ltt.jmap.common.Response;
+import rs.ltt.jmap.common.method.DeferredMethodResponse;
 import rs.ltt.jmap.common.method.MethodErrorResponse;
 import rs.ltt.jmap.common.method.MethodResponse;
+import rs.ltt.jmap.common.method.call.submission.SetEmailSubmissionMethodCall;
+import rs.ltt.jmap.common.util.Projections;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 public abstract class AbstractJmapApiClient implements JmapApiClient {
 
-    private final GsonBuilder gsonBuilder;
+    private static final Logger LOGGER = LoggerFactory.getLogger(AbstractJmapApiClient.class);
 
-    AbstractJmapApiClient() {
-        gsonBuilder = new GsonBuilder();
-        JmapAdapters.register(gsonBuilder);
+    /**
+     * Method responses with arguments shorter than this (in characters) are bound on the reading thread even if
+     * parallel deserialization is enabled. Handing them off costs more than binding them.
+     */
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 64 * 1024;
+
+    private volatile JmapCodec codec = new GsonCodec();
+
+    private volatile SessionStateListener sessionStateListener;
+    private volatile MetricsListener metricsListener = MetricsListener.NONE;
+    private volatile boolean lazyMethodResponses = false;
+    private volatile ParallelBinding parallelBinding = null;
+    private volatile Projections projections = null;
+
+    public void setSessionStateListener(SessionStateListener sessionStateListener) {
+        this.sessionStateListener = sessionStateListener;
     }
 
-    abstract void onSessionStateRetrieved(String sessionState);
-
-    abstract InputStream send(String out) throws IOException, JmapApiException;
-
-    @Override
-    public void execute(final JmapRequest jmapRequest) {
-        try {
-            final Gson gson = gsonBuilder.create();
-            InputStream inputStream = send(gson.toJson(jmapRequest.getRequest()));
-            GenericResponse genericResponse = gson.fromJson(new InputStreamReader(inputStream), GenericResponse.class);
-            if (genericResponse instanceof ErrorResponse) {
-                jmapRequest.setException(new ErrorResponseException((ErrorResponse) genericResponse));
-            } else if (genericResponse instanceof Response) {
-                final Response response = (Response) genericResponse;
-                final ResponseAnalyzer responseAnalyzer = ResponseAnalyzer.analyse(response);
-                final Map<Request.Invocation, SettableFuture<MethodResponses>> map = jmapRequest.getInvocationFutureImmutableMap();
-                for(Map.Entry<Request.Invocation, SettableFuture<MethodResponses>> entry : map.entrySet()) {
-                    final Request.Invocation invocation = entry.getKey();
-                    final SettableFuture<MethodResponses> future = entry.getValue();
-                    final MethodResponses methodResponses = responseAnalyzer.find(invocation);
-                    if (methodResponses == null) {
-                        future.setException(new MethodResponseNotFoundException(invocation));
-                        continue;
-                    }
-                    final MethodResponse main = methodResponses.getMain();
-                    if (main instanceof MethodErrorResponse) {
-                        future.setException(new MethodErrorResponseException((MethodErrorResponse) main, methodResponses.getAdditional()));
-                    } else {
-                        future.set(methodResponses);
-                    }
+    /**
+     * @param metricsListener receives the metrics of every request sent by this client. Pass null (or
+     *                        {@link MetricsListener#NONE}) to stop taking measurements.
+     */
+    public void setMetricsListener(MetricsListener metricsListener) {
+        this.metricsListener = metricsListener == null ? MetricsListener.NONE : metricsListener;
+    }
+
+    /**
+     * @param lazyMethodResponses only copy the arguments of a method response while reading the response and bind
+     *                            them to their class on the first call to {@link MethodResponses#getMain()}. Method
+     *                            responses that are never looked at (like the additional responses of an implicit
+     *                            call) are never bound.
+     */
+    public void setLazyMethodResponses(boolean lazyMethodResponses) {
+        this.lazyMethodResponses = lazyMethodResponses;
+    }
+
+    /**
+     * Binds the method responses of a request on the given executor (for example a {@link java.util.concurrent.ForkJoinPool})
+     * while the reading thread moves on to the next invocation. Each future is completed as soon as its method
+     * responses are bound. Only method responses with at least threshold characters of arguments are handed off.
+     *
+     * Has no effect while {@link #setLazyMethodResponses(boolean)} is on.
+     *
+     * @param executor the executor to bind on. Pass null to bind everything on the reading thread again.
+     */
+    public void setParallelDeserialization(Executor executor, int threshold) {
+        this.parallelBinding = executor == null ? null : new ParallelBinding(executor, threshold);
+    }
+
+    /**
+     * @param projections the projections to bind the responses of matching calls to. Pass null to always bind to the
+     *                    full response types.
+     */
+    public void setProjections(Projections projections) {
+        this.projections = projections;
+    }
+
+    /**
+     * @return the projections of the request followed by those of the client, so the request wins if both match a call
+     */
+    private Projections projections(final JmapRequest jmapRequest) {
+        final Projections client = this.projections;
+        final Projections request = jmapRequest.getProjections();
+        if (request == null) {
+            return client;
+        }
+        return client == null ? request : request.with(client);
+    }
+
+    RequestTimer startTimer(final JmapRequest jmapRequest) {
+        return RequestTimer.start(this.metricsListener, jmapRequest);
+    }
+
+    /**
+     * Replaces the codec used to write requests and read responses. By default a {@link GsonCodec} is used.
+     */
+    public void setCodec(JmapCodec codec) {
+        this.codec = Preconditions.checkNotNull(codec);
+    }
+
+    JmapCodec getCodec() {
+        return codec;
+    }
+
+    private void onSessionStateRetrieved(String sessionState) {
+        final SessionStateListener listener = this.sessionStateListener;
+        if (listener != null) {
+            listener.onSessionStateRetrieved(sessionState);
+        }
+    }
+
+    RequestBody serialize(final Request request) {
+        return new RequestBody() {
+            @Override
+            public void writeTo(OutputStream outputStream) throws IOException {
+                final Writer writer = new OutputStreamWriter(outputStream, StandardCharsets.UTF_8);
+                codec.writeRequest(request, writer);
+                writer.flush();
+            }
+        };
+    }
+
+    /**
+     * Reads the response body and completes the futures of the request as their method responses come in.
+     */
+    void process(final JmapRequest jmapRequest, final InputStream inputStream, final RequestTimer timer) throws IOException {
+        process(jmapRequest, new InputStreamReader(inputStream, StandardCharsets.UTF_8), timer);
+    }
+
+    void process(final JmapRequest jmapRequest, final Reader reader, final RequestTimer timer) throws IOException {
+        timer.parseStarted();
+        final Map<String, SettableFuture<MethodResponses>> pending = new HashMap<>();
+        final Map<String, Request.Invocation> invocations = new HashMap<>();
+        for (Map.Entry<Request.Invocation, SettableFuture<MethodResponses>> entry : jmapRequest.getInvocationFutureImmutableMap().entrySet()) {
+            pending.put(entry.getKey().getId(), entry.getValue());
+            invocations.put(entry.getKey().getId(), entry.getKey());
+        }
+        final boolean lazy = this.lazyMethodResponses;
+        final ParallelBinding parallelBinding = lazy ? null : this.parallelBinding;
+        final Projections projections = projections(jmapRequest);
+        final Projections.Plan plan = projections == null ? Projections.Plan.NONE : projections.plan(invocations.values());
+        codec.readResponse(reader, lazy || parallelBinding != null, plan, new JmapCodec.ResponseHandler() {
+            @Override
+            public boolean mayHaveImplicitResponses(String id) {
+                final Request.Invocation invocation = invocations.get(id);
+                return invocation == null || invocation.getMethodCall() instanceof SetEmailSubmissionMethodCall;
+            }
+
+            @Override
+            public void onMethodResponses(String id, MethodResponse[] methodResponses) {
+                final SettableFuture<MethodResponses> future = pending.remove(id);
+                if (future == null) {
+                    LOGGER.warn("Received unexpected method responses for id {}", id);
+                    return;
+                }
+                final MethodResponse main = methodResponses[0];
+                timer.methodResponse(id, main);
+                final MethodResponse[] additional = Arrays.copyOfRange(methodResponses, 1, methodResponses.length);
+                if (main instanceof MethodErrorResponse) {
+                    future.setException(new MethodErrorResponseException((MethodErrorResponse) main, additional));
+                } else if (parallelBinding != null) {
+                    parallelBinding.bind(future, main, additional);
+                } else {
+                    future.set(new MethodResponses(main, additional));
                 }
-                this.onSessionStateRetrieved(response.getSessionState());
             }
-        } catch (Exception e) {
-            jmapRequest.setException(e);
+
+            @Override
+            public void onSessionState(String sessionState) {
+                onSessionStateRetrieved(sessionState);
+            }
+
+            @Override
+            public void onErrorResponse(ErrorResponse errorResponse) {
+                final ErrorResponseException exception = new ErrorResponseException(errorResponse);
+                timer.finish(exception);
+                jmapRequest.setException(exception);
+            }
+        });
+        timer.finish(null);
+        for (Map.Entry<String, SettableFuture<MethodResponses>> entry : pending.entrySet()) {
+            entry.getValue().setException(new MethodResponseNotFoundException(invocations.get(entry.getKey())));
+        }
+    }
+
+    private static class ParallelBinding {
+
+        private final Executor executor;
+        private final int threshold;
+
+        private ParallelBinding(Executor executor, int threshold) {
+            this.executor = executor;
+            this.threshold = threshold;
+        }
+
+        private void bind(final SettableFuture<MethodResponses> future, final MethodResponse main, final MethodResponse[] additional) {
+            if (length(main, additional) < threshold) {
+                complete(future, main, additional);
+                return;
+            }
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        complete(future, main, additional);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                complete(future, main, additional);
+            }
+        }
+
+        private static void complete(final SettableFuture<MethodResponses> future, final MethodResponse main, final MethodResponse[] additional) {
+            try {
+                future.set(new MethodResponses(DeferredMethodResponse.resolve(main), DeferredMethodResponse.resolve(additional)));
+            } catch (RuntimeException e) {
+                future.setException(e);
+            }
+        }
+
+        private static int length(final MethodResponse main, final MethodResponse[] additional) {
+            int length = length(main);
+            for (MethodResponse methodResponse : additional) {
+                length += length(methodResponse);
+            }
+            return length;
+        }
+
+        private static int length(final MethodResponse methodResponse) {
+            return methodResponse instanceof DeferredMethodResponse ? ((DeferredMethodResponse) methodResponse).getLength() : 0;
         }
     }
 }
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package rs.ltt.jmap.client.api;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import org.checkerframework.checker.nullness.compatqual.NonNullDecl;
+import org.checkerframework.checker.nullness.compatqual.NullableDecl;
+import rs.ltt.jmap.client.JmapRequest;
+import rs.ltt.jmap.client.http.HttpAuthentication;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+
+/**
+ * Api client that does not hold a thread while waiting for the response. The response is read and the futures of the
+ * request are completed on the given executor, never on the I/O thread of the {@link AsyncHttpTransport}, so that
+ * binding and the listeners of the futures do not stall the transport.
+ */
+public class AsyncHttpJmapApiClient extends AbstractHttpJmapApiClient {
+
+    private final AsyncHttpTransport asyncHttpTransport;
+    private final Executor executor;
+
+    public AsyncHttpJmapApiClient(final URL apiUrl, final HttpAuthentication httpAuthentication, final AsyncHttpTransport asyncHttpTransport, final Executor executor) {
+        super(apiUrl, httpAuthentication);
+        this.asyncHttpTransport = asyncHttpTransport;
+        this.executor = executor;
+    }
+
+    @Override
+    public void execute(final JmapRequest jmapRequest) {
+        final RequestTimer timer = startTimer(jmapRequest);
+        Futures.addCallback(asyncHttpTransport.post(apiUrl, httpAuthentication, timer.wrap(serialize(jmapRequest.getRequest()))), new FutureCallback<InputStream>() {
+            @Override
+            public void onSuccess(@NullableDecl InputStream inputStream) {
+                timer.responseStarted();
+                try (final InputStream closeable = inputStream) {
+                    process(jmapRequest, timer.wrap(closeable), timer);
+                } catch (Exception e) {
+                    timer.finish(e);
+                    jmapRequest.setException(e);
+                }
+            }
+
+            @Override
+            public void onFailure(@NonNullDecl Throwable throwable) {
+                timer.finish(throwable);
+                jmapRequest.setException(throwable);
+            }
+        }, executor);
+    }
+
+    @Override
+    InputStream send(RequestBody requestBody) throws IOException, JmapApiException {
+        try {
+            return asyncHttpTransport.post(apiUrl, httpAuthentication, requestBody).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof JmapApiException) {
+                throw (JmapApiException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+}
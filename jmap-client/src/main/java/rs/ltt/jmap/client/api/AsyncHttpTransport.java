@@ -0,0 +1,39 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package rs.ltt.jmap.client.api;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import rs.ltt.jmap.client.http.HttpAuthentication;
+
+import java.io.InputStream;
+import java.net.URL;
+
+/**
+ * A {@link HttpTransport} that does not block the calling thread while waiting for the response. The returned future
+ * completes from the I/O callbacks of the underlying HTTP client; listeners that read the response body must therefore
+ * be attached with an executor of their own.
+ */
+public interface AsyncHttpTransport {
+
+    /**
+     * Writes the body to the given URL. Implementations may write (large) bodies on the calling thread. The future
+     * completes with the response body; callers must close the stream once they are done reading.
+     */
+    ListenableFuture<InputStream> post(URL url, HttpAuthentication httpAuthentication, RequestBody body);
+
+}
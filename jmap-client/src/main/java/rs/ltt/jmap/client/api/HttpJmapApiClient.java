@@ -22,55 +22,86 @@ import org.slf4j.LoggerFactory;
 import rs.ltt.jmap.client.http.BasicAuthHttpAuthentication;
 import rs.ltt.jmap.client.http.HttpAuthentication;
 
-import java.io.*;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
+import java.net.URL;
 
-public class HttpJmapApiClient extends AbstractJmapApiClient {
+public class HttpJmapApiClient extends AbstractHttpJmapApiClient {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(HttpJmapApiClient.class);
 
-    private final URL apiUrl;
-    private final HttpAuthentication httpAuthentication;
+    private static final int MAX_LOGGED_BODY_SIZE = 4 * 1024;
+
+    private final HttpTransport httpTransport;
 
     public HttpJmapApiClient(final URL apiUrl, String username, String password) {
         this(apiUrl, new BasicAuthHttpAuthentication(username, password));
     }
 
     public HttpJmapApiClient(final URL apiUrl, final HttpAuthentication httpAuthentication) {
-        this.apiUrl = apiUrl;
-        this.httpAuthentication = httpAuthentication;
+        this(apiUrl, httpAuthentication, new PooledHttpTransport());
     }
 
-    @Override
-    void onSessionStateRetrieved(String sessionState) {
-        //System.out.println("sessionState="+sessionState);
+    public HttpJmapApiClient(final URL apiUrl, final HttpAuthentication httpAuthentication, final HttpTransport httpTransport) {
+        super(apiUrl, httpAuthentication);
+        this.httpTransport = httpTransport;
     }
 
     @Override
-    InputStream send(String out) throws IOException, JmapApiException {
-        LOGGER.info(out);
-        final HttpURLConnection connection = (HttpURLConnection) this.apiUrl.openConnection();
-        connection.setRequestMethod("POST");
-        connection.setRequestProperty("Content-Type", "application/json");
-        this.httpAuthentication.authenticate(connection);
-        connection.setDoOutput(true);
-        OutputStream os = connection.getOutputStream();
-        BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(os, StandardCharsets.UTF_8));
-        writer.write(out);
-        writer.flush();
-        writer.close();
-        os.close();
-        final int code = connection.getResponseCode();
-        LOGGER.debug(connection.getURL().toString()+" returned code="+code);
-        if (code == 404) {
-            throw new EndpointNotFoundException(String.format("API URL(%s) not found", connection.getURL()));
+    InputStream send(final RequestBody requestBody) throws IOException, JmapApiException {
+        if (!LOGGER.isDebugEnabled()) {
+            return httpTransport.post(apiUrl, httpAuthentication, requestBody);
         }
-        if (code == 401) {
-            throw new UnauthorizedException(String.format("API URL(%s) was unauthorized", apiUrl));
+        final LoggingRequestBody loggingRequestBody = new LoggingRequestBody(requestBody);
+        final InputStream inputStream = httpTransport.post(apiUrl, httpAuthentication, loggingRequestBody);
+        LOGGER.debug(loggingRequestBody.toString());
+        return inputStream;
+    }
+
+    /**
+     * Keeps a copy of the first {@link #MAX_LOGGED_BODY_SIZE} bytes of the body as it is being written.
+     */
+    private static class LoggingRequestBody implements RequestBody {
+
+        private final RequestBody requestBody;
+        private final ByteArrayOutputStream head = new ByteArrayOutputStream();
+        private long size = 0;
+
+        private LoggingRequestBody(RequestBody requestBody) {
+            this.requestBody = requestBody;
+        }
+
+        @Override
+        public void writeTo(OutputStream outputStream) throws IOException {
+            requestBody.writeTo(new FilterOutputStream(outputStream) {
+                @Override
+                public void write(int b) throws IOException {
+                    write(new byte[]{(byte) b}, 0, 1);
+                }
+
+                @Override
+                public void write(byte[] bytes, int offset, int length) throws IOException {
+                    out.write(bytes, offset, length);
+                    final int remaining = MAX_LOGGED_BODY_SIZE - head.size();
+                    if (remaining > 0) {
+                        head.write(bytes, offset, Math.min(remaining, length));
+                    }
+                    size += length;
+                }
+            });
+        }
+
+        @Override
+        public String toString() {
+            final String logged = new String(head.toByteArray(), StandardCharsets.UTF_8);
+            if (size > head.size()) {
+                return logged + "... (" + size + " bytes)";
+            }
+            return logged;
         }
-        //TODO: code 500+ should probably just throw internal server error exception
-        return code >= 200 && code < 300 ? connection.getInputStream() : connection.getErrorStream();
     }
 }
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package rs.ltt.jmap.client.api;
+
+import rs.ltt.jmap.client.http.HttpAuthentication;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+
+/**
+ * The transport is responsible for delivering a serialized JMAP request to the API endpoint. Implementations are
+ * expected to be thread safe as one transport is usually shared between all API clients of a {@link
+ * rs.ltt.jmap.client.JmapClient}.
+ */
+public interface HttpTransport {
+
+    /**
+     * Writes the body to the given URL and returns the response body. Callers must close the returned stream once they
+     * are done reading as this releases the underlying connection back to the transport.
+     */
+    InputStream post(URL url, HttpAuthentication httpAuthentication, RequestBody body) throws IOException, JmapApiException;
+
+}
@@ -26,4 +26,8 @@ public abstract class JmapApiException extends Exception {
         super(message);
     }
 
+    JmapApiException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
 }
@@ -16,6 +16,7 @@
 
 package rs.ltt.jmap.client.api;
 
+import rs.ltt.jmap.common.method.DeferredMethodResponse;
 import rs.ltt.jmap.common.method.MethodErrorResponse;
 import rs.ltt.jmap.common.method.MethodResponse;
 
@@ -34,6 +35,6 @@ public class MethodErrorResponseException extends JmapApiException {
     }
 
     public MethodResponse[] getAdditional() {
-        return additional;
+        return DeferredMethodResponse.resolve(additional);
     }
 }
@@ -0,0 +1,653 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package rs.ltt.jmap.client.api;
+
+import com.google.common.base.Preconditions;
+import com.google.common.io.CountingInputStream;
+import com.google.common.io.CountingOutputStream;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.ContentEncoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.client.methods.HttpAsyncMethods;
+import org.apache.http.nio.entity.ContentInputStream;
+import org.apache.http.nio.entity.HttpAsyncContentProducer;
+import org.apache.http.nio.entity.NByteArrayEntity;
+import org.apache.http.nio.protocol.AbstractAsyncResponseConsumer;
+import org.apache.http.nio.util.SimpleInputBuffer;
+import org.apache.http.protocol.HttpContext;
+import rs.ltt.jmap.client.http.HttpAuthentication;
+import rs.ltt.jmap.client.util.ContentEncoding;
+
+import java.io.*;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * {@link AsyncHttpTransport} based on the non-blocking Apache HttpAsyncClient. A small, fixed number of I/O dispatcher
+ * threads serves all connections; no thread is held while waiting for the response.
+ * <p>
+ * httpasyncclient is an optional dependency of jmap-client and has to be added to projects that want to use this
+ * transport. Request bodies that fit into a 64 KiB buffer (or into the request compression threshold, if configured)
+ * are sent with a Content-Length. Larger bodies are sent with chunked transfer encoding: the calling thread serializes
+ * them into a {@link RequestChannel} the I/O reactor drains into the socket as it becomes writable, so the caller
+ * never waits for the network. Likewise the reactor collects the response body and the future only completes once it
+ * is in; reading the returned stream never blocks the executor the caller handles it on. Bodies are never serialized
+ * or parsed on an I/O dispatcher thread.
+ * <p>
+ * Like {@link PooledHttpTransport} responses are requested with gzip or deflate Content-Encoding and request bodies
+ * are only compressed if a {@link Builder#requestCompressionThreshold(int)} has been configured.
+ */
+public class NioHttpTransport implements AsyncHttpTransport, Closeable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final CloseableHttpAsyncClient httpAsyncClient;
+    private final TransferStatistics transferStatistics = new TransferStatistics();
+    private final boolean acceptCompressedResponses;
+    private final int requestCompressionThreshold;
+
+    public NioHttpTransport() {
+        this(new Builder());
+    }
+
+    private NioHttpTransport(Builder builder) {
+        final IOReactorConfig ioReactorConfig = IOReactorConfig.custom()
+                .setIoThreadCount(builder.ioThreads)
+                .setConnectTimeout(builder.connectTimeout)
+                .setSoTimeout(builder.readTimeout)
+                .build();
+        final RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(builder.connectTimeout)
+                .setSocketTimeout(builder.readTimeout)
+                .build();
+        this.httpAsyncClient = HttpAsyncClients.custom()
+                .setDefaultIOReactorConfig(ioReactorConfig)
+                .setDefaultRequestConfig(requestConfig)
+                .setMaxConnPerRoute(builder.maxConnectionsPerHost)
+                .setMaxConnTotal(builder.maxConnections)
+                .build();
+        this.acceptCompressedResponses = builder.acceptCompressedResponses;
+        this.requestCompressionThreshold = builder.requestCompressionThreshold;
+        this.httpAsyncClient.start();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public TransferStatistics getTransferStatistics() {
+        return transferStatistics;
+    }
+
+    @Override
+    public ListenableFuture<InputStream> post(final URL url, final HttpAuthentication httpAuthentication, final RequestBody body) {
+        final HttpPost httpPost;
+        try {
+            httpPost = new HttpPost(url.toURI());
+        } catch (URISyntaxException e) {
+            return Futures.immediateFailedFuture(e);
+        }
+        httpPost.setHeader("Authorization", httpAuthentication.getAuthorization());
+        if (acceptCompressedResponses) {
+            httpPost.setHeader("Accept-Encoding", ContentEncoding.ACCEPT_ENCODING);
+        }
+        final SettableFuture<InputStream> future = SettableFuture.create();
+        final RequestOutputStream requestOutputStream = new RequestOutputStream(url, httpPost, future);
+        final CountingOutputStream outputStream = new CountingOutputStream(requestOutputStream);
+        try {
+            body.writeTo(outputStream);
+            outputStream.close();
+        } catch (IOException | RuntimeException e) {
+            //never send a truncated body; abort the exchange instead
+            requestOutputStream.abort();
+            future.setException(e);
+            return future;
+        }
+        transferStatistics.recordSent(requestOutputStream.getWireCount(), outputStream.getCount());
+        return future;
+    }
+
+    private void execute(final URL url, final HttpPost httpPost, final SettableFuture<InputStream> future) {
+        final ResponseConsumer responseConsumer = new ResponseConsumer(url, future);
+        final Future<Void> exchange = httpAsyncClient.execute(HttpAsyncMethods.create(httpPost), responseConsumer, new org.apache.http.concurrent.FutureCallback<Void>() {
+            @Override
+            public void completed(Void result) {
+
+            }
+
+            @Override
+            public void failed(Exception e) {
+                responseConsumer.fail(e);
+            }
+
+            @Override
+            public void cancelled() {
+                responseConsumer.fail(new InterruptedIOException("Request has been cancelled"));
+            }
+        });
+        future.addListener(new Runnable() {
+            @Override
+            public void run() {
+                if (future.isCancelled()) {
+                    exchange.cancel(true);
+                }
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    @Override
+    public void close() throws IOException {
+        httpAsyncClient.close();
+    }
+
+    /**
+     * Collects the body until it either has been written completely (and is sent with a Content-Length) or has outgrown
+     * the buffer. In the latter case the exchange is started with a {@link StreamingEntity} and the rest of the body is
+     * handed to the reactor through its {@link RequestChannel}. The Content-Encoding is decided at the same point.
+     */
+    private class RequestOutputStream extends OutputStream {
+
+        private final URL url;
+        private final HttpPost httpPost;
+        private final SettableFuture<InputStream> future;
+        private final int limit;
+        private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+        private StreamingEntity streamingEntity = null;
+        private CountingOutputStream wire = null;
+        private OutputStream out = null;
+        private long wireCount = 0;
+        private boolean closed = false;
+
+        private RequestOutputStream(URL url, HttpPost httpPost, SettableFuture<InputStream> future) {
+            this.url = url;
+            this.httpPost = httpPost;
+            this.future = future;
+            this.limit = requestCompressionThreshold >= 0 ? requestCompressionThreshold : BUFFER_SIZE;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            if (closed) {
+                throw new IOException("Stream has already been closed");
+            }
+            if (out == null && pending.size() + length > limit) {
+                streamingEntity = new StreamingEntity();
+                httpPost.setEntity(streamingEntity);
+                wire = new CountingOutputStream(streamingEntity.channel);
+                if (requestCompressionThreshold >= 0) {
+                    httpPost.setHeader("Content-Encoding", ContentEncoding.GZIP);
+                    out = new GZIPOutputStream(wire, 8192);
+                } else {
+                    out = wire;
+                }
+                execute(url, httpPost, future);
+                pending.writeTo(out);
+                pending = null;
+            }
+            if (out == null) {
+                pending.write(bytes, offset, length);
+            } else {
+                out.write(bytes, offset, length);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (out == null) {
+                final byte[] body = pending.toByteArray();
+                pending = null;
+                httpPost.setEntity(new NByteArrayEntity(body, ContentType.APPLICATION_JSON));
+                wireCount = body.length;
+                execute(url, httpPost, future);
+            } else {
+                out.close();
+                wireCount = wire.getCount();
+            }
+        }
+
+        private void abort() {
+            if (streamingEntity != null) {
+                streamingEntity.channel.abort();
+            }
+        }
+
+        private long getWireCount() {
+            return wireCount;
+        }
+    }
+
+    /**
+     * A request body that is produced by the calling thread and consumed by the I/O reactor. Neither side waits for
+     * the other: writes are queued in chunks (the body is held in memory at worst, as it would be with a
+     * Content-Length) and the reactor suspends output while the queue is empty; the next chunk requests it again.
+     */
+    private static class RequestChannel extends OutputStream {
+
+        private static final int CHUNK_SIZE = 8192;
+
+        private final ArrayDeque<ByteBuffer> chunks = new ArrayDeque<>();
+        private ByteBuffer current = null;
+        private IOControl suspended = null;
+        private boolean closed = false;
+        private boolean aborted = false;
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public synchronized void write(byte[] bytes, int offset, int length) throws IOException {
+            if (aborted) {
+                throw new InterruptedIOException("Request has been aborted");
+            }
+            if (closed) {
+                throw new IOException("Stream has already been closed");
+            }
+            while (length > 0) {
+                if (current == null) {
+                    current = ByteBuffer.allocate(Math.max(CHUNK_SIZE, length));
+                }
+                final int count = Math.min(current.remaining(), length);
+                current.put(bytes, offset, count);
+                offset += count;
+                length -= count;
+                if (!current.hasRemaining()) {
+                    enqueue();
+                }
+            }
+        }
+
+        @Override
+        public synchronized void flush() {
+            if (current != null && current.position() > 0) {
+                enqueue();
+            }
+        }
+
+        @Override
+        public synchronized void close() {
+            if (closed) {
+                return;
+            }
+            flush();
+            closed = true;
+            wakeUp();
+        }
+
+        /**
+         * Drops the body; the reactor fails the exchange the next time it asks for content.
+         */
+        private synchronized void abort() {
+            aborted = true;
+            chunks.clear();
+            current = null;
+            wakeUp();
+        }
+
+        private void enqueue() {
+            current.flip();
+            chunks.add(current);
+            current = null;
+            wakeUp();
+        }
+
+        private void wakeUp() {
+            if (suspended != null) {
+                suspended.requestOutput();
+                suspended = null;
+            }
+            notifyAll();
+        }
+
+        /**
+         * Called by the reactor whenever the connection is writable.
+         */
+        private synchronized void produceContent(ContentEncoder encoder, IOControl ioControl) throws IOException {
+            if (aborted) {
+                throw new InterruptedIOException("Request has been aborted");
+            }
+            while (!chunks.isEmpty()) {
+                final ByteBuffer chunk = chunks.peek();
+                encoder.write(chunk);
+                if (chunk.hasRemaining()) {
+                    //the socket is full; the reactor calls again once it is writable
+                    return;
+                }
+                chunks.poll();
+            }
+            if (closed) {
+                encoder.complete();
+            } else {
+                ioControl.suspendOutput();
+                suspended = ioControl;
+            }
+        }
+
+        /**
+         * Blocking counterpart of {@link #produceContent(ContentEncoder, IOControl)} for {@link StreamingEntity#writeTo(OutputStream)}.
+         *
+         * @return the next chunk or null once the body has been consumed completely
+         */
+        private synchronized ByteBuffer take() throws IOException {
+            while (chunks.isEmpty() && !closed && !aborted) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+            }
+            if (aborted) {
+                throw new InterruptedIOException("Request has been aborted");
+            }
+            return chunks.poll();
+        }
+    }
+
+    private static class StreamingEntity extends AbstractHttpEntity implements HttpAsyncContentProducer {
+
+        private final RequestChannel channel = new RequestChannel();
+        private boolean consumed = false;
+
+        private StreamingEntity() {
+            setContentType(ContentType.APPLICATION_JSON.toString());
+            setChunked(true);
+        }
+
+        @Override
+        public void produceContent(ContentEncoder encoder, IOControl ioControl) throws IOException {
+            channel.produceContent(encoder, ioControl);
+        }
+
+        @Override
+        public boolean isRepeatable() {
+            return false;
+        }
+
+        @Override
+        public long getContentLength() {
+            return -1;
+        }
+
+        @Override
+        public InputStream getContent() {
+            consume();
+            return new InputStream() {
+
+                private ByteBuffer chunk = null;
+
+                @Override
+                public int read() throws IOException {
+                    final byte[] single = new byte[1];
+                    return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+                }
+
+                @Override
+                public int read(byte[] bytes, int offset, int length) throws IOException {
+                    while (chunk == null || !chunk.hasRemaining()) {
+                        chunk = channel.take();
+                        if (chunk == null) {
+                            return -1;
+                        }
+                    }
+                    final int count = Math.min(chunk.remaining(), length);
+                    chunk.get(bytes, offset, count);
+                    return count;
+                }
+            };
+        }
+
+        @Override
+        public void writeTo(OutputStream outputStream) throws IOException {
+            consume();
+            ByteBuffer chunk;
+            while ((chunk = channel.take()) != null) {
+                outputStream.write(chunk.array(), chunk.arrayOffset() + chunk.position(), chunk.remaining());
+            }
+            outputStream.flush();
+        }
+
+        private synchronized void consume() {
+            Preconditions.checkState(!consumed, "Streaming entity can only be consumed once");
+            consumed = true;
+        }
+
+        @Override
+        public boolean isStreaming() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+            //the exchange is over (or has failed); further writes of the caller are pointless
+            channel.abort();
+        }
+    }
+
+    /**
+     * Collects the body in a {@link SimpleInputBuffer} that grows as the reactor reads it and completes the future
+     * with a {@link ResponseInputStream} once the body is complete. Error responses are discarded.
+     */
+    private class ResponseConsumer extends AbstractAsyncResponseConsumer<Void> {
+
+        private final URL url;
+        private final SettableFuture<InputStream> future;
+        private SimpleInputBuffer buffer = null;
+        private String contentEncoding = null;
+        private int code;
+
+        private ResponseConsumer(URL url, SettableFuture<InputStream> future) {
+            this.url = url;
+            this.future = future;
+        }
+
+        @Override
+        protected void onResponseReceived(HttpResponse response) {
+            this.code = response.getStatusLine().getStatusCode();
+            if (code == 404) {
+                future.setException(new EndpointNotFoundException(String.format("API URL(%s) not found", url)));
+            } else if (code == 401) {
+                future.setException(new UnauthorizedException(String.format("API URL(%s) was unauthorized", url)));
+            }
+        }
+
+        @Override
+        protected void onEntityEnclosed(HttpEntity entity, ContentType contentType) {
+            if (future.isDone()) {
+                return;
+            }
+            final Header contentEncoding = entity.getContentEncoding();
+            final long contentLength = entity.getContentLength();
+            this.contentEncoding = contentEncoding == null ? null : contentEncoding.getValue();
+            this.buffer = new SimpleInputBuffer(contentLength > 0 && contentLength < BUFFER_SIZE ? (int) contentLength : BUFFER_SIZE);
+        }
+
+        @Override
+        protected void onContentReceived(ContentDecoder decoder, IOControl ioControl) throws IOException {
+            if (buffer != null) {
+                buffer.consumeContent(decoder);
+                return;
+            }
+            //error responses are discarded
+            final ByteBuffer discard = ByteBuffer.allocate(4096);
+            while (decoder.read(discard) > 0) {
+                discard.clear();
+            }
+        }
+
+        @Override
+        protected Void buildResult(HttpContext context) {
+            if (buffer == null) {
+                future.setException(new IOException(String.format("API URL(%s) returned code %d without response body", url, code)));
+            } else {
+                future.set(new ResponseInputStream(buffer, contentEncoding));
+            }
+            return null;
+        }
+
+        @Override
+        protected void releaseResources() {
+
+        }
+
+        private void fail(final Exception e) {
+            future.setException(e);
+        }
+    }
+
+    /**
+     * Reads a response body that has been received completely. The Content-Encoding is only undone once the first byte
+     * is read so that a malformed body fails the read and not the reactor thread completing the future.
+     */
+    private class ResponseInputStream extends InputStream {
+
+        private final CountingInputStream wire;
+        private final String contentEncoding;
+        private CountingInputStream decoded = null;
+        private boolean closed = false;
+
+        private ResponseInputStream(SimpleInputBuffer buffer, String contentEncoding) {
+            this.wire = new CountingInputStream(new ContentInputStream(buffer));
+            this.contentEncoding = contentEncoding;
+        }
+
+        private InputStream decoded() throws IOException {
+            if (decoded == null) {
+                decoded = new CountingInputStream(ContentEncoding.decode(wire, contentEncoding));
+            }
+            return decoded;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return decoded().read();
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            return decoded().read(bytes, offset, length);
+        }
+
+        @Override
+        public void close() throws IOException {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+            }
+            try {
+                //skips (and counts) the part of the body that has not been read
+                wire.close();
+            } finally {
+                transferStatistics.recordReceived(wire.getCount(), decoded == null ? 0 : decoded.getCount());
+            }
+        }
+    }
+
+    public static class Builder {
+
+        private int ioThreads = 2;
+        private int maxConnectionsPerHost = PooledHttpTransport.DEFAULT_MAX_CONNECTIONS_PER_HOST;
+        private int maxConnections = 200;
+        private int connectTimeout = (int) TimeUnit.SECONDS.toMillis(30);
+        private int readTimeout = (int) TimeUnit.SECONDS.toMillis(90);
+        private boolean acceptCompressedResponses = true;
+        private int requestCompressionThreshold = -1;
+
+        private Builder() {
+
+        }
+
+        public Builder ioThreads(int ioThreads) {
+            Preconditions.checkArgument(ioThreads > 0, "ioThreads must be positive");
+            this.ioThreads = ioThreads;
+            return this;
+        }
+
+        public Builder maxConnectionsPerHost(int maxConnectionsPerHost) {
+            Preconditions.checkArgument(maxConnectionsPerHost > 0, "maxConnectionsPerHost must be positive");
+            this.maxConnectionsPerHost = maxConnectionsPerHost;
+            return this;
+        }
+
+        public Builder maxConnections(int maxConnections) {
+            Preconditions.checkArgument(maxConnections > 0, "maxConnections must be positive");
+            this.maxConnections = maxConnections;
+            return this;
+        }
+
+        public Builder connectTimeout(long timeout, TimeUnit unit) {
+            this.connectTimeout = (int) unit.toMillis(timeout);
+            return this;
+        }
+
+        public Builder readTimeout(long timeout, TimeUnit unit) {
+            this.readTimeout = (int) unit.toMillis(timeout);
+            return this;
+        }
+
+        public Builder acceptCompressedResponses(boolean acceptCompressedResponses) {
+            this.acceptCompressedResponses = acceptCompressedResponses;
+            return this;
+        }
+
+        /**
+         * Compresses request bodies larger than the given number of bytes with gzip. Request compression is off by
+         * default; only enable it for servers that are known to accept compressed requests.
+         */
+        public Builder requestCompressionThreshold(int bytes) {
+            Preconditions.checkArgument(bytes >= 0, "threshold must not be negative");
+            this.requestCompressionThreshold = bytes;
+            return this;
+        }
+
+        public NioHttpTransport build() {
+            return new NioHttpTransport(this);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package rs.ltt.jmap.client.api;
+
+import rs.ltt.jmap.client.MethodResponses;
+
+/**
+ * Some of the calls a set call has been split into failed. The changes made by the calls that succeeded have been
+ * applied on the server and are available as merged {@link MethodResponses}; the cause is the first failure.
+ */
+public class PartialResponseException extends JmapApiException {
+
+    private final MethodResponses partialResponses;
+
+    public PartialResponseException(MethodResponses partialResponses, Throwable cause) {
+        super("Only some of the split calls succeeded", cause);
+        this.partialResponses = partialResponses;
+    }
+
+    public MethodResponses getPartialResponses() {
+        return partialResponses;
+    }
+}
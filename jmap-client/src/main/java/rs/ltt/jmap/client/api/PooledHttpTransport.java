@@ -0,0 +1,400 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package rs.ltt.jmap.client.api;
+
+import com.google.common.base.Preconditions;
+import com.google.common.io.CountingInputStream;
+import com.google.common.io.CountingOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rs.ltt.jmap.client.http.HttpAuthentication;
+import rs.ltt.jmap.client.util.ByteArrayPool;
+import rs.ltt.jmap.client.util.ContentEncoding;
+
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Default {@link HttpTransport} that keeps a bounded number of keep-alive connections per API host.
+ * <p>
+ * Connections are handed out by {@link HttpURLConnection} which maintains a keep-alive cache of its own. That cache
+ * only takes a connection back if the response body has been read completely and the stream has been closed. This
+ * transport makes sure that happens for every response and caps the number of concurrent connections per host so
+ * that no more sockets are opened than the keep-alive cache is able to hold (http.maxConnections defaults to 5).
+ * <p>
+ * Request bodies are written into a pooled buffer. Bodies that fit into that buffer are sent with a Content-Length;
+ * larger bodies switch over to chunked transfer encoding and are streamed into the socket as they are being written.
+ * <p>
+ * Responses are requested with gzip or deflate Content-Encoding. Request bodies are only compressed if a
+ * {@link Builder#requestCompressionThreshold(int)} has been configured since not every server accepts compressed
+ * requests.
+ */
+public class PooledHttpTransport implements HttpTransport {
+
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 5;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PooledHttpTransport.class);
+
+    private static final int MAX_DRAIN_BYTES = 64 * 1024;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final ConcurrentMap<String, Semaphore> hosts = new ConcurrentHashMap<>();
+    private final TransferStatistics transferStatistics = new TransferStatistics();
+    private final ByteArrayPool bufferPool;
+    private final int maxConnectionsPerHost;
+    private final int connectTimeout;
+    private final int readTimeout;
+    private final boolean acceptCompressedResponses;
+    private final int requestCompressionThreshold;
+
+    public PooledHttpTransport() {
+        this(new Builder());
+    }
+
+    private PooledHttpTransport(Builder builder) {
+        this.maxConnectionsPerHost = builder.maxConnectionsPerHost;
+        this.connectTimeout = builder.connectTimeout;
+        this.readTimeout = builder.readTimeout;
+        this.acceptCompressedResponses = builder.acceptCompressedResponses;
+        this.requestCompressionThreshold = builder.requestCompressionThreshold;
+        this.bufferPool = new ByteArrayPool(BUFFER_SIZE, builder.maxConnectionsPerHost);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public TransferStatistics getTransferStatistics() {
+        return transferStatistics;
+    }
+
+    private static String key(URL url) {
+        final int port = url.getPort() == -1 ? url.getDefaultPort() : url.getPort();
+        return url.getProtocol() + "://" + url.getHost() + ":" + port;
+    }
+
+    private Semaphore getPermits(URL url) {
+        final String key = key(url);
+        final Semaphore existing = hosts.get(key);
+        if (existing != null) {
+            return existing;
+        }
+        final Semaphore semaphore = new Semaphore(maxConnectionsPerHost, true);
+        final Semaphore previous = hosts.putIfAbsent(key, semaphore);
+        return previous == null ? semaphore : previous;
+    }
+
+    @Override
+    public InputStream post(URL url, HttpAuthentication httpAuthentication, RequestBody body) throws IOException, JmapApiException {
+        final Semaphore permits = getPermits(url);
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a connection to " + url.getHost());
+        }
+        boolean handedOut = false;
+        try {
+            final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            connection.setConnectTimeout(connectTimeout);
+            connection.setReadTimeout(readTimeout);
+            connection.setUseCaches(false);
+            connection.setRequestMethod("POST");
+            connection.setRequestProperty("Content-Type", "application/json");
+            connection.setRequestProperty("Connection", "keep-alive");
+            if (acceptCompressedResponses) {
+                connection.setRequestProperty("Accept-Encoding", ContentEncoding.ACCEPT_ENCODING);
+            }
+            httpAuthentication.authenticate(connection);
+            connection.setDoOutput(true);
+            final BodyOutputStream bodyOutputStream = new BodyOutputStream(connection, bufferPool);
+            final CountingOutputStream wireOutputStream = new CountingOutputStream(bodyOutputStream);
+            final CountingOutputStream outputStream = new CountingOutputStream(
+                    requestCompressionThreshold >= 0 ? new CompressingOutputStream(connection, wireOutputStream, requestCompressionThreshold) : wireOutputStream
+            );
+            try {
+                body.writeTo(outputStream);
+                outputStream.close();
+            } catch (IOException | RuntimeException e) {
+                //never send a truncated body; drop the connection instead
+                bodyOutputStream.abort();
+                connection.disconnect();
+                throw e;
+            }
+            transferStatistics.recordSent(wireOutputStream.getCount(), outputStream.getCount());
+            final int code = connection.getResponseCode();
+            LOGGER.debug(connection.getURL().toString() + " returned code=" + code);
+            if (code == 404) {
+                release(connection.getErrorStream());
+                throw new EndpointNotFoundException(String.format("API URL(%s) not found", connection.getURL()));
+            }
+            if (code == 401) {
+                release(connection.getErrorStream());
+                throw new UnauthorizedException(String.format("API URL(%s) was unauthorized", url));
+            }
+            //TODO: code 500+ should probably just throw internal server error exception
+            final InputStream inputStream = code >= 200 && code < 300 ? connection.getInputStream() : connection.getErrorStream();
+            if (inputStream == null) {
+                throw new IOException(String.format("API URL(%s) returned code %d without response body", url, code));
+            }
+            final CountingInputStream wireInputStream = new CountingInputStream(inputStream);
+            final CountingInputStream decodedInputStream;
+            try {
+                decodedInputStream = new CountingInputStream(ContentEncoding.decode(wireInputStream, connection.getContentEncoding()));
+            } catch (IOException e) {
+                connection.disconnect();
+                throw e;
+            }
+            handedOut = true;
+            return new PooledInputStream(decodedInputStream, wireInputStream, permits, transferStatistics);
+        } finally {
+            if (!handedOut) {
+                permits.release();
+            }
+        }
+    }
+
+    private static void release(InputStream inputStream) {
+        if (inputStream == null) {
+            return;
+        }
+        try {
+            drain(inputStream);
+            inputStream.close();
+        } catch (IOException e) {
+            LOGGER.debug("Unable to release connection", e);
+        }
+    }
+
+    private static void drain(InputStream inputStream) throws IOException {
+        final byte[] buffer = new byte[4096];
+        int total = 0;
+        int count;
+        while (total < MAX_DRAIN_BYTES && (count = inputStream.read(buffer)) != -1) {
+            total += count;
+        }
+    }
+
+    /**
+     * Collects the body in a pooled buffer and only decides between fixed length and chunked streaming mode once the
+     * body either has been written completely or has outgrown the buffer.
+     */
+    private static class BodyOutputStream extends OutputStream {
+
+        private final HttpURLConnection connection;
+        private final ByteArrayPool bufferPool;
+        private byte[] buffer;
+        private int count = 0;
+        private OutputStream streaming = null;
+        private boolean closed = false;
+
+        private BodyOutputStream(HttpURLConnection connection, ByteArrayPool bufferPool) {
+            this.connection = connection;
+            this.bufferPool = bufferPool;
+            this.buffer = bufferPool.acquire();
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            if (closed) {
+                throw new IOException("Stream has already been closed");
+            }
+            if (streaming == null && count + length <= buffer.length) {
+                System.arraycopy(bytes, offset, buffer, count, length);
+                count += length;
+                return;
+            }
+            if (streaming == null) {
+                connection.setChunkedStreamingMode(buffer.length);
+                streaming = connection.getOutputStream();
+                streaming.write(buffer, 0, count);
+                count = 0;
+            }
+            streaming.write(bytes, offset, length);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                if (streaming == null) {
+                    connection.setFixedLengthStreamingMode(count);
+                    streaming = connection.getOutputStream();
+                    streaming.write(buffer, 0, count);
+                }
+                streaming.close();
+            } finally {
+                bufferPool.release(buffer);
+                buffer = null;
+            }
+        }
+
+        private void abort() {
+            if (!closed) {
+                closed = true;
+                bufferPool.release(buffer);
+                buffer = null;
+            }
+        }
+    }
+
+    /**
+     * Buffers up to threshold bytes and only then decides whether the body is worth compressing. The Content-Encoding
+     * header can still be set at that point because {@link BodyOutputStream} has not opened the connection yet.
+     */
+    private static class CompressingOutputStream extends OutputStream {
+
+        private final HttpURLConnection connection;
+        private final OutputStream wire;
+        private final int threshold;
+        private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+        private OutputStream out = null;
+
+        private CompressingOutputStream(HttpURLConnection connection, OutputStream wire, int threshold) {
+            this.connection = connection;
+            this.wire = wire;
+            this.threshold = threshold;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            if (out == null && pending.size() + length > threshold) {
+                connection.setRequestProperty("Content-Encoding", ContentEncoding.GZIP);
+                out = new GZIPOutputStream(wire, 8192);
+                pending.writeTo(out);
+                pending = null;
+            }
+            if (out == null) {
+                pending.write(bytes, offset, length);
+            } else {
+                out.write(bytes, offset, length);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (out == null) {
+                out = wire;
+                pending.writeTo(out);
+                pending = null;
+            }
+            out.close();
+        }
+    }
+
+    private static class PooledInputStream extends FilterInputStream {
+
+        private final CountingInputStream wire;
+        private final Semaphore permits;
+        private final TransferStatistics transferStatistics;
+        private boolean closed = false;
+
+        private PooledInputStream(CountingInputStream decoded, CountingInputStream wire, Semaphore permits, TransferStatistics transferStatistics) {
+            super(decoded);
+            this.wire = wire;
+            this.permits = permits;
+            this.transferStatistics = transferStatistics;
+        }
+
+        @Override
+        public void close() throws IOException {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+            }
+            try {
+                //the keep-alive cache only takes back connections that have been fully consumed
+                drain(in);
+                drain(wire);
+                super.close();
+            } finally {
+                permits.release();
+                transferStatistics.recordReceived(wire.getCount(), ((CountingInputStream) in).getCount());
+            }
+        }
+    }
+
+    public static class Builder {
+
+        private int maxConnectionsPerHost = DEFAULT_MAX_CONNECTIONS_PER_HOST;
+        private int connectTimeout = (int) TimeUnit.SECONDS.toMillis(30);
+        private int readTimeout = (int) TimeUnit.SECONDS.toMillis(90);
+        private boolean acceptCompressedResponses = true;
+        private int requestCompressionThreshold = -1;
+
+        private Builder() {
+
+        }
+
+        public Builder maxConnectionsPerHost(int maxConnectionsPerHost) {
+            Preconditions.checkArgument(maxConnectionsPerHost > 0, "maxConnectionsPerHost must be positive");
+            this.maxConnectionsPerHost = maxConnectionsPerHost;
+            return this;
+        }
+
+        public Builder connectTimeout(long timeout, TimeUnit unit) {
+            this.connectTimeout = (int) unit.toMillis(timeout);
+            return this;
+        }
+
+        public Builder readTimeout(long timeout, TimeUnit unit) {
+            this.readTimeout = (int) unit.toMillis(timeout);
+            return this;
+        }
+
+        public Builder acceptCompressedResponses(boolean acceptCompressedResponses) {
+            this.acceptCompressedResponses = acceptCompressedResponses;
+            return this;
+        }
+
+        /**
+         * Compresses request bodies larger than the given number of bytes with gzip. Request compression is off by
+         * default; only enable it for servers that are known to accept compressed requests.
+         */
+        public Builder requestCompressionThreshold(int bytes) {
+            Preconditions.checkArgument(bytes >= 0, "threshold must not be negative");
+            this.requestCompressionThreshold = bytes;
+            return this;
+        }
+
+        public PooledHttpTransport build() {
+            return new PooledHttpTransport(this);
+        }
+    }
+}
@@ -0,0 +1,291 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package rs.ltt.jmap.client.api;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Utf8;
+import rs.ltt.jmap.client.JmapRequest;
+import rs.ltt.jmap.client.jfr.FlightRecorderSupport;
+import rs.ltt.jmap.client.jfr.RequestEvent;
+import rs.ltt.jmap.client.jfr.RequestEvents;
+import rs.ltt.jmap.client.metrics.MethodCallMetrics;
+import rs.ltt.jmap.client.metrics.MetricsListener;
+import rs.ltt.jmap.client.metrics.RequestMetrics;
+import rs.ltt.jmap.common.Request;
+import rs.ltt.jmap.common.method.MethodErrorResponse;
+import rs.ltt.jmap.common.method.MethodResponse;
+import rs.ltt.jmap.common.util.Mapper;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Takes the measurements of one request for a {@link MetricsListener} and emits the flight recorder events of its
+ * phases. While no listener is set and no recording has enabled the events every request shares {@link #NONE}, whose
+ * methods do nothing and which does not wrap the streams of the request.
+ */
+class RequestTimer {
+
+    static final RequestTimer NONE = new RequestTimer();
+
+    private static final RequestEvents REQUEST_EVENTS = FlightRecorderSupport.load(RequestEvents.class, "rs.ltt.jmap.client.jfr.JfrRequestEvents", RequestEvents.NONE);
+
+    private RequestTimer() {
+
+    }
+
+    static RequestTimer start(final MetricsListener metricsListener, final JmapRequest jmapRequest) {
+        final RequestEvents requestEvents = REQUEST_EVENTS.isEnabled() ? REQUEST_EVENTS : RequestEvents.NONE;
+        if (metricsListener == MetricsListener.NONE && requestEvents == RequestEvents.NONE) {
+            return NONE;
+        }
+        return new Recording(metricsListener, requestEvents, jmapRequest);
+    }
+
+    RequestBody wrap(RequestBody requestBody) {
+        return requestBody;
+    }
+
+    InputStream wrap(InputStream inputStream) {
+        return inputStream;
+    }
+
+    void serializationStarted() {
+
+    }
+
+    void serializationFinished(long bytes) {
+
+    }
+
+    /**
+     * Marks the end of serializing a request that has been rendered into a String (WebSocket message).
+     */
+    void serializationFinished(CharSequence message) {
+
+    }
+
+    void responseStarted() {
+
+    }
+
+    /**
+     * Marks the start of a response that has been received as a whole (WebSocket message).
+     */
+    void responseStarted(CharSequence message) {
+
+    }
+
+    void parseStarted() {
+
+    }
+
+    void methodResponse(String id, MethodResponse main) {
+
+    }
+
+    void finish(Throwable throwable) {
+
+    }
+
+    private static String nameOf(final Throwable throwable) {
+        if (throwable instanceof ErrorResponseException) {
+            final ErrorResponseException errorResponseException = (ErrorResponseException) throwable;
+            return String.valueOf(errorResponseException.getErrorResponse().getType());
+        }
+        return throwable.getClass().getSimpleName();
+    }
+
+    private static String nameOf(final MethodErrorResponse methodErrorResponse) {
+        final String name = Mapper.METHOD_ERROR_RESPONSES.inverse().get(methodErrorResponse.getClass());
+        return name != null ? name : methodErrorResponse.getType();
+    }
+
+    private static class Recording extends RequestTimer {
+
+        private final MetricsListener metricsListener;
+        private final RequestEvents requestEvents;
+        private final String invocationIds;
+        private final String methodNames;
+        private final Map<String, String> names = new LinkedHashMap<>();
+        private final Map<String, MethodCallMetrics> methodCalls = new LinkedHashMap<>();
+        private final AtomicBoolean finished = new AtomicBoolean(false);
+        private final long created;
+        private final long start;
+
+        private volatile long serializationStart = RequestMetrics.NOT_REACHED;
+        private volatile long serializationTime = RequestMetrics.NOT_REACHED;
+        private volatile long responseStart = RequestMetrics.NOT_REACHED;
+        private volatile long parseStart = RequestMetrics.NOT_REACHED;
+        private volatile long bytesSent = 0;
+        private volatile long bytesReceived = 0;
+
+        private volatile RequestEvent sendEvent;
+        private volatile RequestEvent receiveEvent = RequestEvent.NONE;
+        private volatile RequestEvent parseEvent = RequestEvent.NONE;
+
+        private Recording(final MetricsListener metricsListener, final RequestEvents requestEvents, final JmapRequest jmapRequest) {
+            this.metricsListener = metricsListener;
+            this.requestEvents = requestEvents;
+            this.created = jmapRequest.getCreated();
+            this.start = System.nanoTime();
+            for (Request.Invocation invocation : jmapRequest.getInvocationFutureImmutableMap().keySet()) {
+                names.put(invocation.getId(), Mapper.METHOD_CALLS.inverse().get(invocation.getMethodCall().getClass()));
+            }
+            if (requestEvents == RequestEvents.NONE) {
+                this.invocationIds = null;
+                this.methodNames = null;
+            } else {
+                this.invocationIds = Joiner.on(',').join(names.keySet());
+                this.methodNames = Joiner.on(',').useForNull("unknown").join(names.values());
+            }
+            this.sendEvent = requestEvents.begin(RequestEvents.Phase.SEND, invocationIds, methodNames);
+        }
+
+        @Override
+        RequestBody wrap(final RequestBody requestBody) {
+            return new RequestBody() {
+                @Override
+                public void writeTo(final OutputStream outputStream) throws IOException {
+                    serializationStarted();
+                    final long[] count = new long[1];
+                    requestBody.writeTo(new FilterOutputStream(outputStream) {
+                        @Override
+                        public void write(int b) throws IOException {
+                            out.write(b);
+                            ++count[0];
+                        }
+
+                        @Override
+                        public void write(byte[] bytes, int offset, int length) throws IOException {
+                            out.write(bytes, offset, length);
+                            count[0] += length;
+                        }
+                    });
+                    serializationFinished(count[0]);
+                }
+            };
+        }
+
+        @Override
+        InputStream wrap(final InputStream inputStream) {
+            return new FilterInputStream(inputStream) {
+                @Override
+                public int read() throws IOException {
+                    final int b = super.read();
+                    if (b >= 0) {
+                        ++bytesReceived;
+                    }
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] bytes, int offset, int length) throws IOException {
+                    final int read = super.read(bytes, offset, length);
+                    if (read > 0) {
+                        bytesReceived += read;
+                    }
+                    return read;
+                }
+            };
+        }
+
+        @Override
+        void serializationStarted() {
+            serializationStart = System.nanoTime();
+        }
+
+        @Override
+        void serializationFinished(final long bytes) {
+            serializationTime = System.nanoTime() - serializationStart;
+            bytesSent = bytes;
+            sendEvent.commit(bytes, null);
+            sendEvent = RequestEvent.NONE;
+            receiveEvent = requestEvents.begin(RequestEvents.Phase.RECEIVE, invocationIds, methodNames);
+        }
+
+        @Override
+        void serializationFinished(final CharSequence message) {
+            serializationFinished(Utf8.encodedLength(message));
+        }
+
+        @Override
+        void responseStarted() {
+            responseStart = System.nanoTime();
+            receiveEvent.commit(bytesReceived, null);
+            receiveEvent = RequestEvent.NONE;
+        }
+
+        @Override
+        void responseStarted(final CharSequence message) {
+            bytesReceived = Utf8.encodedLength(message);
+            responseStarted();
+        }
+
+        @Override
+        void parseStarted() {
+            parseStart = System.nanoTime();
+            parseEvent = requestEvents.begin(RequestEvents.Phase.PARSE, invocationIds, methodNames);
+        }
+
+        @Override
+        void methodResponse(final String id, final MethodResponse main) {
+            final String error = main instanceof MethodErrorResponse ? nameOf((MethodErrorResponse) main) : null;
+            methodCalls.put(id, new MethodCallMetrics(names.get(id), System.nanoTime() - start, error));
+        }
+
+        @Override
+        void finish(final Throwable throwable) {
+            if (!finished.compareAndSet(false, true)) {
+                return;
+            }
+            final long now = System.nanoTime();
+            final String error = throwable == null ? null : nameOf(throwable);
+            sendEvent.commit(bytesSent, error);
+            receiveEvent.commit(bytesReceived, error);
+            parseEvent.commit(bytesReceived, error);
+            if (metricsListener == MetricsListener.NONE) {
+                return;
+            }
+            final RequestMetrics.Builder builder = RequestMetrics.builder()
+                    .queueTime(start - created)
+                    .serializationTime(serializationTime)
+                    .timeToFirstByte(responseStart == RequestMetrics.NOT_REACHED ? RequestMetrics.NOT_REACHED : responseStart - start)
+                    .parseTime(parseStart == RequestMetrics.NOT_REACHED ? RequestMetrics.NOT_REACHED : now - parseStart)
+                    .totalTime(now - start)
+                    .bytesSent(bytesSent)
+                    .bytesReceived(bytesReceived)
+                    .error(error);
+            for (Map.Entry<String, String> entry : names.entrySet()) {
+                final MethodCallMetrics methodCall = methodCalls.get(entry.getKey());
+                if (methodCall != null) {
+                    builder.methodCall(methodCall);
+                } else {
+                    builder.methodCall(new MethodCallMetrics(entry.getValue(), now - start, error == null ? MethodResponseNotFoundException.class.getSimpleName() : error));
+                }
+            }
+            metricsListener.onRequestCompleted(builder.build());
+        }
+    }
+}
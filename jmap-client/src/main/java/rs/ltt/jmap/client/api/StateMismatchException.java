@@ -0,0 +1,42 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package rs.ltt.jmap.client.api;
+
+/**
+ * The responses to a get call that has been split into multiple calls have been computed from different states
+ * because the data changed in between. The call can be retried as is.
+ */
+public class StateMismatchException extends JmapApiException {
+
+    private final String expectedState;
+    private final String actualState;
+
+    public StateMismatchException(String expectedState, String actualState) {
+        super(String.format("Responses have different states (%s and %s)", expectedState, actualState));
+        this.expectedState = expectedState;
+        this.actualState = actualState;
+    }
+
+    public String getExpectedState() {
+        return expectedState;
+    }
+
+    public String getActualState() {
+        return actualState;
+    }
+}
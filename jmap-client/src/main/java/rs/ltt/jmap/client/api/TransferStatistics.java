@@ -0,0 +1,64 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package rs.ltt.jmap.client.api;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Byte counters of a {@link HttpTransport}. Wire counts are the bytes as they have been sent or received (after
+ * compression), uncompressed counts are the size of the JSON before compression or after decompression respectively.
+ */
+public class TransferStatistics {
+
+    private final AtomicLong bytesSent = new AtomicLong(0);
+    private final AtomicLong bytesSentUncompressed = new AtomicLong(0);
+    private final AtomicLong bytesReceived = new AtomicLong(0);
+    private final AtomicLong bytesReceivedUncompressed = new AtomicLong(0);
+
+    void recordSent(long wire, long uncompressed) {
+        bytesSent.addAndGet(wire);
+        bytesSentUncompressed.addAndGet(uncompressed);
+    }
+
+    void recordReceived(long wire, long uncompressed) {
+        bytesReceived.addAndGet(wire);
+        bytesReceivedUncompressed.addAndGet(uncompressed);
+    }
+
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    public long getBytesSentUncompressed() {
+        return bytesSentUncompressed.get();
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    public long getBytesReceivedUncompressed() {
+        return bytesReceivedUncompressed.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("sent=%d (%d uncompressed), received=%d (%d uncompressed)",
+                getBytesSent(), getBytesSentUncompressed(), getBytesReceived(), getBytesReceivedUncompressed());
+    }
+}
@@ -0,0 +1,350 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package rs.ltt.jmap.client.api;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.extensions.IExtension;
+import org.java_websocket.handshake.ServerHandshake;
+import org.java_websocket.protocols.IProtocol;
+import org.java_websocket.protocols.Protocol;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rs.ltt.jmap.client.JmapRequest;
+import rs.ltt.jmap.client.event.EventSourceListener;
+import rs.ltt.jmap.client.http.HttpAuthentication;
+import rs.ltt.jmap.client.json.WebSocketMessageHeader;
+import rs.ltt.jmap.client.util.ExecutorServices;
+import rs.ltt.jmap.common.Request;
+import rs.ltt.jmap.common.entity.StateChange;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * JMAP over WebSocket (RFC 8887). All requests share one persistent connection; responses are matched to their
+ * {@link JmapRequest} by request id, so any number of requests can be in flight at the same time. State changes are
+ * pushed over the same connection once a push listener has been set.
+ * <p>
+ * The connection is opened on the first request and reopened on the next request after it has been lost. Requests
+ * that are in flight when the connection is lost or the client is closed fail with an {@link IOException}; requests
+ * that have not been answered within the {@link #setRequestTimeout(long, TimeUnit) request timeout} fail with a
+ * {@link SocketTimeoutException}.
+ * <p>
+ * The thread reading from the socket only hands messages over. They are taken apart in order on the given executor
+ * (so that state changes reach the push listener in the order they were sent); responses are then bound on the
+ * executor in parallel.
+ */
+public class WebSocketJmapApiClient extends AbstractJmapApiClient implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WebSocketJmapApiClient.class);
+
+    private static final String SUB_PROTOCOL = "jmap";
+    private static final int CONNECT_TIMEOUT = 30;
+    private static final int CONNECTION_LOST_TIMEOUT = 60;
+    private static final String PUSH_ENABLE = "{\"@type\":\"WebSocketPushEnable\"}";
+    private static final long DEFAULT_REQUEST_TIMEOUT = TimeUnit.SECONDS.toMillis(90);
+
+    private final URI webSocketUrl;
+    private final HttpAuthentication httpAuthentication;
+    private final Executor executor;
+    private final Executor messageExecutor;
+    private final AtomicLong requestIds = new AtomicLong();
+
+    private Connection connection;
+    private volatile EventSourceListener pushListener;
+    private volatile boolean closed = false;
+    private volatile long requestTimeout = DEFAULT_REQUEST_TIMEOUT;
+
+    public WebSocketJmapApiClient(final URI webSocketUrl, final HttpAuthentication httpAuthentication, final Executor executor) {
+        this.webSocketUrl = webSocketUrl;
+        this.httpAuthentication = httpAuthentication;
+        this.executor = executor;
+        this.messageExecutor = MoreExecutors.newSequentialExecutor(executor);
+    }
+
+    @Override
+    public void execute(final JmapRequest jmapRequest) {
+        final String requestId = String.valueOf(requestIds.incrementAndGet());
+        final RequestTimer timer = startTimer(jmapRequest);
+        Connection connection = null;
+        try {
+            connection = getConnection();
+            final InFlight inFlight = new InFlight(jmapRequest, timer);
+            connection.pending.put(requestId, inFlight);
+            if (connection.isClosing() || connection.isClosed()) {
+                //the connection has been lost after it was handed out; onClose might have missed this request
+                throw new IOException("WebSocket connection closed");
+            }
+            timer.serializationStarted();
+            final String message = serialize(requestId, jmapRequest.getRequest());
+            timer.serializationFinished(message);
+            connection.send(message);
+            inFlight.timeout = ExecutorServices.sharedScheduler().schedule(new Timeout(connection, requestId), requestTimeout, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            if (connection != null) {
+                connection.pending.remove(requestId);
+            }
+            timer.finish(e);
+            jmapRequest.setException(e);
+        }
+    }
+
+    /**
+     * @param timeout the time after which a request that has been sent but not answered fails. The connection is kept
+     *                open as the server may just be slow with this one request.
+     */
+    public void setRequestTimeout(long timeout, TimeUnit unit) {
+        Preconditions.checkArgument(timeout > 0, "timeout must be positive");
+        this.requestTimeout = unit.toMillis(timeout);
+    }
+
+    /**
+     * Enables push on the current and on all future connections. The listener is notified every time a connection
+     * has been (re)established.
+     */
+    public void setPushListener(EventSourceListener pushListener) {
+        this.pushListener = pushListener;
+        final Connection connection;
+        synchronized (this) {
+            connection = this.connection;
+        }
+        if (connection != null && connection.isOpen()) {
+            connection.enablePush();
+        }
+    }
+
+    private String serialize(final String requestId, final Request request) throws IOException {
+        final StringWriter writer = new StringWriter();
+        getCodec().writeWebSocketRequest(requestId, request, writer);
+        return writer.toString();
+    }
+
+    private synchronized Connection getConnection() throws IOException {
+        if (closed) {
+            throw new IOException("WebSocketJmapApiClient has been closed");
+        }
+        if (connection != null && !connection.isClosing() && !connection.isClosed()) {
+            return connection;
+        }
+        final Connection connection = new Connection();
+        try {
+            if (!connection.connectBlocking(CONNECT_TIMEOUT, TimeUnit.SECONDS)) {
+                throw new IOException(String.format("Unable to connect to %s", webSocketUrl));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+        this.connection = connection;
+        return connection;
+    }
+
+    @Override
+    public void close() {
+        final Connection connection;
+        synchronized (this) {
+            closed = true;
+            connection = this.connection;
+            this.connection = null;
+        }
+        if (connection != null) {
+            connection.failPending(new IOException("WebSocketJmapApiClient has been closed"));
+            connection.close();
+        }
+    }
+
+    private class Connection extends WebSocketClient {
+
+        private final Map<String, InFlight> pending = new ConcurrentHashMap<>();
+
+        private Connection() {
+            super(webSocketUrl,
+                    new Draft_6455(Collections.<IExtension>emptyList(), Collections.<IProtocol>singletonList(new Protocol(SUB_PROTOCOL))),
+                    ImmutableMap.of("Authorization", httpAuthentication.getAuthorization()),
+                    (int) TimeUnit.SECONDS.toMillis(CONNECT_TIMEOUT));
+            setConnectionLostTimeout(CONNECTION_LOST_TIMEOUT);
+        }
+
+        @Override
+        public void onOpen(ServerHandshake handshake) {
+            if (pushListener != null) {
+                enablePush();
+            }
+        }
+
+        private void enablePush() {
+            send(PUSH_ENABLE);
+            final EventSourceListener listener = pushListener;
+            if (listener != null) {
+                dispatch(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onConnected();
+                    }
+                });
+            }
+        }
+
+        @Override
+        public void onMessage(final String message) {
+            dispatch(new Runnable() {
+                @Override
+                public void run() {
+                    handle(message);
+                }
+            });
+        }
+
+        private void dispatch(final Runnable runnable) {
+            try {
+                messageExecutor.execute(runnable);
+            } catch (RejectedExecutionException e) {
+                LOGGER.warn("Dropping WebSocket message; executor has been shut down");
+            }
+        }
+
+        private void handle(final String message) {
+            final WebSocketMessageHeader header;
+            try {
+                header = getCodec().readWebSocketMessageHeader(new StringReader(message));
+            } catch (IOException | RuntimeException e) {
+                LOGGER.warn("Unable to parse WebSocket message", e);
+                return;
+            }
+            final String type = header.getType();
+            if ("Response".equals(type) || "RequestError".equals(type)) {
+                final String requestId = header.getRequestId();
+                final InFlight inFlight = requestId == null ? null : pending.remove(requestId);
+                if (inFlight == null) {
+                    LOGGER.warn("Received response for unknown (or timed out) request id {}", requestId);
+                    return;
+                }
+                inFlight.cancelTimeout();
+                inFlight.timer.responseStarted(message);
+                try {
+                    executor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                process(inFlight.jmapRequest, new StringReader(message), inFlight.timer);
+                            } catch (Exception e) {
+                                inFlight.timer.finish(e);
+                                inFlight.jmapRequest.setException(e);
+                            }
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    inFlight.timer.finish(e);
+                    inFlight.jmapRequest.setException(e);
+                }
+            } else if ("StateChange".equals(type)) {
+                final EventSourceListener listener = pushListener;
+                if (listener != null) {
+                    final StateChange stateChange;
+                    try {
+                        stateChange = getCodec().readStateChange(new StringReader(message));
+                    } catch (IOException | RuntimeException e) {
+                        LOGGER.warn("Unable to parse state change", e);
+                        return;
+                    }
+                    listener.onStateChange(stateChange);
+                }
+            } else {
+                LOGGER.debug("Ignoring WebSocket message of type {}", type);
+            }
+        }
+
+        @Override
+        public void onClose(int code, String reason, boolean remote) {
+            LOGGER.debug("WebSocket connection closed ({} {})", code, reason);
+            failPending(new IOException(String.format("WebSocket connection closed (%d %s)", code, reason)));
+        }
+
+        private void failPending(final IOException exception) {
+            for (String requestId : pending.keySet()) {
+                final InFlight inFlight = pending.remove(requestId);
+                if (inFlight != null) {
+                    inFlight.cancelTimeout();
+                    inFlight.timer.finish(exception);
+                    inFlight.jmapRequest.setException(exception);
+                }
+            }
+        }
+
+        @Override
+        public void onError(Exception e) {
+            LOGGER.debug("WebSocket error", e);
+        }
+    }
+
+    private static class InFlight {
+
+        private final JmapRequest jmapRequest;
+        private final RequestTimer timer;
+        private volatile ScheduledFuture<?> timeout;
+
+        private InFlight(JmapRequest jmapRequest, RequestTimer timer) {
+            this.jmapRequest = jmapRequest;
+            this.timer = timer;
+        }
+
+        private void cancelTimeout() {
+            final ScheduledFuture<?> timeout = this.timeout;
+            if (timeout != null) {
+                timeout.cancel(false);
+            }
+        }
+    }
+
+    private class Timeout implements Runnable {
+
+        private final Connection connection;
+        private final String requestId;
+
+        private Timeout(Connection connection, String requestId) {
+            this.connection = connection;
+            this.requestId = requestId;
+        }
+
+        @Override
+        public void run() {
+            final InFlight inFlight = connection.pending.remove(requestId);
+            if (inFlight != null) {
+                final SocketTimeoutException exception = new SocketTimeoutException(String.format("No response to request %s within %dms", requestId, requestTimeout));
+                inFlight.timer.finish(exception);
+                inFlight.jmapRequest.setException(exception);
+            }
+        }
+    }
+}
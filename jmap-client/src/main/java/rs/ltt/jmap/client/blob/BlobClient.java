@@ -0,0 +1,433 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package rs.ltt.jmap.client.blob;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.checkerframework.checker.nullness.compatqual.NullableDecl;
+import rs.ltt.jmap.client.api.UnauthorizedException;
+import rs.ltt.jmap.client.http.HttpAuthentication;
+import rs.ltt.jmap.client.json.GsonCodec;
+import rs.ltt.jmap.client.json.JmapCodec;
+import rs.ltt.jmap.client.session.Session;
+import rs.ltt.jmap.common.entity.Capability;
+import rs.ltt.jmap.common.entity.Upload;
+import rs.ltt.jmap.common.entity.capability.CoreCapability;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Uploads and downloads blobs (RFC 8620 Section 6) without holding them in memory. Uploads are streamed from an
+ * {@link InputStream} or a {@link FileChannel}; at most maxConcurrentUpload (as announced by the server) uploads run
+ * at the same time. Downloads are written to a {@link FileChannel}. Blobs larger than the part size are fetched with
+ * several HTTP Range requests in parallel.
+ * <p>
+ * Instances are bound to a session. Use {@link rs.ltt.jmap.client.JmapClient#getBlobClient()} to get one.
+ */
+public class BlobClient {
+
+    public static final int PROGRESS_INTERVAL = 256 * 1024;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int DEFAULT_CONCURRENT_UPLOADS = 4;
+    private static final long DEFAULT_PART_SIZE = 4 * 1024 * 1024;
+    private static final int DEFAULT_PARALLEL_DOWNLOADS = 4;
+    private static final String DEFAULT_CONTENT_TYPE = "application/octet-stream";
+
+    private static final Pattern CONTENT_RANGE = Pattern.compile("bytes (\\d+)-(\\d+)/(\\d+)");
+
+    private volatile Session session;
+    private final HttpAuthentication httpAuthentication;
+    private final ListeningExecutorService executorService;
+    private final Semaphore uploadPermits;
+    private final long maxSizeUpload;
+    private final JmapCodec codec;
+
+    private volatile long partSize = DEFAULT_PART_SIZE;
+    private volatile int parallelDownloads = DEFAULT_PARALLEL_DOWNLOADS;
+
+    /**
+     * @param executorService runs the transfers. Parallel downloads submit their parts to the same executor, so it must
+     *                        not be bounded to fewer threads than parallel transfers are expected.
+     */
+    public BlobClient(Session session, HttpAuthentication httpAuthentication, ExecutorService executorService) {
+        this(session, httpAuthentication, executorService, new GsonCodec());
+    }
+
+    /**
+     * @param codec reads the responses to uploads
+     */
+    public BlobClient(Session session, HttpAuthentication httpAuthentication, ExecutorService executorService, JmapCodec codec) {
+        this.session = session;
+        this.codec = Preconditions.checkNotNull(codec);
+        this.httpAuthentication = httpAuthentication;
+        this.executorService = MoreExecutors.listeningDecorator(executorService);
+        final CoreCapability coreCapability = session.getCapability(CoreCapability.class);
+        final int maxConcurrentUpload = coreCapability == null ? 0 : coreCapability.getMaxConcurrentUpload();
+        this.uploadPermits = new Semaphore(maxConcurrentUpload > 0 ? maxConcurrentUpload : DEFAULT_CONCURRENT_UPLOADS, true);
+        this.maxSizeUpload = coreCapability == null ? 0 : coreCapability.getMaxSizeUpload();
+    }
+
+    public Session getSession() {
+        return session;
+    }
+
+    /**
+     * Replaces the session with a refreshed one that announces the same upload and download URLs. The upload limits
+     * of the session this client has been created with stay in place.
+     */
+    public void setSession(Session session) {
+        this.session = Preconditions.checkNotNull(session);
+    }
+
+    /**
+     * @return the id of the account the session marks as primary for the given capability
+     */
+    public String getPrimaryAccount(Class<? extends Capability> clazz) {
+        return session.getPrimaryAccount(clazz);
+    }
+
+    /**
+     * Blobs larger than the part size are downloaded in parts of (at least) this size.
+     */
+    public void setPartSize(long partSize) {
+        Preconditions.checkArgument(partSize > 0, "partSize must be positive");
+        this.partSize = partSize;
+    }
+
+    public void setParallelDownloads(int parallelDownloads) {
+        Preconditions.checkArgument(parallelDownloads > 0, "parallelDownloads must be positive");
+        this.parallelDownloads = parallelDownloads;
+    }
+
+    /**
+     * @param length the number of bytes that will be read from the stream or -1 if unknown. The stream is not closed.
+     */
+    public ListenableFuture<Upload> upload(final String accountId, final InputStream inputStream, final long length, @NullableDecl final String contentType, @NullableDecl final ProgressListener listener) {
+        return executorService.submit(new Callable<Upload>() {
+            @Override
+            public Upload call() throws Exception {
+                return doUpload(accountId, inputStream, length, contentType, listener);
+            }
+        });
+    }
+
+    /**
+     * Uploads the channel from its current position to its end.
+     */
+    public ListenableFuture<Upload> upload(final String accountId, final FileChannel fileChannel, @NullableDecl final String contentType, @NullableDecl final ProgressListener listener) {
+        final long length;
+        try {
+            length = fileChannel.size() - fileChannel.position();
+        } catch (IOException e) {
+            return Futures.immediateFailedFuture(e);
+        }
+        return upload(accountId, Channels.newInputStream(fileChannel), length, contentType, listener);
+    }
+
+    /**
+     * Writes the blob to the target channel starting at position 0. Completes with the size of the blob.
+     */
+    public ListenableFuture<Long> download(final String accountId, final String blobId, @NullableDecl final String type, @NullableDecl final String name, final FileChannel target, @NullableDecl final ProgressListener listener) {
+        return executorService.submit(new Callable<Long>() {
+            @Override
+            public Long call() throws Exception {
+                return doDownload(accountId, blobId, type, name, target, listener);
+            }
+        });
+    }
+
+    private Upload doUpload(final String accountId, final InputStream inputStream, final long length, final String contentType, final ProgressListener listener) throws Exception {
+        if (maxSizeUpload > 0 && length > maxSizeUpload) {
+            throw new IOException(String.format("Blob of %d bytes exceeds maxSizeUpload of %d bytes", length, maxSizeUpload));
+        }
+        final URL url = expand(Preconditions.checkNotNull(session.getUploadUrl(), "Session has no uploadUrl"), accountId, null, null, null);
+        uploadPermits.acquire();
+        try {
+            final HttpURLConnection connection = open(url);
+            try {
+                connection.setRequestMethod("POST");
+                connection.setDoOutput(true);
+                connection.setRequestProperty("Content-Type", contentType == null ? DEFAULT_CONTENT_TYPE : contentType);
+                if (length >= 0) {
+                    connection.setFixedLengthStreamingMode(length);
+                } else {
+                    connection.setChunkedStreamingMode(BUFFER_SIZE);
+                }
+                final Progress progress = new Progress(length, listener);
+                try (final OutputStream outputStream = connection.getOutputStream()) {
+                    final byte[] buffer = new byte[BUFFER_SIZE];
+                    int count;
+                    while ((count = inputStream.read(buffer)) != -1) {
+                        outputStream.write(buffer, 0, count);
+                        progress.add(count);
+                    }
+                }
+                checkResponseCode(connection, 200, 201);
+                progress.complete();
+                try (final Reader reader = new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8)) {
+                    return codec.readUpload(reader);
+                }
+            } finally {
+                connection.disconnect();
+            }
+        } finally {
+            uploadPermits.release();
+        }
+    }
+
+    private long doDownload(final String accountId, final String blobId, final String type, final String name, final FileChannel target, final ProgressListener listener) throws Exception {
+        final URL url = expand(Preconditions.checkNotNull(session.getDownloadUrl(), "Session has no downloadUrl"), accountId, blobId, type, name);
+        final Progress progress = new Progress(-1, listener);
+        final long firstPartSize = this.partSize;
+        final HttpURLConnection connection = open(url);
+        final long total;
+        final long firstPartLength;
+        try {
+            connection.setRequestProperty("Range", String.format("bytes=0-%d", firstPartSize - 1));
+            final int code = checkResponseCode(connection, 200, 206, 416);
+            if (code == 416) {
+                //the range is not satisfiable because the blob is empty
+                progress.setTotal(0);
+                progress.complete();
+                return 0;
+            }
+            if (code == 200) {
+                //server does not support ranges
+                progress.setTotal(connection.getContentLengthLong());
+                try (final InputStream inputStream = connection.getInputStream()) {
+                    total = copy(inputStream, target, 0, progress);
+                }
+                progress.complete();
+                return total;
+            }
+            final ContentRange contentRange = ContentRange.parse(connection.getHeaderField("Content-Range"));
+            if (contentRange.start != 0) {
+                throw new IOException("Server returned range starting at " + contentRange.start);
+            }
+            total = contentRange.total;
+            progress.setTotal(total);
+            try (final InputStream inputStream = connection.getInputStream()) {
+                firstPartLength = copy(inputStream, target, 0, progress);
+            }
+            if (firstPartLength != contentRange.length()) {
+                throw new IOException(String.format("Expected %d bytes but received %d", contentRange.length(), firstPartLength));
+            }
+        } finally {
+            connection.disconnect();
+        }
+        final long remaining = total - firstPartLength;
+        if (remaining > 0) {
+            final int parts = (int) Math.max(1, Math.min(parallelDownloads, (remaining + firstPartSize - 1) / firstPartSize));
+            final long size = (remaining + parts - 1) / parts;
+            final List<ListenableFuture<Long>> futures = new ArrayList<>(parts);
+            for (long start = firstPartLength; start < total; start += size) {
+                final long partStart = start;
+                final long partEnd = Math.min(total, start + size) - 1;
+                futures.add(executorService.submit(new Callable<Long>() {
+                    @Override
+                    public Long call() throws Exception {
+                        return downloadRange(url, partStart, partEnd, target, progress);
+                    }
+                }));
+            }
+            final ListenableFuture<List<Long>> allParts = Futures.allAsList(futures);
+            try {
+                allParts.get();
+            } catch (ExecutionException e) {
+                allParts.cancel(true);
+                final Throwable cause = e.getCause();
+                throw cause instanceof Exception ? (Exception) cause : e;
+            } catch (InterruptedException e) {
+                allParts.cancel(true);
+                throw e;
+            }
+        }
+        progress.complete();
+        return total;
+    }
+
+    private long downloadRange(final URL url, final long start, final long end, final FileChannel target, final Progress progress) throws Exception {
+        final HttpURLConnection connection = open(url);
+        try {
+            connection.setRequestProperty("Range", String.format("bytes=%d-%d", start, end));
+            checkResponseCode(connection, 206);
+            final ContentRange contentRange = ContentRange.parse(connection.getHeaderField("Content-Range"));
+            if (contentRange.start != start || contentRange.end != end) {
+                throw new IOException(String.format("Requested range %d-%d but received %d-%d", start, end, contentRange.start, contentRange.end));
+            }
+            final long length;
+            try (final InputStream inputStream = connection.getInputStream()) {
+                length = copy(inputStream, target, start, progress);
+            }
+            if (length != contentRange.length()) {
+                throw new IOException(String.format("Expected %d bytes but received %d", contentRange.length(), length));
+            }
+            return length;
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Uses positional writes which (unlike relative writes) can be issued from several threads at the same time.
+     */
+    private static long copy(final InputStream inputStream, final FileChannel target, final long position, final Progress progress) throws IOException {
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        final ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+        long written = 0;
+        int count;
+        while ((count = inputStream.read(buffer)) != -1) {
+            byteBuffer.clear();
+            byteBuffer.limit(count);
+            while (byteBuffer.hasRemaining()) {
+                written += target.write(byteBuffer, position + written);
+            }
+            progress.add(count);
+        }
+        return written;
+    }
+
+    private HttpURLConnection open(final URL url) throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestProperty("Accept-Encoding", "identity");
+        httpAuthentication.authenticate(connection);
+        return connection;
+    }
+
+    private static int checkResponseCode(final HttpURLConnection connection, final int... expected) throws IOException, UnauthorizedException {
+        final int code = connection.getResponseCode();
+        for (int e : expected) {
+            if (code == e) {
+                return code;
+            }
+        }
+        if (code == 401) {
+            throw new UnauthorizedException(String.format("Blob transfer (%s) was unauthorized", connection.getURL()));
+        }
+        throw new IOException(String.format("Blob transfer (%s) failed with HTTP %d", connection.getURL(), code));
+    }
+
+    static URL expand(final URL template, final String accountId, final String blobId, final String type, final String name) throws IOException {
+        String url = template.toString().replace("{accountId}", encode(accountId));
+        if (blobId != null) {
+            url = url.replace("{blobId}", encode(blobId));
+        }
+        url = url.replace("{type}", encode(type == null ? DEFAULT_CONTENT_TYPE : type));
+        url = url.replace("{name}", encode(name == null ? blobId == null ? "" : blobId : name));
+        return new URL(url);
+    }
+
+    private static String encode(final String value) throws UnsupportedEncodingException {
+        return URLEncoder.encode(Preconditions.checkNotNull(value), "UTF-8").replace("+", "%20");
+    }
+
+    private static class ContentRange {
+
+        private final long start;
+        private final long end;
+        private final long total;
+
+        private ContentRange(long start, long end, long total) {
+            this.start = start;
+            this.end = end;
+            this.total = total;
+        }
+
+        private long length() {
+            return end - start + 1;
+        }
+
+        private static ContentRange parse(final String value) throws IOException {
+            final Matcher matcher = value == null ? null : CONTENT_RANGE.matcher(value);
+            if (matcher == null || !matcher.matches()) {
+                throw new IOException(String.format("Unable to parse Content-Range '%s'", value));
+            }
+            return new ContentRange(Long.parseLong(matcher.group(1)), Long.parseLong(matcher.group(2)), Long.parseLong(matcher.group(3)));
+        }
+    }
+
+    /**
+     * Shared by all parts of a transfer.
+     */
+    private static class Progress {
+
+        private final ProgressListener listener;
+        private final long start = System.nanoTime();
+        private final AtomicLong transferred = new AtomicLong();
+        private volatile long total;
+        private long lastReported = 0;
+
+        private Progress(long total, ProgressListener listener) {
+            this.total = total;
+            this.listener = listener;
+        }
+
+        private void setTotal(long total) {
+            this.total = total;
+        }
+
+        private void add(long count) {
+            final long transferred = this.transferred.addAndGet(count);
+            if (listener == null) {
+                return;
+            }
+            synchronized (this) {
+                if (transferred - lastReported >= PROGRESS_INTERVAL) {
+                    lastReported = transferred;
+                    listener.onProgress(new TransferProgress(transferred, total, System.nanoTime() - start));
+                }
+            }
+        }
+
+        private void complete() {
+            if (listener == null) {
+                return;
+            }
+            synchronized (this) {
+                final long transferred = this.transferred.get();
+                lastReported = transferred;
+                listener.onProgress(new TransferProgress(transferred, total < 0 ? transferred : total, System.nanoTime() - start));
+            }
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package rs.ltt.jmap.client.blob;
+
+import com.google.common.base.MoreObjects;
+
+import java.util.concurrent.TimeUnit;
+
+public class TransferProgress {
+
+    private final long transferred;
+    private final long total;
+    private final long elapsedNanos;
+
+    TransferProgress(long transferred, long total, long elapsedNanos) {
+        this.transferred = transferred;
+        this.total = total;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public long getTransferred() {
+        return transferred;
+    }
+
+    /**
+     * @return the size of the blob or -1 if it is not known (yet)
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    public long getElapsed(TimeUnit unit) {
+        return unit.convert(elapsedNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public double getBytesPerSecond() {
+        return elapsedNanos == 0 ? 0 : transferred * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+    }
+
+    public boolean isComplete() {
+        return total >= 0 && transferred >= total;
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("transferred", transferred)
+                .add("total", total)
+                .add("bytesPerSecond", (long) getBytesPerSecond())
+                .toString();
+    }
+}
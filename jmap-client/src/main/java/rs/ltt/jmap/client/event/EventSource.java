@@ -0,0 +1,253 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package rs.ltt.jmap.client.event;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rs.ltt.jmap.client.api.UnauthorizedException;
+import rs.ltt.jmap.client.http.HttpAuthentication;
+import rs.ltt.jmap.client.json.GsonCodec;
+import rs.ltt.jmap.client.json.JmapCodec;
+import rs.ltt.jmap.common.entity.StateChange;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Client for the JMAP event source (RFC 8620 section 7.3). Keeps a server-sent events connection open on a
+ * dedicated thread and reconnects with exponential backoff when the connection drops.
+ */
+public class EventSource implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(EventSource.class);
+
+    private static final long DEFAULT_RETRY = TimeUnit.SECONDS.toMillis(3);
+    private static final long MAX_RETRY = TimeUnit.MINUTES.toMillis(5);
+
+    private final URL url;
+    private final HttpAuthentication httpAuthentication;
+    private final EventSourceListener listener;
+    private final int pingInterval;
+    private final JmapCodec codec;
+
+    private volatile boolean closed = false;
+    private volatile HttpURLConnection connection;
+    private Thread thread;
+
+    private String lastEventId = null;
+    private long retry = DEFAULT_RETRY;
+
+    /**
+     * @param url          the expanded event source url
+     * @param pingInterval the ping interval in seconds that has been requested from the server or 0 if none was
+     *                     requested. A connection that has been silent for three intervals is considered dead.
+     */
+    public EventSource(URL url, HttpAuthentication httpAuthentication, int pingInterval, EventSourceListener listener) {
+        this(url, httpAuthentication, pingInterval, listener, new GsonCodec());
+    }
+
+    public EventSource(URL url, HttpAuthentication httpAuthentication, int pingInterval, EventSourceListener listener, JmapCodec codec) {
+        this.url = Preconditions.checkNotNull(url);
+        this.httpAuthentication = httpAuthentication;
+        this.pingInterval = pingInterval;
+        this.listener = Preconditions.checkNotNull(listener);
+        this.codec = Preconditions.checkNotNull(codec);
+    }
+
+    /**
+     * Fills in the {types}, {closeafter} and {ping} variables of the eventSourceUrl announced in the session.
+     */
+    public static URL expand(URL template, int pingInterval) throws MalformedURLException {
+        final String url = template.toString()
+                .replace("{types}", "*")
+                .replace("{closeafter}", "no")
+                .replace("{ping}", String.valueOf(pingInterval));
+        return new URL(url);
+    }
+
+    public synchronized void start() {
+        Preconditions.checkState(thread == null, "EventSource has already been started");
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loop();
+            }
+        }, "jmap-event-source");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void loop() {
+        int failures = 0;
+        while (!closed) {
+            try {
+                if (connect()) {
+                    failures = 0;
+                }
+            } catch (UnauthorizedException e) {
+                LOGGER.warn("Event source connection was unauthorized");
+                ++failures;
+            } catch (IOException e) {
+                if (!closed) {
+                    LOGGER.debug("Event source connection failed", e);
+                }
+                ++failures;
+            }
+            if (closed) {
+                break;
+            }
+            try {
+                Thread.sleep(Math.min(MAX_RETRY, retry << Math.min(failures, 10)));
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * @return true if the connection has been established before it was lost
+     */
+    private boolean connect() throws IOException, UnauthorizedException {
+        final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        this.connection = connection;
+        try {
+            connection.setRequestMethod("GET");
+            connection.setRequestProperty("Accept", "text/event-stream");
+            connection.setRequestProperty("Cache-Control", "no-cache");
+            if (lastEventId != null) {
+                connection.setRequestProperty("Last-Event-ID", lastEventId);
+            }
+            if (pingInterval > 0) {
+                connection.setReadTimeout((int) TimeUnit.SECONDS.toMillis(pingInterval * 3));
+            }
+            httpAuthentication.authenticate(connection);
+            final int code = connection.getResponseCode();
+            if (code == 401) {
+                throw new UnauthorizedException(String.format("Event source (%s) was unauthorized", url));
+            }
+            if (code != 200) {
+                throw new IOException(String.format("Unexpected response code %d from event source (%s)", code, url));
+            }
+            try (final BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))) {
+                listener.onConnected();
+                read(reader);
+            }
+            return true;
+        } finally {
+            connection.disconnect();
+            this.connection = null;
+        }
+    }
+
+    private void read(final BufferedReader reader) throws IOException {
+        String eventType = null;
+        final StringBuilder data = new StringBuilder();
+        String line;
+        while (!closed && (line = reader.readLine()) != null) {
+            if (line.isEmpty()) {
+                if (data.length() > 0) {
+                    data.setLength(data.length() - 1);
+                    dispatch(Strings.isNullOrEmpty(eventType) ? "message" : eventType, data.toString());
+                }
+                eventType = null;
+                data.setLength(0);
+                continue;
+            }
+            if (line.charAt(0) == ':') {
+                continue;
+            }
+            final int index = line.indexOf(':');
+            final String field;
+            String value;
+            if (index == -1) {
+                field = line;
+                value = "";
+            } else {
+                field = line.substring(0, index);
+                value = line.substring(index + 1);
+                if (value.startsWith(" ")) {
+                    value = value.substring(1);
+                }
+            }
+            switch (field) {
+                case "event":
+                    eventType = value;
+                    break;
+                case "data":
+                    data.append(value).append('\n');
+                    break;
+                case "id":
+                    lastEventId = value;
+                    break;
+                case "retry":
+                    try {
+                        retry = Long.parseLong(value);
+                    } catch (NumberFormatException e) {
+                        LOGGER.debug("Ignoring invalid retry value {}", value);
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    private void dispatch(final String eventType, final String data) {
+        if (!"state".equals(eventType) && !"message".equals(eventType)) {
+            LOGGER.debug("Ignoring event of type {}", eventType);
+            return;
+        }
+        final StateChange stateChange;
+        try {
+            stateChange = codec.readStateChange(new StringReader(data));
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Unable to parse state change", e);
+            return;
+        }
+        if (stateChange == null || stateChange.getChanged() == null) {
+            return;
+        }
+        listener.onStateChange(stateChange);
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        final HttpURLConnection connection = this.connection;
+        if (connection != null) {
+            connection.disconnect();
+        }
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+}
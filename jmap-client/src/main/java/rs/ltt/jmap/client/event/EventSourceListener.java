@@ -0,0 +1,35 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package rs.ltt.jmap.client.event;
+
+import rs.ltt.jmap.common.entity.StateChange;
+
+/**
+ * Callbacks are invoked on the thread that reads the event stream. Listeners should hand off any long running work.
+ */
+public interface EventSourceListener {
+
+    /**
+     * Called every time a connection to the event source has been established, including reconnects. Changes that
+     * happened while there was no connection are not pushed, so listeners should synchronize their state here.
+     */
+    void onConnected();
+
+    void onStateChange(StateChange stateChange);
+
+}
@@ -32,7 +32,12 @@ public class BasicAuthHttpAuthentication implements HttpAuthentication {
 
     @Override
     public void authenticate(final HttpURLConnection connection) {
-        connection.setRequestProperty("Authorization", "Basic " + BaseEncoding.base64().encode(String.format("%s:%s",username,password).getBytes()));
+        connection.setRequestProperty("Authorization", getAuthorization());
+    }
+
+    @Override
+    public String getAuthorization() {
+        return "Basic " + BaseEncoding.base64().encode(String.format("%s:%s",username,password).getBytes());
     }
 
     @Override
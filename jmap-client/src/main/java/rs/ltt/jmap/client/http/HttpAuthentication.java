@@ -22,5 +22,10 @@ public interface HttpAuthentication {
 
     void authenticate(HttpURLConnection connection);
 
+    /**
+     * The value of the Authorization header for HTTP clients other than {@link HttpURLConnection}.
+     */
+    String getAuthorization();
+
     String getUsername();
 }
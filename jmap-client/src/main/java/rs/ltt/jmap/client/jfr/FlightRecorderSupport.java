@@ -0,0 +1,70 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package rs.ltt.jmap.client.jfr;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Constructor;
+
+/**
+ * Loads the JDK Flight Recorder events of this library. Events extend jdk.jfr.Event, which is missing on Java 7 and on
+ * Android, so they are only ever referenced from implementations that are instantiated reflectively once JFR has been
+ * found to be available. Everywhere else the no-op fallback is used.
+ */
+public final class FlightRecorderSupport {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FlightRecorderSupport.class);
+
+    private static final boolean AVAILABLE = checkAvailable();
+
+    private FlightRecorderSupport() {
+
+    }
+
+    private static boolean checkAvailable() {
+        try {
+            final Class<?> flightRecorder = Class.forName("jdk.jfr.FlightRecorder");
+            return Boolean.TRUE.equals(flightRecorder.getMethod("isAvailable").invoke(null));
+        } catch (Throwable throwable) {
+            return false;
+        }
+    }
+
+    public static boolean isAvailable() {
+        return AVAILABLE;
+    }
+
+    /**
+     * @param implementation fully qualified name of a class with a no-arg constructor that implements api
+     * @return an instance of implementation or the fallback if JFR is not available
+     */
+    public static <T> T load(final Class<T> api, final String implementation, final T fallback) {
+        if (!AVAILABLE) {
+            return fallback;
+        }
+        try {
+            final Constructor<?> constructor = Class.forName(implementation).getDeclaredConstructor();
+            constructor.setAccessible(true);
+            return api.cast(constructor.newInstance());
+        } catch (Throwable throwable) {
+            LOGGER.debug("Unable to load flight recorder events {}", implementation, throwable);
+            return fallback;
+        }
+    }
+}
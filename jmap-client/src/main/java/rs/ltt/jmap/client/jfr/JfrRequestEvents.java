@@ -0,0 +1,57 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package rs.ltt.jmap.client.jfr;
+
+import jdk.jfr.EventType;
+
+/**
+ * Only loaded through {@link FlightRecorderSupport}.
+ */
+class JfrRequestEvents implements RequestEvents {
+
+    private final EventType send = EventType.getEventType(SendRequestEvent.class);
+    private final EventType receive = EventType.getEventType(ReceiveResponseEvent.class);
+    private final EventType parse = EventType.getEventType(ParseResponseEvent.class);
+
+    @Override
+    public boolean isEnabled() {
+        return send.isEnabled() || receive.isEnabled() || parse.isEnabled();
+    }
+
+    @Override
+    public RequestEvent begin(final Phase phase, final String invocationIds, final String methodNames) {
+        final JmapRequestEvent event;
+        switch (phase) {
+            case SEND:
+                event = new SendRequestEvent();
+                break;
+            case RECEIVE:
+                event = new ReceiveResponseEvent();
+                break;
+            case PARSE:
+                event = new ParseResponseEvent();
+                break;
+            default:
+                throw new IllegalArgumentException(String.format("Unknown phase %s", phase));
+        }
+        event.invocationIds = invocationIds;
+        event.methodNames = methodNames;
+        event.begin();
+        return event;
+    }
+}
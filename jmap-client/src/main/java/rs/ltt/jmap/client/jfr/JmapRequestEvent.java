@@ -0,0 +1,47 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package rs.ltt.jmap.client.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+
+@Category({"JMAP", "Request"})
+abstract class JmapRequestEvent extends Event implements RequestEvent {
+
+    @Label("Invocation Ids")
+    String invocationIds;
+
+    @Label("Method Names")
+    String methodNames;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+
+    @Label("Error")
+    String error;
+
+    @Override
+    public void commit(final long bytes, final String error) {
+        this.bytes = bytes;
+        this.error = error;
+        commit();
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package rs.ltt.jmap.client.jfr;
+
+/**
+ * Begins the flight recorder events of the phases of a JMAP request.
+ */
+public interface RequestEvents {
+
+    RequestEvents NONE = new RequestEvents() {
+        @Override
+        public boolean isEnabled() {
+            return false;
+        }
+
+        @Override
+        public RequestEvent begin(Phase phase, String invocationIds, String methodNames) {
+            return RequestEvent.NONE;
+        }
+    };
+
+    /**
+     * @return true if any of the request events is enabled in a running recording
+     */
+    boolean isEnabled();
+
+    /**
+     * @param invocationIds comma separated ids of the invocations in the request
+     * @param methodNames   comma separated method names in the order of the invocations
+     */
+    RequestEvent begin(Phase phase, String invocationIds, String methodNames);
+
+    enum Phase {
+        /**
+         * From handing the request to the API client until the request body has been written
+         */
+        SEND,
+        /**
+         * From writing the request body until the server started to respond
+         */
+        RECEIVE,
+        /**
+         * Reading and parsing the response and completing the futures of the method calls
+         */
+        PARSE
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package rs.ltt.jmap.client.json;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import rs.ltt.jmap.client.session.Session;
+import rs.ltt.jmap.common.ErrorResponse;
+import rs.ltt.jmap.common.Request;
+import rs.ltt.jmap.common.SessionResource;
+import rs.ltt.jmap.common.entity.StateChange;
+import rs.ltt.jmap.common.entity.Upload;
+import rs.ltt.jmap.common.method.MethodResponse;
+import rs.ltt.jmap.common.util.Projections;
+import rs.ltt.jmap.gson.JmapAdapters;
+import rs.ltt.jmap.gson.ResponseStreamReader;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+
+/**
+ * The default codec. Backed by the type adapters of jmap-gson.
+ */
+public class GsonCodec implements JmapCodec {
+
+    private final Gson gson;
+    private final ResponseStreamReader eagerStreamReader;
+    private final ResponseStreamReader lazyStreamReader;
+
+    public GsonCodec() {
+        final GsonBuilder gsonBuilder = new GsonBuilder();
+        JmapAdapters.register(gsonBuilder);
+        this.gson = gsonBuilder.create();
+        this.eagerStreamReader = new ResponseStreamReader(this.gson);
+        this.lazyStreamReader = new ResponseStreamReader(this.gson, true);
+    }
+
+    @Override
+    public void writeRequest(final Request request, final Writer writer) throws IOException {
+        final JsonWriter jsonWriter = gson.newJsonWriter(writer);
+        try {
+            gson.toJson(request, Request.class, jsonWriter);
+        } catch (JsonIOException e) {
+            throw unwrap(e);
+        }
+        jsonWriter.flush();
+    }
+
+    @Override
+    public void writeWebSocketRequest(final String requestId, final Request request, final Writer writer) throws IOException {
+        final JsonObject jsonObject = gson.toJsonTree(request, Request.class).getAsJsonObject();
+        jsonObject.addProperty("@type", "Request");
+        jsonObject.addProperty("id", requestId);
+        try {
+            gson.toJson(jsonObject, writer);
+        } catch (JsonIOException e) {
+            throw unwrap(e);
+        }
+    }
+
+    @Override
+    public void readResponse(final Reader reader, final boolean lazy, final Projections.Plan plan, final ResponseHandler handler) throws IOException {
+        (lazy ? lazyStreamReader : eagerStreamReader).read(reader, plan, new ResponseStreamReader.Callback() {
+            @Override
+            public boolean mayHaveImplicitResponses(String id) {
+                return handler.mayHaveImplicitResponses(id);
+            }
+
+            @Override
+            public void onMethodResponses(String id, MethodResponse[] methodResponses) {
+                handler.onMethodResponses(id, methodResponses);
+            }
+
+            @Override
+            public void onSessionState(String sessionState) {
+                handler.onSessionState(sessionState);
+            }
+
+            @Override
+            public void onErrorResponse(ErrorResponse errorResponse) {
+                handler.onErrorResponse(errorResponse);
+            }
+        });
+    }
+
+    @Override
+    public WebSocketMessageHeader readWebSocketMessageHeader(final Reader reader) throws IOException {
+        // members are not ordered, so the rest of the message is skipped instead of read into a tree
+        final JsonReader jsonReader = gson.newJsonReader(reader);
+        String type = null;
+        String requestId = null;
+        jsonReader.beginObject();
+        while (jsonReader.hasNext()) {
+            final String name = jsonReader.nextName();
+            if ("@type".equals(name) && jsonReader.peek() == JsonToken.STRING) {
+                type = jsonReader.nextString();
+            } else if ("requestId".equals(name) && jsonReader.peek() == JsonToken.STRING) {
+                requestId = jsonReader.nextString();
+            } else {
+                jsonReader.skipValue();
+            }
+        }
+        return new WebSocketMessageHeader(type, requestId);
+    }
+
+    @Override
+    public SessionResource readSessionResource(final Reader reader) throws IOException {
+        return read(reader, SessionResource.class);
+    }
+
+    @Override
+    public StateChange readStateChange(final Reader reader) throws IOException {
+        return read(reader, StateChange.class);
+    }
+
+    @Override
+    public Upload readUpload(final Reader reader) throws IOException {
+        return read(reader, Upload.class);
+    }
+
+    @Override
+    public Session readSession(final Reader reader) throws IOException {
+        return read(reader, Session.class);
+    }
+
+    @Override
+    public void writeSession(final Session session, final Writer writer) throws IOException {
+        try {
+            gson.toJson(session, writer);
+        } catch (JsonIOException e) {
+            throw unwrap(e);
+        }
+    }
+
+    private <T> T read(final Reader reader, final Class<T> clazz) throws IOException {
+        try {
+            return gson.fromJson(reader, clazz);
+        } catch (JsonIOException e) {
+            throw unwrap(e);
+        }
+    }
+
+    private static IOException unwrap(final JsonIOException e) {
+        final Throwable cause = e.getCause();
+        return cause instanceof IOException ? (IOException) cause : new IOException(e);
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package rs.ltt.jmap.client.json;
+
+import rs.ltt.jmap.client.session.Session;
+import rs.ltt.jmap.common.ErrorResponse;
+import rs.ltt.jmap.common.Request;
+import rs.ltt.jmap.common.SessionResource;
+import rs.ltt.jmap.common.entity.StateChange;
+import rs.ltt.jmap.common.entity.Upload;
+import rs.ltt.jmap.common.method.MethodResponse;
+import rs.ltt.jmap.common.util.Projections;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+
+/**
+ * Reads and writes the JSON the client exchanges with a JMAP server. Every implementation must produce and accept the
+ * same wire format, including '#'-prefixed result reference properties, explicit nulls for
+ * {@link rs.ltt.jmap.common.util.Patches#remove(String)} and capabilities maps keyed by URN.
+ * <p>
+ * Malformed input is reported by throwing either an {@link IOException} or an unchecked exception of the underlying
+ * JSON library.
+ *
+ * @see GsonCodec
+ */
+public interface JmapCodec {
+
+    void writeRequest(Request request, Writer writer) throws IOException;
+
+    /**
+     * Writes a request as a WebSocket message (RFC 8887); a request object with '@type' and 'id' added.
+     */
+    void writeWebSocketRequest(String requestId, Request request, Writer writer) throws IOException;
+
+    /**
+     * Reads a response (or a request level error) and reports the method responses of every method call as soon as
+     * they have been read.
+     *
+     * @param lazy report method responses as {@link rs.ltt.jmap.common.method.DeferredMethodResponse}s that are bound
+     *             on first access instead of right away. Implementations that can not defer binding may ignore this.
+     * @param plan the projections method responses have to be bound to. Callers ask for the projected types, so
+     *             implementations must not ignore this.
+     */
+    void readResponse(Reader reader, boolean lazy, Projections.Plan plan, ResponseHandler handler) throws IOException;
+
+    /**
+     * Reads the '@type' and 'requestId' of a WebSocket message without binding the (possibly large) rest of it.
+     */
+    WebSocketMessageHeader readWebSocketMessageHeader(Reader reader) throws IOException;
+
+    SessionResource readSessionResource(Reader reader) throws IOException;
+
+    StateChange readStateChange(Reader reader) throws IOException;
+
+    /**
+     * Reads the response to a blob upload (RFC 8620 Section 6.1).
+     */
+    Upload readUpload(Reader reader) throws IOException;
+
+    /**
+     * Reads a session as written by {@link #writeSession(Session, Writer)}.
+     */
+    Session readSession(Reader reader) throws IOException;
+
+    void writeSession(Session session, Writer writer) throws IOException;
+
+    interface ResponseHandler {
+
+        /**
+         * @return whether the call with the given id can be followed by implicit method responses (like the Email/set
+         * of an EmailSubmission/set with onSuccessUpdateEmail). Codecs report the responses to other calls as soon as
+         * they have been read.
+         */
+        boolean mayHaveImplicitResponses(String id);
+
+        /**
+         * Called once per method call with all method responses (the main response first) that share the same id.
+         */
+        void onMethodResponses(String id, MethodResponse[] methodResponses);
+
+        /**
+         * Called after the last method response has been read.
+         */
+        void onSessionState(String sessionState);
+
+        void onErrorResponse(ErrorResponse errorResponse);
+    }
+}
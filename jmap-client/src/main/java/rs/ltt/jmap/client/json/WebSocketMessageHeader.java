@@ -0,0 +1,41 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package rs.ltt.jmap.client.json;
+
+/**
+ * The top level '@type' and 'requestId' of a WebSocket message (RFC 8887). Either may be null if the message does not
+ * have them.
+ */
+public final class WebSocketMessageHeader {
+
+    private final String type;
+    private final String requestId;
+
+    public WebSocketMessageHeader(final String type, final String requestId) {
+        this.type = type;
+        this.requestId = requestId;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public String getRequestId() {
+        return requestId;
+    }
+}
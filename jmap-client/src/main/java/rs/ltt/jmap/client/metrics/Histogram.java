@@ -0,0 +1,113 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package rs.ltt.jmap.client.metrics;
+
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock free histogram of non-negative values. Every power of two is divided into {@link #SUB_BUCKETS} linear
+ * buckets, so percentiles are reported with a relative error of at most 12.5% while the histogram has a fixed size of
+ * a few kilobytes regardless of the range of the recorded values.
+ */
+public class Histogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(index(Long.MAX_VALUE) + 1);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    private static int index(final long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        final int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long highestValue(final int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        final int shift = index / SUB_BUCKETS - 1;
+        final long lowest = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    public void record(final long value) {
+        Preconditions.checkArgument(value >= 0, "Histogram only records non-negative values");
+        buckets.incrementAndGet(index(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        long current;
+        while ((current = max.get()) < value && !max.compareAndSet(current, value)) {
+            //retry
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public double getMean() {
+        final long count = this.count.get();
+        return count == 0 ? 0 : (double) sum.get() / count;
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the highest value of the bucket that contains the given percentile or 0 if nothing has been recorded
+     */
+    public long getValueAtPercentile(final double percentile) {
+        Preconditions.checkArgument(percentile >= 0 && percentile <= 100, "Percentile must be between 0 and 100");
+        final long count = this.count.get();
+        if (count == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < buckets.length(); ++i) {
+            seen += buckets.get(i);
+            if (seen >= rank) {
+                return Math.min(highestValue(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count=%d mean=%.1f p50=%d p90=%d p99=%d max=%d",
+                getCount(),
+                getMean(),
+                getValueAtPercentile(50),
+                getValueAtPercentile(90),
+                getValueAtPercentile(99),
+                getMax());
+    }
+}
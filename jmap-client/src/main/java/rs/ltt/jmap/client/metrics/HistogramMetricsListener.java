@@ -0,0 +1,148 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package rs.ltt.jmap.client.metrics;
+
+import com.google.common.collect.ImmutableMap;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Aggregates the metrics of all requests into {@link Histogram}s. Times are recorded in microseconds.
+ */
+public class HistogramMetricsListener implements MetricsListener {
+
+    private final Histogram queueTime = new Histogram();
+    private final Histogram serializationTime = new Histogram();
+    private final Histogram timeToFirstByte = new Histogram();
+    private final Histogram parseTime = new Histogram();
+    private final Histogram totalTime = new Histogram();
+    private final Histogram bytesSent = new Histogram();
+    private final Histogram bytesReceived = new Histogram();
+    private final Histogram callsPerRequest = new Histogram();
+    private final ConcurrentMap<String, Histogram> methodCallLatencies = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, AtomicLong> errors = new ConcurrentHashMap<>();
+
+    private static void recordTime(final Histogram histogram, final long nanos) {
+        if (nanos != RequestMetrics.NOT_REACHED) {
+            histogram.record(nanos / 1000);
+        }
+    }
+
+    private static <K, V> V getOrCreate(final ConcurrentMap<K, V> map, final K key, final V value) {
+        final V existing = map.putIfAbsent(key, value);
+        return existing == null ? value : existing;
+    }
+
+    @Override
+    public void onRequestCompleted(final RequestMetrics requestMetrics) {
+        recordTime(queueTime, requestMetrics.getQueueTime());
+        recordTime(serializationTime, requestMetrics.getSerializationTime());
+        recordTime(timeToFirstByte, requestMetrics.getTimeToFirstByte());
+        recordTime(parseTime, requestMetrics.getParseTime());
+        recordTime(totalTime, requestMetrics.getTotalTime());
+        bytesSent.record(requestMetrics.getBytesSent());
+        bytesReceived.record(requestMetrics.getBytesReceived());
+        callsPerRequest.record(requestMetrics.getMethodCalls().size());
+        if (requestMetrics.getError() != null) {
+            getOrCreate(errors, requestMetrics.getError(), new AtomicLong()).incrementAndGet();
+        }
+        for (MethodCallMetrics methodCall : requestMetrics.getMethodCalls()) {
+            Histogram histogram = methodCallLatencies.get(methodCall.getName());
+            if (histogram == null) {
+                histogram = getOrCreate(methodCallLatencies, methodCall.getName(), new Histogram());
+            }
+            recordTime(histogram, methodCall.getLatency());
+            if (methodCall.getError() != null && !methodCall.getError().equals(requestMetrics.getError())) {
+                getOrCreate(errors, methodCall.getName() + " " + methodCall.getError(), new AtomicLong()).incrementAndGet();
+            }
+        }
+    }
+
+    public Histogram getQueueTime() {
+        return queueTime;
+    }
+
+    public Histogram getSerializationTime() {
+        return serializationTime;
+    }
+
+    public Histogram getTimeToFirstByte() {
+        return timeToFirstByte;
+    }
+
+    public Histogram getParseTime() {
+        return parseTime;
+    }
+
+    public Histogram getTotalTime() {
+        return totalTime;
+    }
+
+    public Histogram getBytesSent() {
+        return bytesSent;
+    }
+
+    public Histogram getBytesReceived() {
+        return bytesReceived;
+    }
+
+    public Histogram getCallsPerRequest() {
+        return callsPerRequest;
+    }
+
+    /**
+     * @return latency histograms keyed by method name
+     */
+    public Map<String, Histogram> getMethodCallLatencies() {
+        return ImmutableMap.copyOf(methodCallLatencies);
+    }
+
+    /**
+     * @return number of occurrences keyed by request error or by method name and method error
+     */
+    public Map<String, Long> getErrors() {
+        final ImmutableMap.Builder<String, Long> builder = ImmutableMap.builder();
+        for (Map.Entry<String, AtomicLong> entry : errors.entrySet()) {
+            builder.put(entry.getKey(), entry.getValue().get());
+        }
+        return builder.build();
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder();
+        builder.append("total (µs): ").append(totalTime).append('\n');
+        builder.append("queue (µs): ").append(queueTime).append('\n');
+        builder.append("serialization (µs): ").append(serializationTime).append('\n');
+        builder.append("time to first byte (µs): ").append(timeToFirstByte).append('\n');
+        builder.append("parse (µs): ").append(parseTime).append('\n');
+        builder.append("bytes sent: ").append(bytesSent).append('\n');
+        builder.append("bytes received: ").append(bytesReceived).append('\n');
+        builder.append("calls per request: ").append(callsPerRequest).append('\n');
+        for (Map.Entry<String, Histogram> entry : methodCallLatencies.entrySet()) {
+            builder.append(entry.getKey()).append(" (µs): ").append(entry.getValue()).append('\n');
+        }
+        for (Map.Entry<String, Long> entry : getErrors().entrySet()) {
+            builder.append("error ").append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+        }
+        return builder.toString();
+    }
+}
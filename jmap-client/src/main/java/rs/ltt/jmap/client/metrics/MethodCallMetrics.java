@@ -0,0 +1,65 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package rs.ltt.jmap.client.metrics;
+
+import org.checkerframework.checker.nullness.compatqual.NullableDecl;
+
+public class MethodCallMetrics {
+
+    private final String name;
+    private final long latency;
+    private final String error;
+
+    public MethodCallMetrics(final String name, final long latency, final String error) {
+        this.name = name;
+        this.latency = latency;
+        this.error = error;
+    }
+
+    /**
+     * @return the JMAP method name (for example Email/get)
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return nanoseconds from the start of the request until the response to this call has been read
+     */
+    public long getLatency() {
+        return latency;
+    }
+
+    /**
+     * @return the type of the method error (for example stateMismatch) or the name of the exception that failed the
+     * request. Null if the call was successful.
+     */
+    @NullableDecl
+    public String getError() {
+        return error;
+    }
+
+    public boolean isSuccessful() {
+        return error == null;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s %dµs%s", name, latency / 1000, error == null ? "" : " " + error);
+    }
+}
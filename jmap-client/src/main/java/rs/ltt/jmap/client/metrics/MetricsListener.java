@@ -0,0 +1,39 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package rs.ltt.jmap.client.metrics;
+
+/**
+ * Receives the metrics of every request that has been sent to the API endpoint. The listener is invoked on the thread
+ * that read the response (or observed the failure) and must not block.
+ *
+ * @see HistogramMetricsListener
+ */
+public interface MetricsListener {
+
+    /**
+     * Discards all metrics. API clients compare against this instance and do not take any measurements while it is set.
+     */
+    MetricsListener NONE = new MetricsListener() {
+        @Override
+        public void onRequestCompleted(RequestMetrics requestMetrics) {
+
+        }
+    };
+
+    void onRequestCompleted(RequestMetrics requestMetrics);
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package rs.ltt.jmap.client.metrics;
+
+import com.google.common.collect.ImmutableList;
+import org.checkerframework.checker.nullness.compatqual.NullableDecl;
+
+import java.util.List;
+
+/**
+ * Timings and sizes of one JMAP request. Times are in nanoseconds; phases that have not been reached because the
+ * request failed early are reported as -1. Sizes are those of the JSON itself, before compression is applied by the
+ * transport (see {@link rs.ltt.jmap.client.api.TransferStatistics} for the bytes on the wire).
+ */
+public class RequestMetrics {
+
+    public static final long NOT_REACHED = -1;
+
+    private final long queueTime;
+    private final long serializationTime;
+    private final long timeToFirstByte;
+    private final long parseTime;
+    private final long totalTime;
+    private final long bytesSent;
+    private final long bytesReceived;
+    private final String error;
+    private final ImmutableList<MethodCallMetrics> methodCalls;
+
+    private RequestMetrics(Builder builder) {
+        this.queueTime = builder.queueTime;
+        this.serializationTime = builder.serializationTime;
+        this.timeToFirstByte = builder.timeToFirstByte;
+        this.parseTime = builder.parseTime;
+        this.totalTime = builder.totalTime;
+        this.bytesSent = builder.bytesSent;
+        this.bytesReceived = builder.bytesReceived;
+        this.error = builder.error;
+        this.methodCalls = builder.methodCalls.build();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return time between building the request and handing it to the API client. Includes waiting for the session
+     * and for a free thread of the executor.
+     */
+    public long getQueueTime() {
+        return queueTime;
+    }
+
+    /**
+     * @return time spent writing the request. The request is serialized straight into the connection, so this includes
+     * the time it takes the transport to accept the body.
+     */
+    public long getSerializationTime() {
+        return serializationTime;
+    }
+
+    /**
+     * @return time from the start of the request until the server started to respond
+     */
+    public long getTimeToFirstByte() {
+        return timeToFirstByte;
+    }
+
+    /**
+     * @return time spent reading the response and completing the futures of the method calls. Responses are parsed as
+     * they are streamed in, so this includes the time it takes to receive the body.
+     */
+    public long getParseTime() {
+        return parseTime;
+    }
+
+    /**
+     * @return time from the start of the request until it has been completed or has failed (excluding queue time)
+     */
+    public long getTotalTime() {
+        return totalTime;
+    }
+
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    /**
+     * @return the type of the request level error or the name of the exception that failed the request. Null if the
+     * request was successful. Method errors do not fail a request; they are reported with the method call.
+     */
+    @NullableDecl
+    public String getError() {
+        return error;
+    }
+
+    public boolean isSuccessful() {
+        return error == null;
+    }
+
+    public List<MethodCallMetrics> getMethodCalls() {
+        return methodCalls;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("calls=%s queue=%dµs serialization=%dµs ttfb=%dµs parse=%dµs total=%dµs sent=%d received=%d%s",
+                methodCalls,
+                queueTime / 1000,
+                serializationTime / 1000,
+                timeToFirstByte / 1000,
+                parseTime / 1000,
+                totalTime / 1000,
+                bytesSent,
+                bytesReceived,
+                error == null ? "" : " error=" + error);
+    }
+
+    public static class Builder {
+
+        private long queueTime = NOT_REACHED;
+        private long serializationTime = NOT_REACHED;
+        private long timeToFirstByte = NOT_REACHED;
+        private long parseTime = NOT_REACHED;
+        private long totalTime = NOT_REACHED;
+        private long bytesSent = 0;
+        private long bytesReceived = 0;
+        private String error;
+        private final ImmutableList.Builder<MethodCallMetrics> methodCalls = ImmutableList.builder();
+
+        private Builder() {
+
+        }
+
+        public Builder queueTime(long queueTime) {
+            this.queueTime = queueTime;
+            return this;
+        }
+
+        public Builder serializationTime(long serializationTime) {
+            this.serializationTime = serializationTime;
+            return this;
+        }
+
+        public Builder timeToFirstByte(long timeToFirstByte) {
+            this.timeToFirstByte = timeToFirstByte;
+            return this;
+        }
+
+        public Builder parseTime(long parseTime) {
+            this.parseTime = parseTime;
+            return this;
+        }
+
+        public Builder totalTime(long totalTime) {
+            this.totalTime = totalTime;
+            return this;
+        }
+
+        public Builder bytesSent(long bytesSent) {
+            this.bytesSent = bytesSent;
+            return this;
+        }
+
+        public Builder bytesReceived(long bytesReceived) {
+            this.bytesReceived = bytesReceived;
+            return this;
+        }
+
+        public Builder error(String error) {
+            this.error = error;
+            return this;
+        }
+
+        public Builder methodCall(MethodCallMetrics methodCallMetrics) {
+            this.methodCalls.add(methodCallMetrics);
+            return this;
+        }
+
+        public RequestMetrics build() {
+            return new RequestMetrics(this);
+        }
+    }
+}
@@ -16,8 +16,11 @@
 
 package rs.ltt.jmap.client.session;
 
+import org.checkerframework.checker.nullness.compatqual.NullableDecl;
 import rs.ltt.jmap.common.SessionResource;
+import rs.ltt.jmap.common.entity.Capability;
 
+import java.net.MalformedURLException;
 import java.net.URL;
 
 public class Session {
@@ -35,7 +38,55 @@ public class Session {
         return sessionResource.getApiUrl(this.base);
     }
 
+    /**
+     * @return the eventSourceUrl template resolved against the base url or null if the server does not support push
+     */
+    @NullableDecl
+    public URL getEventSourceUrl() {
+        return resolve(sessionResource.getEventSourceUrl());
+    }
+
+    /**
+     * @return the uploadUrl template (containing {accountId}) resolved against the base url
+     */
+    @NullableDecl
+    public URL getUploadUrl() {
+        return resolve(sessionResource.getUploadUrl());
+    }
+
+    /**
+     * @return the downloadUrl template (containing {accountId}, {blobId}, {type} and {name}) resolved against the
+     * base url
+     */
+    @NullableDecl
+    public URL getDownloadUrl() {
+        return resolve(sessionResource.getDownloadUrl());
+    }
+
+    public String getPrimaryAccount(Class<? extends Capability> clazz) {
+        return sessionResource.getPrimaryAccount(clazz);
+    }
+
+    private URL resolve(final String url) {
+        if (url == null) {
+            return null;
+        }
+        try {
+            return new URL(this.base, url);
+        } catch (MalformedURLException e) {
+            return null;
+        }
+    }
+
     public URL getBase() {
         return base;
     }
+
+    public String getState() {
+        return sessionResource.getState();
+    }
+
+    public <T extends Capability> T getCapability(Class<T> clazz) {
+        return sessionResource.getCapability(clazz);
+    }
 }
@@ -16,27 +16,38 @@
 
 package rs.ltt.jmap.client.session;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import rs.ltt.jmap.client.api.EndpointNotFoundException;
 import rs.ltt.jmap.client.api.UnauthorizedException;
 import rs.ltt.jmap.client.http.HttpAuthentication;
+import rs.ltt.jmap.client.json.GsonCodec;
+import rs.ltt.jmap.client.json.JmapCodec;
+import rs.ltt.jmap.client.util.ContentEncoding;
 import rs.ltt.jmap.client.util.WellKnownUtil;
 import rs.ltt.jmap.common.SessionResource;
-import rs.ltt.jmap.gson.JmapAdapters;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class SessionClient {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(SessionClient.class);
+
     private final URL sessionResource;
     private HttpAuthentication httpAuthentication;
-    private SessionCache sessionCache;
-    private Session currentSession = null;
+    private volatile SessionCache sessionCache;
+    private volatile JmapCodec codec = new GsonCodec();
+    private volatile Session currentSession = null;
+
+    private final AtomicBoolean refreshing = new AtomicBoolean(false);
+    private volatile String lastRefreshedFor = null;
 
     public SessionClient(HttpAuthentication authentication) {
         this.sessionResource = null;
@@ -58,12 +69,7 @@ public class SessionClient {
                 return currentSession;
             }
             final String username = httpAuthentication.getUsername();
-            final URL resource;
-            if (sessionResource != null) {
-                resource = sessionResource;
-            } else {
-                resource = WellKnownUtil.fromUsername(username);
-            }
+            final URL resource = getSessionResource();
 
             final SessionCache cache = sessionCache;
             Session session = cache != null ? cache.load(username, resource) : null;
@@ -81,23 +87,81 @@ public class SessionClient {
         return currentSession;
     }
 
+    /**
+     * Compares the sessionState of an API response with the state of the current session. If they differ the session
+     * is fetched again on the given executor. Calls made in the meantime keep using the current session; only one
+     * refresh runs at a time and every new state triggers at most one successful refresh. A failed refresh is retried
+     * with the next response that reports the new state.
+     */
+    public void onSessionStateRetrieved(final String sessionState, final Executor executor) {
+        final Session session = this.currentSession;
+        if (session == null || sessionState == null || sessionState.equals(session.getState())) {
+            return;
+        }
+        if (sessionState.equals(lastRefreshedFor) || !refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        LOGGER.debug("Session state changed from {} to {}. Refreshing session", session.getState(), sessionState);
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        refresh();
+                        lastRefreshedFor = sessionState;
+                    } catch (Exception e) {
+                        LOGGER.warn("Unable to refresh session", e);
+                    } finally {
+                        refreshing.set(false);
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            refreshing.set(false);
+            throw e;
+        }
+    }
+
+    private void refresh() throws Exception {
+        final String username = httpAuthentication.getUsername();
+        final URL resource = getSessionResource();
+        final Session session = fetchSession(resource, 3);
+        final SessionCache cache = sessionCache;
+        if (cache != null) {
+            cache.store(username, resource, session);
+        }
+        currentSession = session;
+    }
+
+    private URL getSessionResource() throws WellKnownUtil.MalformedUsernameException {
+        if (sessionResource != null) {
+            return sessionResource;
+        } else {
+            return WellKnownUtil.fromUsername(httpAuthentication.getUsername());
+        }
+    }
+
     public void setSessionCache(SessionCache sessionCache) {
         this.sessionCache = sessionCache;
     }
 
+    public void setCodec(JmapCodec codec) {
+        this.codec = codec;
+    }
+
     private Session fetchSession(URL base, int remainingRedirects) throws Exception {
         final HttpURLConnection connection = (HttpURLConnection) base.openConnection();
         connection.setRequestMethod("GET");
         connection.setInstanceFollowRedirects(false);
+        connection.setRequestProperty("Accept-Encoding", ContentEncoding.ACCEPT_ENCODING);
         httpAuthentication.authenticate(connection);
         connection.connect();
         final int code = connection.getResponseCode();
         if (code == 200 || code == 201) {
-            InputStream inputStream = connection.getInputStream();
-            GsonBuilder builder = new GsonBuilder();
-            JmapAdapters.register(builder);
-            Gson gson = builder.create();
-            final SessionResource sessionResource = gson.fromJson(new InputStreamReader(inputStream), SessionResource.class);
+            final SessionResource sessionResource;
+            try (final InputStream inputStream = ContentEncoding.decode(connection.getInputStream(), connection.getContentEncoding())) {
+                sessionResource = codec.readSessionResource(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+            }
             return new Session(base, sessionResource);
         } else if (code == 301 || code == 302) {
             if (remainingRedirects > 0) {
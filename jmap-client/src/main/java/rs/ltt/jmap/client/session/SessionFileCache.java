@@ -18,46 +18,67 @@ package rs.ltt.jmap.client.session;
 
 import com.google.common.base.Charsets;
 import com.google.common.hash.Hashing;
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import rs.ltt.jmap.gson.JmapAdapters;
+import rs.ltt.jmap.client.json.GsonCodec;
+import rs.ltt.jmap.client.json.JmapCodec;
 
 import java.io.*;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 
 public class SessionFileCache implements SessionCache {
 
     private final File directory;
 
-    private final GsonBuilder gsonBuilder = new GsonBuilder();
+    private final JmapCodec codec;
 
     public SessionFileCache() {
-        JmapAdapters.register(this.gsonBuilder);
-        this.directory = null;
+        this(null);
     }
 
     public SessionFileCache(File directory) {
-        JmapAdapters.register(this.gsonBuilder);
+        this(directory, new GsonCodec());
+    }
+
+    public SessionFileCache(File directory, JmapCodec codec) {
         this.directory = directory;
+        this.codec = codec;
     }
 
+    /**
+     * Writes to a temporary file next to the cache file first and then renames it. Readers (including other processes)
+     * see either the old or the new session but never a partially written file.
+     */
     @Override
     public void store(String username, URL sessionResource, Session session) {
-        Gson gson = this.gsonBuilder.create();
+        final File file = getFile(username, sessionResource);
+        File temporaryFile = null;
         try {
-            final String filename = getFilename(username, sessionResource);
-            final File file;
-            if (directory == null) {
-                file = new File(filename);
-            } else {
-                file = new File(directory, filename);
+            temporaryFile = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+            try (final Writer writer = new OutputStreamWriter(new FileOutputStream(temporaryFile), StandardCharsets.UTF_8)) {
+                codec.writeSession(session, writer);
+            }
+            try {
+                Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
             }
-            final FileWriter fileWriter = new FileWriter(file);
-            gson.toJson(session, fileWriter);
-            fileWriter.flush();
-            fileWriter.close();
         } catch (IOException e) {
             e.printStackTrace();
+            if (temporaryFile != null) {
+                temporaryFile.delete();
+            }
+        }
+    }
+
+    private File getFile(String username, URL sessionResource) {
+        final String filename = getFilename(username, sessionResource);
+        if (directory == null) {
+            return new File(filename);
+        } else {
+            return new File(directory, filename);
         }
     }
 
@@ -68,9 +89,8 @@ public class SessionFileCache implements SessionCache {
 
     @Override
     public Session load(String username, URL sessionResource) {
-        Gson gson = this.gsonBuilder.create();
-        try {
-            return gson.fromJson(new FileReader(new File(getFilename(username, sessionResource))), Session.class);
+        try (final Reader reader = new InputStreamReader(new FileInputStream(getFile(username, sessionResource)), StandardCharsets.UTF_8)) {
+            return codec.readSession(reader);
         } catch (FileNotFoundException e) {
             return null;
         } catch (Exception e) {
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package rs.ltt.jmap.client.util;
+
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A small pool of equally sized byte arrays. Arrays are handed out with {@link #acquire()} and should be given back
+ * with {@link #release(byte[])} once they are no longer in use. At most {@code capacity} idle arrays are kept around.
+ */
+public class ByteArrayPool {
+
+    private final ConcurrentLinkedQueue<byte[]> idle = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger idleCount = new AtomicInteger(0);
+    private final int arraySize;
+    private final int capacity;
+
+    public ByteArrayPool(int arraySize, int capacity) {
+        Preconditions.checkArgument(arraySize > 0, "arraySize must be positive");
+        Preconditions.checkArgument(capacity >= 0, "capacity must not be negative");
+        this.arraySize = arraySize;
+        this.capacity = capacity;
+    }
+
+    public int getArraySize() {
+        return arraySize;
+    }
+
+    public byte[] acquire() {
+        final byte[] array = idle.poll();
+        if (array == null) {
+            return new byte[arraySize];
+        }
+        idleCount.decrementAndGet();
+        return array;
+    }
+
+    public void release(byte[] array) {
+        if (array == null || array.length != arraySize) {
+            return;
+        }
+        if (idleCount.incrementAndGet() > capacity) {
+            idleCount.decrementAndGet();
+            return;
+        }
+        idle.offer(array);
+    }
+}
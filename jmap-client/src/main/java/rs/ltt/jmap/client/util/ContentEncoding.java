@@ -0,0 +1,79 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package rs.ltt.jmap.client.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+public final class ContentEncoding {
+
+    public static final String ACCEPT_ENCODING = "gzip, deflate";
+
+    public static final String GZIP = "gzip";
+
+    private ContentEncoding() {
+
+    }
+
+    /**
+     * Wraps the response body in a stream that undoes the given Content-Encoding.
+     */
+    public static InputStream decode(final InputStream inputStream, final String contentEncoding) throws IOException {
+        if (contentEncoding == null || contentEncoding.isEmpty() || "identity".equalsIgnoreCase(contentEncoding)) {
+            return inputStream;
+        }
+        if (GZIP.equalsIgnoreCase(contentEncoding) || "x-gzip".equalsIgnoreCase(contentEncoding)) {
+            return new GZIPInputStream(inputStream);
+        }
+        if ("deflate".equalsIgnoreCase(contentEncoding)) {
+            return inflate(inputStream);
+        }
+        throw new IOException(String.format("Unsupported Content-Encoding %s", contentEncoding));
+    }
+
+    private static InputStream inflate(final InputStream inputStream) throws IOException {
+        //'deflate' is supposed to be zlib wrapped but some servers send raw deflate data
+        final PushbackInputStream pushbackInputStream = new PushbackInputStream(inputStream, 2);
+        final byte[] header = new byte[2];
+        int read = 0;
+        while (read < header.length) {
+            final int count = pushbackInputStream.read(header, read, header.length - read);
+            if (count == -1) {
+                break;
+            }
+            read += count;
+        }
+        pushbackInputStream.unread(header, 0, read);
+        final boolean zlib = read == 2 && (header[0] & 0x0F) == 8 && (((header[0] & 0xFF) << 8) | (header[1] & 0xFF)) % 31 == 0;
+        final Inflater inflater = new Inflater(!zlib);
+        return new InflaterInputStream(pushbackInputStream, inflater) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    inflater.end();
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package rs.ltt.jmap.client.util;
+
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Execution models for {@link rs.ltt.jmap.client.JmapClient} and the Mua.
+ * <p>
+ * By default every client gets a small pool of its own. Applications that run many clients (one per account) should
+ * either hand all of them the {@link #shared()} pool or, on JDKs that support it, a
+ * {@link #newVirtualThreadPerTaskExecutor()}. Executors that have been handed to a client are never shut down by it.
+ */
+public final class ExecutorServices {
+
+    private static final int SHARED_POOL_SIZE = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+
+    private static ListeningExecutorService sharedExecutorService;
+    private static ScheduledExecutorService sharedScheduler;
+
+    private ExecutorServices() {
+
+    }
+
+    public static ListeningExecutorService newDefault() {
+        return MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(2));
+    }
+
+    /**
+     * A bounded pool of daemon threads that is shared by everyone who uses it. The pool lives for as long as the JVM
+     * does and must not be shut down.
+     */
+    public static synchronized ListeningExecutorService shared() {
+        if (sharedExecutorService == null) {
+            sharedExecutorService = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(SHARED_POOL_SIZE, new ThreadFactoryBuilder()
+                    .setNameFormat("jmap-shared-%d")
+                    .setDaemon(true)
+                    .build()));
+        }
+        return sharedExecutorService;
+    }
+
+    /**
+     * A single daemon thread for timers (request coalescing, session refresh) that is shared by all clients.
+     */
+    public static synchronized ScheduledExecutorService sharedScheduler() {
+        if (sharedScheduler == null) {
+            sharedScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                    .setNameFormat("jmap-scheduler-%d")
+                    .setDaemon(true)
+                    .build());
+        }
+        return sharedScheduler;
+    }
+
+    public static boolean isVirtualThreadPerTaskSupported() {
+        return getVirtualThreadPerTaskFactoryMethod() != null;
+    }
+
+    /**
+     * Starts a new virtual thread for every task. Requires Java 21 or later.
+     *
+     * @throws UnsupportedOperationException if the running JDK has no virtual threads
+     */
+    public static ListeningExecutorService newVirtualThreadPerTaskExecutor() {
+        final Method method = getVirtualThreadPerTaskFactoryMethod();
+        if (method == null) {
+            throw new UnsupportedOperationException("Virtual threads are not supported by this JVM");
+        }
+        try {
+            return MoreExecutors.listeningDecorator((ExecutorService) method.invoke(null));
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            throw new UnsupportedOperationException("Unable to create virtual thread executor", e);
+        }
+    }
+
+    private static Method getVirtualThreadPerTaskFactoryMethod() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package rs.ltt.jmap.client;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import rs.ltt.jmap.client.blob.BlobClient;
+import rs.ltt.jmap.client.http.BasicAuthHttpAuthentication;
+import rs.ltt.jmap.common.method.call.email.GetEmailMethodCall;
+import rs.ltt.jmap.common.method.call.mailbox.GetMailboxMethodCall;
+import rs.ltt.jmap.common.method.response.email.GetEmailMethodResponse;
+import rs.ltt.jmap.common.method.response.email.GetEmailThreadIdsMethodResponse;
+import rs.ltt.jmap.common.util.Projections;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+
+public class JmapClientTest {
+
+    private static final Pattern CALL_ID = Pattern.compile("\"([^\"]+)\"\\]\\]");
+    private static final Pattern METHOD_NAME = Pattern.compile("\\[\\[\"([^\"]+)\"");
+
+    private final AtomicInteger sessionRequests = new AtomicInteger();
+    private volatile String sessionState = "0";
+    private volatile String uploadUrl = "/upload/{accountId}/";
+
+    private HttpServer server;
+    private JmapClient jmapClient;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/jmap/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                sessionRequests.incrementAndGet();
+                respond(exchange, "{\"apiUrl\":\"/api/\",\"uploadUrl\":\"" + uploadUrl + "\"," +
+                        "\"downloadUrl\":\"/download/{accountId}/{blobId}/{name}?accept={type}\"," +
+                        "\"accounts\":{},\"primaryAccounts\":{},\"capabilities\":{},\"state\":\"" + sessionState + "\"}");
+            }
+        });
+        server.createContext("/api/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                final String request = new String(ByteStreams.toByteArray(exchange.getRequestBody()), StandardCharsets.UTF_8);
+                final Matcher matcher = CALL_ID.matcher(request);
+                Assert.assertTrue(request, matcher.find());
+                final Matcher methodName = METHOD_NAME.matcher(request);
+                Assert.assertTrue(request, methodName.find());
+                respond(exchange, "{\"methodResponses\":[[\"" + methodName.group(1) + "\",{\"accountId\":\"A1\",\"state\":\"1\",\"list\":[],\"notFound\":[]},\"" + matcher.group(1) + "\"]],\"sessionState\":\"" + sessionState + "\"}");
+            }
+        });
+        server.start();
+        jmapClient = new JmapClient(
+                new BasicAuthHttpAuthentication("user@example.com", "secret"),
+                new URL("http://localhost:" + server.getAddress().getPort() + "/jmap/")
+        );
+    }
+
+    private static void respond(final HttpExchange exchange, final String json) throws IOException {
+        final byte[] response = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, response.length);
+        try (final OutputStream outputStream = exchange.getResponseBody()) {
+            outputStream.write(response);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        jmapClient.shutdown();
+        server.stop(0);
+    }
+
+    private BlobClient refreshSession(final String state) throws Exception {
+        sessionState = state;
+        jmapClient.call(new GetMailboxMethodCall()).get();
+        for (int i = 0; i < 100; ++i) {
+            final BlobClient blobClient = jmapClient.getBlobClient().get();
+            if (state.equals(blobClient.getSession().getState())) {
+                return blobClient;
+            }
+            Thread.sleep(20);
+        }
+        throw new AssertionError("session has not been refreshed");
+    }
+
+    @Test
+    public void refreshedSessionKeepsBlobClient() throws Exception {
+        final BlobClient blobClient = jmapClient.getBlobClient().get();
+        Assert.assertSame(blobClient, refreshSession("1"));
+        Assert.assertEquals(2, sessionRequests.get());
+    }
+
+    @Test
+    public void movedUploadUrlReplacesBlobClient() throws Exception {
+        final BlobClient blobClient = jmapClient.getBlobClient().get();
+        uploadUrl = "/upload-v2/{accountId}/";
+        final BlobClient refreshed = refreshSession("1");
+        Assert.assertNotSame(blobClient, refreshed);
+        Assert.assertTrue(refreshed.getSession().getUploadUrl().getPath().startsWith("/upload-v2/"));
+    }
+
+    @Test
+    public void multiCallProjectionsDoNotAffectOtherCalls() throws Exception {
+        final Projections projections = new Projections();
+        projections.register(GetEmailMethodResponse.class, GetEmailThreadIdsMethodResponse.class, "threadId");
+        final JmapClient.MultiCall multiCall = jmapClient.newMultiCall();
+        multiCall.setProjections(projections);
+        final ListenableFuture<MethodResponses> projected = multiCall.call(new GetEmailMethodCall(new String[]{"M1"}, new String[]{"threadId"}));
+        multiCall.execute();
+        Assert.assertThat(projected.get().getMain(), instanceOf(GetEmailThreadIdsMethodResponse.class));
+        final MethodResponses full = jmapClient.call(new GetEmailMethodCall(new String[]{"M1"}, new String[]{"threadId"})).get();
+        Assert.assertThat(full.getMain(), instanceOf(GetEmailMethodResponse.class));
+    }
+}
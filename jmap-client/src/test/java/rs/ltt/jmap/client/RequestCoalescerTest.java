@@ -0,0 +1,118 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package rs.ltt.jmap.client;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import rs.ltt.jmap.common.Request;
+import rs.ltt.jmap.common.method.call.mailbox.GetMailboxMethodCall;
+
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+
+public class RequestCoalescerTest {
+
+    private final BlockingQueue<Map<Request.Invocation, SettableFuture<MethodResponses>>> batches = new LinkedBlockingQueue<>();
+
+    private final RequestCoalescer.Sink sink = new RequestCoalescer.Sink() {
+        @Override
+        public void execute(Map<Request.Invocation, SettableFuture<MethodResponses>> calls) {
+            batches.add(calls);
+        }
+    };
+
+    private ScheduledExecutorService scheduledExecutorService;
+
+    @Before
+    public void setUp() {
+        scheduledExecutorService = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        scheduledExecutorService.shutdownNow();
+    }
+
+    @Test
+    public void callsWithinWindowAreBatched() throws InterruptedException {
+        final RequestCoalescer requestCoalescer = new RequestCoalescer(scheduledExecutorService, 200, TimeUnit.MILLISECONDS, 10, sink);
+        requestCoalescer.add(new GetMailboxMethodCall());
+        requestCoalescer.add(new GetMailboxMethodCall());
+        Assert.assertTrue(batches.isEmpty());
+        final Map<Request.Invocation, SettableFuture<MethodResponses>> batch = batches.poll(5, TimeUnit.SECONDS);
+        Assert.assertNotNull(batch);
+        Assert.assertEquals(2, batch.size());
+        requestCoalescer.add(new GetMailboxMethodCall());
+        Assert.assertEquals(1, batches.poll(5, TimeUnit.SECONDS).size());
+    }
+
+    @Test
+    public void reachingMaxCallsFlushesEarly() {
+        final RequestCoalescer requestCoalescer = new RequestCoalescer(scheduledExecutorService, 1, TimeUnit.HOURS, 2, sink);
+        requestCoalescer.add(new GetMailboxMethodCall());
+        Assert.assertTrue(batches.isEmpty());
+        requestCoalescer.add(new GetMailboxMethodCall());
+        final Map<Request.Invocation, SettableFuture<MethodResponses>> batch = batches.poll();
+        Assert.assertNotNull(batch);
+        Assert.assertEquals(2, batch.size());
+    }
+
+    @Test
+    public void failingSinkFailsEveryCallOfTheBatch() throws InterruptedException {
+        final RequestCoalescer requestCoalescer = new RequestCoalescer(scheduledExecutorService, 1, TimeUnit.HOURS, 2, new RequestCoalescer.Sink() {
+            @Override
+            public void execute(Map<Request.Invocation, SettableFuture<MethodResponses>> calls) {
+                throw new RejectedExecutionException();
+            }
+        });
+        final ListenableFuture<MethodResponses> first = requestCoalescer.add(new GetMailboxMethodCall());
+        final ListenableFuture<MethodResponses> second = requestCoalescer.add(new GetMailboxMethodCall());
+        for (ListenableFuture<MethodResponses> future : ImmutableList.of(first, second)) {
+            Assert.assertTrue(future.isDone());
+            try {
+                future.get();
+                Assert.fail("call succeeded without a sink");
+            } catch (ExecutionException e) {
+                Assert.assertThat(e.getCause(), instanceOf(RejectedExecutionException.class));
+            }
+        }
+    }
+
+    @Test
+    public void closeHandsOffPendingCalls() {
+        final RequestCoalescer requestCoalescer = new RequestCoalescer(scheduledExecutorService, 1, TimeUnit.HOURS, 10, sink);
+        requestCoalescer.add(new GetMailboxMethodCall());
+        requestCoalescer.close();
+        Assert.assertEquals(1, batches.poll().size());
+        requestCoalescer.add(new GetMailboxMethodCall());
+        Assert.assertEquals(1, batches.poll().size());
+    }
+}
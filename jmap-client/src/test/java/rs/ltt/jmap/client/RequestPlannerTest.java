@@ -0,0 +1,262 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package rs.ltt.jmap.client;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.gson.Gson;
+import org.junit.Assert;
+import org.junit.Test;
+import rs.ltt.jmap.client.api.PartialResponseException;
+import rs.ltt.jmap.client.api.StateMismatchException;
+import rs.ltt.jmap.common.Request;
+import rs.ltt.jmap.common.entity.EmailSubmission;
+import rs.ltt.jmap.common.entity.capability.CoreCapability;
+import rs.ltt.jmap.common.method.MethodCall;
+import rs.ltt.jmap.common.method.MethodResponse;
+import rs.ltt.jmap.common.method.call.email.GetEmailMethodCall;
+import rs.ltt.jmap.common.method.call.email.QueryEmailMethodCall;
+import rs.ltt.jmap.common.method.call.email.SetEmailMethodCall;
+import rs.ltt.jmap.common.method.call.mailbox.GetMailboxMethodCall;
+import rs.ltt.jmap.common.method.call.standard.GetMethodCall;
+import rs.ltt.jmap.common.method.call.standard.SetMethodCall;
+import rs.ltt.jmap.common.method.call.submission.SetEmailSubmissionMethodCall;
+import rs.ltt.jmap.common.method.call.thread.GetThreadMethodCall;
+import rs.ltt.jmap.common.method.response.email.GetEmailMethodResponse;
+import rs.ltt.jmap.common.method.response.email.SetEmailMethodResponse;
+import rs.ltt.jmap.common.method.response.standard.GetMethodResponse;
+import rs.ltt.jmap.common.method.response.thread.GetThreadMethodResponse;
+import rs.ltt.jmap.common.util.Patches;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+
+public class RequestPlannerTest {
+
+    private static final Gson GSON = new Gson();
+
+    private static RequestPlanner planner(int maxCallsInRequest, int maxObjectsInGet, int maxObjectsInSet) {
+        return new RequestPlanner(GSON.fromJson(String.format(
+                "{\"maxCallsInRequest\":%d,\"maxObjectsInGet\":%d,\"maxObjectsInSet\":%d}",
+                maxCallsInRequest,
+                maxObjectsInGet,
+                maxObjectsInSet
+        ), CoreCapability.class));
+    }
+
+    private static List<MethodCall> methodCalls(final JmapRequest request) {
+        final List<MethodCall> methodCalls = new ArrayList<>();
+        for (Request.Invocation invocation : request.getInvocationFutureImmutableMap().keySet()) {
+            methodCalls.add(invocation.getMethodCall());
+        }
+        return methodCalls;
+    }
+
+    private static void respond(final JmapRequest request, final MethodResponse... methodResponses) {
+        int i = 0;
+        for (SettableFuture<MethodResponses> future : request.getInvocationFutureImmutableMap().values()) {
+            future.set(new MethodResponses(methodResponses[i++]));
+        }
+    }
+
+    private static GetEmailMethodResponse emails(String state, String... ids) {
+        final StringBuilder list = new StringBuilder();
+        for (String id : ids) {
+            list.append(list.length() == 0 ? "" : ",").append("{\"id\":\"").append(id).append("\"}");
+        }
+        return GSON.fromJson(String.format("{\"state\":\"%s\",\"list\":[%s]}", state, list), GetEmailMethodResponse.class);
+    }
+
+    private static Map<String, Map<String, Object>> seen(String... ids) {
+        final ImmutableMap.Builder<String, Map<String, Object>> update = ImmutableMap.builder();
+        for (String id : ids) {
+            update.put(id, Patches.set("keywords/$seen", true));
+        }
+        return update.build();
+    }
+
+    @Test
+    public void smallRequestIsNotChanged() {
+        final JmapRequest.Builder builder = new JmapRequest.Builder();
+        builder.call(new GetEmailMethodCall(new String[]{"M1", "M2"}));
+        final JmapRequest jmapRequest = builder.build();
+        final List<JmapRequest> requests = planner(16, 2, 2).plan(jmapRequest);
+        Assert.assertEquals(1, requests.size());
+        Assert.assertEquals(jmapRequest.getInvocationFutureImmutableMap(), requests.get(0).getInvocationFutureImmutableMap());
+    }
+
+    @Test
+    public void connectedCallsStayInOneRequest() {
+        final JmapRequest.Builder builder = new JmapRequest.Builder();
+        final Request.Invocation query = Request.Invocation.create(new QueryEmailMethodCall());
+        builder.call(new GetMailboxMethodCall());
+        builder.add(query);
+        builder.call(new GetMailboxMethodCall());
+        builder.call(new GetMailboxMethodCall());
+        builder.call(new GetEmailMethodCall(query.createReference(Request.Invocation.ResultReference.Path.IDS)));
+        final List<JmapRequest> requests = planner(2, 0, 0).plan(builder.build());
+        Assert.assertEquals(3, requests.size());
+        Assert.assertEquals(1, methodCalls(requests.get(0)).size());
+        final List<MethodCall> second = methodCalls(requests.get(1));
+        Assert.assertThat(second.get(0), instanceOf(QueryEmailMethodCall.class));
+        Assert.assertThat(second.get(1), instanceOf(GetEmailMethodCall.class));
+        Assert.assertEquals(2, methodCalls(requests.get(2)).size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void oversizedGroupIsRejected() {
+        final JmapRequest.Builder builder = new JmapRequest.Builder();
+        final Request.Invocation query = Request.Invocation.create(new QueryEmailMethodCall());
+        final Request.Invocation getEmails = Request.Invocation.create(new GetEmailMethodCall(query.createReference(Request.Invocation.ResultReference.Path.IDS)));
+        builder.add(query);
+        builder.add(getEmails);
+        builder.call(new GetThreadMethodCall(getEmails.createReference(Request.Invocation.ResultReference.Path.LIST_THREAD_IDS)));
+        planner(2, 0, 0).plan(builder.build());
+    }
+
+    @Test
+    public void setChunksAreChainedThroughIfInState() {
+        final JmapRequest.Builder builder = new JmapRequest.Builder();
+        builder.call(new SetEmailMethodCall("s1", seen("M1", "M2", "M3")));
+        final List<MethodCall> methodCalls = methodCalls(planner(16, 0, 2).plan(builder.build()).get(0));
+        Assert.assertEquals(2, methodCalls.size());
+        final SetMethodCall<?> first = (SetMethodCall<?>) methodCalls.get(0);
+        final SetMethodCall<?> second = (SetMethodCall<?>) methodCalls.get(1);
+        Assert.assertEquals("s1", first.getIfInState());
+        Assert.assertNull(first.getIfInStateReference());
+        Assert.assertNull(second.getIfInState());
+        Assert.assertEquals(Request.Invocation.ResultReference.Path.NEW_STATE, second.getIfInStateReference().getPath());
+    }
+
+    @Test
+    public void getResponsesAreMerged() throws Exception {
+        final JmapRequest.Builder builder = new JmapRequest.Builder();
+        final ListenableFuture<MethodResponses> future = builder.call(new GetEmailMethodCall(new String[]{"M1", "M2", "M3"}));
+        final List<JmapRequest> requests = planner(16, 2, 0).plan(builder.build());
+        Assert.assertEquals(1, requests.size());
+        Assert.assertEquals(2, methodCalls(requests.get(0)).size());
+        respond(requests.get(0), emails("s1", "M1", "M2"), emails("s1", "M3"));
+        final GetEmailMethodResponse response = future.get().getMain(GetEmailMethodResponse.class);
+        Assert.assertEquals("s1", response.getState());
+        Assert.assertEquals(3, response.getList().length);
+        Assert.assertNull(response.getNotFound());
+    }
+
+    @Test
+    public void getResponsesWithDifferentStatesFail() throws InterruptedException {
+        final JmapRequest.Builder builder = new JmapRequest.Builder();
+        final ListenableFuture<MethodResponses> future = builder.call(new GetEmailMethodCall(new String[]{"M1", "M2", "M3"}));
+        final List<JmapRequest> requests = planner(16, 2, 0).plan(builder.build());
+        respond(requests.get(0), emails("s1", "M1", "M2"), emails("s2", "M3"));
+        try {
+            future.get();
+            Assert.fail("merged responses with different states");
+        } catch (ExecutionException e) {
+            Assert.assertThat(e.getCause(), instanceOf(StateMismatchException.class));
+        }
+    }
+
+    @Test
+    public void failedSetChunkReportsPartialResponse() throws InterruptedException {
+        final JmapRequest.Builder builder = new JmapRequest.Builder();
+        final ListenableFuture<MethodResponses> future = builder.call(new SetEmailMethodCall(null, seen("M1", "M2", "M3")));
+        final List<JmapRequest> requests = planner(16, 0, 2).plan(builder.build());
+        final List<SettableFuture<MethodResponses>> chunks = ImmutableList.copyOf(requests.get(0).getInvocationFutureImmutableMap().values());
+        chunks.get(0).set(new MethodResponses(GSON.fromJson(
+                "{\"oldState\":\"s1\",\"newState\":\"s2\",\"updated\":{\"M1\":null,\"M2\":null}}",
+                SetEmailMethodResponse.class
+        )));
+        final Exception cause = new Exception("second chunk failed");
+        chunks.get(1).setException(cause);
+        try {
+            future.get();
+            Assert.fail("partially failed set succeeded");
+        } catch (ExecutionException e) {
+            Assert.assertThat(e.getCause(), instanceOf(PartialResponseException.class));
+            final PartialResponseException partial = (PartialResponseException) e.getCause();
+            Assert.assertSame(cause, partial.getCause());
+            final SetEmailMethodResponse response = partial.getPartialResponses().getMain(SetEmailMethodResponse.class);
+            Assert.assertEquals(ImmutableList.of("M1", "M2"), ImmutableList.copyOf(response.getUpdated().keySet()));
+            Assert.assertNull(response.getDestroyed());
+        }
+    }
+
+    @Test
+    public void referencedGetIsSplitWithItsDependents() throws Exception {
+        final JmapRequest.Builder builder = new JmapRequest.Builder();
+        final Request.Invocation getThreads = Request.Invocation.create(new GetThreadMethodCall(new String[]{"T1", "T2", "T3"}));
+        final ListenableFuture<MethodResponses> threads = builder.add(getThreads);
+        final ListenableFuture<MethodResponses> emails = builder.call(new GetEmailMethodCall(
+                getThreads.createReference(Request.Invocation.ResultReference.Path.LIST_EMAIL_IDS),
+                true
+        ));
+        final List<JmapRequest> requests = planner(16, 2, 0).plan(builder.build());
+        Assert.assertEquals(1, requests.size());
+        final List<Request.Invocation> invocations = ImmutableList.copyOf(requests.get(0).getInvocationFutureImmutableMap().keySet());
+        Assert.assertEquals(4, invocations.size());
+        for (int i = 0; i < invocations.size(); i += 2) {
+            final GetMethodCall<?> threadChunk = (GetMethodCall<?>) invocations.get(i).getMethodCall();
+            final GetMethodCall<?> emailChunk = (GetMethodCall<?>) invocations.get(i + 1).getMethodCall();
+            Assert.assertThat(threadChunk, instanceOf(GetThreadMethodCall.class));
+            Assert.assertThat(emailChunk, instanceOf(GetEmailMethodCall.class));
+            Assert.assertEquals(invocations.get(i).getId(), emailChunk.getIdsReference().getId());
+            Assert.assertEquals(Request.Invocation.ResultReference.Path.LIST_EMAIL_IDS, emailChunk.getIdsReference().getPath());
+        }
+        respond(
+                requests.get(0),
+                GSON.fromJson("{\"state\":\"t1\",\"list\":[{\"id\":\"T1\"},{\"id\":\"T2\"}]}", GetThreadMethodResponse.class),
+                emails("s1", "M1", "M2"),
+                GSON.fromJson("{\"state\":\"t1\",\"list\":[],\"notFound\":[\"T3\"]}", GetThreadMethodResponse.class),
+                emails("s1")
+        );
+        final GetMethodResponse<?> threadResponse = threads.get().getMain(GetThreadMethodResponse.class);
+        Assert.assertEquals(2, threadResponse.getList().length);
+        Assert.assertArrayEquals(new String[]{"T3"}, threadResponse.getNotFound());
+        Assert.assertEquals(2, emails.get().getMain(GetEmailMethodResponse.class).getList().length);
+    }
+
+    @Test
+    public void referencedGetIsNotSplitWhenAWriteSitsBetweenItAndItsDependents() {
+        final JmapRequest.Builder builder = new JmapRequest.Builder();
+        final Request.Invocation getThreads = Request.Invocation.create(new GetThreadMethodCall(new String[]{"T1", "T2", "T3"}));
+        builder.add(getThreads);
+        builder.call(new SetEmailMethodCall(null, seen("M1")));
+        builder.call(new GetEmailMethodCall(getThreads.createReference(Request.Invocation.ResultReference.Path.LIST_EMAIL_IDS), true));
+        Assert.assertEquals(3, methodCalls(planner(16, 2, 0).plan(builder.build()).get(0)).size());
+    }
+
+    @Test
+    public void submissionWithImplicitEmailSetIsNotSplit() {
+        final JmapRequest.Builder builder = new JmapRequest.Builder();
+        builder.call(new SetEmailSubmissionMethodCall(
+                ImmutableMap.of(
+                        "es0", EmailSubmission.builder().emailId("M1").identityId("I0").build(),
+                        "es1", EmailSubmission.builder().emailId("M2").identityId("I0").build(),
+                        "es2", EmailSubmission.builder().emailId("M3").identityId("I0").build()
+                ),
+                ImmutableMap.of("#es0", Patches.remove("keywords/$draft"))
+        ));
+        Assert.assertEquals(1, methodCalls(planner(16, 0, 2).plan(builder.build()).get(0)).size());
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package rs.ltt.jmap.client.api;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import org.junit.Assert;
+import org.junit.Test;
+import rs.ltt.jmap.client.JmapRequest;
+import rs.ltt.jmap.client.MethodResponses;
+import rs.ltt.jmap.client.http.BasicAuthHttpAuthentication;
+import rs.ltt.jmap.common.Request;
+import rs.ltt.jmap.common.method.call.email.GetEmailMethodCall;
+import rs.ltt.jmap.common.method.call.mailbox.GetMailboxMethodCall;
+import rs.ltt.jmap.common.method.response.email.GetEmailMethodResponse;
+
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.URL;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class AbstractJmapApiClientTest {
+
+    @Test
+    public void smallCallCompletesBeforeLargeResponseIsRead() throws Exception {
+        final Request.Invocation mailboxes = Request.Invocation.create(new GetMailboxMethodCall());
+        final Request.Invocation emails = Request.Invocation.create(new GetEmailMethodCall(new String[]{"M0"}));
+        final JmapRequest.Builder builder = new JmapRequest.Builder();
+        final ListenableFuture<MethodResponses> mailboxesFuture = builder.add(mailboxes);
+        final ListenableFuture<MethodResponses> emailsFuture = builder.add(emails);
+        final StringBuilder list = new StringBuilder();
+        for (int i = 0; i < 10000; ++i) {
+            list.append(i == 0 ? "" : ",").append("{\"id\":\"M").append(i).append("\",\"subject\":\"Winter is coming\"}");
+        }
+        final String json = "{\"methodResponses\":[" +
+                "[\"Mailbox/get\",{\"accountId\":\"A1\",\"state\":\"1\",\"list\":[],\"notFound\":[]},\"" + mailboxes.getId() + "\"]," +
+                "[\"Email/get\",{\"accountId\":\"A1\",\"state\":\"2\",\"list\":[" + list + "],\"notFound\":[]},\"" + emails.getId() + "\"]" +
+                "],\"sessionState\":\"0\"}";
+        final int halfway = json.length() / 2;
+        final AtomicReference<Boolean> doneHalfway = new AtomicReference<>();
+        final FilterReader reader = new FilterReader(new StringReader(json)) {
+
+            private int count = 0;
+
+            @Override
+            public int read(char[] buffer, int offset, int length) throws IOException {
+                if (count >= halfway && doneHalfway.get() == null) {
+                    doneHalfway.set(mailboxesFuture.isDone());
+                }
+                final int read = super.read(buffer, offset, length);
+                if (read > 0) {
+                    count += read;
+                }
+                return read;
+            }
+        };
+        final HttpJmapApiClient apiClient = new HttpJmapApiClient(new URL("http://localhost/api/"), new BasicAuthHttpAuthentication("user@example.com", "secret"));
+        apiClient.process(builder.build(), reader, RequestTimer.NONE);
+        Assert.assertEquals(Boolean.TRUE, doneHalfway.get());
+        Assert.assertEquals(10000, emailsFuture.get().getMain(GetEmailMethodResponse.class).getList().length);
+    }
+}
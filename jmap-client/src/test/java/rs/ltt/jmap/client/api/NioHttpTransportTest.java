@@ -0,0 +1,235 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package rs.ltt.jmap.client.api;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import rs.ltt.jmap.client.http.BasicAuthHttpAuthentication;
+import rs.ltt.jmap.client.http.HttpAuthentication;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+public class NioHttpTransportTest {
+
+    private final HttpAuthentication authentication = new BasicAuthHttpAuthentication("user@example.com", "secret");
+
+    private HttpServer server;
+    private volatile String contentLength;
+    private volatile String transferEncoding;
+    private volatile String contentEncoding;
+    private final CountDownLatch serverStalled = new CountDownLatch(1);
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        final HttpHandler echo = new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+                transferEncoding = exchange.getRequestHeaders().getFirst("Transfer-Encoding");
+                contentEncoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+                final InputStream requestBody = "gzip".equals(contentEncoding) ? new GZIPInputStream(exchange.getRequestBody()) : exchange.getRequestBody();
+                final byte[] body = ByteStreams.toByteArray(requestBody);
+                exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+                exchange.sendResponseHeaders(200, 0);
+                try (final OutputStream outputStream = new GZIPOutputStream(exchange.getResponseBody())) {
+                    outputStream.write(body);
+                }
+            }
+        };
+        server.createContext("/echo/", echo);
+        server.createContext("/stalled-request/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                await(serverStalled);
+                echo.handle(exchange);
+            }
+        });
+        server.createContext("/stalled-response/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                ByteStreams.exhaust(exchange.getRequestBody());
+                exchange.sendResponseHeaders(200, 0);
+                try (final OutputStream outputStream = exchange.getResponseBody()) {
+                    outputStream.write("{\"methodResponses\":".getBytes());
+                    outputStream.flush();
+                    await(serverStalled);
+                    outputStream.write("[]}".getBytes());
+                }
+            }
+        });
+        server.createContext("/unauthorized/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                ByteStreams.exhaust(exchange.getRequestBody());
+                exchange.sendResponseHeaders(401, -1);
+                exchange.close();
+            }
+        });
+        server.start();
+    }
+
+    private static void await(final CountDownLatch latch) throws IOException {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    private URL url(final String path) throws IOException {
+        return new URL("http://localhost:" + server.getAddress().getPort() + path);
+    }
+
+    private static RequestBody body(final byte[] bytes) {
+        return new RequestBody() {
+            @Override
+            public void writeTo(OutputStream outputStream) throws IOException {
+                //write in small pieces to exercise the hand over to the reactor
+                for (int offset = 0; offset < bytes.length; offset += 1000) {
+                    outputStream.write(bytes, offset, Math.min(1000, bytes.length - offset));
+                }
+            }
+        };
+    }
+
+    private static byte[] read(final NioHttpTransport transport, final URL url, final HttpAuthentication authentication, final byte[] body) throws Exception {
+        try (final InputStream inputStream = transport.post(url, authentication, body(body)).get()) {
+            return ByteStreams.toByteArray(inputStream);
+        }
+    }
+
+    @Test
+    public void smallBodyIsSentWithContentLength() throws Exception {
+        final NioHttpTransport transport = NioHttpTransport.builder().build();
+        try {
+            final byte[] body = "{\"using\":[],\"methodCalls\":[]}".getBytes();
+            Assert.assertArrayEquals(body, read(transport, url("/echo/"), authentication, body));
+            Assert.assertEquals(String.valueOf(body.length), contentLength);
+            Assert.assertNull(contentEncoding);
+            Assert.assertEquals(body.length, transport.getTransferStatistics().getBytesSent());
+            Assert.assertEquals(body.length, transport.getTransferStatistics().getBytesReceivedUncompressed());
+        } finally {
+            transport.close();
+        }
+    }
+
+    @Test
+    public void largeBodyIsStreamedAndCompressed() throws Exception {
+        final NioHttpTransport transport = NioHttpTransport.builder().requestCompressionThreshold(1024).build();
+        try {
+            final byte[] body = new byte[512 * 1024];
+            final Random random = new Random(42);
+            for (int i = 0; i < body.length; ++i) {
+                body[i] = (byte) ('a' + random.nextInt(4));
+            }
+            Assert.assertTrue(Arrays.equals(body, read(transport, url("/echo/"), authentication, body)));
+            Assert.assertEquals("chunked", transferEncoding);
+            Assert.assertEquals("gzip", contentEncoding);
+            final TransferStatistics transferStatistics = transport.getTransferStatistics();
+            Assert.assertEquals(body.length, transferStatistics.getBytesSentUncompressed());
+            Assert.assertTrue(transferStatistics.getBytesSent() < body.length);
+            Assert.assertEquals(body.length, transferStatistics.getBytesReceivedUncompressed());
+            Assert.assertTrue(transferStatistics.getBytesReceived() < body.length);
+        } finally {
+            transport.close();
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void postDoesNotWaitForTheServerToReadTheBody() throws Exception {
+        final NioHttpTransport transport = NioHttpTransport.builder().build();
+        try {
+            //random bytes are far larger than the socket buffers and the 64 KiB the transport collects up front
+            final byte[] body = new byte[8 * 1024 * 1024];
+            new Random(42).nextBytes(body);
+            final ListenableFuture<InputStream> future = transport.post(url("/stalled-request/"), authentication, body(body));
+            Assert.assertFalse(future.isDone());
+            serverStalled.countDown();
+            try (final InputStream inputStream = future.get()) {
+                Assert.assertTrue(Arrays.equals(body, ByteStreams.toByteArray(inputStream)));
+            }
+            Assert.assertEquals("chunked", transferEncoding);
+            Assert.assertEquals(body.length, transport.getTransferStatistics().getBytesSent());
+        } finally {
+            serverStalled.countDown();
+            transport.close();
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void futureCompletesOnceTheBodyHasBeenReceived() throws Exception {
+        final NioHttpTransport transport = NioHttpTransport.builder().build();
+        try {
+            final ListenableFuture<InputStream> future = transport.post(url("/stalled-response/"), authentication, body(new byte[10]));
+            try {
+                future.get(500, TimeUnit.MILLISECONDS);
+                Assert.fail("Future completed before the body was complete");
+            } catch (TimeoutException e) {
+                //expected; a reader handed the stream now would block
+            }
+            serverStalled.countDown();
+            try (final InputStream inputStream = future.get()) {
+                Assert.assertEquals("{\"methodResponses\":[]}", new String(ByteStreams.toByteArray(inputStream)));
+            }
+        } finally {
+            serverStalled.countDown();
+            transport.close();
+        }
+    }
+
+    @Test
+    public void unauthorized() throws Exception {
+        final NioHttpTransport transport = NioHttpTransport.builder().build();
+        try {
+            transport.post(url("/unauthorized/"), authentication, body(new byte[10])).get();
+            Assert.fail("Expected UnauthorizedException");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof UnauthorizedException);
+        } finally {
+            transport.close();
+        }
+    }
+}
@@ -0,0 +1,386 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package rs.ltt.jmap.client.api;
+
+import com.google.common.io.ByteStreams;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import rs.ltt.jmap.client.http.BasicAuthHttpAuthentication;
+import rs.ltt.jmap.client.http.HttpAuthentication;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executors;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+public class PooledHttpTransportTest {
+
+    private final HttpAuthentication authentication = new BasicAuthHttpAuthentication("user@example.com", "secret");
+    private final Set<InetSocketAddress> connections = new CopyOnWriteArraySet<>();
+
+    private HttpServer server;
+    private volatile String contentLength;
+    private volatile String transferEncoding;
+    private volatile String contentEncoding;
+    private volatile String acceptEncoding;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/echo/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                connections.add(exchange.getRemoteAddress());
+                contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+                transferEncoding = exchange.getRequestHeaders().getFirst("Transfer-Encoding");
+                contentEncoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+                acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+                final InputStream requestBody = "gzip".equals(contentEncoding) ? new GZIPInputStream(exchange.getRequestBody()) : exchange.getRequestBody();
+                final byte[] body = ByteStreams.toByteArray(requestBody);
+                if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+                    exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+                    exchange.sendResponseHeaders(200, 0);
+                    try (final OutputStream outputStream = new GZIPOutputStream(exchange.getResponseBody())) {
+                        outputStream.write(body);
+                    }
+                } else {
+                    exchange.sendResponseHeaders(200, body.length);
+                    try (final OutputStream outputStream = exchange.getResponseBody()) {
+                        outputStream.write(body);
+                    }
+                }
+            }
+        });
+        server.createContext("/large/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                connections.add(exchange.getRemoteAddress());
+                ByteStreams.exhaust(exchange.getRequestBody());
+                final byte[] body = randomBytes(Integer.parseInt(exchange.getRequestURI().getQuery()));
+                exchange.sendResponseHeaders(200, body.length);
+                try (final OutputStream outputStream = exchange.getResponseBody()) {
+                    outputStream.write(body);
+                } catch (IOException e) {
+                    //the client gave up on the body
+                }
+            }
+        });
+        server.createContext("/deflate/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                final byte[] body = ByteStreams.toByteArray(exchange.getRequestBody());
+                final boolean raw = "raw".equals(exchange.getRequestURI().getQuery());
+                exchange.getResponseHeaders().set("Content-Encoding", "deflate");
+                exchange.sendResponseHeaders(200, 0);
+                try (final OutputStream outputStream = new DeflaterOutputStream(exchange.getResponseBody(), new Deflater(Deflater.DEFAULT_COMPRESSION, raw))) {
+                    outputStream.write(body);
+                }
+            }
+        });
+        server.createContext("/brotli/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                ByteStreams.exhaust(exchange.getRequestBody());
+                exchange.getResponseHeaders().set("Content-Encoding", "br");
+                exchange.sendResponseHeaders(200, 4);
+                try (final OutputStream outputStream = exchange.getResponseBody()) {
+                    outputStream.write(new byte[4]);
+                }
+            }
+        });
+        server.createContext("/unauthorized/", error(401));
+        server.createContext("/not-found/", error(404));
+        server.createContext("/server-error/", error(500));
+        server.start();
+    }
+
+    private HttpHandler error(final int code) {
+        return new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                connections.add(exchange.getRemoteAddress());
+                ByteStreams.exhaust(exchange.getRequestBody());
+                final byte[] body = ("{\"type\":\"urn:ietf:params:jmap:error:" + code + "\"}").getBytes();
+                exchange.sendResponseHeaders(code, body.length);
+                try (final OutputStream outputStream = exchange.getResponseBody()) {
+                    outputStream.write(body);
+                }
+            }
+        };
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    private URL url(final String path) throws IOException {
+        return new URL("http://localhost:" + server.getAddress().getPort() + path);
+    }
+
+    private static byte[] randomBytes(final int length) {
+        final byte[] bytes = new byte[length];
+        new Random(42).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static byte[] compressibleBytes(final int length) {
+        final byte[] bytes = new byte[length];
+        final Random random = new Random(42);
+        for (int i = 0; i < bytes.length; ++i) {
+            bytes[i] = (byte) ('a' + random.nextInt(4));
+        }
+        return bytes;
+    }
+
+    private static RequestBody body(final byte[] bytes) {
+        return new RequestBody() {
+            @Override
+            public void writeTo(OutputStream outputStream) throws IOException {
+                for (int offset = 0; offset < bytes.length; offset += 1000) {
+                    outputStream.write(bytes, offset, Math.min(1000, bytes.length - offset));
+                }
+            }
+        };
+    }
+
+    private byte[] echo(final PooledHttpTransport transport, final byte[] body) throws Exception {
+        try (final InputStream inputStream = transport.post(url("/echo/"), authentication, body(body))) {
+            return ByteStreams.toByteArray(inputStream);
+        }
+    }
+
+    @Test
+    public void connectionIsReused() throws Exception {
+        final PooledHttpTransport transport = PooledHttpTransport.builder().build();
+        final byte[] body = "{\"using\":[],\"methodCalls\":[]}".getBytes();
+        for (int i = 0; i < 5; ++i) {
+            Assert.assertArrayEquals(body, echo(transport, body));
+        }
+        Assert.assertEquals(1, connections.size());
+    }
+
+    @Test(timeout = 30000)
+    public void partiallyReadResponseReturnsConnection() throws Exception {
+        final PooledHttpTransport transport = PooledHttpTransport.builder().maxConnectionsPerHost(1).build();
+        try (final InputStream inputStream = transport.post(url("/large/?32768"), authentication, body(new byte[10]))) {
+            Assert.assertEquals(100, ByteStreams.read(inputStream, new byte[100], 0, 100));
+        }
+        final byte[] body = "{}".getBytes();
+        Assert.assertArrayEquals(body, echo(transport, body));
+        Assert.assertEquals(1, connections.size());
+    }
+
+    @Test(timeout = 30000)
+    public void responseTooLargeToDrainReleasesPermit() throws Exception {
+        final PooledHttpTransport transport = PooledHttpTransport.builder().maxConnectionsPerHost(1).build();
+        try (final InputStream inputStream = transport.post(url("/large/?4194304"), authentication, body(new byte[10]))) {
+            Assert.assertEquals(100, ByteStreams.read(inputStream, new byte[100], 0, 100));
+        }
+        //with a single permit this only completes if closing the stream above has handed the permit back
+        final byte[] body = "{}".getBytes();
+        Assert.assertArrayEquals(body, echo(transport, body));
+    }
+
+    @Test(timeout = 30000)
+    public void notFoundReturnsConnection() throws Exception {
+        final PooledHttpTransport transport = PooledHttpTransport.builder().maxConnectionsPerHost(1).build();
+        try {
+            transport.post(url("/not-found/"), authentication, body(new byte[10]));
+            Assert.fail("Expected EndpointNotFoundException");
+        } catch (EndpointNotFoundException e) {
+            //expected
+        }
+        final byte[] body = "{}".getBytes();
+        Assert.assertArrayEquals(body, echo(transport, body));
+        Assert.assertEquals(1, connections.size());
+    }
+
+    @Test(timeout = 30000)
+    public void serverErrorBodyReturnsConnection() throws Exception {
+        final PooledHttpTransport transport = PooledHttpTransport.builder().maxConnectionsPerHost(1).build();
+        try (final InputStream inputStream = transport.post(url("/server-error/"), authentication, body(new byte[10]))) {
+            Assert.assertEquals("{\"type\":\"urn:ietf:params:jmap:error:500\"}", new String(ByteStreams.toByteArray(inputStream)));
+        }
+        final byte[] body = "{}".getBytes();
+        Assert.assertArrayEquals(body, echo(transport, body));
+        Assert.assertEquals(1, connections.size());
+    }
+
+    @Test(timeout = 30000)
+    public void unauthorizedReleasesPermit() throws Exception {
+        final PooledHttpTransport transport = PooledHttpTransport.builder().maxConnectionsPerHost(1).build();
+        try {
+            transport.post(url("/unauthorized/"), authentication, body(new byte[10]));
+            Assert.fail("Expected UnauthorizedException");
+        } catch (UnauthorizedException e) {
+            //expected
+        }
+        //HttpURLConnection drops connections that receive a 401 in streaming mode, so only the permit comes back
+        final byte[] body = "{}".getBytes();
+        Assert.assertArrayEquals(body, echo(transport, body));
+    }
+
+    @Test
+    public void bodyThatFitsTheBufferIsSentWithContentLength() throws Exception {
+        final PooledHttpTransport transport = PooledHttpTransport.builder().build();
+        final byte[] body = randomBytes(64 * 1024);
+        Assert.assertArrayEquals(body, echo(transport, body));
+        Assert.assertEquals(String.valueOf(body.length), contentLength);
+        Assert.assertNull(transferEncoding);
+    }
+
+    @Test
+    public void bodyThatOutgrowsTheBufferIsChunked() throws Exception {
+        final PooledHttpTransport transport = PooledHttpTransport.builder().build();
+        final byte[] body = randomBytes(64 * 1024 + 1);
+        Assert.assertArrayEquals(body, echo(transport, body));
+        Assert.assertEquals("chunked", transferEncoding);
+        Assert.assertNull(contentLength);
+        Assert.assertEquals(body.length, transport.getTransferStatistics().getBytesSent());
+    }
+
+    @Test
+    public void pooledBufferSwitchesBetweenChunkedAndFixedLength() throws Exception {
+        final PooledHttpTransport transport = PooledHttpTransport.builder().maxConnectionsPerHost(1).build();
+        final byte[] small = "{\"using\":[],\"methodCalls\":[]}".getBytes();
+        final byte[] large = randomBytes(512 * 1024);
+        for (int i = 0; i < 3; ++i) {
+            Assert.assertArrayEquals(large, echo(transport, large));
+            Assert.assertEquals("chunked", transferEncoding);
+            //the buffer that has just been streamed from must not leak any of the large body into the small one
+            Assert.assertArrayEquals(small, echo(transport, small));
+            Assert.assertEquals(String.valueOf(small.length), contentLength);
+            Assert.assertNull(transferEncoding);
+        }
+        Assert.assertEquals(1, connections.size());
+    }
+
+    @Test(timeout = 30000)
+    public void failingBodyDoesNotLeakPermitOrBuffer() throws Exception {
+        final PooledHttpTransport transport = PooledHttpTransport.builder().maxConnectionsPerHost(1).build();
+        for (final int size : new int[]{1024, 128 * 1024}) {
+            try {
+                transport.post(url("/echo/"), authentication, new RequestBody() {
+                    @Override
+                    public void writeTo(OutputStream outputStream) throws IOException {
+                        outputStream.write(randomBytes(size));
+                        throw new IOException("body failed");
+                    }
+                });
+                Assert.fail("Expected IOException");
+            } catch (IOException e) {
+                Assert.assertEquals("body failed", e.getMessage());
+            }
+        }
+        final byte[] body = "{}".getBytes();
+        Assert.assertArrayEquals(body, echo(transport, body));
+        Assert.assertEquals(String.valueOf(body.length), contentLength);
+    }
+
+    @Test
+    public void requestsAreNotCompressedByDefault() throws Exception {
+        final PooledHttpTransport transport = PooledHttpTransport.builder().build();
+        final byte[] body = compressibleBytes(128 * 1024);
+        Assert.assertArrayEquals(body, echo(transport, body));
+        Assert.assertNull(contentEncoding);
+        Assert.assertEquals(body.length, transport.getTransferStatistics().getBytesSent());
+    }
+
+    @Test
+    public void bodyBelowThresholdIsNotCompressed() throws Exception {
+        final PooledHttpTransport transport = PooledHttpTransport.builder().requestCompressionThreshold(1024).build();
+        final byte[] body = compressibleBytes(1024);
+        Assert.assertArrayEquals(body, echo(transport, body));
+        Assert.assertNull(contentEncoding);
+        Assert.assertEquals(String.valueOf(body.length), contentLength);
+        Assert.assertEquals(body.length, transport.getTransferStatistics().getBytesSent());
+    }
+
+    @Test
+    public void bodyAboveThresholdIsCompressed() throws Exception {
+        final PooledHttpTransport transport = PooledHttpTransport.builder().requestCompressionThreshold(1024).build();
+        for (final int size : new int[]{1025, 512 * 1024}) {
+            final byte[] body = compressibleBytes(size);
+            Assert.assertArrayEquals(body, echo(transport, body));
+            Assert.assertEquals("gzip", contentEncoding);
+        }
+        final TransferStatistics transferStatistics = transport.getTransferStatistics();
+        Assert.assertEquals(1025 + 512 * 1024, transferStatistics.getBytesSentUncompressed());
+        Assert.assertTrue(transferStatistics.getBytesSent() < transferStatistics.getBytesSentUncompressed());
+    }
+
+    @Test
+    public void gzipResponseIsDecoded() throws Exception {
+        final PooledHttpTransport transport = PooledHttpTransport.builder().build();
+        final byte[] body = compressibleBytes(256 * 1024);
+        Assert.assertArrayEquals(body, echo(transport, body));
+        Assert.assertEquals("gzip, deflate", acceptEncoding);
+        final TransferStatistics transferStatistics = transport.getTransferStatistics();
+        Assert.assertEquals(body.length, transferStatistics.getBytesReceivedUncompressed());
+        Assert.assertTrue(transferStatistics.getBytesReceived() < body.length);
+    }
+
+    @Test
+    public void compressedResponsesCanBeDeclined() throws Exception {
+        final PooledHttpTransport transport = PooledHttpTransport.builder().acceptCompressedResponses(false).build();
+        final byte[] body = compressibleBytes(16 * 1024);
+        Assert.assertArrayEquals(body, echo(transport, body));
+        Assert.assertNull(acceptEncoding);
+        Assert.assertEquals(body.length, transport.getTransferStatistics().getBytesReceived());
+    }
+
+    @Test
+    public void deflateResponseIsDecoded() throws Exception {
+        final PooledHttpTransport transport = PooledHttpTransport.builder().build();
+        final byte[] body = compressibleBytes(64 * 1024);
+        for (final String path : new String[]{"/deflate/", "/deflate/?raw"}) {
+            try (final InputStream inputStream = transport.post(url(path), authentication, body(body))) {
+                Assert.assertArrayEquals(path, body, ByteStreams.toByteArray(inputStream));
+            }
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void unsupportedContentEncodingReleasesPermit() throws Exception {
+        final PooledHttpTransport transport = PooledHttpTransport.builder().maxConnectionsPerHost(1).build();
+        try {
+            transport.post(url("/brotli/"), authentication, body(new byte[10]));
+            Assert.fail("Expected IOException");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("br"));
+        }
+        final byte[] body = "{}".getBytes();
+        Assert.assertArrayEquals(body, echo(transport, body));
+    }
+}
@@ -0,0 +1,299 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package rs.ltt.jmap.client.api;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.java_websocket.WebSocket;
+import org.java_websocket.drafts.Draft;
+import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.extensions.IExtension;
+import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.protocols.IProtocol;
+import org.java_websocket.protocols.Protocol;
+import org.java_websocket.server.WebSocketServer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import rs.ltt.jmap.client.JmapRequest;
+import rs.ltt.jmap.client.MethodResponses;
+import rs.ltt.jmap.client.event.EventSourceListener;
+import rs.ltt.jmap.client.http.BasicAuthHttpAuthentication;
+import rs.ltt.jmap.common.entity.StateChange;
+import rs.ltt.jmap.common.method.call.core.EchoMethodCall;
+import rs.ltt.jmap.common.method.response.core.EchoMethodResponse;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.startsWith;
+
+public class WebSocketJmapApiClientTest {
+
+    private final BlockingQueue<String> handshakes = new LinkedBlockingQueue<>();
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final ExecutorService executor = Executors.newFixedThreadPool(2, new ThreadFactoryBuilder().setNameFormat("client-%d").build());
+    private StubServer server;
+
+    @Before
+    public void startServer() throws InterruptedException {
+        server = new StubServer();
+        server.start();
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+    }
+
+    @After
+    public void stopServer() throws Exception {
+        server.stop(1000);
+        executor.shutdown();
+    }
+
+    private URI getUri() {
+        return URI.create("ws://localhost:" + server.getPort() + "/jmap/ws/");
+    }
+
+    @Test
+    public void responsesAreRoutedByRequestId() throws Exception {
+        final WebSocketJmapApiClient client = new WebSocketJmapApiClient(getUri(), new BasicAuthHttpAuthentication("user@example.com", "secret"), executor);
+        server.batchSize = 2;
+        try {
+            final JmapRequest.Builder first = new JmapRequest.Builder();
+            final ListenableFuture<MethodResponses> firstFuture = first.call(new EchoMethodCall());
+            final JmapRequest.Builder second = new JmapRequest.Builder();
+            final ListenableFuture<MethodResponses> secondFuture = second.call(new EchoMethodCall());
+            client.execute(first.build());
+            client.execute(second.build());
+
+            //the stub answers the second request first
+            Assert.assertTrue(secondFuture.get(5, TimeUnit.SECONDS).getMain() instanceof EchoMethodResponse);
+            Assert.assertTrue(firstFuture.get(5, TimeUnit.SECONDS).getMain() instanceof EchoMethodResponse);
+
+            Assert.assertEquals("jmap " + new BasicAuthHttpAuthentication("user@example.com", "secret").getAuthorization(), handshakes.poll(5, TimeUnit.SECONDS));
+            Assert.assertNull("requests share one connection", handshakes.poll());
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void stateChangesArePushed() throws Exception {
+        final WebSocketJmapApiClient client = new WebSocketJmapApiClient(getUri(), new BasicAuthHttpAuthentication("user@example.com", "secret"), executor);
+        final BlockingQueue<Object> events = new LinkedBlockingQueue<>();
+        client.setPushListener(new EventSourceListener() {
+            @Override
+            public void onConnected() {
+                events.add("connected");
+            }
+
+            @Override
+            public void onStateChange(StateChange stateChange) {
+                events.add(stateChange);
+            }
+        });
+        try {
+            final JmapRequest.Builder builder = new JmapRequest.Builder();
+            final ListenableFuture<MethodResponses> future = builder.call(new EchoMethodCall());
+            client.execute(builder.build());
+            future.get(5, TimeUnit.SECONDS);
+            Assert.assertEquals("connected", events.poll(5, TimeUnit.SECONDS));
+            final StateChange stateChange = (StateChange) events.poll(5, TimeUnit.SECONDS);
+            Assert.assertEquals("e2", stateChange.getChanged().get("a1").get("Email"));
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void messagesAreHandledOnTheExecutor() throws Exception {
+        final WebSocketJmapApiClient client = new WebSocketJmapApiClient(getUri(), new BasicAuthHttpAuthentication("user@example.com", "secret"), executor);
+        final BlockingQueue<String> threads = new LinkedBlockingQueue<>();
+        client.setPushListener(new EventSourceListener() {
+            @Override
+            public void onConnected() {
+                threads.add(Thread.currentThread().getName());
+            }
+
+            @Override
+            public void onStateChange(StateChange stateChange) {
+                threads.add(Thread.currentThread().getName());
+            }
+        });
+        try {
+            final JmapRequest.Builder builder = new JmapRequest.Builder();
+            final ListenableFuture<MethodResponses> future = builder.call(new EchoMethodCall());
+            future.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    threads.add(Thread.currentThread().getName());
+                }
+            }, MoreExecutors.directExecutor());
+            client.execute(builder.build());
+            future.get(5, TimeUnit.SECONDS);
+            for (int i = 0; i < 3; ++i) {
+                Assert.assertThat(threads.poll(5, TimeUnit.SECONDS), startsWith("client-"));
+            }
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void pendingRequestsFailWhenConnectionIsLost() throws Exception {
+        final WebSocketJmapApiClient client = new WebSocketJmapApiClient(getUri(), new BasicAuthHttpAuthentication("user@example.com", "secret"), executor);
+        try {
+            final JmapRequest.Builder builder = new JmapRequest.Builder();
+            final ListenableFuture<MethodResponses> future = builder.call(new EchoMethodCall());
+            server.closeOnNextRequest = true;
+            client.execute(builder.build());
+            try {
+                future.get(5, TimeUnit.SECONDS);
+                Assert.fail("Expected request to fail");
+            } catch (ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof IOException);
+            }
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void unansweredRequestTimesOut() throws Exception {
+        final WebSocketJmapApiClient client = new WebSocketJmapApiClient(getUri(), new BasicAuthHttpAuthentication("user@example.com", "secret"), executor);
+        client.setRequestTimeout(200, TimeUnit.MILLISECONDS);
+        server.batchSize = 2;
+        try {
+            final JmapRequest.Builder builder = new JmapRequest.Builder();
+            final ListenableFuture<MethodResponses> future = builder.call(new EchoMethodCall());
+            client.execute(builder.build());
+            try {
+                future.get(5, TimeUnit.SECONDS);
+                Assert.fail("Expected request to time out");
+            } catch (ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof SocketTimeoutException);
+            }
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void pendingRequestsFailWhenClientIsClosed() throws Exception {
+        final WebSocketJmapApiClient client = new WebSocketJmapApiClient(getUri(), new BasicAuthHttpAuthentication("user@example.com", "secret"), executor);
+        server.batchSize = 2;
+        final JmapRequest.Builder builder = new JmapRequest.Builder();
+        final ListenableFuture<MethodResponses> future = builder.call(new EchoMethodCall());
+        client.execute(builder.build());
+        client.close();
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            Assert.fail("Expected request to fail");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+
+    private class StubServer extends WebSocketServer {
+
+        private final List<JsonObject> held = new ArrayList<>();
+        private volatile boolean closeOnNextRequest = false;
+        private volatile int batchSize = 1;
+
+        private StubServer() {
+            super(new InetSocketAddress("localhost", 0), Collections.<Draft>singletonList(new Draft_6455(Collections.<IExtension>emptyList(), Collections.<IProtocol>singletonList(new Protocol("jmap")))));
+            setReuseAddr(true);
+        }
+
+        @Override
+        public void onOpen(WebSocket conn, ClientHandshake handshake) {
+            handshakes.add(handshake.getFieldValue("Sec-WebSocket-Protocol") + " " + handshake.getFieldValue("Authorization"));
+        }
+
+        @Override
+        public void onClose(WebSocket conn, int code, String reason, boolean remote) {
+
+        }
+
+        @Override
+        public synchronized void onMessage(WebSocket conn, String message) {
+            final JsonObject jsonObject = new JsonParser().parse(message).getAsJsonObject();
+            final String type = jsonObject.get("@type").getAsString();
+            if ("WebSocketPushEnable".equals(type)) {
+                conn.send("{\"@type\":\"StateChange\",\"changed\":{\"a1\":{\"Email\":\"e2\"}}}");
+                return;
+            }
+            Assert.assertEquals("Request", type);
+            if (closeOnNextRequest) {
+                conn.close();
+                return;
+            }
+            held.add(jsonObject);
+            if (held.size() == batchSize) {
+                for (int i = held.size() - 1; i >= 0; --i) {
+                    conn.send(respond(held.get(i)));
+                }
+                held.clear();
+            }
+        }
+
+        private String respond(final JsonObject request) {
+            final JsonArray methodResponses = new JsonArray();
+            for (JsonElement element : request.getAsJsonArray("methodCalls")) {
+                final JsonArray methodCall = element.getAsJsonArray();
+                final JsonArray methodResponse = new JsonArray();
+                methodResponse.add("Core/echo");
+                methodResponse.add(methodCall.get(1));
+                methodResponse.add(methodCall.get(2));
+                methodResponses.add(methodResponse);
+            }
+            final JsonObject response = new JsonObject();
+            response.add("methodResponses", methodResponses);
+            response.addProperty("sessionState", "s1");
+            response.addProperty("requestId", request.get("id").getAsString());
+            response.addProperty("@type", "Response");
+            return response.toString();
+        }
+
+        @Override
+        public void onError(WebSocket conn, Exception ex) {
+
+        }
+
+        @Override
+        public void onStart() {
+            started.countDown();
+        }
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package rs.ltt.jmap.client.blob;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.gson.GsonBuilder;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import rs.ltt.jmap.client.http.BasicAuthHttpAuthentication;
+import rs.ltt.jmap.client.session.Session;
+import rs.ltt.jmap.common.entity.Upload;
+import rs.ltt.jmap.gson.JmapAdapters;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class BlobClientTest {
+
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d+)");
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final byte[] blob = new byte[1024 * 1024 + 123];
+    private final AtomicInteger downloadRequests = new AtomicInteger();
+    private final AtomicInteger activeUploads = new AtomicInteger();
+    private final AtomicInteger maxActiveUploads = new AtomicInteger();
+    private volatile boolean rangeSupport = true;
+
+    private HttpServer server;
+    private ExecutorService executorService;
+    private BlobClient blobClient;
+
+    @Before
+    public void setUp() throws IOException {
+        new Random(42).nextBytes(blob);
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/download/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                downloadRequests.incrementAndGet();
+                final String range = exchange.getRequestHeaders().getFirst("Range");
+                final Matcher matcher = range == null ? null : RANGE.matcher(range);
+                try (final OutputStream outputStream = exchange.getResponseBody()) {
+                    if (rangeSupport && matcher != null && matcher.matches()) {
+                        final int start = Integer.parseInt(matcher.group(1));
+                        final int end = Math.min(blob.length - 1, Integer.parseInt(matcher.group(2)));
+                        exchange.getResponseHeaders().set("Content-Range", String.format("bytes %d-%d/%d", start, end, blob.length));
+                        exchange.sendResponseHeaders(206, end - start + 1);
+                        outputStream.write(blob, start, end - start + 1);
+                    } else {
+                        exchange.sendResponseHeaders(200, blob.length);
+                        outputStream.write(blob);
+                    }
+                }
+            }
+        });
+        server.createContext("/upload/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                final int active = activeUploads.incrementAndGet();
+                synchronized (maxActiveUploads) {
+                    maxActiveUploads.set(Math.max(maxActiveUploads.get(), active));
+                }
+                try {
+                    final long size = ByteStreams.exhaust(exchange.getRequestBody());
+                    Thread.sleep(50);
+                    final byte[] response = String.format("{\"accountId\":\"A1\",\"blobId\":\"B%d\",\"type\":\"%s\",\"size\":%d}", size, exchange.getRequestHeaders().getFirst("Content-Type"), size).getBytes(StandardCharsets.UTF_8);
+                    exchange.sendResponseHeaders(201, response.length);
+                    try (final OutputStream outputStream = exchange.getResponseBody()) {
+                        outputStream.write(response);
+                    }
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                } finally {
+                    activeUploads.decrementAndGet();
+                }
+            }
+        });
+        server.start();
+        final String json = "{\"base\":\"http://localhost:" + server.getAddress().getPort() + "/jmap/\",\"sessionResource\":{" +
+                "\"apiUrl\":\"/api/\"," +
+                "\"uploadUrl\":\"/upload/{accountId}/\"," +
+                "\"downloadUrl\":\"/download/{accountId}/{blobId}/{name}?accept={type}\"," +
+                "\"accounts\":{},\"primaryAccounts\":{\"urn:ietf:params:jmap:core\":\"A1\"}," +
+                "\"capabilities\":{\"urn:ietf:params:jmap:core\":{\"maxSizeUpload\":1000000,\"maxConcurrentUpload\":2}},\"state\":\"0\"}}";
+        final GsonBuilder gsonBuilder = new GsonBuilder();
+        JmapAdapters.register(gsonBuilder);
+        final Session session = gsonBuilder.create().fromJson(json, Session.class);
+        executorService = Executors.newCachedThreadPool();
+        blobClient = new BlobClient(session, new BasicAuthHttpAuthentication("user@example.com", "secret"), executorService);
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        executorService.shutdown();
+    }
+
+    @Test
+    public void parallelRangeDownload() throws Exception {
+        blobClient.setPartSize(128 * 1024);
+        blobClient.setParallelDownloads(4);
+        final List<TransferProgress> progress = new ArrayList<>();
+        final File file = temporaryFolder.newFile();
+        try (final FileChannel fileChannel = new RandomAccessFile(file, "rw").getChannel()) {
+            final long size = blobClient.download("A1", "B1", "application/pdf", "some file.pdf", fileChannel, new ProgressListener() {
+                @Override
+                public void onProgress(TransferProgress transferProgress) {
+                    progress.add(transferProgress);
+                }
+            }).get(10, TimeUnit.SECONDS);
+            Assert.assertEquals(blob.length, size);
+        }
+        Assert.assertArrayEquals(blob, Files.readAllBytes(file.toPath()));
+        Assert.assertEquals("one request to find the size and four parts", 5, downloadRequests.get());
+        final TransferProgress last = progress.get(progress.size() - 1);
+        Assert.assertTrue(last.isComplete());
+        Assert.assertEquals(blob.length, last.getTotal());
+        Assert.assertTrue(progress.size() > 1);
+    }
+
+    @Test
+    public void downloadWithoutRangeSupport() throws Exception {
+        rangeSupport = false;
+        blobClient.setPartSize(128 * 1024);
+        final File file = temporaryFolder.newFile();
+        try (final FileChannel fileChannel = new RandomAccessFile(file, "rw").getChannel()) {
+            Assert.assertEquals(blob.length, (long) blobClient.download("A1", "B1", null, null, fileChannel, null).get(10, TimeUnit.SECONDS));
+        }
+        Assert.assertArrayEquals(blob, Files.readAllBytes(file.toPath()));
+        Assert.assertEquals(1, downloadRequests.get());
+    }
+
+    @Test
+    public void uploadsAreLimitedToMaxConcurrentUpload() throws Exception {
+        final List<ListenableFuture<Upload>> futures = new ArrayList<>();
+        for (int i = 0; i < 6; ++i) {
+            final byte[] data = new byte[100_000 + i];
+            futures.add(blobClient.upload("A1", new ByteArrayInputStream(data), data.length, "image/png", null));
+        }
+        final List<Upload> uploads = Futures.allAsList(futures).get(10, TimeUnit.SECONDS);
+        for (int i = 0; i < uploads.size(); ++i) {
+            Assert.assertEquals(100_000 + i, uploads.get(i).getSize());
+            Assert.assertEquals("image/png", uploads.get(i).getType());
+        }
+        Assert.assertTrue(maxActiveUploads.get() <= 2);
+    }
+
+    @Test
+    public void uploadFromFileChannel() throws Exception {
+        final File file = temporaryFolder.newFile();
+        Files.write(file.toPath(), new byte[]{1, 2, 3, 4, 5});
+        try (final FileChannel fileChannel = new RandomAccessFile(file, "r").getChannel()) {
+            fileChannel.position(2);
+            final Upload upload = blobClient.upload("A1", fileChannel, null, null).get(10, TimeUnit.SECONDS);
+            Assert.assertEquals(3, upload.getSize());
+            Assert.assertEquals("application/octet-stream", upload.getType());
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void uploadExceedingMaxSizeUpload() throws Throwable {
+        try {
+            blobClient.upload("A1", new ByteArrayInputStream(new byte[0]), 2_000_000, null, null).get(10, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            throw e.getCause();
+        }
+    }
+}
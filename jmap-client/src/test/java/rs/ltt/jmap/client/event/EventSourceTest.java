@@ -0,0 +1,128 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package rs.ltt.jmap.client.event;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import rs.ltt.jmap.client.http.BasicAuthHttpAuthentication;
+import rs.ltt.jmap.common.entity.StateChange;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class EventSourceTest {
+
+    private static final String[] STREAMS = new String[]{
+            ": comment\n" +
+                    "retry: 10\n" +
+                    "id: 1\n" +
+                    "event: state\n" +
+                    "data: {\"@type\":\"StateChange\",\n" +
+                    "data: \"changed\":{\"a1\":{\"Email\":\"e1\",\"Mailbox\":\"m1\"}}}\n" +
+                    "\n" +
+                    "event: ping\n" +
+                    "data: {\"@type\":\"Ping\"}\n" +
+                    "\n",
+            "event: state\n" +
+                    "data: {\"@type\":\"StateChange\",\"changed\":{\"a1\":{\"Thread\":\"t2\"}}}\n" +
+                    "\n"
+    };
+
+    private final BlockingQueue<String> lastEventIds = new LinkedBlockingQueue<>();
+    private final BlockingQueue<Object> events = new LinkedBlockingQueue<>();
+    private HttpServer server;
+
+    @Before
+    public void startServer() throws IOException {
+        final AtomicInteger connections = new AtomicInteger();
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/events", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                final String lastEventId = exchange.getRequestHeaders().getFirst("Last-Event-ID");
+                lastEventIds.add(lastEventId == null ? "" : lastEventId);
+                final int connection = connections.getAndIncrement();
+                exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+                exchange.sendResponseHeaders(200, 0);
+                try (final OutputStream outputStream = exchange.getResponseBody()) {
+                    if (connection < STREAMS.length) {
+                        outputStream.write(STREAMS[connection].getBytes(StandardCharsets.UTF_8));
+                    }
+                }
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void expandTemplate() throws Exception {
+        final URL url = EventSource.expand(new URL("https://jmap.example.com/events/?types={types}&closeafter={closeafter}&ping={ping}"), 60);
+        Assert.assertEquals("https://jmap.example.com/events/?types=*&closeafter=no&ping=60", url.toString());
+    }
+
+    @Test
+    public void stateChangesAcrossReconnect() throws Exception {
+        final URL url = new URL("http", "localhost", server.getAddress().getPort(), "/events");
+        final EventSource eventSource = new EventSource(url, new BasicAuthHttpAuthentication("user@example.com", "secret"), 0, new EventSourceListener() {
+            @Override
+            public void onConnected() {
+                events.add("connected");
+            }
+
+            @Override
+            public void onStateChange(StateChange stateChange) {
+                events.add(stateChange);
+            }
+        });
+        eventSource.start();
+        try {
+            Assert.assertEquals("connected", events.poll(5, TimeUnit.SECONDS));
+            final StateChange first = (StateChange) events.poll(5, TimeUnit.SECONDS);
+            Assert.assertEquals("StateChange", first.getType());
+            Assert.assertEquals("e1", first.getChanged().get("a1").get("Email"));
+            Assert.assertEquals("m1", first.getChanged().get("a1").get("Mailbox"));
+
+            Assert.assertEquals("connected", events.poll(5, TimeUnit.SECONDS));
+            final StateChange second = (StateChange) events.poll(5, TimeUnit.SECONDS);
+            Assert.assertEquals("t2", second.getChanged().get("a1").get("Thread"));
+
+            Assert.assertEquals("", lastEventIds.poll(5, TimeUnit.SECONDS));
+            Assert.assertEquals("1", lastEventIds.poll(5, TimeUnit.SECONDS));
+        } finally {
+            eventSource.close();
+        }
+        Assert.assertTrue(eventSource.isClosed());
+    }
+}
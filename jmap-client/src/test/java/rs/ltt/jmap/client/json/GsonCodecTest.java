@@ -0,0 +1,42 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package rs.ltt.jmap.client.json;
+
+import org.junit.Assert;
+import org.junit.Test;
+import rs.ltt.jmap.common.method.DeferredMethodResponse;
+import rs.ltt.jmap.common.method.response.mailbox.GetMailboxMethodResponse;
+
+import java.io.IOException;
+
+public class GsonCodecTest extends JmapCodecConformanceTest {
+
+    private final GsonCodec codec = new GsonCodec();
+
+    @Override
+    protected JmapCodec codec() {
+        return codec;
+    }
+
+    @Test
+    public void lazyMethodResponses() throws IOException {
+        final RecordingHandler handler = read("{\"methodResponses\":[[\"Mailbox/get\",{\"state\":\"20\",\"list\":[]},\"0\"]],\"sessionState\":\"0\"}", true);
+        Assert.assertTrue(handler.methodResponses.get(0)[0] instanceof DeferredMethodResponse);
+        Assert.assertEquals("20", ((GetMailboxMethodResponse) DeferredMethodResponse.resolve(handler.methodResponses.get(0)[0])).getState());
+    }
+}
@@ -0,0 +1,279 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package rs.ltt.jmap.client.json;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.Assert;
+import org.junit.Test;
+import rs.ltt.jmap.client.session.Session;
+import rs.ltt.jmap.common.ErrorResponse;
+import rs.ltt.jmap.common.Request;
+import rs.ltt.jmap.common.SessionResource;
+import rs.ltt.jmap.common.entity.StateChange;
+import rs.ltt.jmap.common.entity.Upload;
+import rs.ltt.jmap.common.entity.capability.CoreCapability;
+import rs.ltt.jmap.common.entity.capability.MailCapability;
+import rs.ltt.jmap.common.entity.query.EmailQuery;
+import rs.ltt.jmap.common.method.MethodResponse;
+import rs.ltt.jmap.common.method.call.email.GetEmailMethodCall;
+import rs.ltt.jmap.common.method.call.email.QueryEmailMethodCall;
+import rs.ltt.jmap.common.method.call.email.SetEmailMethodCall;
+import rs.ltt.jmap.common.method.error.RequestTooLargeMethodErrorResponse;
+import rs.ltt.jmap.common.method.response.email.GetEmailMethodResponse;
+import rs.ltt.jmap.common.method.response.email.GetEmailThreadIdsMethodResponse;
+import rs.ltt.jmap.common.method.response.mailbox.GetMailboxMethodResponse;
+import rs.ltt.jmap.common.util.Patches;
+import rs.ltt.jmap.common.util.Projections;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The wire format every {@link JmapCodec} has to agree on. Codec implementations extend this class to run the suite
+ * against their codec.
+ */
+public abstract class JmapCodecConformanceTest {
+
+    private static final String SESSION_RESOURCE = "{\"capabilities\":{" +
+            "\"urn:ietf:params:jmap:core\":{\"maxSizeUpload\":50000000,\"maxConcurrentUpload\":4,\"maxSizeRequest\":10000000,\"maxConcurrentRequests\":4,\"maxCallsInRequest\":16,\"maxObjectsInGet\":500,\"maxObjectsInSet\":500,\"collationAlgorithms\":[\"i;ascii-numeric\"]}," +
+            "\"urn:ietf:params:jmap:mail\":{}," +
+            "\"urn:example:unknown\":{\"foo\":\"bar\"}}," +
+            "\"accounts\":{\"A13824\":{\"name\":\"john@example.com\",\"isPersonal\":true,\"isReadOnly\":false,\"accountCapabilities\":{\"urn:ietf:params:jmap:mail\":{\"maxMailboxesPerEmail\":null}}}}," +
+            "\"primaryAccounts\":{\"urn:ietf:params:jmap:mail\":\"A13824\"}," +
+            "\"username\":\"john@example.com\"," +
+            "\"apiUrl\":\"/api/\"," +
+            "\"downloadUrl\":\"/download/{accountId}/{blobId}/{name}?accept={type}\"," +
+            "\"uploadUrl\":\"/upload/{accountId}/\"," +
+            "\"eventSourceUrl\":\"/eventsource/?types={types}&closeafter={closeafter}&ping={ping}\"," +
+            "\"state\":\"75128aab4b1b\"}";
+
+    private static final String RESPONSE = "{\"methodResponses\":[" +
+            "[\"Mailbox/get\",{\"accountId\":\"A13824\",\"state\":\"20\",\"list\":[{\"id\":\"M1\",\"name\":\"Inbox\",\"role\":\"inbox\",\"totalEmails\":2}],\"notFound\":[]},\"0\"]," +
+            "[\"error\",{\"type\":\"requestTooLarge\"},\"1\"]," +
+            "[\"Mailbox/get\",{\"accountId\":\"A13824\",\"state\":\"20\",\"list\":[],\"notFound\":[\"M2\"]},\"1\"]]," +
+            "\"sessionState\":\"75128aab4b1b\"}";
+
+    protected abstract JmapCodec codec();
+
+    @Test
+    public void patchRemovalIsWrittenAsNull() throws IOException {
+        final Request request = new Request.Builder()
+                .call(new SetEmailMethodCall("state", ImmutableMap.of("M123", Patches.remove("keywords/$seen"))))
+                .build();
+        assertJsonEquals(
+                "{\"using\":[\"urn:ietf:params:jmap:mail\"],\"methodCalls\":[[\"Email/set\",{\"ifInState\":\"state\",\"update\":{\"M123\":{\"keywords/$seen\":null}}},\"0\"]]}",
+                writeRequest(request)
+        );
+    }
+
+    @Test
+    public void resultReferencesArePrefixed() throws IOException {
+        final Request.Invocation query = Request.Invocation.create(new QueryEmailMethodCall(EmailQuery.unfiltered()));
+        final Request.Invocation get = Request.Invocation.create(new GetEmailMethodCall(query.createReference(Request.Invocation.ResultReference.Path.IDS)));
+        final Request request = new Request.Builder().add(query).add(get).build();
+        final JsonObject arguments = parse(writeRequest(request)).getAsJsonObject()
+                .getAsJsonArray("methodCalls")
+                .get(1).getAsJsonArray()
+                .get(1).getAsJsonObject();
+        Assert.assertFalse(arguments.has("ids"));
+        assertJsonEquals("{\"resultOf\":\"" + query.getId() + "\",\"name\":\"Email/query\",\"path\":\"/ids\"}", arguments.get("#ids").toString());
+    }
+
+    @Test
+    public void webSocketRequestIsTagged() throws IOException {
+        final Request request = new Request.Builder().call(new QueryEmailMethodCall(EmailQuery.unfiltered())).build();
+        final StringWriter writer = new StringWriter();
+        codec().writeWebSocketRequest("r1", request, writer);
+        final JsonObject jsonObject = parse(writer.toString()).getAsJsonObject();
+        Assert.assertEquals("Request", jsonObject.get("@type").getAsString());
+        Assert.assertEquals("r1", jsonObject.get("id").getAsString());
+        Assert.assertEquals(parse(writeRequest(request)).getAsJsonObject().get("methodCalls"), jsonObject.get("methodCalls"));
+    }
+
+    @Test
+    public void capabilitiesAreKeyedByNamespace() throws IOException {
+        final SessionResource sessionResource = codec().readSessionResource(new StringReader(SESSION_RESOURCE));
+        Assert.assertEquals(16, sessionResource.getCapability(CoreCapability.class).getMaxCallsInRequest());
+        Assert.assertNotNull(sessionResource.getCapability(MailCapability.class));
+        Assert.assertEquals("A13824", sessionResource.getPrimaryAccount(MailCapability.class));
+        Assert.assertEquals("john@example.com", sessionResource.getAccounts().get("A13824").getName());
+        Assert.assertEquals("75128aab4b1b", sessionResource.getState());
+    }
+
+    @Test
+    public void sessionRoundTrip() throws IOException {
+        final URL base = new URL("https://jmap.example.com/.well-known/jmap");
+        final Session session = new Session(base, codec().readSessionResource(new StringReader(SESSION_RESOURCE)));
+        final StringWriter writer = new StringWriter();
+        codec().writeSession(session, writer);
+        final Session restored = codec().readSession(new StringReader(writer.toString()));
+        Assert.assertEquals(base, restored.getBase());
+        Assert.assertEquals(new URL("https://jmap.example.com/api/"), restored.getApiUrl());
+        Assert.assertEquals(session.getState(), restored.getState());
+        Assert.assertEquals(16, restored.getCapability(CoreCapability.class).getMaxCallsInRequest());
+    }
+
+    @Test
+    public void methodResponsesAreReportedRightAwayWithoutImplicitResponses() throws IOException {
+        final RecordingHandler handler = new RecordingHandler();
+        handler.implicitResponses = false;
+        codec().readResponse(new StringReader(RESPONSE), false, Projections.Plan.NONE, handler);
+        Assert.assertEquals(Arrays.asList("0", "1", "1"), handler.ids);
+        Assert.assertEquals("75128aab4b1b", handler.sessionState);
+    }
+
+    @Test
+    public void methodResponsesAreGroupedById() throws IOException {
+        final RecordingHandler handler = read(RESPONSE, false);
+        Assert.assertEquals(Arrays.asList("0", "1"), handler.ids);
+        Assert.assertEquals("75128aab4b1b", handler.sessionState);
+        final GetMailboxMethodResponse mailboxes = (GetMailboxMethodResponse) handler.methodResponses.get(0)[0];
+        Assert.assertEquals("Inbox", mailboxes.getList()[0].getName());
+        Assert.assertEquals(2, handler.methodResponses.get(1).length);
+        Assert.assertTrue(handler.methodResponses.get(1)[0] instanceof RequestTooLargeMethodErrorResponse);
+    }
+
+    @Test
+    public void errorResponseIsReported() throws IOException {
+        final RecordingHandler handler = read("{\"type\":\"urn:ietf:params:jmap:error:unknownCapability\",\"status\":400,\"detail\":\"unknown\"}", false);
+        Assert.assertNotNull(handler.errorResponse);
+        Assert.assertTrue(handler.ids.isEmpty());
+    }
+
+    @Test
+    public void stateChange() throws IOException {
+        final StateChange stateChange = codec().readStateChange(new StringReader("{\"@type\":\"StateChange\",\"changed\":{\"A13824\":{\"Email\":\"d35ecb040aab\"}}}"));
+        Assert.assertEquals("d35ecb040aab", stateChange.getChanged().get("A13824").get("Email"));
+    }
+
+    @Test
+    public void webSocketMessageHeader() throws IOException {
+        final WebSocketMessageHeader header = codec().readWebSocketMessageHeader(new StringReader(
+                "{\"methodResponses\":[[\"Core/echo\",{\"requestId\":\"nested\"},\"0\"]],\"requestId\":\"r1\",\"sessionState\":\"0\",\"@type\":\"Response\"}"
+        ));
+        Assert.assertEquals("Response", header.getType());
+        Assert.assertEquals("r1", header.getRequestId());
+        Assert.assertNull(codec().readWebSocketMessageHeader(new StringReader("{\"@type\":\"StateChange\",\"changed\":{}}")).getRequestId());
+    }
+
+    @Test
+    public void upload() throws IOException {
+        final Upload upload = codec().readUpload(new StringReader("{\"accountId\":\"A13824\",\"blobId\":\"G1\",\"type\":\"image/png\",\"size\":1024}"));
+        Assert.assertEquals("G1", upload.getBlobId());
+        Assert.assertEquals("image/png", upload.getType());
+        Assert.assertEquals(1024, upload.getSize());
+    }
+
+    @Test
+    public void projectionIsBoundDirectly() throws IOException {
+        final Request.Invocation threadIds = Request.Invocation.create(new GetEmailMethodCall(new String[]{"M1"}, new String[]{"threadId"}));
+        final RecordingHandler handler = read(emailGetResponse(threadIds.getId()), false, projections().plan(Arrays.asList(threadIds)));
+        final GetEmailThreadIdsMethodResponse response = (GetEmailThreadIdsMethodResponse) handler.methodResponses.get(0)[0];
+        Assert.assertEquals("T1", response.getList()[0].getThreadId());
+        Assert.assertEquals("1", response.getState());
+    }
+
+    @Test
+    public void projectionIsBoundById() throws IOException {
+        final Request.Invocation full = Request.Invocation.create(new GetEmailMethodCall(new String[]{"M1"}));
+        final Request.Invocation threadIds = Request.Invocation.create(new GetEmailMethodCall(new String[]{"M1"}, new String[]{"threadId"}));
+        final String json = "{\"methodResponses\":[" +
+                emailGetInvocation(full.getId()) + "," +
+                emailGetInvocation(threadIds.getId()) + "]," +
+                "\"sessionState\":\"0\"}";
+        final RecordingHandler handler = read(json, false, projections().plan(Arrays.asList(full, threadIds)));
+        Assert.assertEquals("T1", ((GetEmailMethodResponse) handler.methodResponses.get(0)[0]).getList()[0].getThreadId());
+        Assert.assertEquals("T1", ((GetEmailThreadIdsMethodResponse) handler.methodResponses.get(1)[0]).getList()[0].getThreadId());
+    }
+
+    protected RecordingHandler read(final String json, final boolean lazy) throws IOException {
+        return read(json, lazy, Projections.Plan.NONE);
+    }
+
+    protected RecordingHandler read(final String json, final boolean lazy, final Projections.Plan plan) throws IOException {
+        final RecordingHandler handler = new RecordingHandler();
+        codec().readResponse(new StringReader(json), lazy, plan, handler);
+        return handler;
+    }
+
+    private static Projections projections() {
+        final Projections projections = new Projections();
+        projections.register(GetEmailMethodResponse.class, GetEmailThreadIdsMethodResponse.class, "threadId");
+        return projections;
+    }
+
+    private static String emailGetResponse(final String id) {
+        return "{\"methodResponses\":[" + emailGetInvocation(id) + "],\"sessionState\":\"0\"}";
+    }
+
+    private static String emailGetInvocation(final String id) {
+        return "[\"Email/get\",{\"accountId\":\"A13824\",\"state\":\"1\",\"list\":[{\"id\":\"M1\",\"threadId\":\"T1\"}],\"notFound\":[]},\"" + id + "\"]";
+    }
+
+    private String writeRequest(final Request request) throws IOException {
+        final StringWriter writer = new StringWriter();
+        codec().writeRequest(request, writer);
+        return writer.toString();
+    }
+
+    private static JsonElement parse(final String json) {
+        return new JsonParser().parse(json);
+    }
+
+    private static void assertJsonEquals(final String expected, final String actual) {
+        Assert.assertEquals(parse(expected), parse(actual));
+    }
+
+    protected static class RecordingHandler implements JmapCodec.ResponseHandler {
+
+        public final List<String> ids = new ArrayList<>();
+        public final List<MethodResponse[]> methodResponses = new ArrayList<>();
+        public String sessionState;
+        public ErrorResponse errorResponse;
+        public boolean implicitResponses = true;
+
+        @Override
+        public boolean mayHaveImplicitResponses(String id) {
+            return implicitResponses;
+        }
+
+        @Override
+        public void onMethodResponses(String id, MethodResponse[] methodResponses) {
+            this.ids.add(id);
+            this.methodResponses.add(methodResponses);
+        }
+
+        @Override
+        public void onSessionState(String sessionState) {
+            this.sessionState = sessionState;
+        }
+
+        @Override
+        public void onErrorResponse(ErrorResponse errorResponse) {
+            this.errorResponse = errorResponse;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package rs.ltt.jmap.client.metrics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HistogramTest {
+
+    @Test
+    public void smallValuesAreExact() {
+        final Histogram histogram = new Histogram();
+        for (int i = 0; i < 8; ++i) {
+            histogram.record(i);
+        }
+        Assert.assertEquals(8, histogram.getCount());
+        Assert.assertEquals(3.5, histogram.getMean(), 0.001);
+        Assert.assertEquals(3, histogram.getValueAtPercentile(50));
+        Assert.assertEquals(7, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void percentilesAreWithinBucketPrecision() {
+        final Histogram histogram = new Histogram();
+        for (int i = 1; i <= 100_000; ++i) {
+            histogram.record(i);
+        }
+        assertWithin(50_000, histogram.getValueAtPercentile(50));
+        assertWithin(90_000, histogram.getValueAtPercentile(90));
+        assertWithin(99_000, histogram.getValueAtPercentile(99));
+        Assert.assertEquals(100_000, histogram.getValueAtPercentile(100));
+        Assert.assertEquals(100_000, histogram.getMax());
+    }
+
+    @Test
+    public void emptyHistogram() {
+        final Histogram histogram = new Histogram();
+        Assert.assertEquals(0, histogram.getValueAtPercentile(99));
+        Assert.assertEquals(0, histogram.getMean(), 0);
+    }
+
+    private static void assertWithin(final long expected, final long actual) {
+        Assert.assertTrue(String.format("%d is not within 12.5%% of %d", actual, expected), actual >= expected && actual <= expected * 1.125);
+    }
+}
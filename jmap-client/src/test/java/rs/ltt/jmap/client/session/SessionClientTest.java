@@ -0,0 +1,114 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package rs.ltt.jmap.client.session;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import rs.ltt.jmap.client.http.BasicAuthHttpAuthentication;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SessionClientTest {
+
+    private final AtomicInteger sessionRequests = new AtomicInteger();
+    private volatile String state = "0";
+    private volatile boolean available = true;
+
+    private HttpServer server;
+    private SessionClient sessionClient;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/jmap/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                sessionRequests.incrementAndGet();
+                if (!available) {
+                    exchange.sendResponseHeaders(503, -1);
+                    exchange.close();
+                    return;
+                }
+                final byte[] response = ("{\"apiUrl\":\"/api/\",\"accounts\":{},\"primaryAccounts\":{},\"capabilities\":{},\"state\":\"" + state + "\"}").getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(200, response.length);
+                try (final OutputStream outputStream = exchange.getResponseBody()) {
+                    outputStream.write(response);
+                }
+            }
+        });
+        server.start();
+        final URL sessionResource = new URL("http://localhost:" + server.getAddress().getPort() + "/jmap/");
+        sessionClient = new SessionClient(new BasicAuthHttpAuthentication("user@example.com", "secret"), sessionResource);
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void unchangedStateDoesNotRefresh() throws Exception {
+        sessionClient.get();
+        sessionClient.onSessionStateRetrieved("0", MoreExecutors.directExecutor());
+        Assert.assertEquals(1, sessionRequests.get());
+    }
+
+    @Test
+    public void newStateRefreshes() throws Exception {
+        sessionClient.get();
+        state = "1";
+        sessionClient.onSessionStateRetrieved("1", MoreExecutors.directExecutor());
+        Assert.assertEquals(2, sessionRequests.get());
+        Assert.assertEquals("1", sessionClient.get().getState());
+    }
+
+    @Test
+    public void stateIsRefreshedOnlyOnce() throws Exception {
+        sessionClient.get();
+        //the server still hands out the old session
+        sessionClient.onSessionStateRetrieved("1", MoreExecutors.directExecutor());
+        sessionClient.onSessionStateRetrieved("1", MoreExecutors.directExecutor());
+        Assert.assertEquals(2, sessionRequests.get());
+        Assert.assertEquals("0", sessionClient.get().getState());
+    }
+
+    @Test
+    public void failedRefreshIsRetried() throws Exception {
+        sessionClient.get();
+        available = false;
+        sessionClient.onSessionStateRetrieved("1", MoreExecutors.directExecutor());
+        Assert.assertEquals(2, sessionRequests.get());
+        Assert.assertEquals("0", sessionClient.get().getState());
+        available = true;
+        state = "1";
+        sessionClient.onSessionStateRetrieved("1", MoreExecutors.directExecutor());
+        Assert.assertEquals(3, sessionRequests.get());
+        Assert.assertEquals("1", sessionClient.get().getState());
+    }
+}
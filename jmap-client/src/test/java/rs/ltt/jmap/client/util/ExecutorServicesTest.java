@@ -0,0 +1,157 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package rs.ltt.jmap.client.util;
+
+import com.google.common.util.concurrent.ListeningExecutorService;
+import org.junit.Assert;
+import org.junit.Test;
+import rs.ltt.jmap.client.JmapClient;
+import rs.ltt.jmap.client.http.BasicAuthHttpAuthentication;
+
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.startsWith;
+
+public class ExecutorServicesTest {
+
+    private static Thread threadOf(final ExecutorService executorService) throws Exception {
+        return executorService.submit(new Callable<Thread>() {
+            @Override
+            public Thread call() {
+                return Thread.currentThread();
+            }
+        }).get(10, TimeUnit.SECONDS);
+    }
+
+    private static JmapClient client(final ExecutorService executorService) throws Exception {
+        return new JmapClient(
+                new BasicAuthHttpAuthentication("user@example.com", "secret"),
+                new URL("http://localhost/jmap/"),
+                executorService
+        );
+    }
+
+    @Test
+    public void virtualThreadsAreOnlyOfferedWhenTheJvmHasThem() throws Exception {
+        final Method isVirtual;
+        try {
+            isVirtual = Thread.class.getMethod("isVirtual");
+        } catch (NoSuchMethodException e) {
+            Assert.assertFalse(ExecutorServices.isVirtualThreadPerTaskSupported());
+            try {
+                ExecutorServices.newVirtualThreadPerTaskExecutor();
+                Assert.fail("Expected UnsupportedOperationException");
+            } catch (UnsupportedOperationException expected) {
+                //callers fall back to shared() or newDefault()
+            }
+            return;
+        }
+        Assert.assertTrue(ExecutorServices.isVirtualThreadPerTaskSupported());
+        final ListeningExecutorService executorService = ExecutorServices.newVirtualThreadPerTaskExecutor();
+        try {
+            Assert.assertEquals(true, isVirtual.invoke(threadOf(executorService)));
+        } finally {
+            executorService.shutdown();
+        }
+    }
+
+    @Test
+    public void sharedPoolIsBoundedAndUsesDaemonThreads() throws Exception {
+        final ListeningExecutorService shared = ExecutorServices.shared();
+        Assert.assertSame(shared, ExecutorServices.shared());
+        final int poolSize = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+        final Set<Thread> threads = ConcurrentHashMap.newKeySet();
+        final AtomicInteger running = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(poolSize);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < poolSize * 2; ++i) {
+            futures.add(shared.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    threads.add(Thread.currentThread());
+                    running.incrementAndGet();
+                    started.countDown();
+                    release.await();
+                    return null;
+                }
+            }));
+        }
+        try {
+            Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+            //give surplus tasks the chance to (wrongly) start on additional threads
+            Thread.sleep(100);
+            Assert.assertEquals(poolSize, running.get());
+        } finally {
+            release.countDown();
+        }
+        for (Future<?> future : futures) {
+            future.get(10, TimeUnit.SECONDS);
+        }
+        Assert.assertEquals(poolSize, threads.size());
+        for (Thread thread : threads) {
+            Assert.assertTrue(thread.isDaemon());
+            Assert.assertThat(thread.getName(), startsWith("jmap-shared-"));
+        }
+    }
+
+    @Test
+    public void sharedSchedulerUsesOneDaemonThread() throws Exception {
+        final ScheduledExecutorService scheduler = ExecutorServices.sharedScheduler();
+        Assert.assertSame(scheduler, ExecutorServices.sharedScheduler());
+        final Thread first = threadOf(scheduler);
+        Assert.assertSame(first, threadOf(scheduler));
+        Assert.assertTrue(first.isDaemon());
+        Assert.assertThat(first.getName(), startsWith("jmap-scheduler-"));
+    }
+
+    @Test
+    public void clientShutsDownTheDefaultExecutorItCreated() throws Exception {
+        final JmapClient jmapClient = client(null);
+        final ExecutorService executorService = jmapClient.getExecutorService();
+        Assert.assertFalse(threadOf(executorService).isDaemon());
+        jmapClient.shutdown();
+        Assert.assertTrue(executorService.isShutdown());
+        Assert.assertTrue(executorService.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void clientLeavesTheSharedPoolRunning() throws Exception {
+        final ListeningExecutorService shared = ExecutorServices.shared();
+        final JmapClient first = client(shared);
+        final JmapClient second = client(shared);
+        first.shutdown();
+        Assert.assertFalse(shared.isShutdown());
+        Assert.assertFalse(second.getExecutorService().isShutdown());
+        Assert.assertThat(threadOf(second.getExecutorService()).getName(), startsWith("jmap-shared-"));
+        second.shutdown();
+        Assert.assertFalse(shared.isShutdown());
+    }
+}
@@ -25,6 +25,7 @@ public final class Namespace {
     public static final String VACATION_RESPONSE = "urn:ietf:params:jmap:vacationresponse";
     public static final String CONTACTS = "urn:ietf:params:jmap:contacts";
     public static final String CALENDARS = "urn:ietf:params:jmap:calendars";
+    public static final String WEB_SOCKET = "urn:ietf:params:jmap:websocket";
     private Namespace() {
 
     }
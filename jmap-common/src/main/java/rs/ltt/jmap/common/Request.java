@@ -24,8 +24,6 @@ import java.util.*;
 
 public class Request {
 
-    private static final Map<Class<? extends MethodCall>, String> PACKAGE_NAMESPACE_CACHE = new HashMap<>();
-
     private String[] using;
     private Invocation[] methodCalls;
 
@@ -34,17 +32,6 @@ public class Request {
         this.methodCalls = methodCalls;
     }
 
-    private static String getPackageNamespaceFor(Class<? extends MethodCall> clazz) {
-        synchronized (PACKAGE_NAMESPACE_CACHE) {
-            if (!PACKAGE_NAMESPACE_CACHE.containsKey(clazz)) {
-                final String value = Namespace.get(clazz);
-                PACKAGE_NAMESPACE_CACHE.put(clazz, Namespace.get(clazz));
-                return value;
-            }
-            return PACKAGE_NAMESPACE_CACHE.get(clazz);
-        }
-    }
-
     public static class Invocation {
 
         private static final int ID_LENGTH = 10;
@@ -120,6 +107,7 @@ public class Request {
                 public static final String UPDATED = "/updated";
                 public static final String CREATED = "/created";
                 public static final String UPDATED_PROPERTIES = "/updatedProperties";
+                public static final String NEW_STATE = "/newState";
             }
         }
     }
@@ -141,7 +129,7 @@ public class Request {
 
         public Builder add(Invocation invocation) {
             this.invocations.add(invocation);
-            final String namespace = getPackageNamespaceFor(invocation.methodCall.getClass());
+            final String namespace = Namespace.get(invocation.methodCall.getClass());
             if (namespace != null) {
                 this.using.add(namespace);
             }
@@ -23,6 +23,11 @@ public class Response implements GenericResponse {
     private Invocation[] methodResponses;
     private String sessionState;
 
+    public Response(Invocation[] methodResponses, String sessionState) {
+        this.methodResponses = methodResponses;
+        this.sessionState = sessionState;
+    }
+
     public Invocation[] getMethodResponses() {
         return methodResponses;
     }
@@ -19,6 +19,7 @@ package rs.ltt.jmap.common;
 import com.google.common.base.MoreObjects;
 import rs.ltt.jmap.common.entity.Account;
 import rs.ltt.jmap.common.entity.Capability;
+import rs.ltt.jmap.common.util.Mapper;
 
 import java.net.MalformedURLException;
 import java.net.URL;
@@ -33,6 +34,7 @@ public class SessionResource {
     private String uploadUrl;
     private String eventSourceUrl;
     private Map<String, Account> accounts;
+    private Map<String, String> primaryAccounts;
     private Map<Class<?extends Capability>, Capability> capabilities;
     private String state;
 
@@ -68,6 +70,18 @@ public class SessionResource {
         return accounts;
     }
 
+    public Map<String, String> getPrimaryAccounts() {
+        return primaryAccounts;
+    }
+
+    /**
+     * @return the id of the account the server considers the default for the given capability or null
+     */
+    public String getPrimaryAccount(Class<? extends Capability> clazz) {
+        final String namespace = Mapper.CAPABILITIES.inverse().get(clazz);
+        return primaryAccounts == null || namespace == null ? null : primaryAccounts.get(namespace);
+    }
+
     public <T extends Capability> T getCapability(Class<T> clazz) {
         return clazz.cast(capabilities.get(clazz));
     }
@@ -89,6 +103,7 @@ public class SessionResource {
                 .add("uploadUrl", uploadUrl)
                 .add("eventSourceUrl", eventSourceUrl)
                 .add("accounts", accounts)
+                .add("primaryAccounts", primaryAccounts)
                 .add("capabilities", capabilities)
                 .add("state", state)
                 .toString();
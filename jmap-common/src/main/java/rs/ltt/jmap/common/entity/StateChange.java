@@ -0,0 +1,37 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package rs.ltt.jmap.common.entity;
+
+import com.google.gson.annotations.SerializedName;
+import lombok.Getter;
+
+import java.util.Map;
+
+/**
+ * Pushed by the server whenever the state of one or more types changes. Maps account ids to a map of type names
+ * (Mailbox, Email, Thread, …) to their new state.
+ */
+@Getter
+public class StateChange {
+
+    @SerializedName("@type")
+    private String type;
+
+    private Map<String, Map<String, String>> changed;
+
+}
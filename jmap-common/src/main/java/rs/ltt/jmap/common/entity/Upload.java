@@ -0,0 +1,31 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package rs.ltt.jmap.common.entity;
+
+import lombok.Getter;
+
+/**
+ * The response of the server to a blob upload (RFC 8620 Section 6.1).
+ */
+@Getter
+public class Upload {
+    private String accountId;
+    private String blobId;
+    private String type;
+    private long size;
+}
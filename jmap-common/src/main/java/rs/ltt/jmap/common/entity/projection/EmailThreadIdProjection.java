@@ -0,0 +1,43 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package rs.ltt.jmap.common.entity.projection;
+
+import com.google.common.base.MoreObjects;
+import rs.ltt.jmap.common.entity.AbstractIdentifiableEntity;
+import rs.ltt.jmap.common.entity.IdentifiableEmailWithThreadId;
+
+/**
+ * An Email that has been fetched with only the 'threadId' property.
+ */
+public class EmailThreadIdProjection extends AbstractIdentifiableEntity implements IdentifiableEmailWithThreadId {
+
+    private String threadId;
+
+    @Override
+    public String getThreadId() {
+        return threadId;
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("id", id)
+                .add("threadId", threadId)
+                .toString();
+    }
+}
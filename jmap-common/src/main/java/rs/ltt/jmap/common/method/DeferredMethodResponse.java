@@ -0,0 +1,88 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package rs.ltt.jmap.common.method;
+
+/**
+ * Stands in for a method response that has been read but not yet bound to its class. {@link #get()} binds it on first
+ * use; JSON libraries only implement {@link #bind()}. Method error responses are never deferred.
+ */
+public abstract class DeferredMethodResponse implements MethodResponse {
+
+    private final Class<? extends MethodResponse> type;
+    private final int length;
+    private volatile MethodResponse methodResponse;
+
+    protected DeferredMethodResponse(final Class<? extends MethodResponse> type, final int length) {
+        this.type = type;
+        this.length = length;
+    }
+
+    /**
+     * Binds the retained arguments. Called at most once.
+     */
+    protected abstract MethodResponse bind();
+
+    public Class<? extends MethodResponse> getType() {
+        return type;
+    }
+
+    /**
+     * @return the size of the retained arguments (in characters of JSON for the default codec)
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * @return the bound method response. Arguments that don't fit the class fail here and not when the response was
+     * read.
+     */
+    public MethodResponse get() {
+        MethodResponse bound = this.methodResponse;
+        if (bound == null) {
+            synchronized (this) {
+                bound = this.methodResponse;
+                if (bound == null) {
+                    bound = bind();
+                    this.methodResponse = bound;
+                }
+            }
+        }
+        return bound;
+    }
+
+    public static MethodResponse resolve(final MethodResponse methodResponse) {
+        if (methodResponse instanceof DeferredMethodResponse) {
+            return ((DeferredMethodResponse) methodResponse).get();
+        }
+        return methodResponse;
+    }
+
+    public static MethodResponse[] resolve(final MethodResponse[] methodResponses) {
+        final MethodResponse[] resolved = new MethodResponse[methodResponses.length];
+        for (int i = 0; i < methodResponses.length; ++i) {
+            resolved[i] = resolve(methodResponses[i]);
+        }
+        return resolved;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{" + type.getSimpleName() + (methodResponse == null ? ", unbound}" : ", bound}");
+    }
+}
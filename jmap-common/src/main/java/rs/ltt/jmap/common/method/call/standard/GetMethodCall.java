@@ -21,7 +21,12 @@ import rs.ltt.jmap.common.Request;
 import rs.ltt.jmap.common.entity.AbstractIdentifiableEntity;
 import rs.ltt.jmap.common.method.MethodCall;
 
-public abstract class GetMethodCall<T extends AbstractIdentifiableEntity> implements MethodCall {
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public abstract class GetMethodCall<T extends AbstractIdentifiableEntity> implements MethodCall, Cloneable {
 
     private String accountId;
     private String[] ids;
@@ -43,4 +48,53 @@ public abstract class GetMethodCall<T extends AbstractIdentifiableEntity> implem
 
     }
 
+    public String[] getIds() {
+        return ids;
+    }
+
+    public String[] getProperties() {
+        return properties;
+    }
+
+    public Request.Invocation.ResultReference getIdsReference() {
+        return idsReference;
+    }
+
+    /**
+     * Splits this call into calls that each request at most maxObjects ids. Calls that use a result reference for their
+     * ids or that are small enough are returned as they are.
+     */
+    public List<GetMethodCall<T>> split(final int maxObjects) {
+        if (ids == null || maxObjects <= 0 || ids.length <= maxObjects) {
+            return Collections.<GetMethodCall<T>>singletonList(this);
+        }
+        final List<GetMethodCall<T>> calls = new ArrayList<>();
+        for (int i = 0; i < ids.length; i += maxObjects) {
+            final GetMethodCall<T> call = copy();
+            call.ids = Arrays.copyOfRange(ids, i, Math.min(ids.length, i + maxObjects));
+            calls.add(call);
+        }
+        return calls;
+    }
+
+    /**
+     * Returns a copy of this call that takes its ids from the given result reference. Used to point a call that refers
+     * to a call returned by {@link #split(int)} at one of the chunks.
+     */
+    public GetMethodCall<T> withIdsReference(final Request.Invocation.ResultReference idsReference) {
+        final GetMethodCall<T> call = copy();
+        call.ids = null;
+        call.idsReference = idsReference;
+        return call;
+    }
+
+    @SuppressWarnings("unchecked")
+    private GetMethodCall<T> copy() {
+        try {
+            return (GetMethodCall<T>) super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new AssertionError(e);
+        }
+    }
+
 }
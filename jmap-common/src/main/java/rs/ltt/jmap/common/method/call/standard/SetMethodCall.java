@@ -20,15 +20,19 @@ import com.google.gson.annotations.SerializedName;
 import rs.ltt.jmap.common.Request;
 import rs.ltt.jmap.common.entity.AbstractIdentifiableEntity;
 import rs.ltt.jmap.common.method.MethodCall;
+import rs.ltt.jmap.common.util.CreationIdReferences;
 
-import java.util.Map;
+import java.util.*;
 
-public abstract class SetMethodCall<T extends AbstractIdentifiableEntity> implements MethodCall {
+public abstract class SetMethodCall<T extends AbstractIdentifiableEntity> implements MethodCall, Cloneable {
 
     private String accountId;
 
     private String ifInState;
 
+    @SerializedName("#ifInState")
+    private Request.Invocation.ResultReference ifInStateReference;
+
     private Map<String, T> create;
 
     private Map<String, Map<String, Object>> update;
@@ -64,4 +68,122 @@ public abstract class SetMethodCall<T extends AbstractIdentifiableEntity> implem
     public SetMethodCall(Map<String, T> create) {
         this.create = create;
     }
+
+    public String getIfInState() {
+        return ifInState;
+    }
+
+    public Request.Invocation.ResultReference getIfInStateReference() {
+        return ifInStateReference;
+    }
+
+    public Map<String, T> getCreate() {
+        return create;
+    }
+
+    /**
+     * Splits this call into calls that each contain at most maxObjects creates, updates and destroys. Calls that can
+     * not be split (because they destroy by result reference) or that are small enough are returned as they are.
+     *
+     * @see #split(int, Set)
+     */
+    public List<SetMethodCall<T>> split(final int maxObjects) {
+        return split(maxObjects, Collections.<String>emptySet());
+    }
+
+    /**
+     * Splits this call into calls that each contain at most maxObjects creates, updates and destroys. Creates whose
+     * creation id is in referencedCreationIds, that are referenced by other creates of this call or that refer to
+     * creation ids themselves stay together in the first call; all other creates are split like updates and destroys.
+     */
+    public List<SetMethodCall<T>> split(final int maxObjects, final Set<String> referencedCreationIds) {
+        final int creates = create == null ? 0 : create.size();
+        final int updates = update == null ? 0 : update.size();
+        final int destroys = destroy == null ? 0 : destroy.length;
+        if (destroyReference != null || maxObjects <= 0 || creates + updates + destroys <= maxObjects) {
+            return Collections.<SetMethodCall<T>>singletonList(this);
+        }
+        final Map<String, T> pinned = new LinkedHashMap<>();
+        final Map<String, T> unpinned = new LinkedHashMap<>();
+        if (create != null) {
+            final Set<String> referenced = new HashSet<>(referencedCreationIds);
+            referenced.addAll(CreationIdReferences.collect(create.values()));
+            for (Map.Entry<String, T> entry : create.entrySet()) {
+                if (referenced.contains(entry.getKey()) || !CreationIdReferences.collect(entry.getValue()).isEmpty()) {
+                    pinned.put(entry.getKey(), entry.getValue());
+                } else {
+                    unpinned.put(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+        final List<SetMethodCall<T>> calls = new ArrayList<>();
+        SetMethodCall<T> current = copy(pinned.isEmpty() ? null : pinned);
+        int count = pinned.size();
+        for (Map.Entry<String, T> entry : unpinned.entrySet()) {
+            if (count >= maxObjects) {
+                calls.add(current);
+                current = copy(null);
+                count = 0;
+            }
+            if (current.create == null) {
+                current.create = new LinkedHashMap<>();
+            }
+            current.create.put(entry.getKey(), entry.getValue());
+            count++;
+        }
+        if (update != null) {
+            for (Map.Entry<String, Map<String, Object>> entry : update.entrySet()) {
+                if (count >= maxObjects) {
+                    calls.add(current);
+                    current = copy(null);
+                    count = 0;
+                }
+                if (current.update == null) {
+                    current.update = new LinkedHashMap<>();
+                }
+                current.update.put(entry.getKey(), entry.getValue());
+                count++;
+            }
+        }
+        int offset = 0;
+        while (offset < destroys) {
+            if (count >= maxObjects) {
+                calls.add(current);
+                current = copy(null);
+                count = 0;
+            }
+            final int length = Math.min(destroys - offset, maxObjects - count);
+            current.destroy = Arrays.copyOfRange(destroy, offset, offset + length);
+            offset += length;
+            count += length;
+        }
+        calls.add(current);
+        return calls;
+    }
+
+    /**
+     * Returns a copy of this call that takes its ifInState from the result of a previous call. Used to chain the calls
+     * returned by {@link #split(int)}.
+     */
+    public SetMethodCall<T> withIfInState(final Request.Invocation.ResultReference ifInStateReference) {
+        final SetMethodCall<T> call = copy(create);
+        call.update = update;
+        call.destroy = destroy;
+        call.ifInState = null;
+        call.ifInStateReference = ifInStateReference;
+        return call;
+    }
+
+    @SuppressWarnings("unchecked")
+    private SetMethodCall<T> copy(final Map<String, T> create) {
+        try {
+            final SetMethodCall<T> call = (SetMethodCall<T>) super.clone();
+            call.create = create;
+            call.update = null;
+            call.destroy = null;
+            return call;
+        } catch (CloneNotSupportedException e) {
+            throw new AssertionError(e);
+        }
+    }
 }
@@ -20,8 +20,10 @@ import rs.ltt.jmap.annotation.JmapMethod;
 import rs.ltt.jmap.common.entity.EmailSubmission;
 import rs.ltt.jmap.common.method.call.standard.SetMethodCall;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 @JmapMethod("EmailSubmission/set")
 public class SetEmailSubmissionMethodCall extends SetMethodCall<EmailSubmission> {
@@ -61,4 +63,13 @@ public class SetEmailSubmissionMethodCall extends SetMethodCall<EmailSubmission>
         super(create);
         this.onSuccessUpdateEmail = onSuccessUpdateEmail;
     }
+
+    @Override
+    public List<SetMethodCall<EmailSubmission>> split(int maxObjects, Set<String> referencedCreationIds) {
+        //the implicit Email/set calls refer to submissions by id and can not be divided up along with them
+        if (onSuccessUpdateEmail != null || onSuccessDestroyEmail != null) {
+            return Collections.<SetMethodCall<EmailSubmission>>singletonList(this);
+        }
+        return super.split(maxObjects, referencedCreationIds);
+    }
 }
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package rs.ltt.jmap.common.method.response.email;
+
+import rs.ltt.jmap.common.entity.Email;
+import rs.ltt.jmap.common.entity.TypedState;
+import rs.ltt.jmap.common.entity.projection.EmailThreadIdProjection;
+import rs.ltt.jmap.common.method.response.standard.GetMethodResponse;
+
+/**
+ * A projection of {@link GetEmailMethodResponse} for calls that only fetch the 'threadId' property. It is not mapped
+ * to a method name; clients bind to it when it has been registered with {@link rs.ltt.jmap.common.util.Projections}.
+ */
+public class GetEmailThreadIdsMethodResponse extends GetMethodResponse<EmailThreadIdProjection> {
+
+    /**
+     * @return the state of the Email objects the projections have been taken from
+     */
+    public TypedState<Email> getTypedEmailState() {
+        return TypedState.of(this.state);
+    }
+}
@@ -22,8 +22,12 @@ import rs.ltt.jmap.common.entity.AbstractIdentifiableEntity;
 import rs.ltt.jmap.common.entity.TypedState;
 import rs.ltt.jmap.common.method.MethodResponse;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 @Getter
-public abstract class GetMethodResponse<T extends AbstractIdentifiableEntity> implements MethodResponse {
+public abstract class GetMethodResponse<T extends AbstractIdentifiableEntity> implements MethodResponse, Cloneable {
 
     protected String accountId;
     protected String state;
@@ -45,4 +49,37 @@ public abstract class GetMethodResponse<T extends AbstractIdentifiableEntity> im
     public TypedState<T> getTypedState() {
         return TypedState.of(this.state);
     }
+
+    /**
+     * Combines the responses to calls that have been split with
+     * {@link rs.ltt.jmap.common.method.call.standard.GetMethodCall#split(int)}. The state is taken from the first
+     * response; callers have to make sure that all responses have been computed from the same state. notFound stays null
+     * if it is null in every response.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T extends AbstractIdentifiableEntity, R extends GetMethodResponse<T>> R merge(final List<R> responses) {
+        final GetMethodResponse<T> first = responses.get(0);
+        final GetMethodResponse<T> merged;
+        try {
+            merged = (GetMethodResponse<T>) first.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new AssertionError(e);
+        }
+        final List<T> list = new ArrayList<>();
+        List<String> notFound = null;
+        for (GetMethodResponse<T> response : responses) {
+            if (response.list != null) {
+                list.addAll(Arrays.asList(response.list));
+            }
+            if (response.notFound != null) {
+                if (notFound == null) {
+                    notFound = new ArrayList<>();
+                }
+                notFound.addAll(Arrays.asList(response.notFound));
+            }
+        }
+        merged.list = first.list == null ? null : list.toArray(Arrays.copyOf(first.list, 0));
+        merged.notFound = notFound == null ? null : notFound.toArray(new String[0]);
+        return (R) merged;
+    }
 }
@@ -22,10 +22,10 @@ import rs.ltt.jmap.common.entity.AbstractIdentifiableEntity;
 import rs.ltt.jmap.common.entity.SetError;
 import rs.ltt.jmap.common.method.MethodResponse;
 
-import java.util.Map;
+import java.util.*;
 
 @Getter
-public abstract class SetMethodResponse<T extends AbstractIdentifiableEntity> implements MethodResponse {
+public abstract class SetMethodResponse<T extends AbstractIdentifiableEntity> implements MethodResponse, Cloneable {
 
     private String accountId;
     private String oldState;
@@ -42,6 +42,53 @@ public abstract class SetMethodResponse<T extends AbstractIdentifiableEntity> im
         return (created == null ? 0 : created.size()) + (updated == null ? 0 : updated.size());
     }
 
+    /**
+     * Combines the responses to calls that have been split with
+     * {@link rs.ltt.jmap.common.method.call.standard.SetMethodCall#split(int)}. The responses are expected in the
+     * order the calls have been made in; oldState is taken from the first and newState from the last response. destroyed
+     * stays null if it is null in every response.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T extends AbstractIdentifiableEntity, R extends SetMethodResponse<T>> R merge(final List<R> responses) {
+        final SetMethodResponse<T> merged;
+        try {
+            merged = (SetMethodResponse<T>) responses.get(0).clone();
+        } catch (CloneNotSupportedException e) {
+            throw new AssertionError(e);
+        }
+        merged.created = null;
+        merged.updated = null;
+        merged.notCreated = null;
+        merged.notUpdated = null;
+        merged.notDestroyed = null;
+        List<String> destroyed = null;
+        for (SetMethodResponse<T> response : responses) {
+            merged.created = combine(merged.created, response.created);
+            merged.updated = combine(merged.updated, response.updated);
+            merged.notCreated = combine(merged.notCreated, response.notCreated);
+            merged.notUpdated = combine(merged.notUpdated, response.notUpdated);
+            merged.notDestroyed = combine(merged.notDestroyed, response.notDestroyed);
+            if (response.destroyed != null) {
+                if (destroyed == null) {
+                    destroyed = new ArrayList<>();
+                }
+                destroyed.addAll(Arrays.asList(response.destroyed));
+            }
+        }
+        merged.destroyed = destroyed == null ? null : destroyed.toArray(new String[0]);
+        merged.newState = responses.get(responses.size() - 1).getNewState();
+        return (R) merged;
+    }
+
+    private static <V> Map<String, V> combine(final Map<String, V> a, final Map<String, V> b) {
+        if (b == null) {
+            return a;
+        }
+        final Map<String, V> map = a == null ? new LinkedHashMap<String, V>() : new LinkedHashMap<>(a);
+        map.putAll(b);
+        return map;
+    }
+
     @Override
     public String toString() {
         return MoreObjects.toStringHelper(this)
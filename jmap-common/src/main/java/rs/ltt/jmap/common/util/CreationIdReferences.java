@@ -0,0 +1,114 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package rs.ltt.jmap.common.util;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Finds references to creation ids ('#id') in method calls and entities. Strings are checked as a whole and, because
+ * patch paths like 'mailboxIds/#id' refer to creation ids as well, per path segment. The result errs on the side of
+ * finding too many references; arbitrary text that happens to start with '#' is reported as well.
+ */
+public final class CreationIdReferences {
+
+    private static final ConcurrentMap<Class<?>, List<Field>> FIELDS = new ConcurrentHashMap<>();
+
+    private CreationIdReferences() {
+
+    }
+
+    public static Set<String> collect(final Object object) {
+        final Set<String> references = new HashSet<>();
+        collect(object, references, Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>()));
+        return references;
+    }
+
+    private static void collect(final Object object, final Set<String> references, final Set<Object> visited) {
+        if (object == null || object instanceof Number || object instanceof Boolean || object instanceof Enum) {
+            return;
+        }
+        if (object instanceof String) {
+            collect((String) object, references);
+            return;
+        }
+        if (!visited.add(object)) {
+            return;
+        }
+        if (object instanceof Map) {
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) object).entrySet()) {
+                collect(entry.getKey(), references, visited);
+                collect(entry.getValue(), references, visited);
+            }
+        } else if (object instanceof Collection) {
+            for (Object item : (Collection<?>) object) {
+                collect(item, references, visited);
+            }
+        } else if (object.getClass().isArray()) {
+            if (object.getClass().getComponentType().isPrimitive()) {
+                return;
+            }
+            final int length = Array.getLength(object);
+            for (int i = 0; i < length; ++i) {
+                collect(Array.get(object, i), references, visited);
+            }
+        } else if (object.getClass().getName().startsWith("rs.ltt.jmap.")) {
+            for (Field field : getFields(object.getClass())) {
+                try {
+                    collect(field.get(object), references, visited);
+                } catch (IllegalAccessException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        }
+    }
+
+    private static void collect(final String value, final Set<String> references) {
+        if (value.indexOf('#') < 0) {
+            return;
+        }
+        for (String segment : value.split("/")) {
+            if (segment.length() > 1 && segment.charAt(0) == '#') {
+                references.add(segment.substring(1));
+            }
+        }
+    }
+
+    private static List<Field> getFields(final Class<?> clazz) {
+        final List<Field> cached = FIELDS.get(clazz);
+        if (cached != null) {
+            return cached;
+        }
+        final List<Field> fields = new ArrayList<>();
+        for (Class<?> current = clazz; current != null && current != Object.class; current = current.getSuperclass()) {
+            for (Field field : current.getDeclaredFields()) {
+                if (Modifier.isStatic(field.getModifiers()) || field.getType().isPrimitive()) {
+                    continue;
+                }
+                field.setAccessible(true);
+                fields.add(field);
+            }
+        }
+        FIELDS.putIfAbsent(clazz, fields);
+        return fields;
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package rs.ltt.jmap.common.util;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+
+/**
+ * Base class of the type adapters that {@code JmapMethodProcessor} generates for method calls, method responses and
+ * the entities they reference. The helpers mirror what Gson's reflective adapter does for the same fields, so a
+ * generated adapter reads and writes exactly the JSON the reflective one would. Fields the generated code can not
+ * access directly are read and written through {@link Field}s that are looked up once per class. The little that
+ * needs Gson internals to match the reflective adapter is kept in {@link GsonInternals}.
+ */
+public abstract class GeneratedTypeAdapter<T> extends TypeAdapter<T> {
+
+    protected final Gson gson;
+
+    private final Class<T> clazz;
+    private final Constructor<T> constructor;
+
+    protected GeneratedTypeAdapter(final Gson gson, final Class<T> clazz) {
+        this.gson = gson;
+        this.clazz = clazz;
+        this.constructor = noArgsConstructor(clazz);
+    }
+
+    private static <T> Constructor<T> noArgsConstructor(final Class<T> clazz) {
+        try {
+            final Constructor<T> constructor = clazz.getDeclaredConstructor();
+            constructor.setAccessible(true);
+            return constructor;
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Creates an empty instance the same way Gson does: with the no-args constructor if the class has one and
+     * without calling any constructor otherwise.
+     */
+    protected T newInstance() {
+        try {
+            if (constructor != null) {
+                return constructor.newInstance();
+            }
+            return GsonInternals.allocate(clazz);
+        } catch (InvocationTargetException e) {
+            throw new RuntimeException("Failed to invoke " + constructor + " with no args", e.getTargetException());
+        } catch (Exception e) {
+            throw new RuntimeException("Unable to create instance of " + clazz, e);
+        }
+    }
+
+    protected static Field field(final Class<?> clazz, final String name) {
+        try {
+            final Field field = clazz.getDeclaredField(name);
+            field.setAccessible(true);
+            return field;
+        } catch (NoSuchFieldException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    protected static Object get(final Field field, final Object instance) {
+        try {
+            return field.get(instance);
+        } catch (IllegalAccessException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    protected static void set(final Field field, final Object instance, final Object value) {
+        if (value == null && field.getType().isPrimitive()) {
+            return;
+        }
+        try {
+            field.set(instance, value);
+        } catch (IllegalAccessException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    protected static String readString(final JsonReader reader) throws IOException {
+        final JsonToken token = reader.peek();
+        if (token == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        if (token == JsonToken.BOOLEAN) {
+            return Boolean.toString(reader.nextBoolean());
+        }
+        return reader.nextString();
+    }
+
+    protected static Boolean readBoolean(final JsonReader reader) throws IOException {
+        final JsonToken token = reader.peek();
+        if (token == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        if (token == JsonToken.STRING) {
+            return Boolean.parseBoolean(reader.nextString());
+        }
+        return reader.nextBoolean();
+    }
+
+    protected static Integer readInteger(final JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        try {
+            return reader.nextInt();
+        } catch (NumberFormatException e) {
+            throw new JsonSyntaxException(e);
+        }
+    }
+
+    protected static Long readLong(final JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        try {
+            return reader.nextLong();
+        } catch (NumberFormatException e) {
+            throw new JsonSyntaxException(e);
+        }
+    }
+
+    /**
+     * Writes a field whose declared type is a plain class. Like Gson's reflective adapter this prefers the adapter
+     * of the runtime type unless that one is reflective (or generated) and the declared one is not.
+     */
+    @SuppressWarnings("unchecked")
+    protected <V> void write(final JsonWriter writer, final TypeAdapter<V> adapter, final Class<?> declared, final V value) throws IOException {
+        if (value != null && value.getClass() != declared) {
+            final TypeAdapter<V> runtime = (TypeAdapter<V>) gson.getAdapter(value.getClass());
+            if (!isReflective(runtime) || isReflective(adapter)) {
+                runtime.write(writer, value);
+                return;
+            }
+        }
+        adapter.write(writer, value);
+    }
+
+    private static boolean isReflective(final TypeAdapter<?> adapter) {
+        return GsonInternals.isReflective(adapter) || adapter instanceof GeneratedTypeAdapter;
+    }
+}
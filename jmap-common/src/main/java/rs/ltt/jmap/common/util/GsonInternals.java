@@ -0,0 +1,50 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package rs.ltt.jmap.common.util;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.internal.UnsafeAllocator;
+import com.google.gson.internal.bind.ReflectiveTypeAdapterFactory;
+
+/**
+ * The only place that touches Gson internals ({@code com.google.gson.internal}). They are not part of Gson's public
+ * API and may change in any release; they are known to work with Gson 2.8.5, the version pinned in the pom of
+ * jmap-common. Check this class (and GeneratedTypeAdapterTest in jmap-gson) when updating Gson.
+ */
+final class GsonInternals {
+
+    private static final UnsafeAllocator UNSAFE_ALLOCATOR = UnsafeAllocator.create();
+
+    private GsonInternals() {
+
+    }
+
+    /**
+     * Creates an instance without calling any constructor; what Gson does for classes without a no-args constructor.
+     */
+    static <T> T allocate(final Class<T> clazz) throws Exception {
+        return UNSAFE_ALLOCATOR.newInstance(clazz);
+    }
+
+    /**
+     * @return whether the adapter is the one Gson creates reflectively for classes without a registered adapter
+     */
+    static boolean isReflective(final TypeAdapter<?> adapter) {
+        return adapter instanceof ReflectiveTypeAdapterFactory.Adapter;
+    }
+}
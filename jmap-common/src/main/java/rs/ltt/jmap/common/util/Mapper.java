@@ -18,46 +18,29 @@ package rs.ltt.jmap.common.util;
 
 import com.google.common.collect.ImmutableBiMap;
 import com.google.common.collect.ImmutableMap;
-import rs.ltt.jmap.common.Utils;
 import rs.ltt.jmap.common.entity.Capability;
 import rs.ltt.jmap.common.method.MethodCall;
 import rs.ltt.jmap.common.method.MethodErrorResponse;
 import rs.ltt.jmap.common.method.MethodResponse;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStreamReader;
-
+/**
+ * Maps between the names used on the wire and the classes of method calls, responses, errors and capabilities. The
+ * tables are generated at compile time by the processors in jmap-annotation.
+ */
 public final class Mapper {
 
     private Mapper() {
 
     }
 
-    public static final ImmutableBiMap<String, Class<? extends MethodCall>> METHOD_CALLS = Mapper.get(MethodCall.class);
-    public static final ImmutableBiMap<String, Class<? extends MethodResponse>> METHOD_RESPONSES = Mapper.get(MethodResponse.class);
-    public static final ImmutableBiMap<String, Class<? extends MethodErrorResponse>> METHOD_ERROR_RESPONSES = Mapper.get(MethodErrorResponse.class);
-    public static final ImmutableBiMap<String, Class<? extends Capability>> CAPABILITIES = Mapper.get(Capability.class);
-
-    private static <T> ImmutableBiMap<String, Class<? extends T>> get(Class<T> type) {
-        final BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(Mapper.class.getClassLoader().getResourceAsStream(Utils.getFilenameFor(type))));
-        final ImmutableBiMap.Builder<String, Class<? extends T>> builder = new ImmutableBiMap.Builder<>();
-        try {
-            for (String line = bufferedReader.readLine(); line != null; line = bufferedReader.readLine()) {
-                final String[] parts = line.split(" ", 2);
-                if (parts.length == 2) {
-                    try {
-                        Class<? extends T> clazz = Class.forName(parts[0]).asSubclass(type);
-                        builder.put(parts[1], clazz);
-                    } catch (ClassNotFoundException | ClassCastException e) {
-                        e.printStackTrace();
-                    }
-                }
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        return builder.build();
-    }
+    public static final ImmutableBiMap<String, Class<? extends MethodCall>> METHOD_CALLS = MethodRegistry.METHOD_CALLS;
+    public static final ImmutableBiMap<String, Class<? extends MethodResponse>> METHOD_RESPONSES = MethodRegistry.METHOD_RESPONSES;
+    public static final ImmutableBiMap<String, Class<? extends MethodErrorResponse>> METHOD_ERROR_RESPONSES = MethodErrorRegistry.METHOD_ERROR_RESPONSES;
+    public static final ImmutableBiMap<String, Class<? extends Capability>> CAPABILITIES = CapabilityRegistry.CAPABILITIES;
+
+    /**
+     * The namespaces ({@link rs.ltt.jmap.annotation.JmapNamespace} of the package) of the method calls
+     */
+    public static final ImmutableMap<Class<? extends MethodCall>, String> NAMESPACES = MethodRegistry.NAMESPACES;
 
 }
@@ -26,6 +26,10 @@ public final class Namespace {
     }
 
     public static String get(Class<? extends MethodCall> clazz) {
+        final String known = Mapper.NAMESPACES.get(clazz);
+        if (known != null) {
+            return known;
+        }
         final Package p = clazz.getPackage();
         final JmapNamespace namespace = p.getAnnotation(JmapNamespace.class);
         return namespace == null ? null : namespace.value();
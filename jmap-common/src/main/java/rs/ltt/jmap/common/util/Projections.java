@@ -0,0 +1,200 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package rs.ltt.jmap.common.util;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import rs.ltt.jmap.common.Request;
+import rs.ltt.jmap.common.method.MethodCall;
+import rs.ltt.jmap.common.method.MethodResponse;
+import rs.ltt.jmap.common.method.call.standard.GetMethodCall;
+import rs.ltt.jmap.common.method.response.standard.GetMethodResponse;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Lightweight response types that /get calls asking for only a few properties are bound to instead of their full
+ * response type; for example {@link rs.ltt.jmap.common.method.response.email.GetEmailThreadIdsMethodResponse} for an
+ * Email/get that only fetches 'threadId'. Registering a projection changes the class returned for every matching call,
+ * so each client keeps its own set; single requests can add their own set on top of it.
+ */
+public final class Projections {
+
+    private final List<Projection> projections = new CopyOnWriteArrayList<>();
+
+    /**
+     * @param responseType   the response type the projection stands in for
+     * @param projectionType the projection. Must hold the same fields as the response type, with entities that hold
+     *                       (at least) the given properties
+     * @param properties     the properties the projection can hold. 'id' is always included.
+     */
+    public void register(final Class<? extends GetMethodResponse<?>> responseType,
+                         final Class<? extends GetMethodResponse<?>> projectionType,
+                         final String... properties) {
+        Preconditions.checkArgument(Mapper.METHOD_RESPONSES.containsValue(responseType), "%s is not a method response", responseType);
+        final ImmutableSet<String> propertySet = ImmutableSet.<String>builder().add("id").add(properties).build();
+        projections.add(new Projection(responseType, projectionType, propertySet));
+    }
+
+    /**
+     * @return projections that hold the projections of this set followed by those of the given one. Neither set is
+     * changed.
+     */
+    public Projections with(final Projections other) {
+        final Projections combined = new Projections();
+        combined.projections.addAll(this.projections);
+        combined.projections.addAll(other.projections);
+        return combined;
+    }
+
+    /**
+     * @return the projection the response to the given call can be bound to or null if there is none
+     */
+    public Class<? extends MethodResponse> of(final MethodCall methodCall) {
+        final Projection projection = find(methodCall);
+        return projection == null ? null : projection.projectionType;
+    }
+
+    private Projection find(final MethodCall methodCall) {
+        if (projections.isEmpty() || !(methodCall instanceof GetMethodCall)) {
+            return null;
+        }
+        final String[] properties = ((GetMethodCall<?>) methodCall).getProperties();
+        if (properties == null) {
+            return null;
+        }
+        final Class<? extends MethodResponse> responseType = responseType(methodCall);
+        for (Projection projection : projections) {
+            if (projection.responseType == responseType && projection.properties.containsAll(Arrays.asList(properties))) {
+                return projection;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Decides which type each method response of a request is bound to.
+     */
+    public Plan plan(final Collection<Request.Invocation> invocations) {
+        if (projections.isEmpty()) {
+            return Plan.NONE;
+        }
+        final Map<String, Projection> projected = new HashMap<>();
+        final Map<Class<? extends MethodResponse>, Class<? extends MethodResponse>> byType = new HashMap<>();
+        final Set<Class<? extends MethodResponse>> mixed = new HashSet<>();
+        for (Request.Invocation invocation : invocations) {
+            final Class<? extends MethodResponse> responseType = responseType(invocation.getMethodCall());
+            if (responseType == null) {
+                continue;
+            }
+            final Projection projection = find(invocation.getMethodCall());
+            if (projection != null) {
+                projected.put(invocation.getId(), projection);
+            }
+            if (mixed.contains(responseType)) {
+                continue;
+            }
+            final Class<? extends MethodResponse> type = projection == null ? responseType : projection.projectionType;
+            final Class<? extends MethodResponse> existing = byType.get(responseType);
+            if (existing == null) {
+                byType.put(responseType, type);
+            } else if (existing != type) {
+                byType.remove(responseType);
+                mixed.add(responseType);
+            }
+        }
+        if (projected.isEmpty()) {
+            return Plan.NONE;
+        }
+        return new Plan(projected, byType, mixed);
+    }
+
+    private static Class<? extends MethodResponse> responseType(final MethodCall methodCall) {
+        return Mapper.METHOD_RESPONSES.get(Mapper.METHOD_CALLS.inverse().get(methodCall.getClass()));
+    }
+
+    private static final class Projection {
+
+        private final Class<? extends MethodResponse> responseType;
+        private final Class<? extends MethodResponse> projectionType;
+        private final ImmutableSet<String> properties;
+
+        private Projection(Class<? extends MethodResponse> responseType, Class<? extends MethodResponse> projectionType, ImmutableSet<String> properties) {
+            this.responseType = responseType;
+            this.projectionType = projectionType;
+            this.properties = properties;
+        }
+    }
+
+    /**
+     * The types the method responses of one request are bound to. If every call of a response type in the request
+     * asks for the same projection, responses of that type can be bound to it directly. If the calls are mixed the type
+     * depends on the method call id, which follows the arguments in an invocation.
+     */
+    public static final class Plan {
+
+        public static final Plan NONE = new Plan(
+                ImmutableMap.<String, Projection>of(),
+                ImmutableMap.<Class<? extends MethodResponse>, Class<? extends MethodResponse>>of(),
+                ImmutableSet.<Class<? extends MethodResponse>>of()
+        );
+
+        private final Map<String, Projection> projected;
+        private final Map<Class<? extends MethodResponse>, Class<? extends MethodResponse>> byType;
+        private final Set<Class<? extends MethodResponse>> mixed;
+
+        private Plan(Map<String, Projection> projected,
+                     Map<Class<? extends MethodResponse>, Class<? extends MethodResponse>> byType,
+                     Set<Class<? extends MethodResponse>> mixed) {
+            this.projected = projected;
+            this.byType = byType;
+            this.mixed = mixed;
+        }
+
+        /**
+         * @return true if the type responses of the given type are bound to depends on their method call id
+         */
+        public boolean dependsOnId(final Class<? extends MethodResponse> responseType) {
+            return mixed.contains(responseType);
+        }
+
+        /**
+         * @return the type to bind a response of the given type to when its method call id is not known (yet)
+         */
+        public Class<? extends MethodResponse> typeOf(final Class<? extends MethodResponse> responseType) {
+            final Class<? extends MethodResponse> type = byType.get(responseType);
+            return type == null ? responseType : type;
+        }
+
+        public Class<? extends MethodResponse> typeOf(final Class<? extends MethodResponse> responseType, final String id) {
+            if (!mixed.contains(responseType)) {
+                return typeOf(responseType);
+            }
+            final Projection projection = projected.get(id);
+            return projection != null && projection.responseType == responseType ? projection.projectionType : responseType;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package rs.ltt.jmap.common;
+
+import org.junit.Assert;
+import org.junit.Test;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import rs.ltt.jmap.common.entity.Mailbox;
+import rs.ltt.jmap.common.entity.Thread;
+import rs.ltt.jmap.common.method.call.mailbox.SetMailboxMethodCall;
+import rs.ltt.jmap.common.method.call.standard.GetMethodCall;
+import rs.ltt.jmap.common.method.call.standard.SetMethodCall;
+import rs.ltt.jmap.common.method.call.thread.GetThreadMethodCall;
+
+import java.util.Collections;
+import java.util.List;
+
+public class SplitMethodCallTest {
+
+    @Test
+    public void splitThreadGet() {
+        final GetThreadMethodCall getThreadMethodCall = new GetThreadMethodCall(new String[]{"T1", "T2", "T3", "T4", "T5"});
+        final List<GetMethodCall<Thread>> calls = getThreadMethodCall.split(2);
+        Assert.assertEquals(3, calls.size());
+        Assert.assertArrayEquals(new String[]{"T1", "T2"}, calls.get(0).getIds());
+        Assert.assertArrayEquals(new String[]{"T3", "T4"}, calls.get(1).getIds());
+        Assert.assertArrayEquals(new String[]{"T5"}, calls.get(2).getIds());
+        Assert.assertTrue(calls.get(2) instanceof GetThreadMethodCall);
+    }
+
+    @Test
+    public void referencedThreadGetIsNotSplit() {
+        final Request.Invocation invocation = Request.Invocation.create(new GetThreadMethodCall(new String[]{"T1"}));
+        final GetThreadMethodCall getThreadMethodCall = new GetThreadMethodCall(invocation.createReference(Request.Invocation.ResultReference.Path.LIST_THREAD_IDS));
+        Assert.assertEquals(1, getThreadMethodCall.split(1).size());
+    }
+
+    @Test
+    public void splitMailboxCreates() {
+        final SetMailboxMethodCall setMailboxMethodCall = new SetMailboxMethodCall(ImmutableMap.of(
+                "A", Mailbox.builder().name("A").build(),
+                "B", Mailbox.builder().name("B").parentId("#A").build(),
+                "C", Mailbox.builder().name("C").build(),
+                "D", Mailbox.builder().name("D").build()
+        ));
+        final List<SetMethodCall<Mailbox>> calls = setMailboxMethodCall.split(2);
+        Assert.assertEquals(2, calls.size());
+        Assert.assertEquals(ImmutableSet.of("A", "B"), calls.get(0).getCreate().keySet());
+        Assert.assertEquals(ImmutableSet.of("C", "D"), calls.get(1).getCreate().keySet());
+
+        final List<SetMethodCall<Mailbox>> pinned = setMailboxMethodCall.split(2, Collections.singleton("D"));
+        Assert.assertEquals(2, pinned.size());
+        Assert.assertEquals(ImmutableSet.of("A", "B", "D"), pinned.get(0).getCreate().keySet());
+        Assert.assertEquals(ImmutableSet.of("C"), pinned.get(1).getCreate().keySet());
+    }
+}
@@ -17,12 +17,13 @@
 package rs.ltt.jmap.gson;
 
 import com.google.gson.GsonBuilder;
+import rs.ltt.jmap.common.util.GeneratedTypeAdapterFactory;
+import rs.ltt.jmap.gson.adapter.GenericResponseTypeAdapter;
 import rs.ltt.jmap.gson.adapter.PatchObjectNullTypeAdapter;
 import rs.ltt.jmap.gson.adapter.RequestInvocationTypeAdapter;
+import rs.ltt.jmap.gson.adapter.ResponseInvocationTypeAdapter;
 import rs.ltt.jmap.gson.adapter.ResultReferenceTypeAdapter;
 import rs.ltt.jmap.gson.deserializer.CapabilitiesDeserializer;
-import rs.ltt.jmap.gson.deserializer.GenericResponseDeserializer;
-import rs.ltt.jmap.gson.deserializer.ResponseInvocationDeserializer;
 import rs.ltt.jmap.gson.serializer.CapabilitiesSerializer;
 import rs.ltt.jmap.gson.serializer.ListSerializer;
 import rs.ltt.jmap.gson.serializer.StringMapSerializer;
@@ -35,13 +36,27 @@ public final class JmapAdapters {
     }
 
     public static void register(GsonBuilder builder) {
+        register(builder, true);
+    }
+
+    /**
+     * @param generatedAdapters whether method calls, method responses and entities should use the type adapters
+     *                          generated at compile time instead of Gson's reflective ones. The JSON is the same either
+     *                          way; switching them off is meant for comparisons.
+     */
+    public static void register(GsonBuilder builder, boolean generatedAdapters) {
+
+        // registered first so that every adapter below takes precedence over the generated ones
+        if (generatedAdapters) {
+            builder.registerTypeAdapterFactory(new GeneratedTypeAdapterFactory());
+        }
 
         ResultReferenceTypeAdapter.register(builder);
         PatchObjectNullTypeAdapter.register(builder);
+        GenericResponseTypeAdapter.register(builder);
+        ResponseInvocationTypeAdapter.register(builder);
 
         CapabilitiesDeserializer.register(builder);
-        GenericResponseDeserializer.register(builder);
-        ResponseInvocationDeserializer.register(builder);
 
         RequestInvocationTypeAdapter.register(builder);
         CapabilitiesSerializer.register(builder);
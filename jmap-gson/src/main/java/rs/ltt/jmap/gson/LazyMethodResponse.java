@@ -0,0 +1,114 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package rs.ltt.jmap.gson;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import rs.ltt.jmap.common.method.DeferredMethodResponse;
+import rs.ltt.jmap.common.method.MethodResponse;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+/**
+ * A {@link DeferredMethodResponse} whose arguments have been copied as compact JSON. Binding them throws a
+ * {@link com.google.gson.JsonParseException} if they don't fit the class.
+ */
+public final class LazyMethodResponse extends DeferredMethodResponse {
+
+    private final Gson gson;
+    private String json;
+
+    private LazyMethodResponse(final Gson gson, final Class<? extends MethodResponse> clazz, final String json) {
+        super(clazz, json.length());
+        this.gson = gson;
+        this.json = json;
+    }
+
+    public static LazyMethodResponse read(final Gson gson, final Class<? extends MethodResponse> clazz, final JsonReader jsonReader) throws IOException {
+        return of(gson, clazz, copy(jsonReader));
+    }
+
+    public static LazyMethodResponse of(final Gson gson, final Class<? extends MethodResponse> clazz, final String json) {
+        return new LazyMethodResponse(gson, clazz, json);
+    }
+
+    /**
+     * @return the next value of the reader as compact JSON
+     */
+    public static String copy(final JsonReader jsonReader) throws IOException {
+        final StringWriter stringWriter = new StringWriter();
+        copy(jsonReader, new JsonWriter(stringWriter));
+        return stringWriter.toString();
+    }
+
+    private static void copy(final JsonReader jsonReader, final JsonWriter jsonWriter) throws IOException {
+        int depth = 0;
+        do {
+            switch (jsonReader.peek()) {
+                case BEGIN_OBJECT:
+                    jsonReader.beginObject();
+                    jsonWriter.beginObject();
+                    ++depth;
+                    break;
+                case END_OBJECT:
+                    jsonReader.endObject();
+                    jsonWriter.endObject();
+                    --depth;
+                    break;
+                case BEGIN_ARRAY:
+                    jsonReader.beginArray();
+                    jsonWriter.beginArray();
+                    ++depth;
+                    break;
+                case END_ARRAY:
+                    jsonReader.endArray();
+                    jsonWriter.endArray();
+                    --depth;
+                    break;
+                case NAME:
+                    jsonWriter.name(jsonReader.nextName());
+                    break;
+                case STRING:
+                    jsonWriter.value(jsonReader.nextString());
+                    break;
+                case NUMBER:
+                    jsonWriter.jsonValue(jsonReader.nextString());
+                    break;
+                case BOOLEAN:
+                    jsonWriter.value(jsonReader.nextBoolean());
+                    break;
+                case NULL:
+                    jsonReader.nextNull();
+                    jsonWriter.nullValue();
+                    break;
+                default:
+                    throw new IllegalStateException("Unexpected " + jsonReader.peek());
+            }
+        } while (depth > 0);
+        jsonWriter.flush();
+    }
+
+    @Override
+    protected MethodResponse bind() {
+        final MethodResponse methodResponse = gson.fromJson(json, getType());
+        this.json = null;
+        return methodResponse;
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package rs.ltt.jmap.gson;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import rs.ltt.jmap.common.ErrorResponse;
+import rs.ltt.jmap.common.Response;
+import rs.ltt.jmap.common.method.MethodResponse;
+import rs.ltt.jmap.common.util.Projections;
+import rs.ltt.jmap.gson.adapter.ResponseInvocationTypeAdapter;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads a response one method response at a time instead of deserializing the entire {@link Response} into a tree
+ * first. Calls that can not have implicit method responses are reported as soon as their method response has been
+ * read. Method responses that belong to the same method call are contiguous (RFC 8620 Section 3.4), so the responses
+ * for a call that can are reported once the next method response, which has to be read in full because the id is
+ * its last element, turns out to belong to a different call (or once the array ends).
+ */
+public class ResponseStreamReader {
+
+    private final Gson gson;
+    private final ResponseInvocationTypeAdapter invocationAdapter;
+
+    public ResponseStreamReader(final Gson gson) {
+        this(gson, false);
+    }
+
+    /**
+     * @param lazy report method responses as {@link LazyMethodResponse} placeholders that are bound on first access
+     */
+    public ResponseStreamReader(final Gson gson, final boolean lazy) {
+        this.gson = gson;
+        this.invocationAdapter = new ResponseInvocationTypeAdapter(gson, lazy);
+    }
+
+    public void read(final Reader reader, final Callback callback) throws IOException {
+        read(reader, Projections.Plan.NONE, callback);
+    }
+
+    /**
+     * @param plan the projections to bind method responses to
+     */
+    public void read(final Reader reader, final Projections.Plan plan, final Callback callback) throws IOException {
+        final JsonReader jsonReader = gson.newJsonReader(reader);
+        if (jsonReader.peek() != JsonToken.BEGIN_OBJECT) {
+            throw new JsonParseException("unexpected json type when parsing response");
+        }
+        final JsonObject remainder = new JsonObject();
+        boolean hasMethodResponses = false;
+        String sessionState = null;
+        jsonReader.beginObject();
+        while (jsonReader.hasNext()) {
+            final String name = jsonReader.nextName();
+            if ("methodResponses".equals(name)) {
+                readMethodResponses(jsonReader, plan, callback);
+                hasMethodResponses = true;
+            } else if ("sessionState".equals(name) && jsonReader.peek() == JsonToken.STRING) {
+                sessionState = jsonReader.nextString();
+            } else {
+                remainder.add(name, gson.getAdapter(JsonElement.class).read(jsonReader));
+            }
+        }
+        jsonReader.endObject();
+        if (remainder.has("type") && !hasMethodResponses) {
+            callback.onErrorResponse(gson.fromJson(remainder, ErrorResponse.class));
+        } else if (hasMethodResponses && !remainder.has("type")) {
+            callback.onSessionState(sessionState);
+        } else {
+            throw new JsonParseException("Unable to identify response as either error or response");
+        }
+    }
+
+    private void readMethodResponses(final JsonReader jsonReader, final Projections.Plan plan, final Callback callback) throws IOException {
+        jsonReader.beginArray();
+        String currentId = null;
+        List<MethodResponse> methodResponses = new ArrayList<>();
+        while (jsonReader.hasNext()) {
+            final Response.Invocation invocation = invocationAdapter.read(jsonReader, plan);
+            if (currentId != null && !currentId.equals(invocation.getId())) {
+                callback.onMethodResponses(currentId, methodResponses.toArray(new MethodResponse[0]));
+                methodResponses = new ArrayList<>();
+            }
+            currentId = invocation.getId();
+            methodResponses.add(invocation.getMethodResponse());
+            if (!callback.mayHaveImplicitResponses(currentId)) {
+                callback.onMethodResponses(currentId, methodResponses.toArray(new MethodResponse[0]));
+                currentId = null;
+                methodResponses = new ArrayList<>();
+            }
+        }
+        if (currentId != null) {
+            callback.onMethodResponses(currentId, methodResponses.toArray(new MethodResponse[0]));
+        }
+        jsonReader.endArray();
+    }
+
+    public interface Callback {
+
+        /**
+         * @return whether the call with the given id can be followed by implicit method responses (like the Email/set
+         * of an EmailSubmission/set with onSuccessUpdateEmail). Responses to other calls are reported right away.
+         */
+        boolean mayHaveImplicitResponses(String id);
+
+        /**
+         * Called once per method call with all method responses (the main response first) that share the same id.
+         */
+        void onMethodResponses(String id, MethodResponse[] methodResponses);
+
+        /**
+         * Called after the last method response has been read.
+         */
+        void onSessionState(String sessionState);
+
+        void onErrorResponse(ErrorResponse errorResponse);
+    }
+}
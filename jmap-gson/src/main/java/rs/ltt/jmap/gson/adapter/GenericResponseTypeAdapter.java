@@ -0,0 +1,97 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package rs.ltt.jmap.gson.adapter;
+
+import com.google.gson.*;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import rs.ltt.jmap.common.ErrorResponse;
+import rs.ltt.jmap.common.GenericResponse;
+import rs.ltt.jmap.common.Response;
+
+import java.io.IOException;
+
+/**
+ * Tells a {@link Response} from an {@link ErrorResponse} while reading. The method responses are bound as they are
+ * read; every other member (the few of a request level error) is kept in a tree until the end of the object shows
+ * which of the two it was.
+ */
+public class GenericResponseTypeAdapter extends TypeAdapter<GenericResponse> {
+
+    private final Gson gson;
+
+    private GenericResponseTypeAdapter(final Gson gson) {
+        this.gson = gson;
+    }
+
+    public static void register(final GsonBuilder builder) {
+        builder.registerTypeAdapterFactory(new TypeAdapterFactory() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> typeToken) {
+                if (typeToken.getRawType() != GenericResponse.class) {
+                    return null;
+                }
+                return (TypeAdapter<T>) new GenericResponseTypeAdapter(gson);
+            }
+        });
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void write(JsonWriter jsonWriter, GenericResponse genericResponse) throws IOException {
+        if (genericResponse == null) {
+            jsonWriter.nullValue();
+            return;
+        }
+        ((TypeAdapter<GenericResponse>) gson.getAdapter(genericResponse.getClass())).write(jsonWriter, genericResponse);
+    }
+
+    @Override
+    public GenericResponse read(JsonReader jsonReader) throws IOException {
+        if (jsonReader.peek() != JsonToken.BEGIN_OBJECT) {
+            throw new JsonParseException("unexpected json type when parsing response");
+        }
+        final JsonObject remainder = new JsonObject();
+        boolean hasMethodResponses = false;
+        Response.Invocation[] methodResponses = null;
+        String sessionState = null;
+        jsonReader.beginObject();
+        while (jsonReader.hasNext()) {
+            final String name = jsonReader.nextName();
+            if ("methodResponses".equals(name)) {
+                methodResponses = gson.getAdapter(Response.Invocation[].class).read(jsonReader);
+                hasMethodResponses = true;
+            } else if ("sessionState".equals(name)) {
+                sessionState = gson.getAdapter(String.class).read(jsonReader);
+            } else {
+                remainder.add(name, gson.getAdapter(JsonElement.class).read(jsonReader));
+            }
+        }
+        jsonReader.endObject();
+        if (remainder.has("type") && !hasMethodResponses) {
+            return gson.fromJson(remainder, ErrorResponse.class);
+        }
+        if (hasMethodResponses && !remainder.has("type")) {
+            return new Response(methodResponses, sessionState);
+        }
+        throw new JsonParseException("Unable to identify response as either error or response");
+    }
+}
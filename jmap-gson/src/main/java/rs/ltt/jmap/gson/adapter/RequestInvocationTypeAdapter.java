@@ -19,11 +19,12 @@ package rs.ltt.jmap.gson.adapter;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
 import com.google.gson.stream.JsonReader;
 import com.google.gson.stream.JsonWriter;
 import rs.ltt.jmap.common.Request;
 import rs.ltt.jmap.common.method.MethodCall;
-import rs.ltt.jmap.gson.JmapAdapters;
 
 import java.io.IOException;
 
@@ -31,21 +32,24 @@ import static rs.ltt.jmap.common.util.Mapper.METHOD_CALLS;
 
 public class RequestInvocationTypeAdapter extends TypeAdapter<Request.Invocation> {
 
-    private static final Gson REGULAR_GSON;
-    private static final Gson NULL_SERIALIZING_GSON;
+    private final Gson gson;
 
-
-    static {
-        GsonBuilder regularBuilder = new GsonBuilder();
-        JmapAdapters.register(regularBuilder);
-        REGULAR_GSON = regularBuilder.create();
-        GsonBuilder nullSerializingBuilder = new GsonBuilder();
-        nullSerializingBuilder.serializeNulls();
-        NULL_SERIALIZING_GSON = nullSerializingBuilder.create();
+    public RequestInvocationTypeAdapter(final Gson gson) {
+        this.gson = gson;
     }
 
     public static void register(final GsonBuilder builder) {
-        builder.registerTypeAdapter(Request.Invocation.class, new RequestInvocationTypeAdapter());
+        // bound to the Gson it is created by so that the method calls use the same (generated or reflective) adapters
+        builder.registerTypeAdapterFactory(new TypeAdapterFactory() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> typeToken) {
+                if (typeToken.getRawType() != Request.Invocation.class) {
+                    return null;
+                }
+                return (TypeAdapter<T>) new RequestInvocationTypeAdapter(gson);
+            }
+        });
     }
 
     @Override
@@ -54,7 +58,8 @@ public class RequestInvocationTypeAdapter extends TypeAdapter<Request.Invocation
         final String name = METHOD_CALLS.inverse().get(methodCall.getClass());
         jsonWriter.beginArray();
         jsonWriter.value(name);
-        NULL_SERIALIZING_GSON.toJson(REGULAR_GSON.toJsonTree(methodCall), jsonWriter);
+        //written directly instead of going through a JsonTree; PatchObjectNullTypeAdapter takes care of explicit nulls
+        gson.toJson(methodCall, methodCall.getClass(), jsonWriter);
         jsonWriter.value(invocation.getId());
         jsonWriter.endArray();
     }
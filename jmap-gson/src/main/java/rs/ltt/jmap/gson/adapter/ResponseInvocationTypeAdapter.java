@@ -0,0 +1,143 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package rs.ltt.jmap.gson.adapter;
+
+import com.google.gson.*;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import rs.ltt.jmap.common.Response;
+import rs.ltt.jmap.common.method.DeferredMethodResponse;
+import rs.ltt.jmap.common.method.MethodErrorResponse;
+import rs.ltt.jmap.common.method.MethodResponse;
+import rs.ltt.jmap.common.util.Mapper;
+import rs.ltt.jmap.common.util.Projections;
+import rs.ltt.jmap.gson.LazyMethodResponse;
+
+import java.io.IOException;
+
+/**
+ * Reads an invocation ([name, arguments, id]) straight from the stream. The arguments are bound with the adapter of
+ * the method response class picked by name; only the arguments of an 'error' are read into a tree first because the
+ * class depends on their type. In lazy mode the arguments of all other method responses are only copied and bound on
+ * first access (see {@link LazyMethodResponse}).
+ * <p>
+ * {@link #read(JsonReader, Projections.Plan)} binds to the projections picked for a request. If the projection
+ * depends on the method call id the arguments are copied and bound once the id has been read.
+ */
+public class ResponseInvocationTypeAdapter extends TypeAdapter<Response.Invocation> {
+
+    private final Gson gson;
+    private final boolean lazy;
+
+    public ResponseInvocationTypeAdapter(final Gson gson) {
+        this(gson, false);
+    }
+
+    public ResponseInvocationTypeAdapter(final Gson gson, final boolean lazy) {
+        this.gson = gson;
+        this.lazy = lazy;
+    }
+
+    public static void register(final GsonBuilder builder) {
+        builder.registerTypeAdapterFactory(new TypeAdapterFactory() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> typeToken) {
+                if (typeToken.getRawType() != Response.Invocation.class) {
+                    return null;
+                }
+                return (TypeAdapter<T>) new ResponseInvocationTypeAdapter(gson);
+            }
+        });
+    }
+
+    @Override
+    public void write(JsonWriter jsonWriter, Response.Invocation invocation) throws IOException {
+        if (invocation == null) {
+            jsonWriter.nullValue();
+            return;
+        }
+        final MethodResponse methodResponse = DeferredMethodResponse.resolve(invocation.getMethodResponse());
+        final String name;
+        if (methodResponse instanceof MethodErrorResponse) {
+            name = "error";
+        } else {
+            name = Mapper.METHOD_RESPONSES.inverse().get(methodResponse.getClass());
+        }
+        jsonWriter.beginArray();
+        jsonWriter.value(name);
+        gson.toJson(methodResponse, methodResponse.getClass(), jsonWriter);
+        jsonWriter.value(invocation.getId());
+        jsonWriter.endArray();
+    }
+
+    @Override
+    public Response.Invocation read(JsonReader jsonReader) throws IOException {
+        return read(jsonReader, Projections.Plan.NONE);
+    }
+
+    public Response.Invocation read(final JsonReader jsonReader, final Projections.Plan plan) throws IOException {
+        if (jsonReader.peek() != JsonToken.BEGIN_ARRAY) {
+            throw new JsonParseException("Expected JSON array for invocation");
+        }
+        jsonReader.beginArray();
+        final String name = jsonReader.nextString();
+        if (jsonReader.peek() != JsonToken.BEGIN_OBJECT) {
+            throw new JsonParseException("Parameter (index 1 of JsonArray) must be of type object");
+        }
+        MethodResponse methodResponse;
+        Class<? extends MethodResponse> responseType = null;
+        String arguments = null;
+        if ("error".equals(name)) {
+            final JsonObject jsonObject = gson.getAdapter(JsonObject.class).read(jsonReader);
+            final JsonElement errorType = jsonObject.get("type");
+            final Class<? extends MethodErrorResponse> customErrorClazz = errorType == null ? null : Mapper.METHOD_ERROR_RESPONSES.get(errorType.getAsString());
+            methodResponse = gson.fromJson(jsonObject, customErrorClazz != null ? customErrorClazz : MethodErrorResponse.class);
+        } else {
+            final Class<? extends MethodResponse> clazz = Mapper.METHOD_RESPONSES.get(name);
+            if (clazz == null) {
+                throw new JsonParseException("Unknown method response '" + name + "'");
+            }
+            if (plan.dependsOnId(clazz)) {
+                responseType = clazz;
+                arguments = LazyMethodResponse.copy(jsonReader);
+                methodResponse = null;
+            } else if (lazy) {
+                methodResponse = LazyMethodResponse.read(gson, plan.typeOf(clazz), jsonReader);
+            } else {
+                methodResponse = gson.getAdapter(plan.typeOf(clazz)).read(jsonReader);
+            }
+        }
+        final String id = jsonReader.nextString();
+        if (arguments != null) {
+            final Class<? extends MethodResponse> type = plan.typeOf(responseType, id);
+            if (lazy) {
+                methodResponse = LazyMethodResponse.of(gson, type, arguments);
+            } else {
+                methodResponse = gson.fromJson(arguments, type);
+            }
+        }
+        if (jsonReader.hasNext()) {
+            throw new JsonParseException("Invocation array has more than 3 values. Expected 3");
+        }
+        jsonReader.endArray();
+        return new Response.Invocation(methodResponse, id);
+    }
+}
@@ -0,0 +1,227 @@
+package rs.ltt.jmap.gson;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.Resources;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import org.junit.Assert;
+import org.junit.Test;
+import rs.ltt.jmap.common.GenericResponse;
+import rs.ltt.jmap.common.Request;
+import rs.ltt.jmap.common.Response;
+import rs.ltt.jmap.common.entity.*;
+import rs.ltt.jmap.common.entity.filter.EmailFilterCondition;
+import rs.ltt.jmap.common.entity.filter.FilterOperator;
+import rs.ltt.jmap.common.entity.query.EmailQuery;
+import rs.ltt.jmap.common.method.MethodResponse;
+import rs.ltt.jmap.common.method.call.email.*;
+import rs.ltt.jmap.common.method.call.mailbox.SetMailboxMethodCall;
+import rs.ltt.jmap.common.method.call.standard.SetMethodCall;
+import rs.ltt.jmap.common.method.call.submission.SetEmailSubmissionMethodCall;
+import rs.ltt.jmap.common.method.call.thread.GetThreadMethodCall;
+import rs.ltt.jmap.common.util.GeneratedTypeAdapter;
+import rs.ltt.jmap.common.util.Patches;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.not;
+
+public class GeneratedTypeAdapterTest extends AbstractGsonTest {
+
+    /**
+     * Fixtures that are read (and written back) with the type they are read as.
+     */
+    private static final Map<String, Type> READ_FIXTURES = ImmutableMap.<String, Type>builder()
+            .put("email/simple.json", Email.class)
+            .put("response/echo-set-email-implicit.json", GenericResponse.class)
+            .put("response/mailbox-get-email-get.json", GenericResponse.class)
+            .put("response-error/not-json.json", GenericResponse.class)
+            .put("response-error/not-request.json", GenericResponse.class)
+            .put("response-error/unknown-capability.json", GenericResponse.class)
+            .put("rfc-example/email-get-response.json", Response.Invocation[].class)
+            .put("rfc-example/identity-get-response.json", Response.Invocation.class)
+            .build();
+
+    private static Gson gson(boolean generatedAdapters) {
+        final GsonBuilder builder = new GsonBuilder();
+        JmapAdapters.register(builder, generatedAdapters);
+        return builder.create();
+    }
+
+    /**
+     * Fixtures that are only ever written, with the objects the other tests write them from.
+     */
+    private static Map<String, Object> writeFixtures() {
+        final EmailQuery query = EmailQuery.of(EmailFilterCondition.builder().inMailbox("inbox-id").build(), true);
+        final Patches.Builder submissionPatches = Patches.builder();
+        submissionPatches.remove("keywords/" + Keyword.DRAFT);
+        submissionPatches.set("mailboxIds/MB3", true);
+        final Request.Builder splitRequest = new Request.Builder();
+        for (SetMethodCall<Email> call : new SetEmailMethodCall(null, null, null, ImmutableMap.of(
+                "M1", Patches.remove("keywords/$seen"),
+                "M2", Patches.remove("keywords/$seen"),
+                "M3", Patches.remove("keywords/$seen"),
+                "M4", Patches.remove("keywords/$seen")
+        ), new String[]{"M5", "M6", "M7"}).split(3)) {
+            splitRequest.call(call);
+        }
+        return ImmutableMap.<String, Object>builder()
+                .put("filter/one-two-not-three.json", FilterOperator.and(
+                        EmailFilterCondition.builder().text("two").build(),
+                        FilterOperator.not(EmailFilterCondition.builder().text("three").build()),
+                        EmailFilterCondition.builder().text("one").build()
+                ))
+                .put("request/copy-email.json", new Request.Builder().call(new CopyEmailMethodCall(
+                        "from@domain.tld",
+                        "to@domain.tld",
+                        ImmutableMap.of("a", Email.of("M1001"))
+                )).build())
+                .put("request/query-changes-email.json", new QueryChangesEmailMethodCall("first", query))
+                .put("request/query-email.json", new QueryEmailMethodCall(query))
+                .put("request/set-email-submission.json", new Request.Builder().call(new SetEmailSubmissionMethodCall(
+                        ImmutableMap.of("es0", EmailSubmission.builder().emailId("M1234").identityId("I0").build()),
+                        ImmutableMap.of("#es0", submissionPatches.build())
+                )).build())
+                .put("request/set-email.json", new Request.Builder().call(
+                        new SetEmailMethodCall("state", ImmutableMap.of("M123", Patches.remove("keywords/$seen")))
+                ).build())
+                .put("request/split-set-email.json", splitRequest.build())
+                .build();
+    }
+
+    @Test
+    public void generatedAdaptersAreUsed() {
+        final Gson gson = gson(true);
+        Assert.assertThat(gson.getAdapter(Email.class), instanceOf(GeneratedTypeAdapter.class));
+        Assert.assertThat(gson.getAdapter(QueryEmailMethodCall.class), instanceOf(GeneratedTypeAdapter.class));
+        Assert.assertThat(gson(false).getAdapter(Email.class), not(instanceOf(GeneratedTypeAdapter.class)));
+    }
+
+    @Test
+    public void everyFixtureIsCompared() throws IOException, URISyntaxException {
+        final File root = new File(Resources.getResource("email/simple.json").toURI()).getParentFile().getParentFile();
+        final Map<String, Object> writeFixtures = writeFixtures();
+        final List<String> fixtures = new ArrayList<>();
+        collect(root, "", fixtures);
+        Assert.assertFalse(fixtures.isEmpty());
+        for (final String fixture : fixtures) {
+            Assert.assertTrue(
+                    fixture + " is not compared",
+                    READ_FIXTURES.containsKey(fixture) || writeFixtures.containsKey(fixture)
+            );
+        }
+    }
+
+    @Test
+    public void readFixturesMatchReflectiveAdapters() throws IOException {
+        final Gson generated = gson(true);
+        final Gson reflective = gson(false);
+        for (final Map.Entry<String, Type> fixture : READ_FIXTURES.entrySet()) {
+            final String json = Resources.asCharSource(Resources.getResource(fixture.getKey()), Charset.defaultCharset()).read();
+            final Object parsedGenerated = generated.fromJson(json, fixture.getValue());
+            final Object parsedReflective = reflective.fromJson(json, fixture.getValue());
+            final String expected = reflective.toJson(writable(parsedReflective));
+            Assert.assertEquals(fixture.getKey(), expected, generated.toJson(writable(parsedGenerated)));
+            Assert.assertEquals(fixture.getKey(), expected, reflective.toJson(writable(parsedGenerated)));
+        }
+    }
+
+    @Test
+    public void writeFixturesMatchReflectiveAdapters() throws IOException {
+        final Gson generated = gson(true);
+        final Gson reflective = gson(false);
+        for (final Map.Entry<String, Object> fixture : writeFixtures().entrySet()) {
+            final String expected = readResourceAsString(fixture.getKey());
+            Assert.assertEquals(fixture.getKey(), expected, reflective.toJson(fixture.getValue()));
+            Assert.assertEquals(fixture.getKey(), expected, generated.toJson(fixture.getValue()));
+        }
+    }
+
+    @Test
+    public void methodCallsMatchReflectiveAdapters() {
+        final Request.Invocation query = Request.Invocation.create(new QueryEmailMethodCall(
+                EmailQuery.of(FilterOperator.or(
+                        EmailFilterCondition.builder().inMailbox("MB1").build(),
+                        EmailFilterCondition.builder().text("winter").build()
+                ), true), "M9", 20
+        ));
+        final Request.Invocation getEmails = Request.Invocation.create(
+                new GetEmailMethodCall(query.createReference(Request.Invocation.ResultReference.Path.IDS), true)
+        );
+        final Request.Invocation getThreads = Request.Invocation.create(
+                new GetThreadMethodCall(getEmails.createReference(Request.Invocation.ResultReference.Path.LIST_THREAD_IDS))
+        );
+        final Request.Invocation destroy = Request.Invocation.create(
+                new SetEmailMethodCall(null, query.createReference(Request.Invocation.ResultReference.Path.IDS))
+        );
+        final Patches.Builder patches = Patches.builder();
+        patches.remove("keywords/" + Keyword.DRAFT);
+        patches.set("keywords/" + Keyword.SEEN, true);
+        patches.set("mailboxIds", ImmutableMap.of("#trash", true));
+        final Request request = new Request.Builder()
+                .add(query)
+                .add(getEmails)
+                .add(getThreads)
+                .add(destroy)
+                .call(new SetMailboxMethodCall(ImmutableMap.of("trash", Mailbox.builder()
+                        .name("Trash")
+                        .role(Role.TRASH)
+                        .sortOrder(10)
+                        .isSubscribed(true)
+                        .build())))
+                .call(new SetEmailMethodCall("state", ImmutableMap.of("M1", patches.build())))
+                .call(new SetEmailMethodCall(ImmutableMap.of("e0", Email.builder()
+                        .mailboxId("#trash", true)
+                        .keyword(Keyword.DRAFT, true)
+                        .from(EmailAddress.builder().name("Arya Stark").email("arya.stark@ltt.rs").build())
+                        .subject("Winter is coming")
+                        .bodyValue("1", EmailBodyValue.builder().value("Beware the white walkers").build())
+                        .textBody(EmailBodyPart.builder().partId("1").type("text/plain").build())
+                        .build())))
+                .build();
+        Assert.assertEquals(gson(false).toJson(request), gson(true).toJson(request));
+    }
+
+    private static void collect(final File directory, final String prefix, final List<String> fixtures) {
+        final File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (final File file : files) {
+            if (file.isDirectory()) {
+                collect(file, prefix + file.getName() + "/", fixtures);
+            } else if (file.getName().endsWith(".json")) {
+                fixtures.add(prefix + file.getName());
+            }
+        }
+    }
+
+    /**
+     * Responses are compared by their method responses; {@link GenericResponse} itself can only be read.
+     */
+    private static Object writable(Object parsed) {
+        final Response.Invocation[] invocations;
+        if (parsed instanceof Response) {
+            invocations = ((Response) parsed).getMethodResponses();
+        } else if (parsed instanceof Response.Invocation[]) {
+            invocations = (Response.Invocation[]) parsed;
+        } else if (parsed instanceof Response.Invocation) {
+            invocations = new Response.Invocation[]{(Response.Invocation) parsed};
+        } else {
+            return parsed;
+        }
+        final MethodResponse[] methodResponses = new MethodResponse[invocations.length];
+        for (int i = 0; i < invocations.length; ++i) {
+            methodResponses[i] = invocations[i].getMethodResponse();
+        }
+        return methodResponses;
+    }
+}
@@ -1,12 +1,24 @@
 package rs.ltt.jmap.gson;
 
+import com.google.common.io.Resources;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
 import org.junit.Assert;
 import org.junit.Test;
 import rs.ltt.jmap.common.GenericResponse;
+import rs.ltt.jmap.common.ErrorResponse;
 import rs.ltt.jmap.common.Response;
+import rs.ltt.jmap.common.method.DeferredMethodResponse;
+import rs.ltt.jmap.common.method.MethodResponse;
 import rs.ltt.jmap.common.method.error.RequestTooLargeMethodErrorResponse;
+import rs.ltt.jmap.common.method.response.mailbox.GetMailboxMethodResponse;
 
 import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import static org.hamcrest.CoreMatchers.instanceOf;
 
@@ -20,6 +32,64 @@ public class ResponseDeserializationTest extends AbstractGsonTest {
         Assert.assertNotNull(response.getMethodResponses());
         Assert.assertEquals(response.getMethodResponses().length, 2);
         Assert.assertThat(response.getMethodResponses()[1].getMethodResponse(), instanceOf(RequestTooLargeMethodErrorResponse.class));
+        Assert.assertEquals("20", ((GetMailboxMethodResponse) response.getMethodResponses()[0].getMethodResponse()).getState());
     }
 
+    @Test
+    public void invocationRoundTrip() throws IOException {
+        final GsonBuilder builder = new GsonBuilder();
+        JmapAdapters.register(builder);
+        final Gson gson = builder.create();
+        final Response response = (Response) parseFromResource("response/mailbox-get-email-get.json", GenericResponse.class);
+        final String json = gson.toJson(response.getMethodResponses());
+        Assert.assertTrue(json.startsWith("[[\"Mailbox/get\",{"));
+        final Response.Invocation[] invocations = gson.fromJson(json, Response.Invocation[].class);
+        Assert.assertEquals(2, invocations.length);
+        Assert.assertEquals("0", invocations[0].getId());
+        Assert.assertThat(invocations[0].getMethodResponse(), instanceOf(GetMailboxMethodResponse.class));
+        Assert.assertThat(invocations[1].getMethodResponse(), instanceOf(RequestTooLargeMethodErrorResponse.class));
+    }
+
+    @Test
+    public void lazyMethodResponses() throws IOException {
+        final GsonBuilder builder = new GsonBuilder();
+        JmapAdapters.register(builder);
+        final Gson gson = builder.create();
+        final String json = Resources.asCharSource(Resources.getResource("response/mailbox-get-email-get.json"), Charset.defaultCharset()).read();
+        final List<MethodResponse> methodResponses = new ArrayList<>();
+        new ResponseStreamReader(gson, true).read(new StringReader(json), new ResponseStreamReader.Callback() {
+            @Override
+            public boolean mayHaveImplicitResponses(String id) {
+                return false;
+            }
+
+            @Override
+            public void onMethodResponses(String id, MethodResponse[] responses) {
+                methodResponses.addAll(Arrays.asList(responses));
+            }
+
+            @Override
+            public void onSessionState(String sessionState) {
+            }
+
+            @Override
+            public void onErrorResponse(ErrorResponse errorResponse) {
+                Assert.fail();
+            }
+        });
+        Assert.assertEquals(2, methodResponses.size());
+        Assert.assertThat(methodResponses.get(0), instanceOf(LazyMethodResponse.class));
+        Assert.assertThat(methodResponses.get(1), instanceOf(RequestTooLargeMethodErrorResponse.class));
+        final LazyMethodResponse lazy = (LazyMethodResponse) methodResponses.get(0);
+        Assert.assertEquals(GetMailboxMethodResponse.class, lazy.getType());
+        final MethodResponse bound = DeferredMethodResponse.resolve(lazy);
+        Assert.assertEquals("20", ((GetMailboxMethodResponse) bound).getState());
+        Assert.assertSame(bound, lazy.get());
+        final Response eager = (Response) parseFromResource("response/mailbox-get-email-get.json", GenericResponse.class);
+        final Response.Invocation[] invocations = new Response.Invocation[]{
+                new Response.Invocation(lazy, "0"),
+                new Response.Invocation(methodResponses.get(1), "1")
+        };
+        Assert.assertEquals(gson.toJson(eager.getMethodResponses()), gson.toJson(invocations));
+    }
 }
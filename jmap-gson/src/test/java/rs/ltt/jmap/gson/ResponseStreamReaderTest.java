@@ -0,0 +1,150 @@
+package rs.ltt.jmap.gson;
+
+import com.google.common.io.Resources;
+import com.google.gson.GsonBuilder;
+import org.junit.Assert;
+import org.junit.Test;
+import rs.ltt.jmap.common.ErrorResponse;
+import rs.ltt.jmap.common.entity.ErrorType;
+import rs.ltt.jmap.common.method.MethodResponse;
+import rs.ltt.jmap.common.method.error.RequestTooLargeMethodErrorResponse;
+import rs.ltt.jmap.common.method.response.core.EchoMethodResponse;
+import rs.ltt.jmap.common.method.response.email.SetEmailMethodResponse;
+import rs.ltt.jmap.common.method.response.submission.SetEmailSubmissionMethodResponse;
+
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+
+public class ResponseStreamReaderTest {
+
+    private static ResponseStreamReader responseStreamReader() {
+        final GsonBuilder gsonBuilder = new GsonBuilder();
+        JmapAdapters.register(gsonBuilder);
+        return new ResponseStreamReader(gsonBuilder.create());
+    }
+
+    private static RecordingCallback read(String filename, String... implicitIds) throws IOException {
+        final RecordingCallback callback = new RecordingCallback(implicitIds);
+        try (final Reader reader = Resources.asCharSource(Resources.getResource(filename), StandardCharsets.UTF_8).openStream()) {
+            responseStreamReader().read(reader, callback);
+        }
+        return callback;
+    }
+
+    @Test
+    public void groupsContiguousMethodResponses() throws IOException {
+        final RecordingCallback callback = read("response/echo-set-email-implicit.json", "1");
+        Assert.assertEquals(3, callback.ids.size());
+        Assert.assertEquals("0", callback.ids.get(0));
+        Assert.assertThat(callback.methodResponses.get(0)[0], instanceOf(EchoMethodResponse.class));
+        Assert.assertEquals("1", callback.ids.get(1));
+        Assert.assertEquals(2, callback.methodResponses.get(1).length);
+        Assert.assertThat(callback.methodResponses.get(1)[0], instanceOf(SetEmailMethodResponse.class));
+        Assert.assertThat(callback.methodResponses.get(1)[1], instanceOf(SetEmailSubmissionMethodResponse.class));
+        Assert.assertEquals("2", callback.ids.get(2));
+        Assert.assertThat(callback.methodResponses.get(2)[0], instanceOf(RequestTooLargeMethodErrorResponse.class));
+        Assert.assertEquals("75128aab4b1b", callback.sessionState);
+        Assert.assertNull(callback.errorResponse);
+    }
+
+    @Test
+    public void reportsResponsesRightAwayWithoutImplicitResponses() throws IOException {
+        final RecordingCallback callback = read("response/echo-set-email-implicit.json");
+        Assert.assertEquals(Arrays.asList("0", "1", "1", "2"), callback.ids);
+        Assert.assertThat(callback.methodResponses.get(2)[0], instanceOf(SetEmailSubmissionMethodResponse.class));
+    }
+
+    @Test
+    public void smallResponseIsReportedBeforeLargeResponseIsRead() throws IOException {
+        final StringBuilder list = new StringBuilder();
+        for (int i = 0; i < 10000; ++i) {
+            list.append(i == 0 ? "" : ",").append("{\"id\":\"M").append(i).append("\",\"subject\":\"Winter is coming\"}");
+        }
+        final String json = "{\"methodResponses\":[" +
+                "[\"Mailbox/get\",{\"accountId\":\"A1\",\"state\":\"1\",\"list\":[],\"notFound\":[]},\"0\"]," +
+                "[\"Email/get\",{\"accountId\":\"A1\",\"state\":\"2\",\"list\":[" + list + "],\"notFound\":[]},\"1\"]" +
+                "],\"sessionState\":\"0\"}";
+        final CountingReader reader = new CountingReader(new StringReader(json));
+        final List<Long> readWhenReported = new ArrayList<>();
+        final RecordingCallback callback = new RecordingCallback() {
+            @Override
+            public void onMethodResponses(String id, MethodResponse[] methodResponses) {
+                super.onMethodResponses(id, methodResponses);
+                readWhenReported.add(reader.count);
+            }
+        };
+        responseStreamReader().read(reader, callback);
+        Assert.assertEquals(Arrays.asList("0", "1"), callback.ids);
+        Assert.assertTrue(readWhenReported.get(0) < json.length() / 10);
+        Assert.assertEquals(json.length(), (long) readWhenReported.get(1), json.length() / 10);
+    }
+
+    @Test
+    public void readsErrorResponse() throws IOException {
+        final RecordingCallback callback = read("response-error/unknown-capability.json");
+        Assert.assertTrue(callback.ids.isEmpty());
+        Assert.assertNotNull(callback.errorResponse);
+        Assert.assertEquals(ErrorType.UNKNOWN_CAPABILITY, callback.errorResponse.getType());
+    }
+
+    private static class CountingReader extends FilterReader {
+
+        private long count = 0;
+
+        private CountingReader(Reader in) {
+            super(in);
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) throws IOException {
+            final int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+    }
+
+    private static class RecordingCallback implements ResponseStreamReader.Callback {
+
+        private final List<String> implicitIds;
+
+        private final List<String> ids = new ArrayList<>();
+        private final List<MethodResponse[]> methodResponses = new ArrayList<>();
+        private String sessionState;
+        private ErrorResponse errorResponse;
+
+        private RecordingCallback(String... implicitIds) {
+            this.implicitIds = Arrays.asList(implicitIds);
+        }
+
+        @Override
+        public boolean mayHaveImplicitResponses(String id) {
+            return implicitIds.contains(id);
+        }
+
+        @Override
+        public void onMethodResponses(String id, MethodResponse[] methodResponses) {
+            this.ids.add(id);
+            this.methodResponses.add(methodResponses);
+        }
+
+        @Override
+        public void onSessionState(String sessionState) {
+            this.sessionState = sessionState;
+        }
+
+        @Override
+        public void onErrorResponse(ErrorResponse errorResponse) {
+            this.errorResponse = errorResponse;
+        }
+    }
+}
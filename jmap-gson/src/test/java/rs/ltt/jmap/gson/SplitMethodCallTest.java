@@ -0,0 +1,48 @@
+package rs.ltt.jmap.gson;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import org.junit.Assert;
+import org.junit.Test;
+import rs.ltt.jmap.common.Request;
+import rs.ltt.jmap.common.entity.Email;
+import rs.ltt.jmap.common.method.call.email.SetEmailMethodCall;
+import rs.ltt.jmap.common.method.call.standard.SetMethodCall;
+import rs.ltt.jmap.common.util.Patches;
+
+import java.io.IOException;
+import java.util.List;
+
+
+public class SplitMethodCallTest extends AbstractGsonTest {
+
+    @Test
+    public void splitEmailSet() throws IOException {
+        GsonBuilder builder = new GsonBuilder();
+        JmapAdapters.register(builder);
+        Gson gson = builder.create();
+        final SetEmailMethodCall setEmailMethodCall = new SetEmailMethodCall(null, null, null, ImmutableMap.of(
+                "M1", Patches.remove("keywords/$seen"),
+                "M2", Patches.remove("keywords/$seen"),
+                "M3", Patches.remove("keywords/$seen"),
+                "M4", Patches.remove("keywords/$seen")
+        ), new String[]{"M5", "M6", "M7"});
+        final List<SetMethodCall<Email>> calls = setEmailMethodCall.split(3);
+        Assert.assertEquals(3, calls.size());
+        final Request.Builder requestBuilder = new Request.Builder();
+        for (SetMethodCall<Email> call : calls) {
+            requestBuilder.call(call);
+        }
+        Assert.assertEquals(readResourceAsString("request/split-set-email.json"), gson.toJson(requestBuilder.build()));
+    }
+
+    @Test
+    public void smallEmailSetIsNotSplit() {
+        final SetEmailMethodCall setEmailMethodCall = new SetEmailMethodCall("state", new String[]{"M1", "M2"});
+        final List<SetMethodCall<Email>> calls = setEmailMethodCall.split(2);
+        Assert.assertEquals(1, calls.size());
+        Assert.assertSame(setEmailMethodCall, calls.get(0));
+    }
+
+}
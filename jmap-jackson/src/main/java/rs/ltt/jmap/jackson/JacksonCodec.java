@@ -0,0 +1,144 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+
+package rs.ltt.jmap.jackson;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import rs.ltt.jmap.client.json.JmapCodec;
+import rs.ltt.jmap.client.json.WebSocketMessageHeader;
+import rs.ltt.jmap.client.session.Session;
+import rs.ltt.jmap.common.Request;
+import rs.ltt.jmap.common.SessionResource;
+import rs.ltt.jmap.common.entity.StateChange;
+import rs.ltt.jmap.common.entity.Upload;
+import rs.ltt.jmap.common.util.Projections;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+
+/**
+ * A {@link JmapCodec} backed by Jackson. Binds the entities of jmap-common the way Gson does: by field, with the names
+ * of {@link com.google.gson.annotations.SerializedName}, leaving out nulls (except for those of
+ * {@link rs.ltt.jmap.common.util.Patches#remove(String)}) and without calling constructors.
+ */
+public class JacksonCodec implements JmapCodec {
+
+    private final ObjectMapper objectMapper;
+    private final ResponseStreamReader eagerStreamReader;
+    private final ResponseStreamReader lazyStreamReader;
+
+    public JacksonCodec() {
+        this.objectMapper = createObjectMapper();
+        this.eagerStreamReader = new ResponseStreamReader(this.objectMapper, false);
+        this.lazyStreamReader = new ResponseStreamReader(this.objectMapper, true);
+    }
+
+    public static ObjectMapper createObjectMapper() {
+        final ObjectMapper objectMapper = new ObjectMapper();
+        objectMapper.setVisibility(PropertyAccessor.ALL, JsonAutoDetect.Visibility.NONE);
+        objectMapper.setVisibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.ANY);
+        objectMapper.setDefaultPropertyInclusion(JsonInclude.Value.construct(JsonInclude.Include.NON_NULL, JsonInclude.Include.NON_NULL));
+        objectMapper.disable(SerializationFeature.FAIL_ON_EMPTY_BEANS);
+        objectMapper.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+        objectMapper.disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+        objectMapper.enable(DeserializationFeature.READ_UNKNOWN_ENUM_VALUES_AS_NULL);
+        // like Gson the codec neither closes the writers nor the readers it has been handed
+        objectMapper.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        objectMapper.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+        objectMapper.registerModule(new JmapModule());
+        return objectMapper;
+    }
+
+    @Override
+    public void writeRequest(final Request request, final Writer writer) throws IOException {
+        objectMapper.writeValue(writer, request);
+    }
+
+    @Override
+    public void writeWebSocketRequest(final String requestId, final Request request, final Writer writer) throws IOException {
+        final ObjectNode objectNode = objectMapper.valueToTree(request);
+        objectNode.put("@type", "Request");
+        objectNode.put("id", requestId);
+        objectMapper.writeValue(writer, objectNode);
+    }
+
+    @Override
+    public void readResponse(final Reader reader, final boolean lazy, final Projections.Plan plan, final ResponseHandler handler) throws IOException {
+        (lazy ? lazyStreamReader : eagerStreamReader).read(reader, plan, handler);
+    }
+
+    @Override
+    public WebSocketMessageHeader readWebSocketMessageHeader(final Reader reader) throws IOException {
+        // members are not ordered, so the rest of the message is skipped instead of read into a tree
+        try (final JsonParser jsonParser = objectMapper.getFactory().createParser(reader)) {
+            String type = null;
+            String requestId = null;
+            if (jsonParser.nextToken() != JsonToken.START_OBJECT) {
+                throw new JsonParseException(jsonParser, "Expected JSON object for WebSocket message");
+            }
+            while (jsonParser.nextToken() == JsonToken.FIELD_NAME) {
+                final String name = jsonParser.getCurrentName();
+                final JsonToken token = jsonParser.nextToken();
+                if ("@type".equals(name) && token == JsonToken.VALUE_STRING) {
+                    type = jsonParser.getText();
+                } else if ("requestId".equals(name) && token == JsonToken.VALUE_STRING) {
+                    requestId = jsonParser.getText();
+                } else {
+                    jsonParser.skipChildren();
+                }
+            }
+            return new WebSocketMessageHeader(type, requestId);
+        }
+    }
+
+    @Override
+    public SessionResource readSessionResource(final Reader reader) throws IOException {
+        return objectMapper.readValue(reader, SessionResource.class);
+    }
+
+    @Override
+    public StateChange readStateChange(final Reader reader) throws IOException {
+        return objectMapper.readValue(reader, StateChange.class);
+    }
+
+    @Override
+    public Upload readUpload(final Reader reader) throws IOException {
+        return objectMapper.readValue(reader, Upload.class);
+    }
+
+    @Override
+    public Session readSession(final Reader reader) throws IOException {
+        return objectMapper.readValue(reader, Session.class);
+    }
+
+    @Override
+    public void writeSession(final Session session, final Writer writer) throws IOException {
+        objectMapper.writeValue(writer, session);
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+
+package rs.ltt.jmap.jackson;
+
+import com.fasterxml.jackson.databind.BeanDescription;
+import com.fasterxml.jackson.databind.DeserializationConfig;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.KeyDeserializer;
+import com.fasterxml.jackson.databind.SerializationConfig;
+import com.fasterxml.jackson.databind.deser.Deserializers;
+import com.fasterxml.jackson.databind.jsontype.TypeDeserializer;
+import com.fasterxml.jackson.databind.jsontype.TypeSerializer;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.databind.ser.Serializers;
+import com.fasterxml.jackson.databind.type.MapType;
+import rs.ltt.jmap.common.Request;
+import rs.ltt.jmap.common.entity.Capability;
+import rs.ltt.jmap.common.util.Patches;
+import rs.ltt.jmap.jackson.deserializer.CapabilitiesDeserializer;
+import rs.ltt.jmap.jackson.deserializer.ResultReferenceDeserializer;
+import rs.ltt.jmap.jackson.serializer.CapabilitiesSerializer;
+import rs.ltt.jmap.jackson.serializer.EmptyValueSerializerModifier;
+import rs.ltt.jmap.jackson.serializer.PatchObjectNullSerializer;
+import rs.ltt.jmap.jackson.serializer.RequestInvocationSerializer;
+import rs.ltt.jmap.jackson.serializer.ResultReferenceSerializer;
+
+/**
+ * The Jackson counterpart of jmap-gson's JmapAdapters. Method responses are not bound through the module; their class
+ * depends on the method name and the projection plan, so {@link ResponseStreamReader} picks it while reading.
+ */
+public class JmapModule extends SimpleModule {
+
+    public JmapModule() {
+        super(JmapModule.class.getSimpleName());
+        addSerializer(Request.Invocation.class, new RequestInvocationSerializer());
+        addSerializer(Request.Invocation.ResultReference.class, new ResultReferenceSerializer());
+        addSerializer(Patches.Null.class, new PatchObjectNullSerializer());
+        addDeserializer(Request.Invocation.ResultReference.class, new ResultReferenceDeserializer());
+    }
+
+    @Override
+    public void setupModule(SetupContext context) {
+        super.setupModule(context);
+        context.appendAnnotationIntrospector(new SerializedNameIntrospector());
+        context.addValueInstantiators(new UnsafeValueInstantiators());
+        context.addBeanSerializerModifier(new EmptyValueSerializerModifier());
+        context.addSerializers(new Serializers.Base() {
+            @Override
+            public JsonSerializer<?> findMapSerializer(SerializationConfig config, MapType type, BeanDescription beanDescription, JsonSerializer<Object> keySerializer, TypeSerializer elementTypeSerializer, JsonSerializer<Object> elementValueSerializer) {
+                return isCapabilities(type) ? new CapabilitiesSerializer() : null;
+            }
+        });
+        context.addDeserializers(new Deserializers.Base() {
+            @Override
+            public JsonDeserializer<?> findMapDeserializer(MapType type, DeserializationConfig config, BeanDescription beanDescription, KeyDeserializer keyDeserializer, TypeDeserializer elementTypeDeserializer, JsonDeserializer<?> elementDeserializer) {
+                return isCapabilities(type) ? new CapabilitiesDeserializer() : null;
+            }
+        });
+    }
+
+    private static boolean isCapabilities(final MapType type) {
+        return type.getKeyType().getRawClass() == Class.class && type.getContentType().getRawClass() == Capability.class;
+    }
+}
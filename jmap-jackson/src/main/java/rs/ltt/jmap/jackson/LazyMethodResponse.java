@@ -0,0 +1,86 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+
+package rs.ltt.jmap.jackson;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import rs.ltt.jmap.common.method.DeferredMethodResponse;
+import rs.ltt.jmap.common.method.MethodResponse;
+
+import java.io.IOException;
+
+/**
+ * A {@link DeferredMethodResponse} whose arguments have been copied as tokens. Binding them throws an
+ * {@link IllegalArgumentException} if they don't fit the class.
+ */
+public final class LazyMethodResponse extends DeferredMethodResponse {
+
+    private final ObjectMapper objectMapper;
+    private TokenBuffer tokens;
+
+    private LazyMethodResponse(final ObjectMapper objectMapper, final Class<? extends MethodResponse> clazz, final TokenBuffer tokens, final int length) {
+        super(clazz, length);
+        this.objectMapper = objectMapper;
+        this.tokens = tokens;
+    }
+
+    /**
+     * Copies the value the parser currently points at.
+     */
+    public static LazyMethodResponse read(final ObjectMapper objectMapper, final Class<? extends MethodResponse> clazz, final JsonParser jsonParser) throws IOException {
+        final long start = jsonParser.getTokenLocation().getCharOffset();
+        final TokenBuffer tokens = copy(jsonParser);
+        return of(objectMapper, clazz, tokens, length(start, jsonParser));
+    }
+
+    public static LazyMethodResponse of(final ObjectMapper objectMapper, final Class<? extends MethodResponse> clazz, final TokenBuffer tokens, final int length) {
+        return new LazyMethodResponse(objectMapper, clazz, tokens, length);
+    }
+
+    /**
+     * @return the value the parser currently points at
+     */
+    public static TokenBuffer copy(final JsonParser jsonParser) throws IOException {
+        final TokenBuffer tokens = new TokenBuffer(jsonParser);
+        tokens.copyCurrentStructure(jsonParser);
+        return tokens;
+    }
+
+    /**
+     * @return the number of characters between the given offset and the end of the value the parser has just
+     * consumed or 0 if the parser does not track character offsets
+     */
+    public static int length(final long start, final JsonParser jsonParser) {
+        final long end = jsonParser.getCurrentLocation().getCharOffset();
+        return start < 0 || end < start ? 0 : (int) Math.min(Integer.MAX_VALUE, end - start);
+    }
+
+    @Override
+    protected MethodResponse bind() {
+        final MethodResponse methodResponse;
+        try (final JsonParser jsonParser = tokens.asParser(objectMapper)) {
+            methodResponse = objectMapper.readValue(jsonParser, getType());
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Unable to bind " + getType().getSimpleName(), e);
+        }
+        this.tokens = null;
+        return methodResponse;
+    }
+}
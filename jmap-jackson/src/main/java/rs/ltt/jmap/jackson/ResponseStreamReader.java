@@ -0,0 +1,176 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+
+package rs.ltt.jmap.jackson;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import rs.ltt.jmap.client.json.JmapCodec;
+import rs.ltt.jmap.common.ErrorResponse;
+import rs.ltt.jmap.common.Response;
+import rs.ltt.jmap.common.method.MethodErrorResponse;
+import rs.ltt.jmap.common.method.MethodResponse;
+import rs.ltt.jmap.common.util.Mapper;
+import rs.ltt.jmap.common.util.Projections;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads a response (or a request level error) from a stream and reports the method responses of every method call as
+ * soon as they have been read. Behaves like the ResponseStreamReader of jmap-gson: invocations ([name, arguments, id])
+ * are bound with the class picked by name and projection plan; the arguments of an 'error' are read into a tree first
+ * because the class depends on their type.
+ */
+public class ResponseStreamReader {
+
+    private final ObjectMapper objectMapper;
+    private final boolean lazy;
+
+    /**
+     * @param lazy report method responses as {@link LazyMethodResponse} placeholders that are bound on first access
+     */
+    public ResponseStreamReader(final ObjectMapper objectMapper, final boolean lazy) {
+        this.objectMapper = objectMapper;
+        this.lazy = lazy;
+    }
+
+    public void read(final Reader reader, final Projections.Plan plan, final JmapCodec.ResponseHandler handler) throws IOException {
+        try (final JsonParser jsonParser = objectMapper.getFactory().createParser(reader)) {
+            read(jsonParser, plan, handler);
+        }
+    }
+
+    private void read(final JsonParser jsonParser, final Projections.Plan plan, final JmapCodec.ResponseHandler handler) throws IOException {
+        if (jsonParser.nextToken() != JsonToken.START_OBJECT) {
+            throw new JsonParseException(jsonParser, "unexpected json type when parsing response");
+        }
+        final ObjectNode remainder = objectMapper.createObjectNode();
+        boolean hasMethodResponses = false;
+        String sessionState = null;
+        while (jsonParser.nextToken() == JsonToken.FIELD_NAME) {
+            final String name = jsonParser.getCurrentName();
+            final JsonToken token = jsonParser.nextToken();
+            if ("methodResponses".equals(name)) {
+                readMethodResponses(jsonParser, plan, handler);
+                hasMethodResponses = true;
+            } else if ("sessionState".equals(name) && token == JsonToken.VALUE_STRING) {
+                sessionState = jsonParser.getText();
+            } else {
+                remainder.set(name, objectMapper.<JsonNode>readTree(jsonParser));
+            }
+        }
+        if (remainder.has("type") && !hasMethodResponses) {
+            handler.onErrorResponse(objectMapper.treeToValue(remainder, ErrorResponse.class));
+        } else if (hasMethodResponses && !remainder.has("type")) {
+            handler.onSessionState(sessionState);
+        } else {
+            throw new JsonParseException(jsonParser, "Unable to identify response as either error or response");
+        }
+    }
+
+    private void readMethodResponses(final JsonParser jsonParser, final Projections.Plan plan, final JmapCodec.ResponseHandler handler) throws IOException {
+        if (jsonParser.currentToken() != JsonToken.START_ARRAY) {
+            throw new JsonParseException(jsonParser, "Expected JSON array for methodResponses");
+        }
+        String currentId = null;
+        List<MethodResponse> methodResponses = new ArrayList<>();
+        while (jsonParser.nextToken() != JsonToken.END_ARRAY) {
+            final Response.Invocation invocation = readInvocation(jsonParser, plan);
+            if (currentId != null && !currentId.equals(invocation.getId())) {
+                handler.onMethodResponses(currentId, methodResponses.toArray(new MethodResponse[0]));
+                methodResponses = new ArrayList<>();
+            }
+            currentId = invocation.getId();
+            methodResponses.add(invocation.getMethodResponse());
+            if (!handler.mayHaveImplicitResponses(currentId)) {
+                handler.onMethodResponses(currentId, methodResponses.toArray(new MethodResponse[0]));
+                currentId = null;
+                methodResponses = new ArrayList<>();
+            }
+        }
+        if (currentId != null) {
+            handler.onMethodResponses(currentId, methodResponses.toArray(new MethodResponse[0]));
+        }
+    }
+
+    private Response.Invocation readInvocation(final JsonParser jsonParser, final Projections.Plan plan) throws IOException {
+        if (jsonParser.currentToken() != JsonToken.START_ARRAY) {
+            throw new JsonParseException(jsonParser, "Expected JSON array for invocation");
+        }
+        if (jsonParser.nextToken() != JsonToken.VALUE_STRING) {
+            throw new JsonParseException(jsonParser, "Name (index 0 of JsonArray) must be of type string");
+        }
+        final String name = jsonParser.getText();
+        if (jsonParser.nextToken() != JsonToken.START_OBJECT) {
+            throw new JsonParseException(jsonParser, "Parameter (index 1 of JsonArray) must be of type object");
+        }
+        MethodResponse methodResponse;
+        Class<? extends MethodResponse> responseType = null;
+        TokenBuffer arguments = null;
+        int argumentsLength = 0;
+        if ("error".equals(name)) {
+            final JsonNode jsonNode = objectMapper.readTree(jsonParser);
+            final JsonNode errorType = jsonNode.get("type");
+            final Class<? extends MethodErrorResponse> customErrorClazz = errorType == null ? null : Mapper.METHOD_ERROR_RESPONSES.get(errorType.asText());
+            final Class<? extends MethodErrorResponse> errorClazz = customErrorClazz != null ? customErrorClazz : MethodErrorResponse.class;
+            methodResponse = objectMapper.treeToValue(jsonNode, errorClazz);
+        } else {
+            final Class<? extends MethodResponse> clazz = Mapper.METHOD_RESPONSES.get(name);
+            if (clazz == null) {
+                throw new JsonParseException(jsonParser, "Unknown method response '" + name + "'");
+            }
+            if (plan.dependsOnId(clazz)) {
+                responseType = clazz;
+                final long start = jsonParser.getTokenLocation().getCharOffset();
+                arguments = LazyMethodResponse.copy(jsonParser);
+                argumentsLength = LazyMethodResponse.length(start, jsonParser);
+                methodResponse = null;
+            } else if (lazy) {
+                methodResponse = LazyMethodResponse.read(objectMapper, plan.typeOf(clazz), jsonParser);
+            } else {
+                methodResponse = objectMapper.readValue(jsonParser, plan.typeOf(clazz));
+            }
+        }
+        if (jsonParser.nextToken() != JsonToken.VALUE_STRING) {
+            throw new JsonParseException(jsonParser, "Id (index 2 of JsonArray) must be of type string");
+        }
+        final String id = jsonParser.getText();
+        if (arguments != null) {
+            final Class<? extends MethodResponse> type = plan.typeOf(responseType, id);
+            if (lazy) {
+                methodResponse = LazyMethodResponse.of(objectMapper, type, arguments, argumentsLength);
+            } else {
+                try (final JsonParser argumentsParser = arguments.asParser(objectMapper)) {
+                    methodResponse = objectMapper.readValue(argumentsParser, type);
+                }
+            }
+        }
+        if (jsonParser.nextToken() != JsonToken.END_ARRAY) {
+            throw new JsonParseException(jsonParser, "Invocation array has more than 3 values. Expected 3");
+        }
+        return new Response.Invocation(methodResponse, id);
+    }
+}
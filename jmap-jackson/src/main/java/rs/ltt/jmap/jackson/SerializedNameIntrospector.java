@@ -0,0 +1,91 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+
+package rs.ltt.jmap.jackson;
+
+import com.fasterxml.jackson.databind.PropertyName;
+import com.fasterxml.jackson.databind.cfg.MapperConfig;
+import com.fasterxml.jackson.databind.introspect.Annotated;
+import com.fasterxml.jackson.databind.introspect.AnnotatedClass;
+import com.fasterxml.jackson.databind.introspect.AnnotatedField;
+import com.fasterxml.jackson.databind.introspect.NopAnnotationIntrospector;
+import com.google.gson.annotations.SerializedName;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the names the entities of jmap-common declare with Gson's {@link SerializedName}. That covers fields (like
+ * '#ids' and '@type') as well as enum constants (like the URNs of {@link rs.ltt.jmap.common.entity.ErrorType}).
+ */
+public class SerializedNameIntrospector extends NopAnnotationIntrospector {
+
+    @Override
+    public PropertyName findNameForSerialization(Annotated annotated) {
+        return name(annotated);
+    }
+
+    @Override
+    public PropertyName findNameForDeserialization(Annotated annotated) {
+        return name(annotated);
+    }
+
+    @Override
+    public List<PropertyName> findPropertyAliases(Annotated annotated) {
+        final SerializedName serializedName = fieldAnnotation(annotated);
+        if (serializedName == null || serializedName.alternate().length == 0) {
+            return null;
+        }
+        final List<PropertyName> aliases = new ArrayList<>();
+        for (final String alternate : serializedName.alternate()) {
+            aliases.add(PropertyName.construct(alternate));
+        }
+        return aliases;
+    }
+
+    @Override
+    public String[] findEnumValues(MapperConfig<?> config, AnnotatedClass annotatedClass, Enum<?>[] enumValues, String[] names) {
+        return findEnumValues(annotatedClass.getRawType(), enumValues, names);
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public String[] findEnumValues(Class<?> enumType, Enum<?>[] enumValues, String[] names) {
+        for (int i = 0; i < enumValues.length; ++i) {
+            final SerializedName serializedName;
+            try {
+                serializedName = enumType.getField(enumValues[i].name()).getAnnotation(SerializedName.class);
+            } catch (NoSuchFieldException e) {
+                continue;
+            }
+            if (serializedName != null) {
+                names[i] = serializedName.value();
+            }
+        }
+        return names;
+    }
+
+    private static PropertyName name(final Annotated annotated) {
+        final SerializedName serializedName = fieldAnnotation(annotated);
+        return serializedName == null ? null : PropertyName.construct(serializedName.value());
+    }
+
+    private static SerializedName fieldAnnotation(final Annotated annotated) {
+        return annotated instanceof AnnotatedField ? annotated.getAnnotation(SerializedName.class) : null;
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+
+package rs.ltt.jmap.jackson;
+
+import com.fasterxml.jackson.databind.BeanDescription;
+import com.fasterxml.jackson.databind.DeserializationConfig;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.deser.ValueInstantiator;
+import com.fasterxml.jackson.databind.deser.ValueInstantiators;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+/**
+ * Lets Jackson bind classes without a no-args constructor (most entities only have the all-args constructor Lombok
+ * generates for their builder) by allocating them without running a constructor, the same way Gson does. Fields
+ * that are absent in the JSON keep their default values (null, 0 or false) and not the builder defaults.
+ */
+public class UnsafeValueInstantiators extends ValueInstantiators.Base {
+
+    private static final Object UNSAFE;
+    private static final Method ALLOCATE_INSTANCE;
+
+    static {
+        Object unsafe = null;
+        Method allocateInstance = null;
+        try {
+            final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            final Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+            allocateInstance = unsafeClass.getMethod("allocateInstance", Class.class);
+        } catch (Exception e) {
+            //leaves the default instantiators in place; Jackson will report the missing constructor
+        }
+        UNSAFE = unsafe;
+        ALLOCATE_INSTANCE = allocateInstance;
+    }
+
+    @Override
+    public ValueInstantiator findValueInstantiator(DeserializationConfig config, BeanDescription beanDescription, ValueInstantiator defaultInstantiator) {
+        final Class<?> clazz = beanDescription.getBeanClass();
+        if (ALLOCATE_INSTANCE == null
+                || defaultInstantiator.canCreateUsingDefault()
+                || defaultInstantiator.canCreateFromObjectWith()
+                || clazz.isInterface()
+                || Modifier.isAbstract(clazz.getModifiers())) {
+            return defaultInstantiator;
+        }
+        return new UnsafeValueInstantiator(defaultInstantiator);
+    }
+
+    private static class UnsafeValueInstantiator extends ValueInstantiator.Delegating {
+
+        private UnsafeValueInstantiator(final ValueInstantiator delegate) {
+            super(delegate);
+        }
+
+        @Override
+        public ValueInstantiator createContextual(DeserializationContext context, BeanDescription beanDescription) {
+            return this;
+        }
+
+        @Override
+        public boolean canInstantiate() {
+            return true;
+        }
+
+        @Override
+        public boolean canCreateUsingDefault() {
+            return true;
+        }
+
+        @Override
+        public Object createUsingDefault(DeserializationContext context) throws IOException {
+            final Class<?> clazz = getValueClass();
+            try {
+                return ALLOCATE_INSTANCE.invoke(UNSAFE, clazz);
+            } catch (IllegalAccessException | InvocationTargetException e) {
+                return context.handleInstantiationProblem(clazz, null, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+
+package rs.ltt.jmap.jackson.deserializer;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import com.google.common.collect.ImmutableMap;
+import rs.ltt.jmap.common.entity.Capability;
+import rs.ltt.jmap.common.util.Mapper;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Reads a map of capabilities keyed by their namespace (URN). Capabilities this library does not know are skipped.
+ */
+public class CapabilitiesDeserializer extends StdDeserializer<Map<Class<? extends Capability>, Capability>> {
+
+    public CapabilitiesDeserializer() {
+        super(Map.class);
+    }
+
+    @Override
+    public Map<Class<? extends Capability>, Capability> deserialize(JsonParser jsonParser, DeserializationContext context) throws IOException {
+        if (!jsonParser.isExpectedStartObjectToken()) {
+            return context.reportInputMismatch(this, "Expected JSON object for capabilities");
+        }
+        final ImmutableMap.Builder<Class<? extends Capability>, Capability> builder = new ImmutableMap.Builder<>();
+        while (jsonParser.nextToken() == JsonToken.FIELD_NAME) {
+            final String namespace = jsonParser.getCurrentName();
+            jsonParser.nextToken();
+            final Class<? extends Capability> clazz = Mapper.CAPABILITIES.get(namespace);
+            if (clazz == null) {
+                jsonParser.skipChildren();
+                continue;
+            }
+            builder.put(clazz, context.readValue(jsonParser, clazz));
+        }
+        return builder.build();
+    }
+}
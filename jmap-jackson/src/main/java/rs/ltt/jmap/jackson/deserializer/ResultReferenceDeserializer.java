@@ -0,0 +1,71 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+
+package rs.ltt.jmap.jackson.deserializer;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import rs.ltt.jmap.common.Request;
+import rs.ltt.jmap.common.util.Mapper;
+
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+
+public class ResultReferenceDeserializer extends StdDeserializer<Request.Invocation.ResultReference> {
+
+    public ResultReferenceDeserializer() {
+        super(Request.Invocation.ResultReference.class);
+    }
+
+    @Override
+    public Request.Invocation.ResultReference deserialize(JsonParser jsonParser, DeserializationContext context) throws IOException {
+        if (!jsonParser.isExpectedStartObjectToken()) {
+            return (Request.Invocation.ResultReference) context.handleUnexpectedToken(handledType(), jsonParser);
+        }
+        String name = null;
+        String path = null;
+        String id = null;
+        while (jsonParser.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = jsonParser.getCurrentName();
+            jsonParser.nextToken();
+            switch (field) {
+                case "resultOf":
+                    id = jsonParser.getValueAsString();
+                    break;
+                case "path":
+                    path = jsonParser.getValueAsString();
+                    break;
+                case "name":
+                    name = jsonParser.getValueAsString();
+                    break;
+                default:
+                    jsonParser.skipChildren();
+            }
+        }
+        try {
+            final Constructor<Request.Invocation.ResultReference> constructor = Request.Invocation.ResultReference.class.getDeclaredConstructor(String.class, Class.class, String.class);
+            constructor.setAccessible(true);
+            return constructor.newInstance(id, Mapper.METHOD_CALLS.get(name), path);
+        } catch (NoSuchMethodException | InstantiationException | IllegalAccessException | InvocationTargetException e) {
+            return (Request.Invocation.ResultReference) context.handleInstantiationProblem(handledType(), null, e);
+        }
+    }
+}
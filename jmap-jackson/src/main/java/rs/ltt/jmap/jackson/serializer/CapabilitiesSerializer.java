@@ -0,0 +1,54 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+
+package rs.ltt.jmap.jackson.serializer;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import com.google.common.collect.ImmutableMap;
+import rs.ltt.jmap.common.entity.Capability;
+import rs.ltt.jmap.common.util.Mapper;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Writes a map of capabilities keyed by their namespace (URN).
+ */
+public class CapabilitiesSerializer extends StdSerializer<Map<Class<? extends Capability>, Capability>> {
+
+    private static final ImmutableMap<Class<? extends Capability>, String> CAPABILITIES = Mapper.CAPABILITIES.inverse();
+
+    @SuppressWarnings("unchecked")
+    public CapabilitiesSerializer() {
+        super((Class<Map<Class<? extends Capability>, Capability>>) (Class<?>) Map.class);
+    }
+
+    @Override
+    public void serialize(Map<Class<? extends Capability>, Capability> map, JsonGenerator jsonGenerator, SerializerProvider provider) throws IOException {
+        jsonGenerator.writeStartObject();
+        for (Map.Entry<Class<? extends Capability>, Capability> entry : map.entrySet()) {
+            final Class<? extends Capability> clazz = entry.getKey();
+            final String name = CAPABILITIES.get(clazz);
+            jsonGenerator.writeFieldName(name != null ? name : clazz.getSimpleName());
+            provider.defaultSerializeValue(entry.getValue(), jsonGenerator);
+        }
+        jsonGenerator.writeEndObject();
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+
+package rs.ltt.jmap.jackson.serializer;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.BeanDescription;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.SerializationConfig;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.ser.BeanPropertyWriter;
+import com.fasterxml.jackson.databind.ser.BeanSerializerModifier;
+import com.google.common.collect.ImmutableSet;
+import rs.ltt.jmap.common.entity.DeliveryStatus;
+import rs.ltt.jmap.common.entity.EmailBodyValue;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Leaves out empty lists and empty maps of keywords, body values and delivery status, like the ListSerializer and
+ * StringMapSerializer of jmap-gson do. Entities built with Lombok's @Singular would otherwise send '[]' for every
+ * list that has not been set.
+ */
+public class EmptyValueSerializerModifier extends BeanSerializerModifier {
+
+    private static final ImmutableSet<Class<?>> STRING_MAP_VALUES = ImmutableSet.<Class<?>>of(
+            Boolean.class,
+            EmailBodyValue.class,
+            DeliveryStatus.class
+    );
+
+    @Override
+    public List<BeanPropertyWriter> changeProperties(SerializationConfig config, BeanDescription beanDescription, List<BeanPropertyWriter> beanProperties) {
+        for (int i = 0; i < beanProperties.size(); ++i) {
+            final BeanPropertyWriter writer = beanProperties.get(i);
+            if (omitsEmpty(writer.getType())) {
+                beanProperties.set(i, new EmptyValueOmittingWriter(writer));
+            }
+        }
+        return beanProperties;
+    }
+
+    private static boolean omitsEmpty(final JavaType type) {
+        if (type.getRawClass() == List.class) {
+            return true;
+        }
+        return type.getRawClass() == Map.class
+                && type.getKeyType().getRawClass() == String.class
+                && STRING_MAP_VALUES.contains(type.getContentType().getRawClass());
+    }
+
+    private static class EmptyValueOmittingWriter extends BeanPropertyWriter {
+
+        private EmptyValueOmittingWriter(final BeanPropertyWriter base) {
+            super(base);
+        }
+
+        @Override
+        public void serializeAsField(Object bean, JsonGenerator jsonGenerator, SerializerProvider provider) throws Exception {
+            final Object value = get(bean);
+            if (value instanceof Collection && ((Collection<?>) value).isEmpty()) {
+                return;
+            }
+            if (value instanceof Map && ((Map<?, ?>) value).isEmpty()) {
+                return;
+            }
+            super.serializeAsField(bean, jsonGenerator, provider);
+        }
+    }
+}
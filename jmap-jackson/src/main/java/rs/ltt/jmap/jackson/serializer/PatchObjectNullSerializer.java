@@ -0,0 +1,42 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+
+package rs.ltt.jmap.jackson.serializer;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import rs.ltt.jmap.common.util.Patches;
+
+import java.io.IOException;
+
+/**
+ * Writes the explicit null of {@link Patches#remove(String)}. The placeholder itself is not null so the entry
+ * survives the NON_NULL inclusion the codec uses for everything else.
+ */
+public class PatchObjectNullSerializer extends StdSerializer<Patches.Null> {
+
+    public PatchObjectNullSerializer() {
+        super(Patches.Null.class);
+    }
+
+    @Override
+    public void serialize(Patches.Null aNull, JsonGenerator jsonGenerator, SerializerProvider provider) throws IOException {
+        jsonGenerator.writeNull();
+    }
+}
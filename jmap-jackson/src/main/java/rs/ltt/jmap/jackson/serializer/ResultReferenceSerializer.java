@@ -0,0 +1,43 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+
+package rs.ltt.jmap.jackson.serializer;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import rs.ltt.jmap.common.Request;
+import rs.ltt.jmap.common.util.Mapper;
+
+import java.io.IOException;
+
+public class ResultReferenceSerializer extends StdSerializer<Request.Invocation.ResultReference> {
+
+    public ResultReferenceSerializer() {
+        super(Request.Invocation.ResultReference.class);
+    }
+
+    @Override
+    public void serialize(Request.Invocation.ResultReference resultReference, JsonGenerator jsonGenerator, SerializerProvider provider) throws IOException {
+        jsonGenerator.writeStartObject();
+        jsonGenerator.writeStringField("resultOf", resultReference.getId());
+        jsonGenerator.writeStringField("name", Mapper.METHOD_CALLS.inverse().get(resultReference.getClazz()));
+        jsonGenerator.writeStringField("path", resultReference.getPath());
+        jsonGenerator.writeEndObject();
+    }
+}
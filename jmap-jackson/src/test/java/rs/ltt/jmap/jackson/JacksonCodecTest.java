@@ -0,0 +1,116 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+
+package rs.ltt.jmap.jackson;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.gson.JsonParser;
+import org.junit.Assert;
+import org.junit.Test;
+import rs.ltt.jmap.client.json.GsonCodec;
+import rs.ltt.jmap.client.json.JmapCodec;
+import rs.ltt.jmap.client.json.JmapCodecConformanceTest;
+import rs.ltt.jmap.common.Request;
+import rs.ltt.jmap.common.entity.*;
+import rs.ltt.jmap.common.entity.filter.EmailFilterCondition;
+import rs.ltt.jmap.common.entity.filter.FilterOperator;
+import rs.ltt.jmap.common.entity.query.EmailQuery;
+import rs.ltt.jmap.common.method.DeferredMethodResponse;
+import rs.ltt.jmap.common.method.call.email.GetEmailMethodCall;
+import rs.ltt.jmap.common.method.call.email.QueryEmailMethodCall;
+import rs.ltt.jmap.common.method.call.email.SetEmailMethodCall;
+import rs.ltt.jmap.common.method.call.mailbox.SetMailboxMethodCall;
+import rs.ltt.jmap.common.method.call.thread.GetThreadMethodCall;
+import rs.ltt.jmap.common.method.response.email.GetEmailMethodResponse;
+import rs.ltt.jmap.common.method.response.mailbox.GetMailboxMethodResponse;
+import rs.ltt.jmap.common.util.Patches;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+public class JacksonCodecTest extends JmapCodecConformanceTest {
+
+    private final JacksonCodec codec = new JacksonCodec();
+
+    @Override
+    protected JmapCodec codec() {
+        return codec;
+    }
+
+    @Test
+    public void lazyMethodResponses() throws IOException {
+        final RecordingHandler handler = read("{\"methodResponses\":[[\"Mailbox/get\",{\"state\":\"20\",\"list\":[]},\"0\"]],\"sessionState\":\"0\"}", true);
+        final DeferredMethodResponse deferred = (DeferredMethodResponse) handler.methodResponses.get(0)[0];
+        Assert.assertEquals("{\"state\":\"20\",\"list\":[]}".length(), deferred.getLength());
+        Assert.assertEquals("20", ((GetMailboxMethodResponse) deferred.get()).getState());
+    }
+
+    @Test
+    public void entitiesWithoutNoArgsConstructor() throws IOException {
+        final RecordingHandler handler = read("{\"methodResponses\":[[\"Email/get\",{\"state\":\"1\",\"list\":[{\"id\":\"M1\",\"keywords\":{\"$seen\":true},\"from\":[{\"name\":\"Arya Stark\",\"email\":\"arya.stark@ltt.rs\"}]}]},\"0\"]],\"sessionState\":\"0\"}", false);
+        final Email email = ((GetEmailMethodResponse) handler.methodResponses.get(0)[0]).getList()[0];
+        Assert.assertEquals("M1", email.getId());
+        Assert.assertTrue(email.getKeywords().get(Keyword.SEEN));
+        Assert.assertEquals("arya.stark@ltt.rs", email.getFrom().get(0).getEmail());
+    }
+
+    @Test
+    public void requestsMatchGsonCodec() throws IOException {
+        final Request.Invocation query = Request.Invocation.create(new QueryEmailMethodCall(
+                EmailQuery.of(FilterOperator.or(
+                        EmailFilterCondition.builder().inMailbox("MB1").build(),
+                        EmailFilterCondition.builder().text("winter").build()
+                ), true), "M9", 20
+        ));
+        final Request.Invocation getEmails = Request.Invocation.create(
+                new GetEmailMethodCall(query.createReference(Request.Invocation.ResultReference.Path.IDS), true)
+        );
+        final Request.Invocation getThreads = Request.Invocation.create(
+                new GetThreadMethodCall(getEmails.createReference(Request.Invocation.ResultReference.Path.LIST_THREAD_IDS))
+        );
+        final Patches.Builder patches = Patches.builder();
+        patches.remove("keywords/" + Keyword.DRAFT);
+        patches.set("keywords/" + Keyword.SEEN, true);
+        patches.set("mailboxIds", ImmutableMap.of("#trash", true));
+        final Request request = new Request.Builder()
+                .add(query)
+                .add(getEmails)
+                .add(getThreads)
+                .call(new SetMailboxMethodCall(ImmutableMap.of("trash", Mailbox.builder()
+                        .name("Trash")
+                        .role(Role.TRASH)
+                        .sortOrder(10)
+                        .isSubscribed(true)
+                        .build())))
+                .call(new SetEmailMethodCall("state", ImmutableMap.of("M1", patches.build())))
+                .call(new SetEmailMethodCall(ImmutableMap.of("e0", Email.builder()
+                        .mailboxId("#trash", true)
+                        .keyword(Keyword.DRAFT, true)
+                        .from(EmailAddress.builder().name("Arya Stark").email("arya.stark@ltt.rs").build())
+                        .subject("Winter is coming")
+                        .bodyValue("1", EmailBodyValue.builder().value("Beware the white walkers").build())
+                        .textBody(EmailBodyPart.builder().partId("1").type("text/plain").build())
+                        .build())))
+                .build();
+        final StringWriter expected = new StringWriter();
+        new GsonCodec().writeRequest(request, expected);
+        final StringWriter actual = new StringWriter();
+        codec.writeRequest(request, actual);
+        Assert.assertEquals(new JsonParser().parse(expected.toString()), new JsonParser().parse(actual.toString()));
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package rs.ltt.jmap.mock.server;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Records created, updated and destroyed ids of one type. Every recorded change advances the state by one so that
+ * the changes since any state can be reconstructed and cut into pages at arbitrary positions.
+ */
+class ChangeLog {
+
+    enum Kind {
+        CREATED, UPDATED, DESTROYED
+    }
+
+    private final List<Entry> entries = new ArrayList<>();
+    private long state = 0;
+
+    long getState() {
+        return state;
+    }
+
+    void created(String id) {
+        record(id, Kind.CREATED);
+    }
+
+    void updated(String id) {
+        record(id, Kind.UPDATED);
+    }
+
+    void destroyed(String id) {
+        record(id, Kind.DESTROYED);
+    }
+
+    private void record(String id, Kind kind) {
+        state++;
+        entries.add(new Entry(state, id, kind));
+    }
+
+    /**
+     * @param maxChanges the maximum number of ids to return; if more have changed the result ends at an intermediate
+     *                   state and {@link Changes#hasMoreChanges} is set
+     * @return null if the given state is not known
+     */
+    Changes since(final long since, final int maxChanges) {
+        if (since < 0 || since > state) {
+            return null;
+        }
+        final Map<String, Kind> changes = new LinkedHashMap<>();
+        long newState = since;
+        boolean hasMoreChanges = false;
+        //entries are ordered by state and states start at 1
+        for (int i = (int) since; i < entries.size(); ++i) {
+            final Entry entry = entries.get(i);
+            if (!changes.containsKey(entry.id) && changes.size() >= maxChanges) {
+                hasMoreChanges = true;
+                break;
+            }
+            final Kind previous = changes.get(entry.id);
+            if (previous == Kind.CREATED && entry.kind == Kind.DESTROYED) {
+                changes.remove(entry.id);
+            } else if (previous != Kind.CREATED) {
+                changes.put(entry.id, entry.kind);
+            }
+            newState = entry.state;
+        }
+        final Changes result = new Changes(since, newState, hasMoreChanges);
+        for (Map.Entry<String, Kind> change : changes.entrySet()) {
+            switch (change.getValue()) {
+                case CREATED:
+                    result.created.add(change.getKey());
+                    break;
+                case UPDATED:
+                    result.updated.add(change.getKey());
+                    break;
+                case DESTROYED:
+                    result.destroyed.add(change.getKey());
+                    break;
+            }
+        }
+        return result;
+    }
+
+    static class Changes {
+        final long oldState;
+        final long newState;
+        final boolean hasMoreChanges;
+        final List<String> created = new ArrayList<>();
+        final List<String> updated = new ArrayList<>();
+        final List<String> destroyed = new ArrayList<>();
+
+        private Changes(long oldState, long newState, boolean hasMoreChanges) {
+            this.oldState = oldState;
+            this.newState = newState;
+            this.hasMoreChanges = hasMoreChanges;
+        }
+    }
+
+    private static class Entry {
+        private final long state;
+        private final String id;
+        private final Kind kind;
+
+        private Entry(long state, String id, Kind kind) {
+            this.state = state;
+            this.id = id;
+            this.kind = kind;
+        }
+    }
+}
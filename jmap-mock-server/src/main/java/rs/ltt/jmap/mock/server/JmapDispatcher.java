@@ -0,0 +1,840 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package rs.ltt.jmap.mock.server;
+
+import com.google.common.base.Strings;
+import com.google.gson.*;
+import rs.ltt.jmap.common.entity.Email;
+import rs.ltt.jmap.common.entity.EmailAddress;
+import rs.ltt.jmap.common.entity.EmailBodyValue;
+
+import java.util.*;
+
+/**
+ * Processes JMAP requests against a {@link MailStore}. Works on the JSON tree instead of the typed method calls of
+ * jmap-common: result references (RFC 8620 section 3.7) are defined in terms of JSON pointers into earlier responses
+ * and are resolved before a method is invoked.
+ */
+class JmapDispatcher {
+
+    private static final int MAX_QUERY_SNAPSHOTS = 256;
+
+    private final MockJmapServer server;
+    private final MailStore store;
+    private final Gson gson;
+
+    //query results by query + queryState; required to calculate Email/queryChanges
+    private final Map<String, List<String>> querySnapshots = new LinkedHashMap<String, List<String>>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, List<String>> eldest) {
+            return size() > MAX_QUERY_SNAPSHOTS;
+        }
+    };
+
+    JmapDispatcher(MockJmapServer server, MailStore store, Gson gson) {
+        this.server = server;
+        this.store = store;
+        this.gson = gson;
+    }
+
+    JsonObject dispatch(final JsonObject request) throws RequestLimitException {
+        final JsonArray methodCalls = request.getAsJsonArray("methodCalls");
+        if (methodCalls == null) {
+            throw new JsonParseException("Request has no methodCalls");
+        }
+        if (methodCalls.size() > server.maxCallsInRequest) {
+            throw new RequestLimitException("maxCallsInRequest");
+        }
+        final JsonArray methodResponses = new JsonArray();
+        synchronized (store) {
+            for (JsonElement element : methodCalls) {
+                final JsonArray invocation = element.getAsJsonArray();
+                final String name = invocation.get(0).getAsString();
+                final String id = invocation.get(2).getAsString();
+                JsonArray response = new JsonArray();
+                try {
+                    final JsonObject arguments = resolveReferences(invocation.get(1).getAsJsonObject(), methodResponses);
+                    checkAccount(arguments);
+                    response.add(name);
+                    response.add(invoke(name, arguments));
+                } catch (MethodException e) {
+                    response = new JsonArray();
+                    response.add("error");
+                    final JsonObject error = new JsonObject();
+                    error.addProperty("type", e.getType());
+                    if (e.getDescription() != null) {
+                        error.addProperty("description", e.getDescription());
+                    }
+                    response.add(error);
+                }
+                response.add(id);
+                methodResponses.add(response);
+            }
+        }
+        final JsonObject response = new JsonObject();
+        response.add("methodResponses", methodResponses);
+        response.addProperty("sessionState", server.getSessionState());
+        return response;
+    }
+
+    private void checkAccount(JsonObject arguments) throws MethodException {
+        final JsonElement accountId = arguments.get("accountId");
+        if (accountId != null && !accountId.isJsonNull() && !server.getAccountId().equals(accountId.getAsString())) {
+            throw new MethodException("accountNotFound");
+        }
+    }
+
+    private JsonObject invoke(final String name, final JsonObject arguments) throws MethodException {
+        switch (name) {
+            case "Core/echo":
+                return arguments;
+            case "Mailbox/get":
+                return get(arguments, store.getMailboxIds(), store.mailboxChanges, new EntityLoader() {
+                    @Override
+                    public JsonObject load(String id) {
+                        return toJson(id, store.getMailboxWithCounts(id));
+                    }
+                });
+            case "Mailbox/changes":
+                return changes(arguments, store.mailboxChanges, true);
+            case "Email/get":
+                return getEmails(arguments);
+            case "Email/changes":
+                return changes(arguments, store.emailChanges, false);
+            case "Email/query":
+                return queryEmails(arguments);
+            case "Email/queryChanges":
+                return queryEmailChanges(arguments);
+            case "Email/set":
+                return setEmails(arguments);
+            case "Thread/get":
+                return get(arguments, store.getThreadIds(), store.threadChanges, new EntityLoader() {
+                    @Override
+                    public JsonObject load(String id) {
+                        final List<String> emailIds = store.getThread(id);
+                        if (emailIds == null) {
+                            return null;
+                        }
+                        final JsonObject thread = new JsonObject();
+                        thread.addProperty("id", id);
+                        thread.add("emailIds", gson.toJsonTree(emailIds));
+                        return thread;
+                    }
+                });
+            case "Thread/changes":
+                return changes(arguments, store.threadChanges, false);
+            case "Identity/get":
+                return get(arguments, store.getIdentityIds(), store.identityChanges, new EntityLoader() {
+                    @Override
+                    public JsonObject load(String id) {
+                        return toJson(id, store.getIdentity(id));
+                    }
+                });
+            case "Identity/changes":
+                return changes(arguments, store.identityChanges, false);
+            default:
+                throw new MethodException("unknownMethod", name);
+        }
+    }
+
+    private JsonObject toJson(String id, Object entity) {
+        if (entity == null) {
+            return null;
+        }
+        final JsonObject jsonObject = gson.toJsonTree(entity).getAsJsonObject();
+        jsonObject.addProperty("id", id);
+        return jsonObject;
+    }
+
+    private JsonObject get(final JsonObject arguments, final Collection<String> all, final ChangeLog changeLog, final EntityLoader loader) throws MethodException {
+        final List<String> ids = getIds(arguments, all);
+        final Set<String> properties = getStrings(arguments, "properties");
+        final JsonArray list = new JsonArray();
+        final JsonArray notFound = new JsonArray();
+        for (String id : ids) {
+            final JsonObject entity = loader.load(id);
+            if (entity == null) {
+                notFound.add(id);
+            } else {
+                list.add(filterProperties(entity, properties));
+            }
+        }
+        final JsonObject response = new JsonObject();
+        response.addProperty("accountId", server.getAccountId());
+        response.addProperty("state", String.valueOf(changeLog.getState()));
+        response.add("list", list);
+        response.add("notFound", notFound);
+        return response;
+    }
+
+    private List<String> getIds(final JsonObject arguments, final Collection<String> all) throws MethodException {
+        final JsonElement idsElement = arguments.get("ids");
+        final List<String> ids;
+        if (idsElement == null || idsElement.isJsonNull()) {
+            ids = new ArrayList<>(all);
+        } else {
+            ids = new ArrayList<>();
+            for (JsonElement id : idsElement.getAsJsonArray()) {
+                ids.add(id.getAsString());
+            }
+        }
+        if (ids.size() > server.maxObjectsInGet) {
+            throw new MethodException("requestTooLarge", "Requested " + ids.size() + " objects. maxObjectsInGet is " + server.maxObjectsInGet);
+        }
+        return ids;
+    }
+
+    private static Set<String> getStrings(final JsonObject arguments, final String name) {
+        final JsonElement element = arguments.get(name);
+        if (element == null || element.isJsonNull()) {
+            return null;
+        }
+        final Set<String> strings = new HashSet<>();
+        for (JsonElement item : element.getAsJsonArray()) {
+            strings.add(item.getAsString());
+        }
+        return strings;
+    }
+
+    private static JsonObject filterProperties(final JsonObject entity, final Set<String> properties) {
+        if (properties == null) {
+            return entity;
+        }
+        final JsonObject filtered = new JsonObject();
+        filtered.add("id", entity.get("id"));
+        for (String property : properties) {
+            final JsonElement value = entity.get(property);
+            filtered.add(property, value == null ? JsonNull.INSTANCE : value);
+        }
+        return filtered;
+    }
+
+    private JsonObject getEmails(final JsonObject arguments) throws MethodException {
+        final boolean fetchBodyValues = isTrue(arguments, "fetchTextBodyValues") || isTrue(arguments, "fetchHTMLBodyValues") || isTrue(arguments, "fetchAllBodyValues");
+        final JsonElement maxBodyValueBytesElement = arguments.get("maxBodyValueBytes");
+        final int maxBodyValueBytes = maxBodyValueBytesElement == null || maxBodyValueBytesElement.isJsonNull() ? 0 : maxBodyValueBytesElement.getAsInt();
+        return get(arguments, store.getEmails().keySet(), store.emailChanges, new EntityLoader() {
+            @Override
+            public JsonObject load(String id) {
+                final JsonObject email = toJson(id, store.getEmail(id));
+                if (email == null) {
+                    return null;
+                }
+                if (!fetchBodyValues) {
+                    email.remove("bodyValues");
+                } else if (maxBodyValueBytes > 0 && email.has("bodyValues")) {
+                    truncate(email.getAsJsonObject("bodyValues"), maxBodyValueBytes);
+                }
+                return email;
+            }
+        });
+    }
+
+    private static void truncate(final JsonObject bodyValues, final int maxBodyValueBytes) {
+        for (Map.Entry<String, JsonElement> entry : bodyValues.entrySet()) {
+            final JsonObject bodyValue = entry.getValue().getAsJsonObject();
+            final String value = bodyValue.get("value").getAsString();
+            if (value.length() > maxBodyValueBytes) {
+                bodyValue.addProperty("value", value.substring(0, maxBodyValueBytes));
+                bodyValue.addProperty("isTruncated", true);
+            }
+        }
+    }
+
+    private static boolean isTrue(JsonObject arguments, String name) {
+        final JsonElement element = arguments.get(name);
+        return element != null && !element.isJsonNull() && element.getAsBoolean();
+    }
+
+    private JsonObject changes(final JsonObject arguments, final ChangeLog changeLog, final boolean hasUpdatedProperties) throws MethodException {
+        final String sinceState = getString(arguments, "sinceState");
+        final JsonElement maxChangesElement = arguments.get("maxChanges");
+        int maxChanges = server.maxChanges;
+        if (maxChangesElement != null && !maxChangesElement.isJsonNull()) {
+            if (maxChangesElement.getAsInt() <= 0) {
+                throw new MethodException("invalidArguments", "maxChanges must be positive");
+            }
+            maxChanges = Math.min(maxChanges, maxChangesElement.getAsInt());
+        }
+        final ChangeLog.Changes changes = changeLog.since(parseState(sinceState), maxChanges);
+        if (changes == null) {
+            throw new MethodException("cannotCalculateChanges");
+        }
+        final JsonObject response = new JsonObject();
+        response.addProperty("accountId", server.getAccountId());
+        response.addProperty("oldState", sinceState);
+        response.addProperty("newState", String.valueOf(changes.newState));
+        response.addProperty("hasMoreChanges", changes.hasMoreChanges);
+        response.add("created", gson.toJsonTree(changes.created));
+        response.add("updated", gson.toJsonTree(changes.updated));
+        response.add("destroyed", gson.toJsonTree(changes.destroyed));
+        if (hasUpdatedProperties) {
+            response.add("updatedProperties", JsonNull.INSTANCE);
+        }
+        return response;
+    }
+
+    private static long parseState(String state) {
+        try {
+            return Long.parseLong(state);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static String getString(JsonObject arguments, String name) throws MethodException {
+        final JsonElement element = arguments.get(name);
+        if (element == null || element.isJsonNull()) {
+            throw new MethodException("invalidArguments", name + " is required");
+        }
+        return element.getAsString();
+    }
+
+    private JsonObject queryEmails(final JsonObject arguments) throws MethodException {
+        final List<String> ids = query(arguments);
+        final String queryState = String.valueOf(store.emailChanges.getState());
+        querySnapshots.put(getQueryKey(arguments, queryState), ids);
+
+        int position = 0;
+        final JsonElement anchor = arguments.get("anchor");
+        if (anchor != null && !anchor.isJsonNull()) {
+            final int index = ids.indexOf(anchor.getAsString());
+            if (index < 0) {
+                throw new MethodException("anchorNotFound");
+            }
+            final JsonElement anchorOffset = arguments.get("anchorOffset");
+            position = Math.max(0, index + (anchorOffset == null || anchorOffset.isJsonNull() ? 0 : anchorOffset.getAsInt()));
+        } else {
+            final JsonElement positionElement = arguments.get("position");
+            if (positionElement != null && !positionElement.isJsonNull()) {
+                position = positionElement.getAsInt();
+                if (position < 0) {
+                    position = Math.max(0, ids.size() + position);
+                }
+            }
+        }
+        position = Math.min(position, ids.size());
+        final JsonElement limitElement = arguments.get("limit");
+        final boolean limitRequested = limitElement != null && !limitElement.isJsonNull();
+        if (limitRequested && limitElement.getAsInt() < 0) {
+            throw new MethodException("invalidArguments", "limit must not be negative");
+        }
+        final int limit = limitRequested ? Math.min(limitElement.getAsInt(), server.maxQueryLimit) : server.maxQueryLimit;
+
+        final JsonObject response = new JsonObject();
+        response.addProperty("accountId", server.getAccountId());
+        response.addProperty("queryState", queryState);
+        response.addProperty("canCalculateChanges", true);
+        response.addProperty("position", position);
+        response.add("ids", gson.toJsonTree(ids.subList(position, Math.min(ids.size(), position + limit))));
+        if (isTrue(arguments, "calculateTotal")) {
+            response.addProperty("total", ids.size());
+        }
+        if (!limitRequested || limitElement.getAsInt() > limit) {
+            response.addProperty("limit", limit);
+        }
+        return response;
+    }
+
+    private JsonObject queryEmailChanges(final JsonObject arguments) throws MethodException {
+        final String sinceQueryState = getString(arguments, "sinceQueryState");
+        final List<String> old = querySnapshots.get(getQueryKey(arguments, sinceQueryState));
+        if (old == null) {
+            throw new MethodException("cannotCalculateChanges");
+        }
+        final List<String> current = query(arguments);
+        final String queryState = String.valueOf(store.emailChanges.getState());
+        querySnapshots.put(getQueryKey(arguments, queryState), current);
+
+        final Set<String> currentIds = new HashSet<>(current);
+        final Set<String> oldIds = new HashSet<>(old);
+        final List<String> oldCommon = new ArrayList<>();
+        for (String id : old) {
+            if (currentIds.contains(id)) {
+                oldCommon.add(id);
+            }
+        }
+        //ids that are still in the results but changed their relative order are reported as removed and added
+        final Set<String> moved = new HashSet<>();
+        int i = 0;
+        for (String id : current) {
+            if (!oldIds.contains(id)) {
+                continue;
+            }
+            if (!moved.isEmpty() || !id.equals(oldCommon.get(i))) {
+                moved.add(id);
+            }
+            i++;
+        }
+        final JsonArray removed = new JsonArray();
+        for (String id : old) {
+            if (!currentIds.contains(id) || moved.contains(id)) {
+                removed.add(id);
+            }
+        }
+        final JsonArray added = new JsonArray();
+        for (int index = 0; index < current.size(); ++index) {
+            final String id = current.get(index);
+            if (!oldIds.contains(id) || moved.contains(id)) {
+                final JsonObject item = new JsonObject();
+                item.addProperty("id", id);
+                item.addProperty("index", index);
+                added.add(item);
+            }
+        }
+        final JsonElement maxChanges = arguments.get("maxChanges");
+        if (maxChanges != null && !maxChanges.isJsonNull() && removed.size() + added.size() > maxChanges.getAsInt()) {
+            throw new MethodException("tooManyChanges");
+        }
+        final JsonObject response = new JsonObject();
+        response.addProperty("accountId", server.getAccountId());
+        response.addProperty("oldQueryState", sinceQueryState);
+        response.addProperty("newQueryState", queryState);
+        if (isTrue(arguments, "calculateTotal")) {
+            response.addProperty("total", current.size());
+        }
+        response.add("removed", removed);
+        response.add("added", added);
+        return response;
+    }
+
+    private String getQueryKey(JsonObject arguments, String queryState) {
+        return gson.toJson(arguments.get("filter")) + '|' + gson.toJson(arguments.get("sort")) + '|' + isTrue(arguments, "collapseThreads") + '|' + queryState;
+    }
+
+    private List<String> query(final JsonObject arguments) throws MethodException {
+        final JsonElement filter = arguments.get("filter");
+        final List<Map.Entry<String, Email>> matches = new ArrayList<>();
+        for (Map.Entry<String, Email> entry : store.getEmails().entrySet()) {
+            if (filter == null || filter.isJsonNull() || matches(entry.getValue(), filter.getAsJsonObject())) {
+                matches.add(entry);
+            }
+        }
+        Collections.sort(matches, getComparator(arguments.get("sort")));
+        final boolean collapseThreads = isTrue(arguments, "collapseThreads");
+        final Set<String> threads = new HashSet<>();
+        final List<String> ids = new ArrayList<>();
+        for (Map.Entry<String, Email> entry : matches) {
+            if (!collapseThreads || threads.add(entry.getValue().getThreadId())) {
+                ids.add(entry.getKey());
+            }
+        }
+        return ids;
+    }
+
+    private static Comparator<Map.Entry<String, Email>> getComparator(final JsonElement sort) throws MethodException {
+        final List<Comparator<Email>> comparators = new ArrayList<>();
+        final List<Boolean> ascending = new ArrayList<>();
+        if (sort == null || sort.isJsonNull() || sort.getAsJsonArray().size() == 0) {
+            comparators.add(getComparator("receivedAt"));
+            ascending.add(false);
+        } else {
+            for (JsonElement element : sort.getAsJsonArray()) {
+                final JsonObject comparator = element.getAsJsonObject();
+                comparators.add(getComparator(comparator.get("property").getAsString()));
+                final JsonElement isAscending = comparator.get("isAscending");
+                ascending.add(isAscending == null || isAscending.isJsonNull() || isAscending.getAsBoolean());
+            }
+        }
+        return new Comparator<Map.Entry<String, Email>>() {
+            @Override
+            public int compare(Map.Entry<String, Email> a, Map.Entry<String, Email> b) {
+                for (int i = 0; i < comparators.size(); ++i) {
+                    final int result = comparators.get(i).compare(a.getValue(), b.getValue());
+                    if (result != 0) {
+                        return ascending.get(i) ? result : -result;
+                    }
+                }
+                return a.getKey().compareTo(b.getKey());
+            }
+        };
+    }
+
+    private static Comparator<Email> getComparator(final String property) throws MethodException {
+        switch (property) {
+            case "receivedAt":
+                return new Comparator<Email>() {
+                    @Override
+                    public int compare(Email a, Email b) {
+                        return MailStore.compareNullable(a.getReceivedAt(), b.getReceivedAt());
+                    }
+                };
+            case "sentAt":
+                return new Comparator<Email>() {
+                    @Override
+                    public int compare(Email a, Email b) {
+                        return MailStore.compareNullable(a.getSentAt(), b.getSentAt());
+                    }
+                };
+            case "size":
+                return new Comparator<Email>() {
+                    @Override
+                    public int compare(Email a, Email b) {
+                        return MailStore.compareNullable(a.getSize(), b.getSize());
+                    }
+                };
+            case "subject":
+                return new Comparator<Email>() {
+                    @Override
+                    public int compare(Email a, Email b) {
+                        return Strings.nullToEmpty(a.getSubject()).compareToIgnoreCase(Strings.nullToEmpty(b.getSubject()));
+                    }
+                };
+            default:
+                throw new MethodException("unsupportedSort", property);
+        }
+    }
+
+    private boolean matches(final Email email, final JsonObject filter) throws MethodException {
+        final JsonElement operator = filter.get("operator");
+        if (operator != null && !operator.isJsonNull()) {
+            final JsonArray conditions = filter.getAsJsonArray("conditions");
+            switch (operator.getAsString()) {
+                case "AND":
+                    for (JsonElement condition : conditions) {
+                        if (!matches(email, condition.getAsJsonObject())) {
+                            return false;
+                        }
+                    }
+                    return true;
+                case "OR":
+                    for (JsonElement condition : conditions) {
+                        if (matches(email, condition.getAsJsonObject())) {
+                            return true;
+                        }
+                    }
+                    return false;
+                case "NOT":
+                    for (JsonElement condition : conditions) {
+                        if (matches(email, condition.getAsJsonObject())) {
+                            return false;
+                        }
+                    }
+                    return true;
+                default:
+                    throw new MethodException("unsupportedFilter", operator.getAsString());
+            }
+        }
+        for (Map.Entry<String, JsonElement> entry : filter.entrySet()) {
+            if (entry.getValue().isJsonNull()) {
+                continue;
+            }
+            if (!matches(email, entry.getKey(), entry.getValue())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean matches(final Email email, final String condition, final JsonElement value) throws MethodException {
+        switch (condition) {
+            case "inMailbox":
+                return email.getMailboxIds().containsKey(value.getAsString());
+            case "inMailboxOtherThan":
+                for (String mailboxId : email.getMailboxIds().keySet()) {
+                    boolean excluded = false;
+                    for (JsonElement other : value.getAsJsonArray()) {
+                        excluded |= mailboxId.equals(other.getAsString());
+                    }
+                    if (!excluded) {
+                        return true;
+                    }
+                }
+                return false;
+            case "hasKeyword":
+                return hasKeyword(email, value.getAsString());
+            case "notKeyword":
+                return !hasKeyword(email, value.getAsString());
+            case "allInThreadHaveKeyword":
+                return countInThread(email, value.getAsString()) == store.getThread(email.getThreadId()).size();
+            case "someInThreadHaveKeyword":
+                return countInThread(email, value.getAsString()) > 0;
+            case "noneInThreadHaveKeyword":
+                return countInThread(email, value.getAsString()) == 0;
+            case "minSize":
+                return email.getSize() != null && email.getSize() >= value.getAsInt();
+            case "maxSize":
+                return email.getSize() == null || email.getSize() < value.getAsInt();
+            case "subject":
+                return contains(email.getSubject(), value.getAsString());
+            case "from":
+                return contains(email.getFrom(), value.getAsString());
+            case "to":
+                return contains(email.getTo(), value.getAsString());
+            case "cc":
+                return contains(email.getCc(), value.getAsString());
+            case "bcc":
+                return contains(email.getBcc(), value.getAsString());
+            case "body":
+                return containsBody(email, value.getAsString());
+            case "text":
+                final String text = value.getAsString();
+                return contains(email.getSubject(), text)
+                        || contains(email.getFrom(), text)
+                        || contains(email.getTo(), text)
+                        || contains(email.getCc(), text)
+                        || contains(email.getBcc(), text)
+                        || containsBody(email, text);
+            default:
+                throw new MethodException("unsupportedFilter", condition);
+        }
+    }
+
+    private static boolean hasKeyword(Email email, String keyword) {
+        return email.getKeywords() != null && Boolean.TRUE.equals(email.getKeywords().get(keyword));
+    }
+
+    private int countInThread(Email email, String keyword) {
+        int count = 0;
+        for (String id : store.getThread(email.getThreadId())) {
+            if (hasKeyword(store.getEmail(id), keyword)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static boolean contains(String haystack, String needle) {
+        return haystack != null && haystack.toLowerCase(Locale.ROOT).contains(needle.toLowerCase(Locale.ROOT));
+    }
+
+    private static boolean contains(List<EmailAddress> addresses, String needle) {
+        if (addresses == null) {
+            return false;
+        }
+        for (EmailAddress address : addresses) {
+            if (contains(address.getName(), needle) || contains(address.getEmail(), needle)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean containsBody(Email email, String needle) {
+        if (contains(email.getPreview(), needle)) {
+            return true;
+        }
+        if (email.getBodyValues() != null) {
+            for (EmailBodyValue bodyValue : email.getBodyValues().values()) {
+                if (contains(bodyValue.getValue(), needle)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private JsonObject setEmails(final JsonObject arguments) throws MethodException {
+        final String oldState = String.valueOf(store.emailChanges.getState());
+        final JsonElement ifInState = arguments.get("ifInState");
+        if (ifInState != null && !ifInState.isJsonNull() && !oldState.equals(ifInState.getAsString())) {
+            throw new MethodException("stateMismatch");
+        }
+        final JsonObject create = getObject(arguments, "create");
+        final JsonObject update = getObject(arguments, "update");
+        final JsonElement destroyElement = arguments.get("destroy");
+        final JsonArray destroy = destroyElement == null || destroyElement.isJsonNull() ? new JsonArray() : destroyElement.getAsJsonArray();
+        if (create.size() + update.size() + destroy.size() > server.maxObjectsInSet) {
+            throw new MethodException("requestTooLarge", "maxObjectsInSet is " + server.maxObjectsInSet);
+        }
+        final JsonObject created = new JsonObject();
+        final JsonObject notCreated = new JsonObject();
+        for (Map.Entry<String, JsonElement> entry : create.entrySet()) {
+            final Email email;
+            try {
+                email = gson.fromJson(entry.getValue(), Email.class);
+            } catch (JsonParseException e) {
+                notCreated.add(entry.getKey(), setError("invalidProperties", null));
+                continue;
+            }
+            try {
+                final String id = store.addEmail(email);
+                final Email stored = store.getEmail(id);
+                final JsonObject result = new JsonObject();
+                result.addProperty("id", id);
+                result.addProperty("blobId", stored.getBlobId());
+                result.addProperty("threadId", stored.getThreadId());
+                result.addProperty("size", stored.getSize());
+                created.add(entry.getKey(), result);
+            } catch (IllegalArgumentException e) {
+                notCreated.add(entry.getKey(), setError("invalidProperties", "mailboxIds"));
+            }
+        }
+        final JsonObject updated = new JsonObject();
+        final JsonObject notUpdated = new JsonObject();
+        for (Map.Entry<String, JsonElement> entry : update.entrySet()) {
+            try {
+                store.updateEmail(entry.getKey(), toPatch(entry.getValue().getAsJsonObject()));
+                updated.add(entry.getKey(), JsonNull.INSTANCE);
+            } catch (MailStore.SetErrorException e) {
+                notUpdated.add(entry.getKey(), setError(e.getType(), e.getProperty()));
+            }
+        }
+        final JsonArray destroyed = new JsonArray();
+        final JsonObject notDestroyed = new JsonObject();
+        for (JsonElement element : destroy) {
+            final String id = element.getAsString();
+            try {
+                store.destroyEmail(id);
+                destroyed.add(id);
+            } catch (MailStore.SetErrorException e) {
+                notDestroyed.add(id, setError(e.getType(), e.getProperty()));
+            }
+        }
+        final JsonObject response = new JsonObject();
+        response.addProperty("accountId", server.getAccountId());
+        response.addProperty("oldState", oldState);
+        response.addProperty("newState", String.valueOf(store.emailChanges.getState()));
+        response.add("created", created);
+        response.add("updated", updated);
+        response.add("destroyed", destroyed);
+        response.add("notCreated", notCreated);
+        response.add("notUpdated", notUpdated);
+        response.add("notDestroyed", notDestroyed);
+        return response;
+    }
+
+    private static JsonObject getObject(JsonObject arguments, String name) {
+        final JsonElement element = arguments.get(name);
+        return element == null || element.isJsonNull() ? new JsonObject() : element.getAsJsonObject();
+    }
+
+    private static Map<String, Object> toPatch(final JsonObject jsonObject) {
+        final Map<String, Object> patch = new HashMap<>();
+        for (Map.Entry<String, JsonElement> entry : jsonObject.entrySet()) {
+            final JsonElement value = entry.getValue();
+            if (value.isJsonNull()) {
+                patch.put(entry.getKey(), null);
+            } else if (value.isJsonObject()) {
+                patch.put(entry.getKey(), toPatch(value.getAsJsonObject()));
+            } else if (value.isJsonPrimitive() && value.getAsJsonPrimitive().isBoolean()) {
+                patch.put(entry.getKey(), value.getAsBoolean());
+            } else {
+                patch.put(entry.getKey(), value.toString());
+            }
+        }
+        return patch;
+    }
+
+    private static JsonObject setError(String type, String property) {
+        final JsonObject error = new JsonObject();
+        error.addProperty("type", type);
+        if (property != null) {
+            final JsonArray properties = new JsonArray();
+            properties.add(property);
+            error.add("properties", properties);
+        }
+        return error;
+    }
+
+    /**
+     * Replaces arguments prefixed with '#' by the value the result reference points to.
+     */
+    private static JsonObject resolveReferences(final JsonObject arguments, final JsonArray previousResponses) throws MethodException {
+        JsonObject resolved = null;
+        for (Map.Entry<String, JsonElement> entry : arguments.entrySet()) {
+            if (!entry.getKey().startsWith("#")) {
+                continue;
+            }
+            final String name = entry.getKey().substring(1);
+            if (arguments.has(name)) {
+                throw new MethodException("invalidArguments", "Both " + name + " and #" + name + " are present");
+            }
+            final JsonObject reference = entry.getValue().getAsJsonObject();
+            final String resultOf = reference.get("resultOf").getAsString();
+            final String methodName = reference.get("name").getAsString();
+            final String path = reference.get("path").getAsString();
+            JsonObject result = null;
+            for (JsonElement element : previousResponses) {
+                final JsonArray response = element.getAsJsonArray();
+                if (resultOf.equals(response.get(2).getAsString()) && methodName.equals(response.get(0).getAsString())) {
+                    result = response.get(1).getAsJsonObject();
+                }
+            }
+            if (result == null) {
+                throw new MethodException("invalidResultReference", "No response for " + methodName + " with id " + resultOf);
+            }
+            if (resolved == null) {
+                resolved = new JsonObject();
+            }
+            resolved.add(name, evaluate(result, path));
+        }
+        if (resolved == null) {
+            return arguments;
+        }
+        for (Map.Entry<String, JsonElement> entry : arguments.entrySet()) {
+            if (!entry.getKey().startsWith("#")) {
+                resolved.add(entry.getKey(), entry.getValue());
+            }
+        }
+        return resolved;
+    }
+
+    static JsonElement evaluate(final JsonElement element, final String path) throws MethodException {
+        if (path.isEmpty()) {
+            return element;
+        }
+        if (!path.startsWith("/")) {
+            throw new MethodException("invalidResultReference", "Invalid path " + path);
+        }
+        final String[] tokens = path.substring(1).split("/", -1);
+        for (int i = 0; i < tokens.length; ++i) {
+            tokens[i] = tokens[i].replace("~1", "/").replace("~0", "~");
+        }
+        return evaluate(element, tokens, 0, path);
+    }
+
+    /**
+     * Evaluates a JSON pointer with the '*' extension of RFC 8620 section 3.7: on an array, '*' applies the rest of
+     * the pointer to every item and flattens the results into a single array.
+     */
+    private static JsonElement evaluate(final JsonElement element, final String[] tokens, final int index, final String path) throws MethodException {
+        if (index == tokens.length) {
+            return element;
+        }
+        final String token = tokens[index];
+        if (element.isJsonArray()) {
+            final JsonArray array = element.getAsJsonArray();
+            if ("*".equals(token)) {
+                final JsonArray result = new JsonArray();
+                for (JsonElement item : array) {
+                    final JsonElement value = evaluate(item, tokens, index + 1, path);
+                    if (value.isJsonArray()) {
+                        result.addAll(value.getAsJsonArray());
+                    } else {
+                        result.add(value);
+                    }
+                }
+                return result;
+            }
+            try {
+                return evaluate(array.get(Integer.parseInt(token)), tokens, index + 1, path);
+            } catch (NumberFormatException | IndexOutOfBoundsException e) {
+                throw new MethodException("invalidResultReference", "Unable to resolve " + path);
+            }
+        }
+        if (element.isJsonObject() && element.getAsJsonObject().has(token)) {
+            return evaluate(element.getAsJsonObject().get(token), tokens, index + 1, path);
+        }
+        throw new MethodException("invalidResultReference", "Unable to resolve " + path);
+    }
+
+    private interface EntityLoader {
+        JsonObject load(String id);
+    }
+}
@@ -0,0 +1,385 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package rs.ltt.jmap.mock.server;
+
+import com.google.common.base.Preconditions;
+import rs.ltt.jmap.common.entity.Email;
+import rs.ltt.jmap.common.entity.EmailAddress;
+import rs.ltt.jmap.common.entity.Identity;
+import rs.ltt.jmap.common.entity.Mailbox;
+import rs.ltt.jmap.common.entity.Role;
+import rs.ltt.jmap.common.util.Patches;
+
+import java.util.*;
+
+/**
+ * The in-memory mailbox model behind {@link MockJmapServer}. Tests and benchmarks use it to seed data and to simulate
+ * changes made by other clients; the server serves it to the client under test. Entities are kept without their id
+ * (the builders of the common entities can not set one); the id is the key they are stored under. All methods are synchronized on the
+ * store, the server holds that lock for the duration of a request so every request is processed atomically.
+ */
+public class MailStore {
+
+    private static final Comparator<Email> RECEIVED_AT = new Comparator<Email>() {
+        @Override
+        public int compare(Email a, Email b) {
+            return compareNullable(a.getReceivedAt(), b.getReceivedAt());
+        }
+    };
+
+    private final Map<String, Mailbox> mailboxes = new LinkedHashMap<>();
+    private final Map<String, Email> emails = new LinkedHashMap<>();
+    private final Map<String, List<String>> threads = new HashMap<>();
+    private final Map<String, String> threadsByMessageId = new HashMap<>();
+    private final Map<String, Identity> identities = new LinkedHashMap<>();
+
+    final ChangeLog mailboxChanges = new ChangeLog();
+    final ChangeLog emailChanges = new ChangeLog();
+    final ChangeLog threadChanges = new ChangeLog();
+    final ChangeLog identityChanges = new ChangeLog();
+
+    private long nextId = 0;
+
+    private String nextId(char prefix) {
+        return prefix + String.valueOf(++nextId);
+    }
+
+    public synchronized String createMailbox(String name, Role role) {
+        final String id = nextId('M');
+        mailboxes.put(id, Mailbox.builder()
+                .name(name)
+                .role(role)
+                .isSubscribed(true)
+                .build());
+        mailboxChanges.created(id);
+        return id;
+    }
+
+    public synchronized String getMailbox(Role role) {
+        for (Map.Entry<String, Mailbox> entry : mailboxes.entrySet()) {
+            if (entry.getValue().getRole() == role) {
+                return entry.getKey();
+            }
+        }
+        return null;
+    }
+
+    public synchronized String addIdentity(String name, String email) {
+        final String id = nextId('I');
+        identities.put(id, Identity.builder()
+                .name(name)
+                .email(email)
+                .mayDelete(false)
+                .build());
+        identityChanges.created(id);
+        return id;
+    }
+
+    /**
+     * Adds the email to the store. Missing id, blobId, receivedAt and size are filled in. If the email has no threadId
+     * it joins the thread of the email it replies to (by In-Reply-To or References) or starts a new thread.
+     *
+     * @return the id of the email
+     */
+    public synchronized String addEmail(final Email email) {
+        Preconditions.checkArgument(email.getMailboxIds() != null && !email.getMailboxIds().isEmpty(), "Email needs to be in at least one mailbox");
+        for (String mailboxId : email.getMailboxIds().keySet()) {
+            Preconditions.checkArgument(mailboxes.containsKey(mailboxId), "Unknown mailbox " + mailboxId);
+        }
+        final String id = nextId('E');
+        String threadId = email.getThreadId();
+        if (threadId == null) {
+            threadId = findThread(email);
+        }
+        if (threadId == null) {
+            threadId = nextId('T');
+        }
+        final Email.EmailBuilder builder = email.toBuilder()
+                .threadId(threadId);
+        if (email.getBlobId() == null) {
+            builder.blobId("B" + id);
+        }
+        if (email.getReceivedAt() == null) {
+            builder.receivedAt(new Date());
+        }
+        if (email.getSize() == null) {
+            builder.size(email.getPreview() == null ? 0 : email.getPreview().length());
+        }
+        final Email stored = builder.build();
+        emails.put(id, stored);
+        emailChanges.created(id);
+        if (stored.getMessageId() != null) {
+            for (String messageId : stored.getMessageId()) {
+                threadsByMessageId.put(messageId, threadId);
+            }
+        }
+        List<String> thread = threads.get(threadId);
+        if (thread == null) {
+            thread = new ArrayList<>();
+            threads.put(threadId, thread);
+            threadChanges.created(threadId);
+        } else {
+            threadChanges.updated(threadId);
+        }
+        thread.add(id);
+        sortThread(thread);
+        mailboxesUpdated(stored.getMailboxIds().keySet());
+        return id;
+    }
+
+    private String findThread(Email email) {
+        final List<String> related = new ArrayList<>();
+        if (email.getInReplyTo() != null) {
+            related.addAll(email.getInReplyTo());
+        }
+        if (email.getReferences() != null) {
+            related.addAll(email.getReferences());
+        }
+        for (String messageId : related) {
+            final String threadId = threadsByMessageId.get(messageId);
+            if (threadId != null && threads.containsKey(threadId)) {
+                return threadId;
+            }
+        }
+        return null;
+    }
+
+    private void sortThread(List<String> thread) {
+        Collections.sort(thread, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                return RECEIVED_AT.compare(emails.get(a), emails.get(b));
+            }
+        });
+    }
+
+    /**
+     * Applies a patch (as created by {@link Patches}) to the keywords or mailboxIds of an email.
+     */
+    public synchronized void updateEmail(final String id, final Map<String, Object> patch) throws SetErrorException {
+        final Email email = emails.get(id);
+        if (email == null) {
+            throw new SetErrorException("notFound", null);
+        }
+        final Map<String, Boolean> keywords = new HashMap<>(nullToEmpty(email.getKeywords()));
+        final Map<String, Boolean> mailboxIds = new HashMap<>(nullToEmpty(email.getMailboxIds()));
+        for (Map.Entry<String, Object> entry : patch.entrySet()) {
+            final String path = entry.getKey();
+            final Object value = entry.getValue() instanceof Patches.Null ? null : entry.getValue();
+            final String[] parts = path.split("/", 2);
+            final Map<String, Boolean> target;
+            if ("keywords".equals(parts[0])) {
+                target = keywords;
+            } else if ("mailboxIds".equals(parts[0])) {
+                target = mailboxIds;
+            } else {
+                throw new SetErrorException("invalidProperties", path);
+            }
+            if (parts.length == 1) {
+                target.clear();
+                if (value instanceof Map) {
+                    for (Map.Entry<?, ?> item : ((Map<?, ?>) value).entrySet()) {
+                        if (Boolean.TRUE.equals(item.getValue())) {
+                            target.put(String.valueOf(item.getKey()), true);
+                        }
+                    }
+                } else if (value != null) {
+                    throw new SetErrorException("invalidProperties", path);
+                }
+            } else if (Boolean.TRUE.equals(value)) {
+                target.put(parts[1], true);
+            } else if (value == null || Boolean.FALSE.equals(value)) {
+                target.remove(parts[1]);
+            } else {
+                throw new SetErrorException("invalidProperties", path);
+            }
+        }
+        if (mailboxIds.isEmpty()) {
+            throw new SetErrorException("invalidProperties", "mailboxIds");
+        }
+        for (String mailboxId : mailboxIds.keySet()) {
+            if (!mailboxes.containsKey(mailboxId)) {
+                throw new SetErrorException("invalidProperties", "mailboxIds/" + mailboxId);
+            }
+        }
+        final Set<String> affectedMailboxes = new HashSet<>(email.getMailboxIds().keySet());
+        affectedMailboxes.addAll(mailboxIds.keySet());
+        emails.put(id, email.toBuilder()
+                .clearKeywords()
+                .keywords(keywords)
+                .clearMailboxIds()
+                .mailboxIds(mailboxIds)
+                .build());
+        emailChanges.updated(id);
+        mailboxesUpdated(affectedMailboxes);
+    }
+
+    public synchronized void destroyEmail(final String id) throws SetErrorException {
+        final Email email = emails.remove(id);
+        if (email == null) {
+            throw new SetErrorException("notFound", null);
+        }
+        emailChanges.destroyed(id);
+        final List<String> thread = threads.get(email.getThreadId());
+        thread.remove(id);
+        if (thread.isEmpty()) {
+            threads.remove(email.getThreadId());
+            threadChanges.destroyed(email.getThreadId());
+        } else {
+            threadChanges.updated(email.getThreadId());
+        }
+        mailboxesUpdated(email.getMailboxIds().keySet());
+    }
+
+    /**
+     * Fills the mailbox with threads of generated emails. Emails within a thread are one minute apart, threads one
+     * hour apart; the newest thread ends at the current time.
+     *
+     * @return the ids of the generated emails
+     */
+    public synchronized List<String> generateEmails(final String mailboxId, final int numThreads, final int emailsPerThread) {
+        final List<String> ids = new ArrayList<>();
+        final long now = System.currentTimeMillis();
+        for (int t = 0; t < numThreads; ++t) {
+            String threadId = null;
+            for (int e = 0; e < emailsPerThread; ++e) {
+                final long receivedAt = now - (numThreads - t) * 3_600_000L + e * 60_000L;
+                final String id = addEmail(Email.builder()
+                        .threadId(threadId)
+                        .mailboxId(mailboxId, true)
+                        .keyword("$seen", true)
+                        .receivedAt(new Date(receivedAt))
+                        .from(EmailAddress.builder().name("Sender " + t).email("sender" + t + "@example.com").build())
+                        .to(EmailAddress.builder().email("user@example.com").build())
+                        .subject((e > 0 ? "Re: " : "") + "Thread " + t)
+                        .preview("Email " + e + " of thread " + t)
+                        .build());
+                threadId = emails.get(id).getThreadId();
+                ids.add(id);
+            }
+        }
+        return ids;
+    }
+
+    private void mailboxesUpdated(Collection<String> ids) {
+        for (String id : ids) {
+            if (mailboxes.containsKey(id)) {
+                mailboxChanges.updated(id);
+            }
+        }
+    }
+
+    synchronized Set<String> getMailboxIds() {
+        return mailboxes.keySet();
+    }
+
+    synchronized Mailbox getMailboxWithCounts(String id) {
+        final Mailbox mailbox = mailboxes.get(id);
+        if (mailbox == null) {
+            return null;
+        }
+        int totalEmails = 0;
+        int unreadEmails = 0;
+        final Set<String> totalThreads = new HashSet<>();
+        final Set<String> unreadThreads = new HashSet<>();
+        for (Email email : emails.values()) {
+            if (!email.getMailboxIds().containsKey(id)) {
+                continue;
+            }
+            totalEmails++;
+            totalThreads.add(email.getThreadId());
+            if (!isSeen(email)) {
+                unreadEmails++;
+                unreadThreads.add(email.getThreadId());
+            }
+        }
+        return Mailbox.builder()
+                .name(mailbox.getName())
+                .parentId(mailbox.getParentId())
+                .role(mailbox.getRole())
+                .sortOrder(mailbox.getSortOrder())
+                .isSubscribed(mailbox.getIsSubscribed())
+                .totalEmails(totalEmails)
+                .unreadEmails(unreadEmails)
+                .totalThreads(totalThreads.size())
+                .unreadThreads(unreadThreads.size())
+                .build();
+    }
+
+    private static boolean isSeen(Email email) {
+        return email.getKeywords() != null && Boolean.TRUE.equals(email.getKeywords().get("$seen"));
+    }
+
+    synchronized Map<String, Email> getEmails() {
+        return emails;
+    }
+
+    synchronized Email getEmail(String id) {
+        return emails.get(id);
+    }
+
+    synchronized Set<String> getThreadIds() {
+        return threads.keySet();
+    }
+
+    synchronized List<String> getThread(String id) {
+        return threads.get(id);
+    }
+
+    synchronized Set<String> getIdentityIds() {
+        return identities.keySet();
+    }
+
+    synchronized Identity getIdentity(String id) {
+        return identities.get(id);
+    }
+
+    private static <K, V> Map<K, V> nullToEmpty(Map<K, V> map) {
+        return map == null ? Collections.<K, V>emptyMap() : map;
+    }
+
+    static <T extends Comparable<T>> int compareNullable(T a, T b) {
+        if (a == null) {
+            return b == null ? 0 : -1;
+        }
+        return b == null ? 1 : a.compareTo(b);
+    }
+
+    /**
+     * A SetError (RFC 8620 section 5.3) for a single object of a /set call.
+     */
+    public static class SetErrorException extends Exception {
+
+        private final String type;
+        private final String property;
+
+        public SetErrorException(String type, String property) {
+            super(type + (property == null ? "" : " (" + property + ")"));
+            this.type = type;
+            this.property = property;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public String getProperty() {
+            return property;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package rs.ltt.jmap.mock.server;
+
+/**
+ * A method level error (RFC 8620 section 3.6.2). Turned into an {@code error} response for the method call.
+ */
+class MethodException extends Exception {
+
+    private final String type;
+
+    MethodException(String type) {
+        this(type, null);
+    }
+
+    MethodException(String type, String description) {
+        super(description == null ? type : type + ": " + description);
+        this.type = type;
+    }
+
+    String getType() {
+        return type;
+    }
+
+    String getDescription() {
+        final String message = getMessage();
+        return message.equals(type) ? null : message.substring(type.length() + 2);
+    }
+}
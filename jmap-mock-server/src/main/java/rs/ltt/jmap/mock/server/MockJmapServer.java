@@ -0,0 +1,456 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package rs.ltt.jmap.mock.server;
+
+import com.google.common.base.Preconditions;
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gson.*;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rs.ltt.jmap.Namespace;
+import rs.ltt.jmap.gson.JmapAdapters;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An embeddable JMAP server backed by an in-memory {@link MailStore}. It implements Core/echo, Mailbox/get|changes,
+ * Email/get|query|queryChanges|changes|set, Thread/get|changes and Identity/get|changes for a single account and can
+ * simulate network latency, limited bandwidth and the limits of the core capability (for example small pages). Meant
+ * to exercise JmapClient and Mua in integration tests and benchmarks without a real server.
+ * <p>
+ * The server listens on the loopback interface and runs until {@link #close()} is called.
+ */
+public class MockJmapServer implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MockJmapServer.class);
+
+    private static final String SESSION_PATH = "/.well-known/jmap";
+    private static final String API_PATH = "/api/";
+    private static final String SESSION_STATE = "0";
+    private static final String CONTENT_TYPE = "application/json; charset=utf-8";
+
+    private final HttpServer httpServer;
+    private final ExecutorService executorService;
+    private final MailStore mailStore = new MailStore();
+    private final Gson gson;
+    private final JmapDispatcher dispatcher;
+
+    private final String accountId;
+    private final String username;
+    private final String password;
+    private final long latency;
+    private final long bytesPerSecond;
+    final int maxCallsInRequest;
+    final int maxObjectsInGet;
+    final int maxObjectsInSet;
+    final int maxQueryLimit;
+    final int maxChanges;
+
+    private final AtomicLong requestCount = new AtomicLong(0);
+    private final AtomicLong bytesSent = new AtomicLong(0);
+
+    private MockJmapServer(Builder builder) throws IOException {
+        this.accountId = builder.accountId;
+        this.username = builder.username;
+        this.password = builder.password;
+        this.latency = builder.latency;
+        this.bytesPerSecond = builder.bytesPerSecond;
+        this.maxCallsInRequest = builder.maxCallsInRequest;
+        this.maxObjectsInGet = builder.maxObjectsInGet;
+        this.maxObjectsInSet = builder.maxObjectsInSet;
+        this.maxQueryLimit = builder.maxQueryLimit;
+        this.maxChanges = builder.maxChanges;
+        final GsonBuilder gsonBuilder = new GsonBuilder();
+        JmapAdapters.register(gsonBuilder);
+        this.gson = gsonBuilder.create();
+        this.dispatcher = new JmapDispatcher(this, mailStore, gson);
+        this.httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), builder.port), 0);
+        //simulated latency blocks the handling thread; requests must not wait for each other
+        this.executorService = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+                .setNameFormat("mock-jmap-server-%d")
+                .setDaemon(true)
+                .build());
+        this.httpServer.setExecutor(executorService);
+        this.httpServer.createContext(SESSION_PATH, new SessionHandler());
+        this.httpServer.createContext(API_PATH, new ApiHandler());
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public MockJmapServer start() {
+        httpServer.start();
+        LOGGER.info("Mock JMAP server listening on {}", httpServer.getAddress());
+        return this;
+    }
+
+    @Override
+    public void close() {
+        httpServer.stop(0);
+        executorService.shutdownNow();
+    }
+
+    public MailStore getMailStore() {
+        return mailStore;
+    }
+
+    public String getAccountId() {
+        return accountId;
+    }
+
+    String getSessionState() {
+        return SESSION_STATE;
+    }
+
+    public URL getSessionResource() {
+        return url(SESSION_PATH);
+    }
+
+    /**
+     * @return the number of API requests (not method calls) that have been processed
+     */
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * @return the number of response bytes of API requests
+     */
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    private URL url(String path) {
+        final InetSocketAddress address = httpServer.getAddress();
+        try {
+            return new URL("http", address.getAddress().getHostAddress(), address.getPort(), path);
+        } catch (MalformedURLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private JsonObject getSession() {
+        final JsonObject core = new JsonObject();
+        core.addProperty("maxSizeUpload", 0);
+        core.addProperty("maxConcurrentUpload", 4);
+        core.addProperty("maxSizeRequest", 10_000_000);
+        core.addProperty("maxConcurrentRequests", 4);
+        core.addProperty("maxCallsInRequest", maxCallsInRequest);
+        core.addProperty("maxObjectsInGet", maxObjectsInGet);
+        core.addProperty("maxObjectsInSet", maxObjectsInSet);
+        core.add("collationAlgorithms", new JsonArray());
+        final JsonObject capabilities = new JsonObject();
+        capabilities.add(Namespace.CORE, core);
+        capabilities.add(Namespace.MAIL, new JsonObject());
+
+        final JsonObject accountCapabilities = new JsonObject();
+        accountCapabilities.add(Namespace.MAIL, new JsonObject());
+        final JsonObject account = new JsonObject();
+        account.addProperty("name", username);
+        account.addProperty("isPersonal", true);
+        account.addProperty("isReadOnly", false);
+        account.add("accountCapabilities", accountCapabilities);
+        final JsonObject accounts = new JsonObject();
+        accounts.add(accountId, account);
+        final JsonObject primaryAccounts = new JsonObject();
+        primaryAccounts.addProperty(Namespace.MAIL, accountId);
+
+        final JsonObject session = new JsonObject();
+        session.add("capabilities", capabilities);
+        session.add("accounts", accounts);
+        session.add("primaryAccounts", primaryAccounts);
+        session.addProperty("username", username);
+        session.addProperty("apiUrl", url(API_PATH).toString());
+        session.addProperty("state", SESSION_STATE);
+        return session;
+    }
+
+    private boolean isAuthorized(HttpExchange exchange) {
+        if (password == null) {
+            return true;
+        }
+        final String expected = "Basic " + BaseEncoding.base64().encode((username + ':' + password).getBytes(StandardCharsets.UTF_8));
+        return expected.equals(exchange.getRequestHeaders().getFirst("Authorization"));
+    }
+
+    private void delay() throws InterruptedIOException {
+        if (latency <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(latency);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    private void respond(HttpExchange exchange, int code, JsonElement body) throws IOException {
+        final byte[] bytes = gson.toJson(body).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+        exchange.sendResponseHeaders(code, bytes.length);
+        //counted up front; clients may look at the counter as soon as they have read the response
+        bytesSent.addAndGet(bytes.length);
+        final OutputStream outputStream = bytesPerSecond > 0 ? new ThrottledOutputStream(exchange.getResponseBody(), bytesPerSecond) : exchange.getResponseBody();
+        try (final OutputStream closeable = outputStream) {
+            closeable.write(bytes);
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int code) throws IOException {
+        exchange.sendResponseHeaders(code, -1);
+        exchange.close();
+    }
+
+    private class SessionHandler implements HttpHandler {
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                delay();
+                if (!"GET".equals(exchange.getRequestMethod())) {
+                    respond(exchange, 405);
+                } else if (!isAuthorized(exchange)) {
+                    respond(exchange, 401);
+                } else {
+                    respond(exchange, 200, getSession());
+                }
+            } finally {
+                exchange.close();
+            }
+        }
+    }
+
+    private class ApiHandler implements HttpHandler {
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                final long start = System.nanoTime();
+                if (!"POST".equals(exchange.getRequestMethod())) {
+                    respond(exchange, 405);
+                    return;
+                }
+                if (!isAuthorized(exchange)) {
+                    respond(exchange, 401);
+                    return;
+                }
+                final byte[] body;
+                try (final InputStream inputStream = exchange.getRequestBody()) {
+                    body = ByteStreams.toByteArray(inputStream);
+                }
+                if (bytesPerSecond > 0) {
+                    ThrottledOutputStream.pace(start, body.length, bytesPerSecond);
+                }
+                requestCount.incrementAndGet();
+                JsonObject response;
+                int code = 200;
+                try {
+                    final JsonElement request = gson.fromJson(new InputStreamReader(new ByteArrayInputStream(body), StandardCharsets.UTF_8), JsonElement.class);
+                    final String notRequest = checkRequest(request);
+                    if (notRequest != null) {
+                        code = 400;
+                        response = problem("urn:ietf:params:jmap:error:notRequest", notRequest);
+                    } else {
+                        response = dispatcher.dispatch(request.getAsJsonObject());
+                    }
+                } catch (RequestLimitException e) {
+                    code = 400;
+                    response = problem("urn:ietf:params:jmap:error:limit", e.getMessage());
+                    response.addProperty("limit", e.getLimit());
+                } catch (JsonParseException e) {
+                    code = 400;
+                    response = problem("urn:ietf:params:jmap:error:notRequest", e.getMessage());
+                } catch (RuntimeException e) {
+                    //a bug in the dispatcher; the request itself has been checked above
+                    LOGGER.error("Unable to dispatch request", e);
+                    respond(exchange, 500);
+                    return;
+                }
+                delay();
+                respond(exchange, code, response);
+            } catch (IOException | RuntimeException e) {
+                LOGGER.warn("Unable to process request", e);
+                throw e;
+            } finally {
+                exchange.close();
+            }
+        }
+    }
+
+    /**
+     * Checks the structure of a request (using and methodCalls with [name, arguments, id] invocations).
+     *
+     * @return why the request is not a request or null if it is one
+     */
+    private static String checkRequest(final JsonElement request) {
+        if (request == null || !request.isJsonObject()) {
+            return "Request is not a JSON object";
+        }
+        final JsonElement using = request.getAsJsonObject().get("using");
+        if (using == null || !using.isJsonArray()) {
+            return "Request has no using";
+        }
+        for (JsonElement capability : using.getAsJsonArray()) {
+            if (!capability.isJsonPrimitive() || !capability.getAsJsonPrimitive().isString()) {
+                return "using must only contain strings";
+            }
+        }
+        final JsonElement methodCalls = request.getAsJsonObject().get("methodCalls");
+        if (methodCalls == null || !methodCalls.isJsonArray()) {
+            return "Request has no methodCalls";
+        }
+        for (JsonElement element : methodCalls.getAsJsonArray()) {
+            if (!element.isJsonArray() || element.getAsJsonArray().size() != 3) {
+                return "Invocation must be an array of [name, arguments, id]";
+            }
+            final JsonArray invocation = element.getAsJsonArray();
+            if (!isString(invocation.get(0)) || !invocation.get(1).isJsonObject() || !isString(invocation.get(2))) {
+                return "Invocation must be an array of [name, arguments, id]";
+            }
+        }
+        return null;
+    }
+
+    private static boolean isString(final JsonElement element) {
+        return element.isJsonPrimitive() && element.getAsJsonPrimitive().isString();
+    }
+
+    private static JsonObject problem(String type, String detail) {
+        final JsonObject problem = new JsonObject();
+        problem.addProperty("type", type);
+        problem.addProperty("status", 400);
+        problem.addProperty("detail", detail);
+        return problem;
+    }
+
+    public static class Builder {
+        private int port = 0;
+        private String accountId = "account-1";
+        private String username = "user@example.com";
+        private String password = null;
+        private long latency = 0;
+        private long bytesPerSecond = 0;
+        private int maxCallsInRequest = 64;
+        private int maxObjectsInGet = 1000;
+        private int maxObjectsInSet = 1000;
+        private int maxQueryLimit = 256;
+        private int maxChanges = 1000;
+
+        private Builder() {
+
+        }
+
+        /**
+         * @param port the port to listen on; 0 (the default) picks a free port
+         */
+        public Builder port(int port) {
+            this.port = port;
+            return this;
+        }
+
+        public Builder accountId(String accountId) {
+            this.accountId = Preconditions.checkNotNull(accountId);
+            return this;
+        }
+
+        /**
+         * Requires HTTP Basic authentication with the given credentials. Without a password any (or no) credentials
+         * are accepted.
+         */
+        public Builder credentials(String username, String password) {
+            this.username = Preconditions.checkNotNull(username);
+            this.password = password;
+            return this;
+        }
+
+        /**
+         * Delays every response by the given time.
+         */
+        public Builder latency(long latency, TimeUnit unit) {
+            Preconditions.checkArgument(latency >= 0, "latency must not be negative");
+            this.latency = unit.toMillis(latency);
+            return this;
+        }
+
+        /**
+         * Limits reading request bodies and writing response bodies to the given rate. 0 (the default) means
+         * unlimited.
+         */
+        public Builder bandwidth(long bytesPerSecond) {
+            Preconditions.checkArgument(bytesPerSecond >= 0, "bandwidth must not be negative");
+            this.bytesPerSecond = bytesPerSecond;
+            return this;
+        }
+
+        public Builder maxCallsInRequest(int maxCallsInRequest) {
+            Preconditions.checkArgument(maxCallsInRequest > 0, "maxCallsInRequest must be positive");
+            this.maxCallsInRequest = maxCallsInRequest;
+            return this;
+        }
+
+        public Builder maxObjectsInGet(int maxObjectsInGet) {
+            Preconditions.checkArgument(maxObjectsInGet > 0, "maxObjectsInGet must be positive");
+            this.maxObjectsInGet = maxObjectsInGet;
+            return this;
+        }
+
+        public Builder maxObjectsInSet(int maxObjectsInSet) {
+            Preconditions.checkArgument(maxObjectsInSet > 0, "maxObjectsInSet must be positive");
+            this.maxObjectsInSet = maxObjectsInSet;
+            return this;
+        }
+
+        /**
+         * The largest page Email/query returns regardless of the limit the client asks for.
+         */
+        public Builder maxQueryLimit(int maxQueryLimit) {
+            Preconditions.checkArgument(maxQueryLimit > 0, "maxQueryLimit must be positive");
+            this.maxQueryLimit = maxQueryLimit;
+            return this;
+        }
+
+        /**
+         * The largest number of ids a /changes response contains before it sets hasMoreChanges.
+         */
+        public Builder maxChanges(int maxChanges) {
+            Preconditions.checkArgument(maxChanges > 0, "maxChanges must be positive");
+            this.maxChanges = maxChanges;
+            return this;
+        }
+
+        public MockJmapServer build() throws IOException {
+            return new MockJmapServer(this);
+        }
+    }
+}
@@ -14,24 +14,22 @@
  *
  */
 
-package rs.ltt.jmap.common;
 
-public final class Utils {
+package rs.ltt.jmap.mock.server;
 
-    private Utils() {
+/**
+ * A request level limit (RFC 8620 section 3.6.1) has been exceeded. The request is rejected as a whole.
+ */
+class RequestLimitException extends Exception {
 
-    }
+    private final String limit;
 
-    public static String getFilenameFor(Class clazz) {
-        return "META-INF/"+plural(clazz.getName());
+    RequestLimitException(String limit) {
+        super("Request exceeds " + limit);
+        this.limit = limit;
     }
 
-    private static String plural(String input) {
-        final char c = input.charAt(input.length() - 1);
-        if (c == 'y') {
-            return input.substring(0, input.length() - 1) + "ies";
-        } else {
-            return input + "s";
-        }
+    String getLimit() {
+        return limit;
     }
 }
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package rs.ltt.jmap.mock.server;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+/**
+ * Limits the rate at which bytes are written to the underlying stream. Writes are split into small chunks so the
+ * receiving side sees a steady stream instead of bursts.
+ */
+class ThrottledOutputStream extends FilterOutputStream {
+
+    private static final int CHUNK_SIZE = 8 * 1024;
+
+    private final long bytesPerSecond;
+    private final long start = System.nanoTime();
+    private long written = 0;
+
+    ThrottledOutputStream(OutputStream outputStream, long bytesPerSecond) {
+        super(outputStream);
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        while (length > 0) {
+            final int chunk = Math.min(CHUNK_SIZE, length);
+            out.write(bytes, offset, chunk);
+            written += chunk;
+            offset += chunk;
+            length -= chunk;
+            pace(start, written, bytesPerSecond);
+        }
+    }
+
+    /**
+     * Sleeps until transferring the given number of bytes since start would have been possible at the given rate.
+     */
+    static void pace(final long start, final long bytes, final long bytesPerSecond) throws InterruptedIOException {
+        final long due = start + bytes * 1_000_000_000L / bytesPerSecond;
+        final long remaining = due - System.nanoTime();
+        if (remaining <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(remaining / 1_000_000L, (int) (remaining % 1_000_000L));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+}
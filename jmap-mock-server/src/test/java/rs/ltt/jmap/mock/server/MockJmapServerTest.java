@@ -0,0 +1,213 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package rs.ltt.jmap.mock.server;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import rs.ltt.jmap.client.JmapClient;
+import rs.ltt.jmap.client.MethodResponses;
+import rs.ltt.jmap.client.http.BasicAuthHttpAuthentication;
+import rs.ltt.jmap.client.metrics.MetricsListener;
+import rs.ltt.jmap.client.metrics.RequestMetrics;
+import rs.ltt.jmap.common.entity.Email;
+import rs.ltt.jmap.common.entity.Role;
+import rs.ltt.jmap.common.entity.filter.EmailFilterCondition;
+import rs.ltt.jmap.common.entity.query.EmailQuery;
+import rs.ltt.jmap.common.method.call.email.ChangesEmailMethodCall;
+import rs.ltt.jmap.common.method.call.email.GetEmailMethodCall;
+import rs.ltt.jmap.common.method.call.email.QueryEmailMethodCall;
+import rs.ltt.jmap.common.method.call.mailbox.GetMailboxMethodCall;
+import rs.ltt.jmap.common.method.response.email.ChangesEmailMethodResponse;
+import rs.ltt.jmap.common.method.response.email.GetEmailMethodResponse;
+import rs.ltt.jmap.common.method.response.email.QueryEmailMethodResponse;
+import rs.ltt.jmap.common.method.response.mailbox.GetMailboxMethodResponse;
+import rs.ltt.jmap.mua.Mua;
+import rs.ltt.jmap.mua.Status;
+import rs.ltt.jmap.mua.cache.InMemoryCache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+public class MockJmapServerTest {
+
+    private MockJmapServer server;
+    private String inbox;
+
+    @Before
+    public void start() throws IOException {
+        server = MockJmapServer.builder()
+                .credentials("user@example.com", "secret")
+                .maxQueryLimit(20)
+                .maxChanges(10)
+                .build()
+                .start();
+        inbox = server.getMailStore().createMailbox("Inbox", Role.INBOX);
+        server.getMailStore().generateEmails(inbox, 10, 3);
+    }
+
+    @After
+    public void stop() {
+        server.close();
+    }
+
+    @Test
+    public void muaSynchronizesQuery() throws Exception {
+        final InMemoryCache cache = new InMemoryCache();
+        final Mua mua = Mua.builder()
+                .username("user@example.com")
+                .password("secret")
+                .sessionResource(server.getSessionResource())
+                .sessionCache(null)
+                .cache(cache)
+                .build();
+        try {
+            final EmailQuery query = EmailQuery.of(EmailFilterCondition.builder().inMailbox(inbox).build(), true);
+            Assert.assertEquals(Status.UPDATED, mua.refreshMailboxes().get());
+            Assert.assertEquals(Status.UPDATED, mua.query(query).get());
+            Assert.assertEquals(Status.UNCHANGED, mua.query(query).get());
+
+            server.getMailStore().addEmail(Email.builder()
+                    .mailboxId(inbox, true)
+                    .subject("New thread")
+                    .receivedAt(new Date())
+                    .build());
+            Assert.assertEquals(Status.UPDATED, mua.query(query).get());
+            Assert.assertEquals(Status.UNCHANGED, mua.query(query).get());
+        } finally {
+            mua.shutdown();
+        }
+    }
+
+    @Test
+    public void queryIsLimitedToMaxQueryLimit() throws Exception {
+        final JmapClient client = new JmapClient(new BasicAuthHttpAuthentication("user@example.com", "secret"), server.getSessionResource());
+        try {
+            final QueryEmailMethodResponse response = client.call(new QueryEmailMethodCall(EmailQuery.unfiltered(), 100))
+                    .get()
+                    .getMain(QueryEmailMethodResponse.class);
+            Assert.assertEquals(20, response.getIds().length);
+            Assert.assertEquals(Integer.valueOf(20), response.getLimit());
+        } finally {
+            client.shutdown();
+        }
+    }
+
+    @Test
+    public void changesArePaged() throws Exception {
+        final JmapClient client = new JmapClient(new BasicAuthHttpAuthentication("user@example.com", "secret"), server.getSessionResource());
+        try {
+            String state = "0";
+            int created = 0;
+            int pages = 0;
+            ChangesEmailMethodResponse response;
+            do {
+                response = client.call(new ChangesEmailMethodCall(state))
+                        .get()
+                        .getMain(ChangesEmailMethodResponse.class);
+                created += response.getCreated().length;
+                state = response.getNewState();
+                pages++;
+            } while (response.isHasMoreChanges());
+            Assert.assertEquals(30, created);
+            Assert.assertEquals(3, pages);
+        } finally {
+            client.shutdown();
+        }
+    }
+
+    @Test
+    public void metricsAreReported() throws Exception {
+        final BlockingQueue<RequestMetrics> reported = new ArrayBlockingQueue<>(1);
+        final JmapClient client = new JmapClient(new BasicAuthHttpAuthentication("user@example.com", "secret"), server.getSessionResource());
+        client.setMetricsListener(new MetricsListener() {
+            @Override
+            public void onRequestCompleted(RequestMetrics requestMetrics) {
+                reported.add(requestMetrics);
+            }
+        });
+        try {
+            client.getBaseUrl().get();
+            final long sessionBytes = server.getBytesSent();
+            client.call(new QueryEmailMethodCall(EmailQuery.unfiltered(), 10)).get();
+            final RequestMetrics metrics = reported.poll(5, TimeUnit.SECONDS);
+            Assert.assertNotNull(metrics);
+            Assert.assertTrue(metrics.isSuccessful());
+            Assert.assertEquals(1, metrics.getMethodCalls().size());
+            Assert.assertEquals("Email/query", metrics.getMethodCalls().get(0).getName());
+            Assert.assertEquals(server.getBytesSent() - sessionBytes, metrics.getBytesReceived());
+            Assert.assertTrue(metrics.getBytesSent() > 0);
+            Assert.assertTrue(metrics.getTimeToFirstByte() >= 0);
+            Assert.assertTrue(metrics.getParseTime() >= 0);
+            Assert.assertTrue(metrics.getTotalTime() >= metrics.getTimeToFirstByte());
+        } finally {
+            client.shutdown();
+        }
+    }
+
+    @Test
+    public void multiCallIsBoundInParallel() throws Exception {
+        final ForkJoinPool pool = new ForkJoinPool(2);
+        final JmapClient client = new JmapClient(new BasicAuthHttpAuthentication("user@example.com", "secret"), server.getSessionResource());
+        client.setParallelDeserialization(pool, 0);
+        try {
+            final String[] ids = client.call(new QueryEmailMethodCall(EmailQuery.unfiltered(), 10))
+                    .get()
+                    .getMain(QueryEmailMethodResponse.class)
+                    .getIds();
+            final JmapClient.MultiCall multiCall = client.newMultiCall();
+            final ListenableFuture<MethodResponses> mailboxes = multiCall.call(new GetMailboxMethodCall());
+            final ListenableFuture<MethodResponses> emails = multiCall.call(new GetEmailMethodCall(ids));
+            multiCall.execute();
+            Assert.assertEquals(1, mailboxes.get().getMain(GetMailboxMethodResponse.class).getList().length);
+            Assert.assertEquals(ids.length, emails.get().getMain(GetEmailMethodResponse.class).getList().length);
+        } finally {
+            client.shutdown();
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void malformedRequestIsNotRequest() throws Exception {
+        final URL apiUrl = new URL(server.getSessionResource(), "/api/");
+        final HttpURLConnection connection = (HttpURLConnection) apiUrl.openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        new BasicAuthHttpAuthentication("user@example.com", "secret").authenticate(connection);
+        try (final OutputStream outputStream = connection.getOutputStream()) {
+            outputStream.write("{\"methodCalls\":[[\"Core/echo\",{}]]}".getBytes(StandardCharsets.UTF_8));
+        }
+        Assert.assertEquals(400, connection.getResponseCode());
+        try (final InputStream inputStream = connection.getErrorStream()) {
+            final String problem = new String(ByteStreams.toByteArray(inputStream), StandardCharsets.UTF_8);
+            Assert.assertTrue(problem, problem.contains("urn:ietf:params:jmap:error:notRequest"));
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package rs.ltt.jmap.mock.server;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import rs.ltt.jmap.common.entity.Email;
+import rs.ltt.jmap.common.entity.IdentifiableMailboxWithRole;
+import rs.ltt.jmap.common.entity.Keyword;
+import rs.ltt.jmap.common.entity.Role;
+import rs.ltt.jmap.common.entity.filter.EmailFilterCondition;
+import rs.ltt.jmap.common.entity.query.EmailQuery;
+import rs.ltt.jmap.mua.Mua;
+import rs.ltt.jmap.mua.cache.InMemoryCache;
+import rs.ltt.jmap.mua.jfr.CacheWriteEvent;
+import rs.ltt.jmap.mua.jfr.MuaEvents;
+import rs.ltt.jmap.mua.jfr.OperationEvent;
+import rs.ltt.jmap.mua.util.MailboxUtil;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+public class MuaOperationEventTest {
+
+    private final BlockingQueue<String> committed = new LinkedBlockingQueue<>();
+    private final InMemoryCache cache = new InMemoryCache();
+
+    private MockJmapServer server;
+    private String inbox;
+    private List<Email> emails;
+    private Mua mua;
+
+    @Before
+    public void start() throws IOException {
+        server = MockJmapServer.builder()
+                .credentials("user@example.com", "secret")
+                .build()
+                .start();
+        inbox = server.getMailStore().createMailbox("Inbox", Role.INBOX);
+        server.getMailStore().createMailbox("Drafts", Role.DRAFTS);
+        server.getMailStore().createMailbox("Trash", Role.TRASH);
+        server.getMailStore().createMailbox("Archive", Role.ARCHIVE);
+        server.getMailStore().addIdentity("User", "user@example.com");
+        emails = new ArrayList<>();
+        for (String id : server.getMailStore().generateEmails(inbox, 2, 2)) {
+            emails.add(server.getMailStore().getEmail(id));
+        }
+        mua = Mua.builder()
+                .username("user@example.com")
+                .password("secret")
+                .sessionResource(server.getSessionResource())
+                .sessionCache(null)
+                .cache(cache)
+                .events(new MuaEvents() {
+                    @Override
+                    public OperationEvent beginOperation(final String operation, String query, int count) {
+                        return new OperationEvent() {
+                            @Override
+                            public void commit(Object result, String error) {
+                                committed.add(operation);
+                            }
+                        };
+                    }
+
+                    @Override
+                    public CacheWriteEvent beginCacheWrite(String method, String query) {
+                        return CacheWriteEvent.NONE;
+                    }
+                })
+                .build();
+    }
+
+    @After
+    public void stop() {
+        mua.shutdown();
+        server.close();
+    }
+
+    /**
+     * @return the operations that have been committed while the given operation ran. Failed operations are recorded
+     * as well, so the outcome of the operation does not matter.
+     */
+    private List<String> operations(final ListenableFuture<?> future) throws Exception {
+        try {
+            future.get(10, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            //recorded with an error
+        }
+        final List<String> operations = new ArrayList<>();
+        //events are committed by a listener of the future that may run after get() has returned
+        String operation = committed.poll(5, TimeUnit.SECONDS);
+        while (operation != null) {
+            operations.add(operation);
+            operation = committed.poll(200, TimeUnit.MILLISECONDS);
+        }
+        return operations;
+    }
+
+    private void assertOneEvent(final String operation, final ListenableFuture<?> future) throws Exception {
+        Assert.assertEquals(Collections.singletonList(operation), operations(future));
+    }
+
+    private IdentifiableMailboxWithRole mailbox(final Role role) throws Exception {
+        return MailboxUtil.find(cache.getSpecialMailboxes(), role);
+    }
+
+    @Test
+    public void refreshOperations() throws Exception {
+        assertOneEvent("refreshMailboxes", mua.refreshMailboxes());
+        assertOneEvent("refreshIdentities", mua.refreshIdentities());
+        assertOneEvent("refresh", mua.refresh());
+    }
+
+    @Test
+    public void queryRecordsFetchMissingSeparately() throws Exception {
+        assertOneEvent("refreshMailboxes", mua.refreshMailboxes());
+        final EmailQuery query = EmailQuery.of(EmailFilterCondition.builder().inMailbox(inbox).build(), true);
+        final List<String> initial = operations(mua.query(query));
+        Assert.assertEquals(initial.toString(), 1, Collections.frequency(initial, "query"));
+        for (String operation : initial) {
+            Assert.assertTrue(initial.toString(), "query".equals(operation) || "fetchMissing".equals(operation));
+        }
+        final List<String> unchanged = operations(mua.query(query));
+        Assert.assertEquals(unchanged.toString(), 1, Collections.frequency(unchanged, "query"));
+    }
+
+    @Test
+    public void keywordOperations() throws Exception {
+        assertOneEvent("setKeyword", mua.setKeyword(emails, Keyword.FLAGGED));
+        assertOneEvent("removeKeyword", mua.removeKeyword(emails, Keyword.FLAGGED));
+    }
+
+    @Test
+    public void overloadsRecordOneEvent() throws Exception {
+        assertOneEvent("refreshMailboxes", mua.refreshMailboxes());
+        final Collection<Email> thread = emails.subList(0, 2);
+        assertOneEvent("draft", mua.draft(Email.builder().subject("first").build()));
+        assertOneEvent("draft", mua.draft(Email.builder().subject("second").build(), mailbox(Role.DRAFTS)));
+        assertOneEvent("moveToTrash", mua.moveToTrash(thread));
+        assertOneEvent("moveToTrash", mua.moveToTrash(thread, mailbox(Role.TRASH)));
+        assertOneEvent("moveToInbox", mua.moveToInbox(thread));
+        assertOneEvent("archive", mua.archive(thread));
+        assertOneEvent("removeFromMailbox", mua.removeFromMailbox(thread, inbox));
+        assertOneEvent("emptyTrash", mua.emptyTrash());
+        assertOneEvent("emptyTrash", mua.emptyTrash(mailbox(Role.TRASH)));
+    }
+}
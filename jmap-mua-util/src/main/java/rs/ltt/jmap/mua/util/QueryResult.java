@@ -23,8 +23,10 @@ import com.google.common.collect.ImmutableMap;
 import org.checkerframework.checker.nullness.compatqual.NonNullDecl;
 import rs.ltt.jmap.common.entity.AddedItem;
 import rs.ltt.jmap.common.entity.Email;
+import rs.ltt.jmap.common.entity.IdentifiableEmailWithThreadId;
 import rs.ltt.jmap.common.entity.TypedState;
 import rs.ltt.jmap.common.method.response.email.GetEmailMethodResponse;
+import rs.ltt.jmap.common.method.response.email.GetEmailThreadIdsMethodResponse;
 import rs.ltt.jmap.common.method.response.email.QueryChangesEmailMethodResponse;
 import rs.ltt.jmap.common.method.response.email.QueryEmailMethodResponse;
 
@@ -46,28 +48,44 @@ public class QueryResult {
 
 
     public static QueryResult of(QueryEmailMethodResponse queryEmailMethodResponse, GetEmailMethodResponse emailMethodResponse) {
+        return of(queryEmailMethodResponse, emailMethodResponse.getList(), emailMethodResponse.getTypedState());
+    }
+
+    public static QueryResult of(QueryEmailMethodResponse queryEmailMethodResponse, GetEmailThreadIdsMethodResponse emailMethodResponse) {
+        return of(queryEmailMethodResponse, emailMethodResponse.getList(), emailMethodResponse.getTypedEmailState());
+    }
+
+    private static QueryResult of(QueryEmailMethodResponse queryEmailMethodResponse, IdentifiableEmailWithThreadId[] emails, TypedState<Email> objectState) {
         final String[] emailIds = queryEmailMethodResponse.getIds();
         final QueryResultItem[] resultItems = new QueryResultItem[emailIds.length];
-        final ImmutableMap<String, String> emailIdToThreadIdMap = map(emailMethodResponse);
+        final ImmutableMap<String, String> emailIdToThreadIdMap = map(emails);
         for (int i = 0; i < emailIds.length; ++i) {
             final String emailId = emailIds[i];
             resultItems[i] = QueryResultItem.of(emailId, emailIdToThreadIdMap.get(emailId));
         }
-        return new QueryResult(resultItems, queryEmailMethodResponse.getPosition(), queryEmailMethodResponse.getTypedQueryState(), emailMethodResponse.getTypedState());
+        return new QueryResult(resultItems, queryEmailMethodResponse.getPosition(), queryEmailMethodResponse.getTypedQueryState(), objectState);
     }
 
-    private static ImmutableMap<String, String> map(GetEmailMethodResponse emailMethodResponse) {
+    private static ImmutableMap<String, String> map(IdentifiableEmailWithThreadId[] emails) {
         ImmutableMap.Builder<String, String> builder = new ImmutableMap.Builder<>();
-        for (Email email : emailMethodResponse.getList()) {
+        for (IdentifiableEmailWithThreadId email : emails) {
             builder.put(email.getId(), email.getThreadId());
         }
         return builder.build();
     }
 
     public static List<AddedItem<QueryResultItem>> of(QueryChangesEmailMethodResponse queryChangesEmailMethodResponse, GetEmailMethodResponse emailMethodResponse) {
+        return of(queryChangesEmailMethodResponse, emailMethodResponse.getList());
+    }
+
+    public static List<AddedItem<QueryResultItem>> of(QueryChangesEmailMethodResponse queryChangesEmailMethodResponse, GetEmailThreadIdsMethodResponse emailMethodResponse) {
+        return of(queryChangesEmailMethodResponse, emailMethodResponse.getList());
+    }
+
+    private static List<AddedItem<QueryResultItem>> of(QueryChangesEmailMethodResponse queryChangesEmailMethodResponse, IdentifiableEmailWithThreadId[] emails) {
         final List<AddedItem<String>> addedEmailIdItems = queryChangesEmailMethodResponse.getAdded();
         ImmutableList.Builder<AddedItem<QueryResultItem>> builder = new ImmutableList.Builder<>();
-        final ImmutableMap<String, String> emailIdToThreadIdMap = map(emailMethodResponse);
+        final ImmutableMap<String, String> emailIdToThreadIdMap = map(emails);
         for (AddedItem<String> addedItem : addedEmailIdItems) {
             String emailId = addedItem.getItem();
             builder.add(AddedItem.of(QueryResultItem.of(emailId, emailIdToThreadIdMap.get(emailId)), addedItem.getIndex()));
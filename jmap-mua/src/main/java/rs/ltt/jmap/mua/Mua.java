@@ -28,11 +28,17 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import rs.ltt.jmap.client.JmapClient;
 import rs.ltt.jmap.client.MethodResponses;
+import rs.ltt.jmap.client.blob.BlobClient;
+import rs.ltt.jmap.client.event.EventSource;
+import rs.ltt.jmap.client.event.EventSourceListener;
+import rs.ltt.jmap.client.http.BasicAuthHttpAuthentication;
+import rs.ltt.jmap.client.jfr.FlightRecorderSupport;
 import rs.ltt.jmap.client.session.SessionCache;
 import rs.ltt.jmap.client.session.SessionFileCache;
 import rs.ltt.jmap.common.Request;
 import rs.ltt.jmap.common.entity.Thread;
 import rs.ltt.jmap.common.entity.*;
+import rs.ltt.jmap.common.entity.capability.MailCapability;
 import rs.ltt.jmap.common.entity.filter.EmailFilterCondition;
 import rs.ltt.jmap.common.entity.filter.Filter;
 import rs.ltt.jmap.common.entity.query.EmailQuery;
@@ -55,28 +61,83 @@ import rs.ltt.jmap.common.method.response.submission.SetEmailSubmissionMethodRes
 import rs.ltt.jmap.common.method.response.thread.ChangesThreadMethodResponse;
 import rs.ltt.jmap.common.method.response.thread.GetThreadMethodResponse;
 import rs.ltt.jmap.common.util.Patches;
+import rs.ltt.jmap.common.util.Projections;
+import rs.ltt.jmap.mua.blob.DiskBlobCache;
 import rs.ltt.jmap.mua.cache.*;
+import rs.ltt.jmap.mua.jfr.MuaEvents;
+import rs.ltt.jmap.mua.jfr.OperationEvent;
+import rs.ltt.jmap.mua.jfr.RecordingCache;
 import rs.ltt.jmap.mua.util.*;
 
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 public class Mua {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(Mua.class);
+    //query calls only fetch the threadId of new emails. Registered per MultiCall so that users of getJmapClient() keep
+    //getting full Email/get responses
+    private static final Projections THREAD_ID_PROJECTIONS = new Projections();
+
+    static {
+        THREAD_ID_PROJECTIONS.register(GetEmailMethodResponse.class, GetEmailThreadIdsMethodResponse.class, "threadId");
+    }
+
+    private static final MuaEvents MUA_EVENTS = FlightRecorderSupport.load(MuaEvents.class, "rs.ltt.jmap.mua.jfr.JfrMuaEvents", MuaEvents.NONE);
     private final JmapClient jmapClient;
+    private final MuaEvents muaEvents;
     private final Cache cache;
     private Integer queryPageSize = null;
-    private ListeningExecutorService ioExecutorService = MoreExecutors.listeningDecorator(Executors.newSingleThreadExecutor());
+    private final ExecutorService ownedExecutorService;
+    private final Executor ioExecutorService;
+    private DiskBlobCache blobCache = null;
 
-    private Mua(JmapClient jmapClient, Cache cache) {
+    private Mua(JmapClient jmapClient, Cache cache, ExecutorService executorService, MuaEvents muaEvents) {
         this.jmapClient = jmapClient;
-        this.cache = cache;
+        this.muaEvents = muaEvents;
+        this.cache = muaEvents == MuaEvents.NONE ? cache : new RecordingCache(cache, muaEvents);
+        if (executorService == null) {
+            this.ownedExecutorService = Executors.newSingleThreadExecutor();
+            this.ioExecutorService = this.ownedExecutorService;
+        } else {
+            //cache access must stay ordered even if the executor is a shared pool
+            this.ownedExecutorService = null;
+            this.ioExecutorService = MoreExecutors.newSequentialExecutor(executorService);
+        }
+    }
+
+    private <V> ListenableFuture<V> submit(Callable<V> callable) {
+        final ListenableFutureTask<V> task = ListenableFutureTask.create(callable);
+        ioExecutorService.execute(task);
+        return task;
+    }
+
+    private static <V> ListenableFuture<V> record(final OperationEvent event, final ListenableFuture<V> future) {
+        if (event == OperationEvent.NONE) {
+            return future;
+        }
+        Futures.addCallback(future, new FutureCallback<V>() {
+            @Override
+            public void onSuccess(@NullableDecl V result) {
+                event.commit(result, null);
+            }
+
+            @Override
+            public void onFailure(@NonNullDecl Throwable throwable) {
+                event.commit(null, throwable.getClass().getSimpleName());
+            }
+        }, MoreExecutors.directExecutor());
+        return future;
     }
 
     public static Builder builder() {
@@ -87,19 +148,26 @@ public class Mua {
         return jmapClient;
     }
 
+    /**
+     * Shuts down the executors created by this Mua. Executors that have been passed to the {@link Builder} are left
+     * alone.
+     */
     public void shutdown() {
-        ioExecutorService.shutdown();
-        jmapClient.getExecutorService().shutdown();
+        if (ownedExecutorService != null) {
+            ownedExecutorService.shutdown();
+        }
+        jmapClient.shutdown();
     }
 
     public ListenableFuture<Status> refreshIdentities() {
-        final ListenableFuture<String> identityStateFuture = ioExecutorService.submit(new Callable<String>() {
+        final OperationEvent event = muaEvents.beginOperation("refreshIdentities", null, 0);
+        final ListenableFuture<String> identityStateFuture = submit(new Callable<String>() {
             @Override
             public String call() throws Exception {
                 return cache.getIdentityState();
             }
         });
-        return Futures.transformAsync(identityStateFuture, new AsyncFunction<String, Status>() {
+        return record(event, Futures.transformAsync(identityStateFuture, new AsyncFunction<String, Status>() {
             @Override
             public ListenableFuture<Status> apply(@NullableDecl final String state) throws Exception {
                 if (state == null) {
@@ -108,7 +176,7 @@ public class Mua {
                     return updateIdentities(state);
                 }
             }
-        }, MoreExecutors.directExecutor());
+        }, MoreExecutors.directExecutor()));
     }
 
     private ListenableFuture<Status> loadIdentities() {
@@ -179,14 +247,15 @@ public class Mua {
     }
 
     public ListenableFuture<Status> refreshMailboxes() {
-        final ListenableFuture<String> mailboxStateFuture = ioExecutorService.submit(new Callable<String>() {
+        final OperationEvent event = muaEvents.beginOperation("refreshMailboxes", null, 0);
+        final ListenableFuture<String> mailboxStateFuture = submit(new Callable<String>() {
             @Override
             public String call() {
                 return cache.getMailboxState();
             }
         });
 
-        return Futures.transformAsync(mailboxStateFuture, new AsyncFunction<String, Status>() {
+        return record(event, Futures.transformAsync(mailboxStateFuture, new AsyncFunction<String, Status>() {
             @Override
             public ListenableFuture<Status> apply(@NullableDecl final String state) throws Exception {
                 if (state == null) {
@@ -195,7 +264,7 @@ public class Mua {
                     return updateMailboxes(state);
                 }
             }
-        }, MoreExecutors.directExecutor());
+        }, MoreExecutors.directExecutor()));
     }
 
     private ListenableFuture<Status> loadMailboxes() {
@@ -264,16 +333,17 @@ public class Mua {
      * @return
      */
     public ListenableFuture<Boolean> draft(final Email email) {
-        return Futures.transformAsync(getMailboxes(), new AsyncFunction<Collection<? extends IdentifiableMailboxWithRole>, Boolean>() {
+        final OperationEvent event = muaEvents.beginOperation("draft", null, 1);
+        return record(event, Futures.transformAsync(getMailboxes(), new AsyncFunction<Collection<? extends IdentifiableMailboxWithRole>, Boolean>() {
             @Override
             public ListenableFuture<Boolean> apply(@NullableDecl Collection<? extends IdentifiableMailboxWithRole> mailboxes) {
-                return draft(email, MailboxUtil.find(mailboxes, Role.DRAFTS));
+                return executeDraft(email, MailboxUtil.find(mailboxes, Role.DRAFTS));
             }
-        }, MoreExecutors.directExecutor());
+        }, MoreExecutors.directExecutor()));
     }
 
     private ListenableFuture<Collection<? extends IdentifiableMailboxWithRole>> getMailboxes() {
-        return ioExecutorService.submit(new Callable<Collection<? extends IdentifiableMailboxWithRole>>() {
+        return submit(new Callable<Collection<? extends IdentifiableMailboxWithRole>>() {
             @Override
             public Collection<? extends IdentifiableMailboxWithRole> call() throws Exception {
                 return cache.getSpecialMailboxes();
@@ -292,6 +362,11 @@ public class Mua {
      * @return
      */
     public ListenableFuture<Boolean> draft(final Email email, final IdentifiableMailboxWithRole drafts) {
+        final OperationEvent event = muaEvents.beginOperation("draft", null, 1);
+        return record(event, executeDraft(email, drafts));
+    }
+
+    private ListenableFuture<Boolean> executeDraft(final Email email, final IdentifiableMailboxWithRole drafts) {
         final JmapClient.MultiCall multiCall = jmapClient.newMultiCall();
         final ListenableFuture<Boolean> future = draft(email, drafts, multiCall);
         multiCall.execute();
@@ -333,7 +408,8 @@ public class Mua {
     }
 
     public ListenableFuture<Boolean> submit(final Email email, final Identity identity) {
-        return Futures.transformAsync(getMailboxes(), new AsyncFunction<Collection<? extends IdentifiableMailboxWithRole>, Boolean>() {
+        final OperationEvent event = muaEvents.beginOperation("submit", null, 1);
+        return record(event, Futures.transformAsync(getMailboxes(), new AsyncFunction<Collection<? extends IdentifiableMailboxWithRole>, Boolean>() {
             @Override
             public ListenableFuture<Boolean> apply(@NullableDecl Collection<? extends IdentifiableMailboxWithRole> mailboxes) {
                 Preconditions.checkNotNull(mailboxes, "SpecialMailboxes collection must not be null but can be empty");
@@ -345,9 +421,9 @@ public class Mua {
                     draftMailboxId = drafts.getId();
                 }
                 final IdentifiableMailboxWithRole sent = MailboxUtil.find(mailboxes, Role.SENT);
-                return submit(email.getId(), identity, draftMailboxId, sent);
+                return executeSubmit(email.getId(), identity, draftMailboxId, sent);
             }
-        }, MoreExecutors.directExecutor());
+        }, MoreExecutors.directExecutor()));
     }
 
     /**
@@ -366,6 +442,11 @@ public class Mua {
      * @return
      */
     public ListenableFuture<Boolean> submit(final String emailId, final Identity identity, @NullableDecl String draftMailboxId, final IdentifiableMailboxWithRole sent) {
+        final OperationEvent event = muaEvents.beginOperation("submit", null, 1);
+        return record(event, executeSubmit(emailId, identity, draftMailboxId, sent));
+    }
+
+    private ListenableFuture<Boolean> executeSubmit(final String emailId, final Identity identity, @NullableDecl String draftMailboxId, final IdentifiableMailboxWithRole sent) {
         final JmapClient.MultiCall multiCall = jmapClient.newMultiCall();
         final ListenableFuture<Boolean> future = submit(emailId, identity, draftMailboxId, sent, multiCall);
         multiCall.execute();
@@ -419,19 +500,21 @@ public class Mua {
      * @return
      */
     public ListenableFuture<Boolean> submit(final String emailId, final Identity identity) {
-        return Futures.transformAsync(getMailboxes(), new AsyncFunction<Collection<? extends IdentifiableMailboxWithRole>, Boolean>() {
+        final OperationEvent event = muaEvents.beginOperation("submit", null, 1);
+        return record(event, Futures.transformAsync(getMailboxes(), new AsyncFunction<Collection<? extends IdentifiableMailboxWithRole>, Boolean>() {
             @Override
             public ListenableFuture<Boolean> apply(@NullableDecl Collection<? extends IdentifiableMailboxWithRole> mailboxes) {
                 Preconditions.checkNotNull(mailboxes, "SpecialMailboxes collection must not be null but can be empty");
                 final IdentifiableMailboxWithRole drafts = MailboxUtil.find(mailboxes, Role.DRAFTS);
                 final IdentifiableMailboxWithRole sent = MailboxUtil.find(mailboxes, Role.SENT);
-                return submit(emailId, identity, drafts == null ? null : drafts.getId(), sent);
+                return executeSubmit(emailId, identity, drafts == null ? null : drafts.getId(), sent);
             }
-        }, MoreExecutors.directExecutor());
+        }, MoreExecutors.directExecutor()));
     }
 
     public ListenableFuture<Boolean> send(final Email email, final Identity identity) {
-        return Futures.transformAsync(getMailboxes(), new AsyncFunction<Collection<? extends IdentifiableMailboxWithRole>, Boolean>() {
+        final OperationEvent event = muaEvents.beginOperation("send", null, 1);
+        return record(event, Futures.transformAsync(getMailboxes(), new AsyncFunction<Collection<? extends IdentifiableMailboxWithRole>, Boolean>() {
             @Override
             public ListenableFuture<Boolean> apply(@NullableDecl Collection<? extends IdentifiableMailboxWithRole> mailboxes) {
                 Preconditions.checkNotNull(mailboxes, "SpecialMailboxes collection must not be null but can be empty");
@@ -439,7 +522,7 @@ public class Mua {
                 final IdentifiableMailboxWithRole sent = MailboxUtil.find(mailboxes, Role.SENT);
                 return send(email, identity, draft, sent);
             }
-        }, MoreExecutors.directExecutor());
+        }, MoreExecutors.directExecutor()));
     }
 
     private ListenableFuture<Boolean> send(final Email email, final Identity identity, final IdentifiableMailboxWithRole drafts, final IdentifiableMailboxWithRole sent) {
@@ -459,16 +542,17 @@ public class Mua {
     }
 
     public ListenableFuture<Boolean> setKeyword(final Collection<? extends IdentifiableEmailWithKeywords> emails, final String keyword) {
-        return Futures.transformAsync(getObjectsState(), new AsyncFunction<ObjectsState, Boolean>() {
+        final OperationEvent event = muaEvents.beginOperation("setKeyword", null, emails == null ? 0 : emails.size());
+        return record(event, Futures.transformAsync(getObjectsState(), new AsyncFunction<ObjectsState, Boolean>() {
             @Override
             public ListenableFuture<Boolean> apply(@NullableDecl ObjectsState objectsState) throws Exception {
                 return setKeyword(emails, keyword, objectsState);
             }
-        }, MoreExecutors.directExecutor());
+        }, MoreExecutors.directExecutor()));
     }
 
     private ListenableFuture<ObjectsState> getObjectsState() {
-        return ioExecutorService.submit(new Callable<ObjectsState>() {
+        return submit(new Callable<ObjectsState>() {
             @Override
             public ObjectsState call() {
                 return cache.getObjectsState();
@@ -538,12 +622,13 @@ public class Mua {
     }
 
     public ListenableFuture<Boolean> removeKeyword(final Collection<? extends IdentifiableEmailWithKeywords> emails, final String keyword) {
-        return Futures.transformAsync(getObjectsState(), new AsyncFunction<ObjectsState, Boolean>() {
+        final OperationEvent event = muaEvents.beginOperation("removeKeyword", null, emails == null ? 0 : emails.size());
+        return record(event, Futures.transformAsync(getObjectsState(), new AsyncFunction<ObjectsState, Boolean>() {
             @Override
             public ListenableFuture<Boolean> apply(@NullableDecl ObjectsState objectsState) {
                 return removeKeyword(emails, keyword, objectsState);
             }
-        }, MoreExecutors.directExecutor());
+        }, MoreExecutors.directExecutor()));
     }
 
     private ListenableFuture<Boolean> removeKeyword(final Collection<? extends IdentifiableEmailWithKeywords> emails, final String keyword, final ObjectsState objectsState) {
@@ -559,15 +644,16 @@ public class Mua {
 
 
     public ListenableFuture<Boolean> createMailbox(Mailbox mailbox) {
+        final OperationEvent event = muaEvents.beginOperation("createMailbox", null, 0);
         ListenableFuture<MethodResponses> future = jmapClient.call(new SetMailboxMethodCall(ImmutableMap.of("new-mailbox-0", mailbox)));
-        return Futures.transformAsync(future, new AsyncFunction<MethodResponses, Boolean>() {
+        return record(event, Futures.transformAsync(future, new AsyncFunction<MethodResponses, Boolean>() {
             @Override
             public ListenableFuture<Boolean> apply(@NullableDecl MethodResponses methodResponses) throws Exception {
                 SetMailboxMethodResponse response = methodResponses.getMain(SetMailboxMethodResponse.class);
                 SetMailboxException.throwIfFailed(response);
                 return Futures.immediateFuture(response.getUpdatedCreatedCount() > 0);
             }
-        }, MoreExecutors.directExecutor());
+        }, MoreExecutors.directExecutor()));
     }
 
     /**
@@ -581,12 +667,13 @@ public class Mua {
      * @return
      */
     public ListenableFuture<Boolean> copyToMailbox(final Collection<? extends IdentifiableEmailWithMailboxIds> emails, final String mailboxId) {
-        return Futures.transformAsync(getObjectsState(), new AsyncFunction<ObjectsState, Boolean>() {
+        final OperationEvent event = muaEvents.beginOperation("copyToMailbox", null, emails == null ? 0 : emails.size());
+        return record(event, Futures.transformAsync(getObjectsState(), new AsyncFunction<ObjectsState, Boolean>() {
             @Override
             public ListenableFuture<Boolean> apply(@NullableDecl ObjectsState objectsState) throws Exception {
                 return copyToMailbox(emails, mailboxId, objectsState);
             }
-        }, MoreExecutors.directExecutor());
+        }, MoreExecutors.directExecutor()));
     }
 
     private ListenableFuture<Boolean> copyToMailbox(final Collection<? extends IdentifiableEmailWithMailboxIds> emails, String mailboxId, final ObjectsState objectsState) {
@@ -612,7 +699,8 @@ public class Mua {
      * @return
      */
     public ListenableFuture<Boolean> moveToInbox(final Collection<?extends IdentifiableEmailWithMailboxIds> emails) {
-        return Futures.transformAsync(getMailboxes(), new AsyncFunction<Collection<? extends IdentifiableMailboxWithRole>, Boolean>() {
+        final OperationEvent event = muaEvents.beginOperation("moveToInbox", null, emails == null ? 0 : emails.size());
+        return record(event, Futures.transformAsync(getMailboxes(), new AsyncFunction<Collection<? extends IdentifiableMailboxWithRole>, Boolean>() {
             @Override
             public ListenableFuture<Boolean> apply(@NullableDecl Collection<? extends IdentifiableMailboxWithRole> mailboxes) throws Exception {
                 Preconditions.checkNotNull(mailboxes, "SpecialMailboxes collection must not be null but can be empty");
@@ -621,7 +709,7 @@ public class Mua {
                 final IdentifiableMailboxWithRole inbox = MailboxUtil.find(mailboxes, Role.INBOX);
                 return moveToInbox(emails, archive, trash, inbox);
             }
-        }, MoreExecutors.directExecutor());
+        }, MoreExecutors.directExecutor()));
     }
 
     private ListenableFuture<Boolean> moveToInbox(final Collection<?extends IdentifiableEmailWithMailboxIds> emails, final IdentifiableMailboxWithRole archive, final IdentifiableMailboxWithRole trash, final IdentifiableMailboxWithRole inbox) {
@@ -686,7 +774,8 @@ public class Mua {
      * @return
      */
     public ListenableFuture<Boolean> archive(final Collection<?extends IdentifiableEmailWithMailboxIds> emails) {
-        return Futures.transformAsync(getMailboxes(), new AsyncFunction<Collection<? extends IdentifiableMailboxWithRole>, Boolean>() {
+        final OperationEvent event = muaEvents.beginOperation("archive", null, emails == null ? 0 : emails.size());
+        return record(event, Futures.transformAsync(getMailboxes(), new AsyncFunction<Collection<? extends IdentifiableMailboxWithRole>, Boolean>() {
             @Override
             public ListenableFuture<Boolean> apply(@NullableDecl Collection<? extends IdentifiableMailboxWithRole> mailboxes) throws Exception {
                 Preconditions.checkNotNull(mailboxes, "SpecialMailboxes collection must not be null but can be empty");
@@ -695,7 +784,7 @@ public class Mua {
                 final IdentifiableMailboxWithRole archive = MailboxUtil.find(mailboxes, Role.ARCHIVE);
                 return archive(emails, inbox, archive);
             }
-        }, MoreExecutors.directExecutor());
+        }, MoreExecutors.directExecutor()));
     }
 
 
@@ -766,7 +855,8 @@ public class Mua {
      */
     public ListenableFuture<Boolean> removeFromMailbox(Collection<? extends IdentifiableEmailWithMailboxIds> emails, @NonNullDecl Mailbox mailbox, @NullableDecl final IdentifiableMailboxWithRole archive) {
         Preconditions.checkNotNull(mailbox, "Mailbox can not be null when attempting to remove it from a collection of emails");
-        return removeFromMailbox(emails, mailbox.getId(), archive);
+        final OperationEvent event = muaEvents.beginOperation("removeFromMailbox", null, emails == null ? 0 : emails.size());
+        return record(event, removeFromMailbox(emails, mailbox.getId(), archive));
     }
 
     private ListenableFuture<Boolean> removeFromMailbox(final Collection<? extends IdentifiableEmailWithMailboxIds> emails, final String mailboxId, @NullableDecl final IdentifiableMailboxWithRole archive) {
@@ -831,14 +921,15 @@ public class Mua {
      * @return
      */
     public ListenableFuture<Boolean> removeFromMailbox(final Collection<? extends IdentifiableEmailWithMailboxIds> emails, final String mailboxId) {
-        return Futures.transformAsync(getMailboxes(), new AsyncFunction<Collection<? extends IdentifiableMailboxWithRole>, Boolean>() {
+        final OperationEvent event = muaEvents.beginOperation("removeFromMailbox", null, emails == null ? 0 : emails.size());
+        return record(event, Futures.transformAsync(getMailboxes(), new AsyncFunction<Collection<? extends IdentifiableMailboxWithRole>, Boolean>() {
             @Override
             public ListenableFuture<Boolean> apply(@NullableDecl Collection<? extends IdentifiableMailboxWithRole> mailboxes) throws Exception {
                 Preconditions.checkNotNull(mailboxes, "SpecialMailboxes collection must not be null but can be empty");
                 final IdentifiableMailboxWithRole archive = MailboxUtil.find(mailboxes, Role.ARCHIVE);
                 return removeFromMailbox(emails, mailboxId, archive);
             }
-        }, MoreExecutors.directExecutor());
+        }, MoreExecutors.directExecutor()));
     }
 
     /**
@@ -849,13 +940,14 @@ public class Mua {
      * @param emails A collection of emails. Usually all messages in a thread
      */
     public ListenableFuture<Boolean> moveToTrash(final Collection<? extends IdentifiableEmailWithMailboxIds> emails) {
-        return Futures.transformAsync(getMailboxes(), new AsyncFunction<Collection<? extends IdentifiableMailboxWithRole>, Boolean>() {
+        final OperationEvent event = muaEvents.beginOperation("moveToTrash", null, emails == null ? 0 : emails.size());
+        return record(event, Futures.transformAsync(getMailboxes(), new AsyncFunction<Collection<? extends IdentifiableMailboxWithRole>, Boolean>() {
             @Override
             public ListenableFuture<Boolean> apply(@NullableDecl Collection<? extends IdentifiableMailboxWithRole> mailboxes) {
                 Preconditions.checkNotNull(mailboxes, "SpecialMailboxes collection must not be null but can be empty");
-                return moveToTrash(emails, MailboxUtil.find(mailboxes, Role.TRASH));
+                return executeMoveToTrash(emails, MailboxUtil.find(mailboxes, Role.TRASH));
             }
-        }, MoreExecutors.directExecutor());
+        }, MoreExecutors.directExecutor()));
     }
 
     /**
@@ -870,6 +962,11 @@ public class Mua {
      */
 
     public ListenableFuture<Boolean> moveToTrash(final Collection<? extends IdentifiableEmailWithMailboxIds> emails, @NullableDecl final IdentifiableMailboxWithRole trash) {
+        final OperationEvent event = muaEvents.beginOperation("moveToTrash", null, emails == null ? 0 : emails.size());
+        return record(event, executeMoveToTrash(emails, trash));
+    }
+
+    private ListenableFuture<Boolean> executeMoveToTrash(final Collection<? extends IdentifiableEmailWithMailboxIds> emails, @NullableDecl final IdentifiableMailboxWithRole trash) {
         return Futures.transformAsync(getObjectsState(), new AsyncFunction<ObjectsState, Boolean>() {
             @Override
             public ListenableFuture<Boolean> apply(@NullableDecl ObjectsState objectsState) throws Exception {
@@ -913,7 +1010,8 @@ public class Mua {
     }
 
     public ListenableFuture<Boolean> emptyTrash() {
-        return Futures.transformAsync(getMailboxes(), new AsyncFunction<Collection<? extends IdentifiableMailboxWithRole>, Boolean>() {
+        final OperationEvent event = muaEvents.beginOperation("emptyTrash", null, 0);
+        return record(event, Futures.transformAsync(getMailboxes(), new AsyncFunction<Collection<? extends IdentifiableMailboxWithRole>, Boolean>() {
             @Override
             public ListenableFuture<Boolean> apply(@NullableDecl Collection<? extends IdentifiableMailboxWithRole> mailboxes) {
                 Preconditions.checkNotNull(mailboxes, "SpecialMailboxes collection must not be null but can be empty");
@@ -921,13 +1019,18 @@ public class Mua {
                 if (trash == null) {
                     return Futures.immediateFailedFuture(new IllegalStateException("No mailbox with trash role"));
                 }
-                return emptyTrash(trash);
+                return executeEmptyTrash(trash);
             }
-        }, MoreExecutors.directExecutor());
+        }, MoreExecutors.directExecutor()));
 
     }
 
     public ListenableFuture<Boolean> emptyTrash(@NonNullDecl IdentifiableMailboxWithRole trash) {
+        final OperationEvent event = muaEvents.beginOperation("emptyTrash", null, 0);
+        return record(event, executeEmptyTrash(trash));
+    }
+
+    private ListenableFuture<Boolean> executeEmptyTrash(@NonNullDecl IdentifiableMailboxWithRole trash) {
         final JmapClient.MultiCall multiCall = jmapClient.newMultiCall();
         final EmailFilterCondition filter = EmailFilterCondition.builder().inMailbox(trash.getId()).build();
         final Request.Invocation queryInvocation = Request.Invocation.create(new QueryEmailMethodCall(filter));
@@ -948,14 +1051,113 @@ public class Mua {
     }
 
     public ListenableFuture<Status> refresh() {
-        return Futures.transformAsync(getObjectsState(), new AsyncFunction<ObjectsState, Status>() {
+        final OperationEvent event = muaEvents.beginOperation("refresh", null, 0);
+        return record(event, Futures.transformAsync(getObjectsState(), new AsyncFunction<ObjectsState, Status>() {
             @Override
             public ListenableFuture<Status> apply(@NullableDecl ObjectsState objectsState) throws Exception {
                 return refresh(objectsState);
             }
+        }, MoreExecutors.directExecutor()));
+    }
+
+    /**
+     * Subscribes to state changes pushed by the server. Only the types whose pushed state differs from the cached state
+     * are refreshed. If emails or threads have changed the given queries are refreshed as well (which in turn updates
+     * the objects). Everything is refreshed whenever the connection to the server is (re)established. Close the
+     * returned {@link EventSource} to unsubscribe.
+     */
+    public ListenableFuture<EventSource> subscribe(final Collection<EmailQuery> queries, final SubscriptionListener listener) {
+        return jmapClient.monitorEvents(new Subscription(ImmutableList.copyOf(queries), listener));
+    }
+
+    private ListenableFuture<Status> refresh(final StateChange stateChange, final List<EmailQuery> queries) {
+        return Futures.transformAsync(getAccountId(), new AsyncFunction<String, Status>() {
+            @Override
+            public ListenableFuture<Status> apply(@NullableDecl String accountId) {
+                final Map<String, Map<String, String>> changed = stateChange.getChanged();
+                final Map<String, String> states = changed == null ? null : changed.get(accountId);
+                return refresh(states == null ? ImmutableMap.<String, String>of() : states, queries);
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    /**
+     * @param states the pushed states of the account this Mua operates on, keyed by type name
+     */
+    private ListenableFuture<Status> refresh(final Map<String, String> states, final List<EmailQuery> queries) {
+        return Futures.transformAsync(getObjectsState(), new AsyncFunction<ObjectsState, Status>() {
+            @Override
+            public ListenableFuture<Status> apply(@NullableDecl ObjectsState objectsState) {
+                Preconditions.checkNotNull(objectsState, "ObjectsState can not be null");
+                final boolean mailboxes = objectsState.mailboxState == null || hasChanged(states, "Mailbox", objectsState.mailboxState);
+                final boolean emails = objectsState.emailState != null && hasChanged(states, "Email", objectsState.emailState);
+                final boolean threads = objectsState.threadState != null && hasChanged(states, "Thread", objectsState.threadState);
+                if ((emails || threads) && queries.size() > 0) {
+                    return refreshQueries(Futures.immediateFuture(Status.UNCHANGED), queries);
+                }
+                if (!mailboxes && !emails && !threads) {
+                    return Futures.immediateFuture(Status.UNCHANGED);
+                }
+                final JmapClient.MultiCall multiCall = jmapClient.newMultiCall();
+                final ImmutableList.Builder<ListenableFuture<Status>> futuresListBuilder = new ImmutableList.Builder<>();
+                if (mailboxes) {
+                    if (objectsState.mailboxState != null) {
+                        futuresListBuilder.add(updateMailboxes(objectsState.mailboxState, multiCall));
+                    } else {
+                        futuresListBuilder.add(loadMailboxes(multiCall));
+                    }
+                }
+                if (emails) {
+                    futuresListBuilder.add(updateEmails(objectsState.emailState, multiCall));
+                }
+                if (threads) {
+                    futuresListBuilder.add(updateThreads(objectsState.threadState, multiCall));
+                }
+                multiCall.execute();
+                return transform(futuresListBuilder.build());
+            }
         }, MoreExecutors.directExecutor());
     }
 
+    private static boolean hasChanged(final Map<String, String> states, final String type, final String cachedState) {
+        final String state = states.get(type);
+        return state != null && !state.equals(cachedState);
+    }
+
+    /**
+     * @return the account this Mua operates on. Method calls are made without an accountId, so that is the primary
+     * account for mail.
+     */
+    private ListenableFuture<String> getAccountId() {
+        return Futures.transform(jmapClient.getBlobClient(), new Function<BlobClient, String>() {
+            @Override
+            public String apply(@NullableDecl BlobClient blobClient) {
+                Preconditions.checkNotNull(blobClient);
+                return blobClient.getPrimaryAccount(MailCapability.class);
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    /**
+     * Refreshes the queries one after another. Each query refresh also updates the objects, running them in parallel
+     * would cause conflicting cache updates.
+     */
+    private ListenableFuture<Status> refreshQueries(final ListenableFuture<Status> first, final List<EmailQuery> queries) {
+        final List<ListenableFuture<Status>> futures = new ArrayList<>();
+        futures.add(first);
+        ListenableFuture<Status> previous = first;
+        for (final EmailQuery query : queries) {
+            previous = Futures.transformAsync(previous, new AsyncFunction<Status, Status>() {
+                @Override
+                public ListenableFuture<Status> apply(@NullableDecl Status status) {
+                    return query(query);
+                }
+            }, MoreExecutors.directExecutor());
+            futures.add(previous);
+        }
+        return transform(futures);
+    }
+
     private ListenableFuture<Status> refresh(ObjectsState objectsState) {
         final JmapClient.MultiCall multiCall = jmapClient.newMultiCall();
         List<ListenableFuture<Status>> futuresList = piggyBack(objectsState, multiCall);
@@ -1028,14 +1230,15 @@ public class Mua {
     }
 
     public ListenableFuture<Status> query(@NonNullDecl final EmailQuery query) {
-        final ListenableFuture<QueryStateWrapper> queryStateFuture = ioExecutorService.submit(new Callable<QueryStateWrapper>() {
+        final OperationEvent event = muaEvents.beginOperation("query", query == null ? null : query.toQueryString(), 0);
+        final ListenableFuture<QueryStateWrapper> queryStateFuture = submit(new Callable<QueryStateWrapper>() {
             @Override
             public QueryStateWrapper call() throws Exception {
                 return cache.getQueryState(query.toQueryString());
             }
         });
 
-        return Futures.transformAsync(queryStateFuture, new AsyncFunction<QueryStateWrapper, Status>() {
+        return record(event, Futures.transformAsync(queryStateFuture, new AsyncFunction<QueryStateWrapper, Status>() {
             @Override
             public ListenableFuture<Status> apply(@NullableDecl QueryStateWrapper queryStateWrapper) {
                 Preconditions.checkNotNull(queryStateWrapper, "QueryStateWrapper can not be null");
@@ -1048,22 +1251,23 @@ public class Mua {
                     return refreshQuery(query, queryStateWrapper);
                 }
             }
-        }, MoreExecutors.directExecutor());
+        }, MoreExecutors.directExecutor()));
     }
 
     public ListenableFuture<Status> query(@NonNullDecl final EmailQuery query, final String afterEmailId) {
-        final ListenableFuture<QueryStateWrapper> queryStateFuture = ioExecutorService.submit(new Callable<QueryStateWrapper>() {
+        final OperationEvent event = muaEvents.beginOperation("query", query == null ? null : query.toQueryString(), 0);
+        final ListenableFuture<QueryStateWrapper> queryStateFuture = submit(new Callable<QueryStateWrapper>() {
             @Override
             public QueryStateWrapper call() throws Exception {
                 return cache.getQueryState(query.toQueryString());
             }
         });
-        return Futures.transformAsync(queryStateFuture, new AsyncFunction<QueryStateWrapper, Status>() {
+        return record(event, Futures.transformAsync(queryStateFuture, new AsyncFunction<QueryStateWrapper, Status>() {
             @Override
             public ListenableFuture<Status> apply(@NullableDecl QueryStateWrapper queryStateWrapper) {
                 return query(query, afterEmailId, queryStateWrapper);
             }
-        }, MoreExecutors.directExecutor());
+        }, MoreExecutors.directExecutor()));
     }
 
     private ListenableFuture<Status> query(@NonNullDecl final EmailQuery query, @NonNullDecl final String afterEmailId, final QueryStateWrapper queryStateWrapper) {
@@ -1083,6 +1287,7 @@ public class Mua {
         }
         final SettableFuture<Status> settableFuture = SettableFuture.create();
         JmapClient.MultiCall multiCall = jmapClient.newMultiCall();
+        multiCall.setProjections(THREAD_ID_PROJECTIONS);
         final ListenableFuture<Status> queryRefreshFuture = refreshQuery(query, queryStateWrapper, multiCall);
 
         final Request.Invocation queryInvocation = Request.Invocation.create(new QueryEmailMethodCall(query, afterEmailId, this.queryPageSize));
@@ -1095,7 +1300,7 @@ public class Mua {
             public void run() {
                 try {
                     QueryEmailMethodResponse queryResponse = queryResponsesFuture.get().getMain(QueryEmailMethodResponse.class);
-                    GetEmailMethodResponse getThreadIdsResponse = getThreadIdsResponsesFuture.get().getMain(GetEmailMethodResponse.class);
+                    GetEmailThreadIdsMethodResponse getThreadIdsResponse = getThreadIdsResponsesFuture.get().getMain(GetEmailThreadIdsMethodResponse.class);
 
                     final QueryResult queryResult = QueryResult.of(queryResponse, getThreadIdsResponse);
 
@@ -1126,6 +1331,7 @@ public class Mua {
 
     private ListenableFuture<Status> refreshQuery(@NonNullDecl final EmailQuery query, @NonNullDecl final QueryStateWrapper queryStateWrapper) {
         final JmapClient.MultiCall multiCall = jmapClient.newMultiCall();
+        multiCall.setProjections(THREAD_ID_PROJECTIONS);
         ListenableFuture<Status> future = refreshQuery(query, queryStateWrapper, multiCall);
         multiCall.execute();
         return future;
@@ -1146,7 +1352,7 @@ public class Mua {
             public void run() {
                 try {
                     QueryChangesEmailMethodResponse queryChangesResponse = queryChangesResponsesFuture.get().getMain(QueryChangesEmailMethodResponse.class);
-                    GetEmailMethodResponse getThreadIdsResponse = getThreadIdResponsesFuture.get().getMain(GetEmailMethodResponse.class);
+                    GetEmailThreadIdsMethodResponse getThreadIdsResponse = getThreadIdResponsesFuture.get().getMain(GetEmailThreadIdsMethodResponse.class);
                     List<AddedItem<QueryResultItem>> added = QueryResult.of(queryChangesResponse, getThreadIdsResponse);
 
                     final QueryUpdate<Email, QueryResultItem> queryUpdate = QueryUpdate.of(queryChangesResponse, added);
@@ -1159,7 +1365,7 @@ public class Mua {
                     Status queryUpdateStatus = Status.of(queryUpdate);
 
                     if (queryUpdate.hasChanges()) {
-                        cache.updateQueryResults(query.toQueryString(), queryUpdate, getThreadIdsResponse.getTypedState());
+                        cache.updateQueryResults(query.toQueryString(), queryUpdate, getThreadIdsResponse.getTypedEmailState());
                     }
 
                     if (piggybackStatus == Status.UNCHANGED && queryUpdateStatus == Status.UNCHANGED) {
@@ -1189,6 +1395,7 @@ public class Mua {
 
         final SettableFuture<Status> settableFuture = SettableFuture.create();
         JmapClient.MultiCall multiCall = jmapClient.newMultiCall();
+        multiCall.setProjections(THREAD_ID_PROJECTIONS);
 
         //these need to be processed *before* the Query call or else the fetchMissing will not honor newly fetched ids
         final List<ListenableFuture<Status>> piggyBackedFuturesList = piggyBack(queryStateWrapper.objectsState, multiCall);
@@ -1217,7 +1424,7 @@ public class Mua {
             public void run() {
                 try {
                     QueryEmailMethodResponse queryResponse = queryResponsesFuture.get().getMain(QueryEmailMethodResponse.class);
-                    GetEmailMethodResponse getThreadIdsResponse = getThreadIdsResponsesFuture.get().getMain(GetEmailMethodResponse.class);
+                    GetEmailThreadIdsMethodResponse getThreadIdsResponse = getThreadIdsResponsesFuture.get().getMain(GetEmailThreadIdsMethodResponse.class);
 
                     QueryResult queryResult = QueryResult.of(queryResponse, getThreadIdsResponse);
 
@@ -1262,11 +1469,12 @@ public class Mua {
     }
 
     private ListenableFuture<Status> fetchMissing(@NonNullDecl final String queryString) {
+        final OperationEvent event = muaEvents.beginOperation("fetchMissing", queryString, 0);
         Preconditions.checkNotNull(queryString, "QueryString can not be null");
         try {
-            return fetchMissing(cache.getMissing(queryString));
+            return record(event, fetchMissing(cache.getMissing(queryString)));
         } catch (CacheReadException e) {
-            return Futures.immediateFailedFuture(e);
+            return record(event, Futures.<Status>immediateFailedFuture(e));
         }
     }
 
@@ -1314,12 +1522,132 @@ public class Mua {
         return settableFuture;
     }
 
+    /**
+     * Returns the content of the body part. The blob is served from the {@link DiskBlobCache} if one has been
+     * configured and only downloaded if it is not cached yet.
+     */
+    public ListenableFuture<ByteBuffer> download(final EmailBodyPart emailBodyPart) {
+        return download(emailBodyPart.getBlobId(), emailBodyPart.getType(), emailBodyPart.getName());
+    }
+
+    /**
+     * Returns the content of the blob (for example the raw message of {@link Email#getBlobId()}).
+     *
+     * @throws IllegalStateException if the Mua has been built without a blob cache
+     */
+    public ListenableFuture<ByteBuffer> download(final String blobId, @NullableDecl final String type, @NullableDecl final String name) {
+        Preconditions.checkNotNull(blobId, "blobId must not be null");
+        Preconditions.checkState(blobCache != null, "Downloading blobs requires a blob cache");
+        return Futures.transformAsync(jmapClient.getBlobClient(), new AsyncFunction<BlobClient, ByteBuffer>() {
+            @Override
+            public ListenableFuture<ByteBuffer> apply(@NullableDecl final BlobClient blobClient) {
+                Preconditions.checkNotNull(blobClient);
+                final String accountId = blobClient.getPrimaryAccount(MailCapability.class);
+                return blobCache.get(accountId, blobId, new DiskBlobCache.Downloader() {
+                    @Override
+                    public ListenableFuture<?> download(FileChannel target) {
+                        return blobClient.download(accountId, blobId, type, name, target, null);
+                    }
+                });
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    /**
+     * Runs at most one refresh at a time. State changes that arrive while a refresh is running are collapsed into a
+     * single follow-up refresh.
+     */
+    private class Subscription implements EventSourceListener {
+
+        private final List<EmailQuery> queries;
+        private final SubscriptionListener listener;
+
+        private boolean running = false;
+        private boolean pendingFullRefresh = false;
+        private StateChange pendingStateChange = null;
+
+        private Subscription(List<EmailQuery> queries, SubscriptionListener listener) {
+            this.queries = queries;
+            this.listener = listener;
+        }
+
+        @Override
+        public void onConnected() {
+            synchronized (this) {
+                if (running) {
+                    pendingFullRefresh = true;
+                    return;
+                }
+                running = true;
+            }
+            run(true, null);
+        }
+
+        @Override
+        public void onStateChange(StateChange stateChange) {
+            synchronized (this) {
+                if (running) {
+                    pendingStateChange = stateChange;
+                    return;
+                }
+                running = true;
+            }
+            run(false, stateChange);
+        }
+
+        private void run(final boolean full, final StateChange stateChange) {
+            final ListenableFuture<Status> future;
+            if (full) {
+                future = refreshQueries(refresh(), queries);
+            } else {
+                future = refresh(stateChange, queries);
+            }
+            Futures.addCallback(future, new FutureCallback<Status>() {
+                @Override
+                public void onSuccess(@NullableDecl Status status) {
+                    listener.onUpdate(status);
+                    next();
+                }
+
+                @Override
+                public void onFailure(@NonNullDecl Throwable throwable) {
+                    listener.onError(throwable);
+                    next();
+                }
+            }, MoreExecutors.directExecutor());
+        }
+
+        private void next() {
+            final boolean full;
+            final StateChange stateChange;
+            synchronized (this) {
+                if (pendingFullRefresh) {
+                    full = true;
+                    stateChange = null;
+                } else if (pendingStateChange != null) {
+                    full = false;
+                    stateChange = pendingStateChange;
+                } else {
+                    running = false;
+                    return;
+                }
+                pendingFullRefresh = false;
+                pendingStateChange = null;
+            }
+            run(full, stateChange);
+        }
+    }
+
     public static class Builder {
         private String username;
         private String password;
+        private URL sessionResource = null;
         private SessionCache sessionCache = new SessionFileCache();
         private Cache cache = new InMemoryCache();
         private Integer queryPageSize = null;
+        private ExecutorService executorService = null;
+        private DiskBlobCache blobCache = null;
+        private MuaEvents muaEvents = MUA_EVENTS;
 
         private Builder() {
 
@@ -1335,6 +1663,14 @@ public class Mua {
             return this;
         }
 
+        /**
+         * Fetches the session from the given URL instead of discovering it from the domain of the username.
+         */
+        public Builder sessionResource(URL sessionResource) {
+            this.sessionResource = sessionResource;
+            return this;
+        }
+
         public Builder queryPageSize(Integer queryPageSize) {
             this.queryPageSize = queryPageSize;
             return this;
@@ -1350,11 +1686,41 @@ public class Mua {
             return this;
         }
 
+        /**
+         * Runs network and cache operations on the given executor instead of creating threads for every Mua. Useful
+         * when many accounts are active at the same time. The executor will not be shut down by the Mua.
+         *
+         * @see rs.ltt.jmap.client.util.ExecutorServices
+         */
+        public Builder executorService(ExecutorService executorService) {
+            this.executorService = executorService;
+            return this;
+        }
+
+        /**
+         * Enables {@link Mua#download(String, String, String)}. The cache can be shared between multiple Mua
+         * instances; blobs with the same content are stored only once.
+         */
+        public Builder blobCache(DiskBlobCache blobCache) {
+            this.blobCache = blobCache;
+            return this;
+        }
+
+        /**
+         * Receives the events of Mua operations and cache writes instead of the flight recorder. By default events are
+         * recorded with JFR if the running JVM supports it.
+         */
+        public Builder events(MuaEvents muaEvents) {
+            this.muaEvents = muaEvents == null ? MuaEvents.NONE : muaEvents;
+            return this;
+        }
+
         public Mua build() {
-            JmapClient jmapClient = new JmapClient(this.username, this.password);
+            JmapClient jmapClient = new JmapClient(new BasicAuthHttpAuthentication(this.username, this.password), this.sessionResource, this.executorService);
             jmapClient.setSessionCache(this.sessionCache);
-            Mua mua = new Mua(jmapClient, cache);
+            Mua mua = new Mua(jmapClient, cache, this.executorService, this.muaEvents);
             mua.queryPageSize = this.queryPageSize;
+            mua.blobCache = this.blobCache;
             return mua;
         }
     }
@@ -0,0 +1,483 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package rs.ltt.jmap.mua.blob;
+
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import org.checkerframework.checker.nullness.compatqual.NonNullDecl;
+import org.checkerframework.checker.nullness.compatqual.NullableDecl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Disk backed cache for blobs (attachments, raw messages) that is bounded by the total size of the files it keeps.
+ * <p>
+ * Files are stored under the SHA-256 of their content and an index maps accountId + blobId to that hash. A blob that
+ * is referenced from multiple emails, mailboxes or accounts of the same server is therefore only stored once. When the
+ * cache grows beyond its maximum size the least recently read files are deleted. Reads return read-only memory mapped
+ * buffers; the buffers stay valid even if the underlying file gets evicted later on.
+ * <p>
+ * Concurrent requests for the same blob share a single download (but not the position of the returned buffer).
+ * <p>
+ * Inserts and removals are appended to the index as they happen; the index is only rewritten (in order of access)
+ * on {@link #flush()}, on startup and once the appended entries outnumber the live ones.
+ */
+public class DiskBlobCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DiskBlobCache.class);
+
+    private static final String INDEX_FILE = "index";
+    private static final String OBJECTS_DIRECTORY = "objects";
+    private static final String TEMPORARY_DIRECTORY = "tmp";
+    private static final String REMOVED = "-";
+    private static final int MIN_COMPACTION_LENGTH = 1024;
+
+    private final File directory;
+    private final File objects;
+    private final File temporary;
+    private final long maxSize;
+
+    //content hash → size; iteration order is the order of access (least recently used first)
+    private final LinkedHashMap<String, Long> contents = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<Key, String> index = new HashMap<>();
+    private final Map<String, Set<Key>> references = new HashMap<>();
+    private long size = 0;
+
+    //index lines that have yet to be appended and the number of lines appended since the index has last been written
+    private final List<String> journal = new ArrayList<>();
+    private int journalLength = 0;
+
+    private final ConcurrentHashMap<Key, ListenableFuture<ByteBuffer>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * @param maxSize the number of bytes the cache may occupy on disk (not counting the index)
+     */
+    public DiskBlobCache(File directory, long maxSize) throws IOException {
+        Preconditions.checkArgument(maxSize > 0, "maxSize must be positive");
+        this.directory = directory;
+        this.objects = new File(directory, OBJECTS_DIRECTORY);
+        this.temporary = new File(directory, TEMPORARY_DIRECTORY);
+        this.maxSize = maxSize;
+        mkdirs(objects);
+        mkdirs(temporary);
+        load();
+    }
+
+    private static void mkdirs(File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create directory " + directory.getAbsolutePath());
+        }
+    }
+
+    /**
+     * @return the cached blob or null if it is not in the cache
+     */
+    @NullableDecl
+    public ByteBuffer get(final String accountId, final String blobId) throws IOException {
+        final String hash;
+        synchronized (this) {
+            hash = index.get(new Key(accountId, blobId));
+            if (hash == null) {
+                return null;
+            }
+            //moves the content to the end of the access order
+            contents.get(hash);
+        }
+        try {
+            return map(getObjectFile(hash));
+        } catch (NoSuchFileException e) {
+            LOGGER.warn("Cached blob {} has been removed from disk", hash);
+            synchronized (this) {
+                remove(hash);
+                append();
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Returns the cached blob or downloads it with the given downloader. While a download is running further calls
+     * for the same accountId + blobId get the future of that download instead of starting a new one.
+     */
+    public ListenableFuture<ByteBuffer> get(final String accountId, final String blobId, final Downloader downloader) {
+        final ByteBuffer cached;
+        try {
+            cached = get(accountId, blobId);
+        } catch (IOException e) {
+            return Futures.immediateFailedFuture(e);
+        }
+        if (cached != null) {
+            return Futures.immediateFuture(cached);
+        }
+        final Key key = new Key(accountId, blobId);
+        final SettableFuture<ByteBuffer> settableFuture = SettableFuture.create();
+        final ListenableFuture<ByteBuffer> existing = inFlight.putIfAbsent(key, settableFuture);
+        if (existing != null) {
+            //every caller gets a buffer with a position of its own
+            return Futures.transform(existing, new Function<ByteBuffer, ByteBuffer>() {
+                @Override
+                public ByteBuffer apply(@NullableDecl ByteBuffer byteBuffer) {
+                    return byteBuffer == null ? null : byteBuffer.duplicate();
+                }
+            }, MoreExecutors.directExecutor());
+        }
+        final File file;
+        final FileChannel fileChannel;
+        try {
+            file = File.createTempFile("blob", ".tmp", temporary);
+            fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+        } catch (IOException e) {
+            inFlight.remove(key, settableFuture);
+            settableFuture.setException(e);
+            return settableFuture;
+        }
+        Futures.addCallback(downloader.download(fileChannel), new FutureCallback<Object>() {
+            @Override
+            public void onSuccess(@NullableDecl Object result) {
+                try {
+                    fileChannel.close();
+                    settableFuture.set(put(accountId, blobId, file));
+                } catch (IOException e) {
+                    file.delete();
+                    settableFuture.setException(e);
+                } finally {
+                    inFlight.remove(key, settableFuture);
+                }
+            }
+
+            @Override
+            public void onFailure(@NonNullDecl Throwable throwable) {
+                try {
+                    fileChannel.close();
+                } catch (IOException e) {
+                    LOGGER.debug("Unable to close temporary file", e);
+                }
+                file.delete();
+                inFlight.remove(key, settableFuture);
+                settableFuture.setException(throwable);
+            }
+        }, MoreExecutors.directExecutor());
+        return settableFuture;
+    }
+
+    /**
+     * Moves the file into the cache. If a file with the same content is already cached the given file is deleted
+     * instead.
+     *
+     * @param file a file on the same file system as the cache directory
+     * @return the cached blob
+     */
+    public ByteBuffer put(final String accountId, final String blobId, final File file) throws IOException {
+        final String hash = com.google.common.io.Files.asByteSource(file).hash(Hashing.sha256()).toString();
+        final long length = file.length();
+        final File objectFile = getObjectFile(hash);
+        synchronized (this) {
+            if (contents.containsKey(hash) && objectFile.exists()) {
+                if (!file.delete()) {
+                    LOGGER.warn("Unable to delete duplicate of {}", hash);
+                }
+            } else {
+                move(file, objectFile);
+                if (!contents.containsKey(hash)) {
+                    size += length;
+                }
+            }
+            contents.put(hash, length);
+            final Key key = new Key(accountId, blobId);
+            final String previous = index.put(key, hash);
+            if (previous != null && !previous.equals(hash)) {
+                unreference(previous, key);
+            }
+            reference(hash, key);
+            journal.add(line(hash, length, key));
+            evict(hash);
+            append();
+        }
+        return map(objectFile);
+    }
+
+    public synchronized long getSize() {
+        return size;
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    private void reference(String hash, Key key) {
+        Set<Key> keys = references.get(hash);
+        if (keys == null) {
+            keys = new HashSet<>();
+            references.put(hash, keys);
+        }
+        keys.add(key);
+    }
+
+    private void unreference(String hash, Key key) {
+        final Set<Key> keys = references.get(hash);
+        if (keys != null) {
+            keys.remove(key);
+            if (keys.isEmpty()) {
+                remove(hash);
+            }
+        }
+    }
+
+    /**
+     * Deletes least recently used content until the cache fits into maxSize. The content that has just been added
+     * is kept even if it exceeds maxSize on its own.
+     */
+    private void evict(String keep) {
+        final Iterator<Map.Entry<String, Long>> iterator = contents.entrySet().iterator();
+        while (size > maxSize && iterator.hasNext()) {
+            final Map.Entry<String, Long> entry = iterator.next();
+            final String hash = entry.getKey();
+            if (hash.equals(keep)) {
+                continue;
+            }
+            iterator.remove();
+            size -= entry.getValue();
+            unindex(hash);
+            deleteObject(hash);
+            LOGGER.debug("Evicted {} ({} bytes) from blob cache", hash, entry.getValue());
+        }
+    }
+
+    private void remove(String hash) {
+        forget(hash);
+        deleteObject(hash);
+    }
+
+    /**
+     * Removes the content from memory and from the index but leaves the file alone.
+     */
+    private void forget(String hash) {
+        final Long length = contents.remove(hash);
+        if (length != null) {
+            size -= length;
+        }
+        unindex(hash);
+    }
+
+    private void unindex(String hash) {
+        journal.add(REMOVED + '\t' + hash);
+        final Set<Key> keys = references.remove(hash);
+        if (keys != null) {
+            for (Key key : keys) {
+                index.remove(key);
+            }
+        }
+    }
+
+    private void deleteObject(String hash) {
+        final File file = getObjectFile(hash);
+        if (file.exists() && !file.delete()) {
+            LOGGER.warn("Unable to delete {}", file.getAbsolutePath());
+        }
+    }
+
+    private File getObjectFile(String hash) {
+        return new File(objects, hash);
+    }
+
+    private static ByteBuffer map(File file) throws IOException {
+        try (final FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, fileChannel.size());
+        }
+    }
+
+    private static void move(File source, File target) throws IOException {
+        try {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Reads the index and replays the entries that have been appended to it. Entries pointing to missing files are
+     * dropped; files that are not referenced by the index (because the process died after moving but before writing
+     * the index) are deleted. The index is rewritten afterwards.
+     */
+    private synchronized void load() throws IOException {
+        final File indexFile = new File(directory, INDEX_FILE);
+        if (indexFile.exists()) {
+            try (final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(indexFile), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    final String[] parts = line.split("\t");
+                    //files are only deleted once the whole index has been read; later entries might bring them back
+                    if (parts.length == 2 && REMOVED.equals(parts[0])) {
+                        forget(parts[1]);
+                        continue;
+                    }
+                    if (parts.length != 4) {
+                        continue;
+                    }
+                    final String hash = parts[0];
+                    final long length;
+                    try {
+                        length = Long.parseLong(parts[1]);
+                    } catch (NumberFormatException e) {
+                        continue;
+                    }
+                    if (!getObjectFile(hash).isFile()) {
+                        continue;
+                    }
+                    if (!contents.containsKey(hash)) {
+                        size += length;
+                    }
+                    //moves appended entries to the end of the access order
+                    contents.put(hash, length);
+                    final Key key = new Key(parts[2], parts[3]);
+                    final String previous = index.put(key, hash);
+                    final Set<Key> previousKeys = previous == null || previous.equals(hash) ? null : references.get(previous);
+                    if (previousKeys != null && previousKeys.remove(key) && previousKeys.isEmpty()) {
+                        forget(previous);
+                    }
+                    reference(hash, key);
+                }
+            }
+        }
+        final File[] files = objects.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (!contents.containsKey(file.getName())) {
+                    file.delete();
+                }
+            }
+        }
+        final File[] temporaryFiles = temporary.listFiles();
+        if (temporaryFiles != null) {
+            for (File file : temporaryFiles) {
+                file.delete();
+            }
+        }
+        evict(null);
+        store();
+    }
+
+    private static String line(String hash, long length, Key key) {
+        return hash + '\t' + length + '\t' + key.accountId + '\t' + key.blobId;
+    }
+
+    /**
+     * Appends the pending journal entries to the index. Rewrites the index instead once the appended entries outnumber
+     * the live ones.
+     */
+    private void append() throws IOException {
+        if (journal.isEmpty()) {
+            return;
+        }
+        if (journalLength + journal.size() > Math.max(MIN_COMPACTION_LENGTH, index.size())) {
+            store();
+            return;
+        }
+        final File indexFile = new File(directory, INDEX_FILE);
+        try (final Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(indexFile, true), StandardCharsets.UTF_8))) {
+            for (String line : journal) {
+                writer.write(line);
+                writer.write('\n');
+            }
+        }
+        journalLength += journal.size();
+        journal.clear();
+    }
+
+    /**
+     * Writes the index in the order of access so the least recently used content is evicted first after a restart
+     * as well.
+     */
+    private void store() throws IOException {
+        final File indexFile = new File(directory, INDEX_FILE);
+        final File temporaryFile = File.createTempFile(INDEX_FILE, ".tmp", temporary);
+        try (final Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temporaryFile), StandardCharsets.UTF_8))) {
+            for (Map.Entry<String, Long> entry : contents.entrySet()) {
+                final Set<Key> keys = references.get(entry.getKey());
+                if (keys == null) {
+                    continue;
+                }
+                for (Key key : keys) {
+                    writer.write(line(entry.getKey(), entry.getValue(), key));
+                    writer.write('\n');
+                }
+            }
+        } catch (IOException e) {
+            temporaryFile.delete();
+            throw e;
+        }
+        move(temporaryFile, indexFile);
+        journal.clear();
+        journalLength = 0;
+    }
+
+    /**
+     * Persists the current order of access. Reads only update the order in memory.
+     */
+    public synchronized void flush() throws IOException {
+        store();
+    }
+
+    public interface Downloader {
+        /**
+         * Writes the blob to the target. The channel is closed by the cache once the returned future completes.
+         */
+        ListenableFuture<?> download(FileChannel target);
+    }
+
+    private static class Key {
+        private final String accountId;
+        private final String blobId;
+
+        private Key(String accountId, String blobId) {
+            this.accountId = Preconditions.checkNotNull(accountId, "accountId must not be null");
+            this.blobId = Preconditions.checkNotNull(blobId, "blobId must not be null");
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return accountId.equals(key.accountId) && blobId.equals(key.blobId);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * accountId.hashCode() + blobId.hashCode();
+        }
+    }
+}
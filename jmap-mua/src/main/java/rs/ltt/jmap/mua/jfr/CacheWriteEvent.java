@@ -0,0 +1,55 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package rs.ltt.jmap.mua.jfr;
+
+import org.checkerframework.checker.nullness.compatqual.NullableDecl;
+
+/**
+ * A cache write event that has been begun.
+ */
+public interface CacheWriteEvent {
+
+    CacheWriteEvent NONE = new CacheWriteEvent() {
+        @Override
+        public CacheWriteEvent states(String oldState, String newState) {
+            return this;
+        }
+
+        @Override
+        public CacheWriteEvent counts(int created, int updated, int destroyed) {
+            return this;
+        }
+
+        @Override
+        public void commit(String error) {
+
+        }
+    };
+
+    CacheWriteEvent states(@NullableDecl String oldState, @NullableDecl String newState);
+
+    /**
+     * Objects that are written in bulk (for example the result of an initial query) are reported as created.
+     */
+    CacheWriteEvent counts(int created, int updated, int destroyed);
+
+    /**
+     * @param error null if the write has been successful
+     */
+    void commit(@NullableDecl String error);
+}
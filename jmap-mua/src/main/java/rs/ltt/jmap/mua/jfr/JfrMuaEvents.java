@@ -0,0 +1,54 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package rs.ltt.jmap.mua.jfr;
+
+import jdk.jfr.EventType;
+
+/**
+ * Only loaded through {@link rs.ltt.jmap.client.jfr.FlightRecorderSupport}.
+ */
+class JfrMuaEvents implements MuaEvents {
+
+    private final EventType operation = EventType.getEventType(JmapOperationEvent.class);
+    private final EventType cacheWrite = EventType.getEventType(JmapCacheWriteEvent.class);
+
+    @Override
+    public OperationEvent beginOperation(final String operation, final String query, final int count) {
+        if (!this.operation.isEnabled()) {
+            return OperationEvent.NONE;
+        }
+        final JmapOperationEvent event = new JmapOperationEvent();
+        event.operation = operation;
+        event.query = query;
+        event.count = count;
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public CacheWriteEvent beginCacheWrite(final String method, final String query) {
+        if (!this.cacheWrite.isEnabled()) {
+            return CacheWriteEvent.NONE;
+        }
+        final JmapCacheWriteEvent event = new JmapCacheWriteEvent();
+        event.method = method;
+        event.query = query;
+        event.begin();
+        return event;
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package rs.ltt.jmap.mua.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("rs.ltt.jmap.CacheWrite")
+@Label("Cache Write")
+@Description("A write to the Cache of a Mua.")
+@Category({"JMAP", "Mua"})
+class JmapCacheWriteEvent extends Event implements CacheWriteEvent {
+
+    @Label("Method")
+    String method;
+
+    @Label("Query")
+    String query;
+
+    @Label("Old State")
+    String oldState;
+
+    @Label("New State")
+    String newState;
+
+    @Label("Created")
+    int created;
+
+    @Label("Updated")
+    int updated;
+
+    @Label("Destroyed")
+    int destroyed;
+
+    @Label("Error")
+    String error;
+
+    @Override
+    public CacheWriteEvent states(final String oldState, final String newState) {
+        this.oldState = oldState;
+        this.newState = newState;
+        return this;
+    }
+
+    @Override
+    public CacheWriteEvent counts(final int created, final int updated, final int destroyed) {
+        this.created = created;
+        this.updated = updated;
+        this.destroyed = destroyed;
+        return this;
+    }
+
+    @Override
+    public void commit(final String error) {
+        this.error = error;
+        commit();
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package rs.ltt.jmap.mua.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("rs.ltt.jmap.MuaOperation")
+@Label("Mua Operation")
+@Description("From invoking a Mua method until its future has been completed.")
+@Category({"JMAP", "Mua"})
+class JmapOperationEvent extends Event implements OperationEvent {
+
+    @Label("Operation")
+    String operation;
+
+    @Label("Query")
+    String query;
+
+    @Label("Email Count")
+    int count;
+
+    @Label("Result")
+    String result;
+
+    @Label("Error")
+    String error;
+
+    @Override
+    public void commit(final Object result, final String error) {
+        this.result = result == null ? null : result.toString();
+        this.error = error;
+        commit();
+    }
+}
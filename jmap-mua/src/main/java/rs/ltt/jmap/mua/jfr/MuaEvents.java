@@ -0,0 +1,53 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package rs.ltt.jmap.mua.jfr;
+
+import org.checkerframework.checker.nullness.compatqual.NullableDecl;
+
+/**
+ * Begins the flight recorder events of {@link rs.ltt.jmap.mua.Mua} operations and cache writes.
+ *
+ * @see rs.ltt.jmap.client.jfr.FlightRecorderSupport
+ */
+public interface MuaEvents {
+
+    MuaEvents NONE = new MuaEvents() {
+        @Override
+        public OperationEvent beginOperation(String operation, String query, int count) {
+            return OperationEvent.NONE;
+        }
+
+        @Override
+        public CacheWriteEvent beginCacheWrite(String method, String query) {
+            return CacheWriteEvent.NONE;
+        }
+    };
+
+    /**
+     * @param operation name of the Mua method
+     * @param query     the query string of query operations
+     * @param count     the number of emails the operation has been invoked with
+     */
+    OperationEvent beginOperation(String operation, @NullableDecl String query, int count);
+
+    /**
+     * @param method name of the {@link rs.ltt.jmap.mua.cache.Cache} method
+     * @param query  the query string of query result writes
+     */
+    CacheWriteEvent beginCacheWrite(String method, @NullableDecl String query);
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package rs.ltt.jmap.mua.jfr;
+
+import org.checkerframework.checker.nullness.compatqual.NullableDecl;
+
+/**
+ * A Mua operation event that has been begun.
+ */
+public interface OperationEvent {
+
+    OperationEvent NONE = new OperationEvent() {
+        @Override
+        public void commit(Object result, String error) {
+
+        }
+    };
+
+    /**
+     * @param result the value the future of the operation has been completed with
+     * @param error  null if the operation has been successful
+     */
+    void commit(@NullableDecl Object result, @NullableDecl String error);
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package rs.ltt.jmap.mua.jfr;
+
+import org.checkerframework.checker.nullness.compatqual.NonNullDecl;
+import org.checkerframework.checker.nullness.compatqual.NullableDecl;
+import rs.ltt.jmap.common.entity.Thread;
+import rs.ltt.jmap.common.entity.*;
+import rs.ltt.jmap.mua.cache.*;
+import rs.ltt.jmap.mua.util.QueryResult;
+import rs.ltt.jmap.mua.util.QueryResultItem;
+
+import java.util.Collection;
+
+/**
+ * Emits a {@link CacheWriteEvent} for every write to the wrapped cache. Reads are passed through.
+ */
+public class RecordingCache implements Cache {
+
+    private final Cache cache;
+    private final MuaEvents muaEvents;
+
+    public RecordingCache(final Cache cache, final MuaEvents muaEvents) {
+        this.cache = cache;
+        this.muaEvents = muaEvents;
+    }
+
+    private static String state(final TypedState<?> typedState) {
+        return typedState == null ? null : typedState.getState();
+    }
+
+    private static int length(final Object[] objects) {
+        return objects == null ? 0 : objects.length;
+    }
+
+    private CacheWriteEvent begin(final String method, final Update<?> update) {
+        return muaEvents.beginCacheWrite(method, null)
+                .states(state(update.getOldTypedState()), state(update.getNewTypedState()))
+                .counts(length(update.getCreated()), length(update.getUpdated()), length(update.getDestroyed()));
+    }
+
+    @Override
+    public String getIdentityState() {
+        return cache.getIdentityState();
+    }
+
+    @Override
+    public String getMailboxState() {
+        return cache.getMailboxState();
+    }
+
+    @NonNullDecl
+    @Override
+    public QueryStateWrapper getQueryState(@NullableDecl String query) {
+        return cache.getQueryState(query);
+    }
+
+    @NonNullDecl
+    @Override
+    public ObjectsState getObjectsState() {
+        return cache.getObjectsState();
+    }
+
+    @Override
+    public void setMailboxes(TypedState<Mailbox> state, Mailbox[] mailboxes) throws CacheWriteException {
+        final CacheWriteEvent event = muaEvents.beginCacheWrite("setMailboxes", null).states(null, state(state)).counts(length(mailboxes), 0, 0);
+        try {
+            cache.setMailboxes(state, mailboxes);
+        } catch (final Exception e) {
+            event.commit(e.getClass().getSimpleName());
+            throw e;
+        }
+        event.commit(null);
+    }
+
+    @Override
+    public void updateMailboxes(Update<Mailbox> mailboxUpdate, String[] updatedProperties) throws CacheWriteException, CacheConflictException {
+        final CacheWriteEvent event = begin("updateMailboxes", mailboxUpdate);
+        try {
+            cache.updateMailboxes(mailboxUpdate, updatedProperties);
+        } catch (final Exception e) {
+            event.commit(e.getClass().getSimpleName());
+            throw e;
+        }
+        event.commit(null);
+    }
+
+    @Override
+    public Collection<? extends IdentifiableMailboxWithRole> getSpecialMailboxes() throws NotSynchronizedException {
+        return cache.getSpecialMailboxes();
+    }
+
+    @Override
+    public void setThreadsAndEmails(TypedState<Thread> threadState, Thread[] threads, TypedState<Email> emailState, Email[] emails) {
+        final CacheWriteEvent event = muaEvents.beginCacheWrite("setThreadsAndEmails", null).states(null, state(emailState)).counts(length(threads) + length(emails), 0, 0);
+        try {
+            cache.setThreadsAndEmails(threadState, threads, emailState, emails);
+        } catch (final RuntimeException e) {
+            event.commit(e.getClass().getSimpleName());
+            throw e;
+        }
+        event.commit(null);
+    }
+
+    @Override
+    public void addThreadsAndEmail(TypedState<Thread> threadState, Thread[] threads, TypedState<Email> emailState, Email[] emails) {
+        final CacheWriteEvent event = muaEvents.beginCacheWrite("addThreadsAndEmail", null).states(null, state(emailState)).counts(length(threads) + length(emails), 0, 0);
+        try {
+            cache.addThreadsAndEmail(threadState, threads, emailState, emails);
+        } catch (final RuntimeException e) {
+            event.commit(e.getClass().getSimpleName());
+            throw e;
+        }
+        event.commit(null);
+    }
+
+    @Override
+    public void updateThreads(Update<Thread> threadUpdate) throws CacheWriteException, CacheConflictException {
+        final CacheWriteEvent event = begin("updateThreads", threadUpdate);
+        try {
+            cache.updateThreads(threadUpdate);
+        } catch (final Exception e) {
+            event.commit(e.getClass().getSimpleName());
+            throw e;
+        }
+        event.commit(null);
+    }
+
+    @Override
+    public void updateEmails(Update<Email> emailUpdate, String[] updatedProperties) throws CacheWriteException, CacheConflictException {
+        final CacheWriteEvent event = begin("updateEmails", emailUpdate);
+        try {
+            cache.updateEmails(emailUpdate, updatedProperties);
+        } catch (final Exception e) {
+            event.commit(e.getClass().getSimpleName());
+            throw e;
+        }
+        event.commit(null);
+    }
+
+    @Override
+    public void setIdentities(TypedState<Identity> state, Identity[] identities) throws CacheWriteException {
+        final CacheWriteEvent event = muaEvents.beginCacheWrite("setIdentities", null).states(null, state(state)).counts(length(identities), 0, 0);
+        try {
+            cache.setIdentities(state, identities);
+        } catch (final Exception e) {
+            event.commit(e.getClass().getSimpleName());
+            throw e;
+        }
+        event.commit(null);
+    }
+
+    @Override
+    public void updateIdentities(Update<Identity> identityUpdate) throws CacheWriteException, CacheConflictException {
+        final CacheWriteEvent event = begin("updateIdentities", identityUpdate);
+        try {
+            cache.updateIdentities(identityUpdate);
+        } catch (final Exception e) {
+            event.commit(e.getClass().getSimpleName());
+            throw e;
+        }
+        event.commit(null);
+    }
+
+    @Override
+    public void setQueryResult(String queryString, QueryResult queryResult) throws CacheWriteException {
+        final CacheWriteEvent event = muaEvents.beginCacheWrite("setQueryResult", queryString).states(null, state(queryResult.queryState)).counts(length(queryResult.items), 0, 0);
+        try {
+            cache.setQueryResult(queryString, queryResult);
+        } catch (final Exception e) {
+            event.commit(e.getClass().getSimpleName());
+            throw e;
+        }
+        event.commit(null);
+    }
+
+    @Override
+    public void addQueryResult(String queryString, QueryResult queryResult) throws CacheWriteException, CacheConflictException {
+        final CacheWriteEvent event = muaEvents.beginCacheWrite("addQueryResult", queryString).states(null, state(queryResult.queryState)).counts(length(queryResult.items), 0, 0);
+        try {
+            cache.addQueryResult(queryString, queryResult);
+        } catch (final Exception e) {
+            event.commit(e.getClass().getSimpleName());
+            throw e;
+        }
+        event.commit(null);
+    }
+
+    @Override
+    public void updateQueryResults(String query, QueryUpdate<Email, QueryResultItem> update, TypedState<Email> emailState) throws CacheWriteException, CacheConflictException {
+        final CacheWriteEvent event = muaEvents.beginCacheWrite("updateQueryResults", query)
+                .states(state(update.getOldTypedState()), state(update.getNewTypedState()))
+                .counts(update.getAdded() == null ? 0 : update.getAdded().size(), 0, length(update.getRemoved()));
+        try {
+            cache.updateQueryResults(query, update, emailState);
+        } catch (final Exception e) {
+            event.commit(e.getClass().getSimpleName());
+            throw e;
+        }
+        event.commit(null);
+    }
+
+    @Override
+    public Missing getMissing(String query) throws CacheReadException {
+        return cache.getMissing(query);
+    }
+}
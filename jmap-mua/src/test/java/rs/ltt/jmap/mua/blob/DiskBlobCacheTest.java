@@ -0,0 +1,143 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package rs.ltt.jmap.mua.blob;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class DiskBlobCacheTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File file(final String content) throws IOException {
+        final File file = temporaryFolder.newFile();
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private static String content(final ByteBuffer byteBuffer) {
+        if (byteBuffer == null) {
+            return null;
+        }
+        final byte[] bytes = new byte[byteBuffer.remaining()];
+        byteBuffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static String repeat(final char c, final int count) {
+        final StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < count; ++i) {
+            builder.append(c);
+        }
+        return builder.toString();
+    }
+
+    @Test
+    public void leastRecentlyReadIsEvicted() throws IOException {
+        final DiskBlobCache cache = new DiskBlobCache(temporaryFolder.newFolder(), 100);
+        cache.put("A1", "a", file(repeat('a', 40)));
+        cache.put("A1", "b", file(repeat('b', 40)));
+        Assert.assertNotNull(cache.get("A1", "a"));
+        cache.put("A1", "c", file(repeat('c', 40)));
+        Assert.assertNull(cache.get("A1", "b"));
+        Assert.assertEquals(repeat('a', 40), content(cache.get("A1", "a")));
+        Assert.assertEquals(repeat('c', 40), content(cache.get("A1", "c")));
+        Assert.assertEquals(80, cache.getSize());
+    }
+
+    @Test
+    public void indexIsReloaded() throws IOException {
+        final File directory = temporaryFolder.newFolder();
+        final DiskBlobCache cache = new DiskBlobCache(directory, 100);
+        cache.put("A1", "a", file(repeat('a', 40)));
+        cache.put("A1", "b", file(repeat('b', 40)));
+        cache.put("A1", "c", file(repeat('c', 40)));
+        cache.put("A1", "b2", file(repeat('b', 40)));
+
+        //reads the appended entries
+        final DiskBlobCache reloaded = new DiskBlobCache(directory, 100);
+        Assert.assertNull(reloaded.get("A1", "a"));
+        Assert.assertEquals(repeat('b', 40), content(reloaded.get("A1", "b")));
+        Assert.assertEquals(repeat('b', 40), content(reloaded.get("A1", "b2")));
+        Assert.assertEquals(repeat('c', 40), content(reloaded.get("A1", "c")));
+        Assert.assertEquals(80, reloaded.getSize());
+        Assert.assertEquals(2, new File(directory, "objects").list().length);
+
+        //the persisted order of access decides what is evicted after a restart
+        reloaded.get("A1", "b");
+        reloaded.flush();
+        final DiskBlobCache flushed = new DiskBlobCache(directory, 100);
+        flushed.put("A1", "d", file(repeat('d', 40)));
+        Assert.assertNull(flushed.get("A1", "c"));
+        Assert.assertNotNull(flushed.get("A1", "b"));
+    }
+
+    @Test
+    public void identicalContentIsStoredOnce() throws IOException {
+        final File directory = temporaryFolder.newFolder();
+        final DiskBlobCache cache = new DiskBlobCache(directory, 100);
+        cache.put("A1", "b1", file("hello"));
+        cache.put("A2", "b2", file("hello"));
+        Assert.assertEquals(5, cache.getSize());
+        Assert.assertEquals(1, new File(directory, "objects").list().length);
+        Assert.assertEquals("hello", content(cache.get("A1", "b1")));
+        Assert.assertEquals("hello", content(cache.get("A2", "b2")));
+    }
+
+    @Test
+    public void concurrentCallersShareDownload() throws Exception {
+        final DiskBlobCache cache = new DiskBlobCache(temporaryFolder.newFolder(), 100);
+        final AtomicInteger downloads = new AtomicInteger();
+        final SettableFuture<Void> download = SettableFuture.create();
+        final FileChannel[] target = new FileChannel[1];
+        final DiskBlobCache.Downloader downloader = new DiskBlobCache.Downloader() {
+            @Override
+            public ListenableFuture<?> download(FileChannel fileChannel) {
+                downloads.incrementAndGet();
+                target[0] = fileChannel;
+                return download;
+            }
+        };
+        final ListenableFuture<ByteBuffer> first = cache.get("A1", "b", downloader);
+        final ListenableFuture<ByteBuffer> second = cache.get("A1", "b", downloader);
+        Assert.assertEquals(1, downloads.get());
+        Assert.assertFalse(first.isDone());
+        target[0].write(ByteBuffer.wrap("blob".getBytes(StandardCharsets.UTF_8)));
+        download.set(null);
+        Assert.assertEquals("blob", content(first.get(5, TimeUnit.SECONDS)));
+        Assert.assertEquals("blob", content(second.get(5, TimeUnit.SECONDS)));
+
+        //the blob is cached now
+        Assert.assertEquals("blob", content(cache.get("A1", "b", downloader).get()));
+        Assert.assertEquals(1, downloads.get());
+    }
+}
@@ -33,14 +33,17 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import rs.ltt.cli.cache.MyInMemoryCache;
 import rs.ltt.cli.model.QueryViewItem;
+import rs.ltt.jmap.client.api.EndpointNotFoundException;
 import rs.ltt.jmap.client.api.MethodErrorResponseException;
 import rs.ltt.jmap.client.api.UnauthorizedException;
+import rs.ltt.jmap.client.event.EventSource;
 import rs.ltt.jmap.common.entity.*;
 import rs.ltt.jmap.common.entity.filter.EmailFilterCondition;
 import rs.ltt.jmap.common.entity.query.EmailQuery;
 import rs.ltt.jmap.mua.Mua;
 import rs.ltt.jmap.mua.SetEmailException;
 import rs.ltt.jmap.mua.Status;
+import rs.ltt.jmap.mua.SubscriptionListener;
 import rs.ltt.jmap.mua.util.MailboxUtil;
 
 import java.io.IOException;
@@ -48,6 +51,7 @@ import java.lang.Thread;
 import java.text.SimpleDateFormat;
 import java.util.*;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
 
 public class Main {
 
@@ -68,6 +72,8 @@ public class Main {
 
     private static EmailQuery currentQuery;
 
+    private static volatile EventSource eventSource;
+
     public static void main(String... args) {
         if (args.length != 2) {
             System.err.println("java -jar lttrs-cli.jar username password");
@@ -115,22 +121,53 @@ public class Main {
                         loadingMessage(screen, "Inbox not found");
                         return;
                     }
+                    currentQuery = EmailQuery.of(EmailFilterCondition.builder().inMailbox(inbox.getId()).build(), true);
+                    final Semaphore updates = new Semaphore(0);
+                    try {
+                        eventSource = mua.subscribe(Collections.singletonList(currentQuery), new SubscriptionListener() {
+                            @Override
+                            public void onUpdate(Status status) {
+                                if (status != Status.UNCHANGED) {
+                                    updates.release();
+                                }
+                            }
+
+                            @Override
+                            public void onError(Throwable throwable) {
+                                LOGGER.warn("Unable to process state change", throwable);
+                            }
+                        }).get();
+                    } catch (ExecutionException e) {
+                        final Throwable cause = e.getCause();
+                        if (!(cause instanceof EndpointNotFoundException)) {
+                            LOGGER.warn("Unable to subscribe to state changes. Falling back to polling", cause);
+                        }
+                        //server does not support push; fall back to polling
+                        eventSource = null;
+                    } catch (InterruptedException e) {
+                        return;
+                    }
                     while (running) {
                         try {
-                            currentQuery = EmailQuery.of(EmailFilterCondition.builder().inMailbox(inbox.getId()).build(), true);
                             if (items == null) {
                                 loadingMessage(screen, "Loading messages from inbox…");
                             }
-                            Status status = mua.query(currentQuery).get();
-                            if (status != Status.UNCHANGED) {
+                            final boolean changed;
+                            if (eventSource == null) {
+                                changed = mua.query(currentQuery).get() != Status.UNCHANGED;
+                            } else {
+                                updates.acquire();
+                                changed = true;
+                            }
+                            if (changed) {
                                 items = myInMemoryCache.getQueryViewItems(currentQuery.toQueryString());
                                 redrawCurrentList(screen);
                             }
-                            try {
+                            if (eventSource == null) {
                                 Thread.sleep(5000);
-                            } catch (InterruptedException e) {
-                                //goodbye
                             }
+                        } catch (InterruptedException e) {
+                            //goodbye
                         } catch (Exception e) {
                             e.printStackTrace();
                         }
@@ -241,6 +278,9 @@ public class Main {
     private static void exit(Mua mua, TerminalScreen screen, Thread refreshThread) throws IOException {
         screen.stopScreen();
         running = false;
+        if (eventSource != null) {
+            eventSource.close();
+        }
         refreshThread.interrupt();
         mua.shutdown();
     }